@@ -0,0 +1,60 @@
+package ib053.core;
+
+import ib053.core.activities.LocationActivity;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of going through the enabled actions of an activity, as frontends do after each activity change.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ActionsBenchmark {
+
+    private BenchmarkWorld world;
+    private Collection<Action> actions;
+    private final ArrayList<Action> copy = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        world = new BenchmarkWorld();
+        final Player player = world.core.createNewPlayer("Benchmark");
+        world.core.initNewPlayer(player);
+        // Village has the most actions
+        world.core.changePlayerActivity(player, LocationActivity.class, world.core.getLocation(1));
+        actions = player.getActivity().getActions();
+    }
+
+    @TearDown
+    public void tearDown() {
+        world.dispose();
+    }
+
+    @Benchmark
+    public void iterate(Blackhole blackhole) {
+        for (Action action : actions) {
+            blackhole.consume(action);
+        }
+    }
+
+    @Benchmark
+    public int size() {
+        return actions.size();
+    }
+
+    /** What {@code CliFrontend} does to rebuild its list of actions */
+    @Benchmark
+    public ArrayList<Action> copy() {
+        copy.clear();
+        copy.addAll(actions);
+        return copy;
+    }
+}
@@ -0,0 +1,92 @@
+package ib053.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Runs a {@link GameCore} with the bundled world and empty state in temporary folders, for benchmarks.
+ *
+ * The bundled world has only weapons, so an item of every other equippable type is added, see {@link #equipFully(Player)}.
+ */
+public final class BenchmarkWorld {
+
+    private static final String[] WORLD_FILES = {"locations.json", "items.json", "enemies.json"};
+    /** Id of the first added item, others follow in the order of {@link Item.ItemType} */
+    private static final long FIRST_ADDED_ITEM_ID = 1000;
+
+    public final File resources;
+    public final File state;
+    public final GameCore core;
+
+    /** Starts the core with no frontends and no journal. */
+    public BenchmarkWorld() {
+        this(new GameCore.Settings());
+    }
+
+    /** Starts the core with no frontends, no journal and otherwise given settings. */
+    public BenchmarkWorld(GameCore.Settings settings) {
+        try {
+            resources = Files.createTempDirectory("ib053-resources").toFile();
+            for (String worldFile : WORLD_FILES) {
+                try (InputStream in = GameCore.class.getResourceAsStream("/" + worldFile)) {
+                    Files.copy(in, new File(resources, worldFile).toPath());
+                }
+            }
+            addEquipment(new File(resources, "items.json"));
+            state = Files.createTempDirectory("ib053-state").toFile();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        settings.journal = false;
+        core = new GameCore(resources, state, settings);
+    }
+
+    /** Adds an item of each equippable type other than weapon into the items file. */
+    private static void addEquipment(File itemsFile) throws IOException {
+        final String items = new String(Files.readAllBytes(itemsFile.toPath()), StandardCharsets.UTF_8);
+        final StringBuilder sb = new StringBuilder(items.substring(0, items.lastIndexOf(']')));
+        for (Item.ItemType type : Item.ItemType.values()) {
+            if (!type.canEquip || type == Item.ItemType.WEAPON) continue;
+            sb.append(",{\"id\":").append(FIRST_ADDED_ITEM_ID + type.ordinal())
+                    .append(",\"type\":\"").append(type.name())
+                    .append("\",\"name\":\"Benchmark ").append(type.name)
+                    .append("\",\"attributes\":{\"STR\":1,\"DEX\":1,\"AGI\":1,\"LUCK\":1,\"ARMOR\":1}}");
+        }
+        sb.append(']');
+        Files.write(itemsFile.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Give the player a weapon and an item of every other equippable type. */
+    public void equipFully(Player player) {
+        player.setEquipment(core.getItem(3));
+        for (Item.ItemType type : Item.ItemType.values()) {
+            if (!type.canEquip || type == Item.ItemType.WEAPON) continue;
+            player.setEquipment(core.getItem(FIRST_ADDED_ITEM_ID + type.ordinal()));
+        }
+    }
+
+    /** Shuts the core down and deletes its folders. */
+    public void dispose() {
+        core.shutdown();
+        delete(state);
+        delete(resources);
+    }
+
+    /** Delete the directory with everything in it */
+    static void delete(File directory) {
+        try (Stream<Path> files = Files.walk(directory.toPath())) {
+            //noinspection ResultOfMethodCallIgnored
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
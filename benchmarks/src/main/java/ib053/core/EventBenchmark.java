@@ -0,0 +1,50 @@
+package ib053.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of creating the event of an enemy attack, as a concatenated message and as a {@link Event.Template} with arguments,
+ * and of rendering the templated message for frontends which show text.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventBenchmark {
+
+    private static final Event.Template ENEMY_HITS = Event.Template.of("{enemy} attacks for {0}!");
+
+    private BenchmarkWorld world;
+    private Enemy enemy;
+    private int damage = 3;
+
+    @Setup
+    public void setUp() {
+        world = new BenchmarkWorld();
+        enemy = world.core.getEnemy(1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        world.dispose();
+    }
+
+    @Benchmark
+    public Event concatenated() {
+        return new Event(enemy.name+" attacks for "+damage+"!");
+    }
+
+    @Benchmark
+    public Event templated() {
+        return new Event(ENEMY_HITS, enemy, damage);
+    }
+
+    @Benchmark
+    public String templatedAndRendered() {
+        return new Event(ENEMY_HITS, enemy, damage).getMessage();
+    }
+}
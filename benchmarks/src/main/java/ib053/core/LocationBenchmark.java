@@ -0,0 +1,64 @@
+package ib053.core;
+
+import com.esotericsoftware.jsonbeans.JsonReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of choosing an enemy in a location, {@link Location#selectEnemyToFight()}
+ * and {@link Location#selectEnemyToFightOnEntry()}.
+ *
+ * Runs on the bundled forest and on made up locations with more enemies,
+ * where every eighth enemy may appear on entry.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LocationBenchmark {
+
+    /** "forest" for the bundled location, or amount of enemies of a made up location */
+    @Param({"forest", "32", "512"})
+    public String enemies;
+
+    private BenchmarkWorld world;
+    private Location location;
+
+    @Setup
+    public void setUp() {
+        world = new BenchmarkWorld();
+        if (enemies.equals("forest")) {
+            location = world.core.getLocation(2);
+        } else {
+            final int count = Integer.parseInt(enemies);
+            final Random random = new Random(count);
+            final StringBuilder json = new StringBuilder("{\"id\":1000,\"name\":\"Benchmark\",\"directions\":{},\"enemies\":{");
+            for (int i = 0; i < count; i++) {
+                if (i != 0) json.append(',');
+                final float rarity = i % 8 == 0 ? 1f + random.nextFloat() * 0.1f : 0.1f + random.nextFloat() * 0.9f;
+                json.append('"').append(i + 1).append("\":").append(rarity);
+            }
+            json.append("}}");
+            location = Location.read(new JsonReader().parse(json.toString()));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        world.dispose();
+    }
+
+    @Benchmark
+    public long selectEnemyToFight() {
+        return location.selectEnemyToFight();
+    }
+
+    @Benchmark
+    public long selectEnemyToFightOnEntry() {
+        return location.selectEnemyToFightOnEntry();
+    }
+}
@@ -0,0 +1,70 @@
+package ib053.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the attribute reads of one {@code CombatRules.resolveAttack}, from a fully equipped player.
+ *
+ * {@link #cached()} reads through {@link Player#get(Attribute)}, {@link #recombined()} combines base
+ * and equipment attributes on every read, as {@link Player} used to. Run with -prof gc to see the allocation.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PlayerAttributesBenchmark {
+
+    private static final Attribute[] ATTACK_ATTRIBUTES = {
+            Attribute.DEXTERITY, Attribute.LUCK, Attribute.DAMAGE,
+            Attribute.DAMAGE_SPREAD, Attribute.STRENGTH, Attribute.AGILITY
+    };
+
+    private BenchmarkWorld world;
+    private Player player;
+    private Item[] equipment;
+
+    @Setup
+    public void setUp() {
+        world = new BenchmarkWorld();
+        player = world.core.createNewPlayer("Benchmark");
+        world.equipFully(player);
+        final ArrayList<Item> equipped = new ArrayList<>();
+        for (Item.ItemType type : Item.ItemType.values()) {
+            final Item item = player.getEquipment(type);
+            if (item != null) equipped.add(item);
+        }
+        equipment = equipped.toArray(new Item[0]);
+    }
+
+    @TearDown
+    public void tearDown() {
+        world.dispose();
+    }
+
+    @Benchmark
+    public int cached() {
+        int sum = 0;
+        for (Attribute attribute : ATTACK_ATTRIBUTES) {
+            sum += player.get(attribute);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int recombined() {
+        int sum = 0;
+        for (Attribute attribute : ATTACK_ATTRIBUTES) {
+            final Attributes combined = Attributes.combinationOf(player.attributes);
+            for (Item item : equipment) {
+                combined.and(item.attributes);
+            }
+            sum += combined.get(attribute);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,51 @@
+package ib053.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates a million players in an empty game, through {@link GameCore#createNewPlayers(java.util.Collection)}.
+ *
+ * Name uniqueness check and id allocation used to scan all players, which made this quadratic.
+ * (Creating them one by one costs the same, but logs every player.)
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PlayerCreationBenchmark {
+
+    @Param({"1000000"})
+    public int players;
+
+    private List<String> names;
+    private BenchmarkWorld world;
+
+    @Setup(Level.Trial)
+    public void setUpNames() {
+        names = new ArrayList<>(players);
+        for (int i = 0; i < players; i++) {
+            names.add("Player " + i);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpWorld() {
+        world = new BenchmarkWorld();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownWorld() {
+        world.dispose();
+    }
+
+    @Benchmark
+    public List<Player> createInBulk() {
+        return world.core.createNewPlayers(names);
+    }
+}
@@ -0,0 +1,68 @@
+package ib053.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk scan over all players, counting players at each level, as for analytics:
+ * through the {@link Player} objects, and over the pages of {@link PlayerColumns}.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PlayerScanBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int players;
+
+    private BenchmarkWorld world;
+    private List<Player> created;
+
+    @Setup
+    public void setUp() {
+        world = new BenchmarkWorld();
+
+        final List<String> names = new ArrayList<>(players);
+        for (int i = 0; i < players; i++) {
+            names.add("Player " + i);
+        }
+        created = world.core.createNewPlayers(names);
+        for (int i = 0; i < created.size(); i += 7) {
+            created.get(i).attributes.add(Attribute.LEVEL, i % 30);
+        }
+        // Players in a long running game are created in a different order than they are iterated in
+        Collections.shuffle(created, new Random(1));
+    }
+
+    @TearDown
+    public void tearDown() {
+        world.dispose();
+    }
+
+    @Benchmark
+    public int[] levelsOfPlayers() {
+        int[] counts = new int[16];
+        for (Player player : created) {
+            final int level = player.get(Attribute.LEVEL);
+            if (level >= counts.length) {
+                counts = Arrays.copyOf(counts, Math.max(counts.length * 2, level + 1));
+            }
+            counts[level]++;
+        }
+        return counts;
+    }
+
+    @Benchmark
+    public int[] levelsOfColumns() {
+        return world.core.playerColumns.countLevels();
+    }
+}
@@ -0,0 +1,53 @@
+package ib053.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link RandomUtil} helpers, compared to one shared {@link Random}, which they used before.
+ * Contended variants run on four threads at once, as event loop shards would.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RandomBenchmark {
+
+    private static final Random SHARED = new Random();
+
+    @Benchmark
+    public boolean sharedCheck() {
+        return 0.5f > SHARED.nextFloat();
+    }
+
+    @Benchmark
+    public boolean streamCheck() {
+        return RandomUtil.check(0.5f);
+    }
+
+    @Benchmark
+    public double sharedGaussian() {
+        return SHARED.nextGaussian();
+    }
+
+    @Benchmark
+    public double streamGaussian() {
+        return RandomUtil.gaussian();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean sharedCheckContended() {
+        return 0.5f > SHARED.nextFloat();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean streamCheckContended() {
+        return RandomUtil.check(0.5f);
+    }
+}
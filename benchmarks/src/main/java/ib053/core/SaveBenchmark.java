@@ -0,0 +1,53 @@
+package ib053.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving all players, as on shutdown, through {@link PersistenceUtil#saveJsonSecurely}
+ * or {@link PersistenceUtil#saveBinarySecurely}, including the checksum verification and the atomic move.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SaveBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int players;
+
+    @Param({"JSON", "BINARY"})
+    public GameCore.Settings.SnapshotFormat format;
+
+    private BenchmarkWorld world;
+
+    @Setup
+    public void setUp() {
+        final GameCore.Settings settings = new GameCore.Settings();
+        settings.snapshotFormat = format;
+        world = new BenchmarkWorld(settings);
+
+        final List<String> names = new ArrayList<>(players);
+        for (int i = 0; i < players; i++) {
+            names.add("Player " + i);
+        }
+        for (Player player : world.core.createNewPlayers(names)) {
+            world.core.initNewPlayer(player);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        world.dispose();
+    }
+
+    @Benchmark
+    public Object save() throws PersistenceUtil.PersistenceException {
+        return world.core.savePlayers();
+    }
+}
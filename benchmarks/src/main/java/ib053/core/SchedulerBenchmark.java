@@ -0,0 +1,93 @@
+package ib053.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares delayed task backends of the {@link EventLoop} under the load of many concurrent fights.
+ *
+ * Each of {@link #combatTimers} timers reschedules itself one second later, like {@code FightingActivity.nextTurn()}.
+ * Benchmarks measure how the cost of keeping those timers affects the shard.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SchedulerBenchmark {
+
+    @Param({"EXECUTOR", "TIMING_WHEEL"})
+    public GameCore.Settings.Scheduler scheduler;
+
+    @Param({"10000", "100000", "300000"})
+    public int combatTimers;
+
+    private EventLoop eventLoop;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final GameCore.Settings settings = new GameCore.Settings();
+        settings.scheduler = scheduler;
+        eventLoop = new EventLoop(settings, owner -> {});
+
+        final SplittableRandom random = new SplittableRandom(0);
+        for (int i = 0; i < combatTimers; i++) {
+            eventLoop.schedule(new CombatTimer(), random.nextInt(1000), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        eventLoop.shutdownNow();
+    }
+
+    /** Time until a task posted from outside (player's action) runs, while the shard handles the fights. */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void actionLag() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        eventLoop.schedule(done::countDown, 0, TimeUnit.NANOSECONDS);
+        done.await();
+    }
+
+    /** Cost of scheduling one combat turn from the shard's own thread, like a fight does. */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @OperationsPerInvocation(ScheduleTurns.TURNS)
+    public void scheduleTurn() throws InterruptedException {
+        final ScheduleTurns scheduleTurns = new ScheduleTurns(eventLoop);
+        eventLoop.schedule(scheduleTurns, 0, TimeUnit.NANOSECONDS);
+        scheduleTurns.done.await();
+    }
+
+    private final class CombatTimer implements Runnable {
+        @Override
+        public void run() {
+            eventLoop.schedule(this, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    private static final class ScheduleTurns implements Runnable {
+        static final int TURNS = 1000;
+        private static final Runnable NOTHING = () -> {};
+
+        final CountDownLatch done = new CountDownLatch(1);
+        private final EventLoop eventLoop;
+
+        ScheduleTurns(EventLoop eventLoop) {
+            this.eventLoop = eventLoop;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < TURNS; i++) {
+                eventLoop.schedule(NOTHING, 1, TimeUnit.SECONDS);
+            }
+            done.countDown();
+        }
+    }
+}
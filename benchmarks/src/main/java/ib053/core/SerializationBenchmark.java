@@ -0,0 +1,114 @@
+package ib053.core;
+
+import com.esotericsoftware.jsonbeans.Json;
+import com.esotericsoftware.jsonbeans.JsonReader;
+import com.esotericsoftware.jsonbeans.JsonValue;
+import com.esotericsoftware.jsonbeans.OutputType;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of writing and reading {@link Attributes} and {@link Player}s, in JSON and in the binary snapshot format.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializationBenchmark {
+
+    private BenchmarkWorld world;
+    private Player player;
+    private Attribute[] columns;
+    private Event.Template[] eventTemplates;
+
+    private JsonValue attributesJson;
+    private byte[] attributesBinary;
+
+    @Setup
+    public void setUp() {
+        world = new BenchmarkWorld();
+        player = world.core.createNewPlayer("Benchmark");
+        world.core.initNewPlayer(player);
+        world.equipFully(player);
+        player.attributes.set(Attribute.STRENGTH, 12);
+        player.attributes.set(Attribute.LUCK, 7);
+
+        final SnapshotOutput columnsOut = SnapshotOutput.inMemory();
+        Attributes.writeColumns(columnsOut);
+        EventHistory.writeTemplates(columnsOut);
+        final SnapshotInput columnsIn = new SnapshotInput(columnsOut.contents());
+        columns = Attributes.readColumns(columnsIn);
+        eventTemplates = EventHistory.readTemplates(columnsIn);
+
+        attributesJson = new JsonReader().parse(attributesToJson());
+        final SnapshotOutput out = SnapshotOutput.inMemory();
+        Attributes.write(out, player.attributes);
+        attributesBinary = toArray(out);
+    }
+
+    @TearDown
+    public void tearDown() {
+        world.dispose();
+    }
+
+    private static byte[] toArray(SnapshotOutput out) {
+        final ByteBuffer contents = out.contents();
+        final byte[] bytes = new byte[contents.remaining()];
+        contents.get(bytes);
+        return bytes;
+    }
+
+    private static Json json(StringWriter writer) {
+        final Json json = new Json(OutputType.json);
+        json.setWriter(writer);
+        return json;
+    }
+
+    @Benchmark
+    public String attributesToJson() {
+        final StringWriter writer = new StringWriter();
+        Attributes.write(json(writer), null, player.attributes);
+        return writer.toString();
+    }
+
+    @Benchmark
+    public Attributes attributesFromJson() {
+        return Attributes.read(attributesJson, true);
+    }
+
+    @Benchmark
+    public SnapshotOutput attributesToBinary() {
+        final SnapshotOutput out = SnapshotOutput.inMemory();
+        Attributes.write(out, player.attributes);
+        return out;
+    }
+
+    @Benchmark
+    public Attributes attributesFromBinary() {
+        return Attributes.read(new SnapshotInput(ByteBuffer.wrap(attributesBinary)), columns, true);
+    }
+
+    @Benchmark
+    public Player playerJsonRoundTrip() throws Exception {
+        final StringWriter writer = new StringWriter();
+        Player.write(json(writer), player);
+        final Player read = Player.read(new JsonReader().parse(writer.toString()), world.core);
+        read.freeSlot();
+        return read;
+    }
+
+    @Benchmark
+    public Player playerBinaryRoundTrip() {
+        final SnapshotOutput out = SnapshotOutput.inMemory();
+        Player.write(out, player);
+        final Player read = Player.read(new SnapshotInput(out.contents()), columns, eventTemplates, world.core);
+        // Read players are not kept, their slots are reused
+        read.freeSlot();
+        return read;
+    }
+}
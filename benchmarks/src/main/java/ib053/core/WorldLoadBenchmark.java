@@ -0,0 +1,97 @@
+package ib053.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a generated world with as many items as locations and a thousand enemies:
+ * parsing the JSON files, and reading the compiled image, see {@link World#compile(File)}.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WorldLoadBenchmark {
+
+    @Param({"10000", "100000"})
+    public int locations;
+
+    private File resources;
+    private StateLoader loader;
+
+    @Setup
+    public void setUp() throws Exception {
+        resources = Files.createTempDirectory("ib053-world").toFile();
+        generate(resources, locations, new Random(1));
+        World.compile(resources);
+        loader = new StateLoader();
+    }
+
+    private static void generate(File folder, int count, Random random) throws IOException {
+        final int enemies = 1000;
+        try (PrintWriter out = new PrintWriter(new File(folder, World.LOCATION_FILE_NAME), StandardCharsets.UTF_8.name())) {
+            out.print('[');
+            for (int i = 0; i < count; i++) {
+                if (i > 0) out.print(',');
+                out.print("{\"id\":"+i+",\"name\":\"Place "+i+"\",\"description\":\"Generated place number "+i+"\",\"graveyard\":"+(i / 10 * 10)+",\"directions\":{");
+                final int directions = 1 + random.nextInt(5);
+                for (int d = 0; d < directions; d++) {
+                    final int to = (i + d * 37 + 1) % count;
+                    if (d > 0) out.print(',');
+                    out.print("\"Path "+d+" towards place "+to+"\":"+to);
+                }
+                out.print("},\"enemies\":{");
+                final int enemyCount = random.nextInt(4);
+                for (int e = 0; e < enemyCount; e++) {
+                    if (e > 0) out.print(',');
+                    out.print("\""+(1 + random.nextInt(enemies))+"\":"+random.nextFloat() * 2);
+                }
+                out.print("}}");
+            }
+            out.print(']');
+        }
+        try (PrintWriter out = new PrintWriter(new File(folder, World.ITEM_FILE_NAME), StandardCharsets.UTF_8.name())) {
+            out.print('[');
+            for (int i = 1; i <= count; i++) {
+                if (i > 1) out.print(',');
+                final Item.ItemType type = Item.ItemType.VALUES[i % Item.ItemType.VALUES.length];
+                out.print("{\"id\":"+i+",\"type\":\""+type.name()+"\",\"name\":\"Item "+i+"\",\"value\":"+(i % 50)
+                        +",\"attributes\":{\"DMG\":"+(i % 7)+",\"STR\":"+(i % 3)+",\"ARMOR\":"+(i % 5)+"}}");
+            }
+            out.print(']');
+        }
+        try (PrintWriter out = new PrintWriter(new File(folder, World.ENEMY_FILE_NAME), StandardCharsets.UTF_8.name())) {
+            out.print('[');
+            for (int i = 1; i <= enemies; i++) {
+                if (i > 1) out.print(',');
+                out.print("{\"id\":"+i+",\"name\":\"Enemy "+i+"\",\"description\":\"Generated enemy\",\"attributes\":{\"LVL\":"+(i % 10)+",\"STR\":2,\"DMG\":3}}");
+            }
+            out.print(']');
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        loader.close();
+        BenchmarkWorld.delete(resources);
+    }
+
+    @Benchmark
+    public World json() {
+        return World.loadJson(loader, resources, null);
+    }
+
+    @Benchmark
+    public World image() {
+        return World.loadImage(new File(resources, World.IMAGE_FILE_NAME), resources, null);
+    }
+}
@@ -0,0 +1,47 @@
+package ib053.core.activities;
+
+import ib053.core.BenchmarkWorld;
+import ib053.core.Enemy;
+import ib053.core.Player;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link CombatRules#resolveAttack}, in both directions between a fully equipped player and an enemy.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FightingBenchmark {
+
+    private BenchmarkWorld world;
+    private Player player;
+    private Enemy enemy;
+
+    @Setup
+    public void setUp() {
+        world = new BenchmarkWorld();
+        player = world.core.createNewPlayer("Benchmark");
+        world.equipFully(player);
+        enemy = world.core.getEnemy(1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        world.dispose();
+    }
+
+    @Benchmark
+    public int playerAttacks() {
+        return CombatRules.resolveAttack(player, enemy);
+    }
+
+    @Benchmark
+    public int enemyAttacks() {
+        return CombatRules.resolveAttack(enemy, player);
+    }
+}
@@ -1,11 +1,23 @@
 package ib053;
 
 import ib053.core.GameCore;
+import ib053.frontend.Frontend;
 import ib053.frontend.cli.CliFrontend;
+import ib053.frontend.websocket.WebSocketFrontend;
+import ib053.metrics.MetricsExporter;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Entry point for the server.
@@ -29,9 +41,108 @@ public class ServerMain {
             }
         }
 
-        new GameCore(
+        final GameCore.Settings settings = new GameCore.Settings();
+        settings.shards = Integer.parseInt(ARGS.getOrDefault("shards", Integer.toString(settings.shards)));
+        if (ARGS.containsKey("scheduler")) {
+            settings.scheduler = GameCore.Settings.Scheduler.valueOf(ARGS.get("scheduler").toUpperCase().replace('-', '_'));
+        }
+        settings.timerTickMillis = Integer.parseInt(ARGS.getOrDefault("timer-tick", Integer.toString(settings.timerTickMillis)));
+        settings.journal = Boolean.parseBoolean(ARGS.getOrDefault("journal", Boolean.toString(settings.journal)));
+        settings.journalCommitMillis = Integer.parseInt(ARGS.getOrDefault("journal-commit", Integer.toString(settings.journalCommitMillis)));
+        settings.snapshotJournalBytes = Long.parseLong(ARGS.getOrDefault("snapshot-journal-mb", Long.toString(settings.snapshotJournalBytes >> 20))) << 20;
+        settings.snapshotIntervalSeconds = Integer.parseInt(ARGS.getOrDefault("snapshot-interval", Integer.toString(settings.snapshotIntervalSeconds)));
+        if (ARGS.containsKey("seed")) {
+            settings.randomSeed = Long.parseLong(ARGS.get("seed"));
+        }
+        settings.hibernateAfterSeconds = Integer.parseInt(ARGS.getOrDefault("hibernate-after", Integer.toString(settings.hibernateAfterSeconds)));
+        settings.maxResidentPlayers = Integer.parseInt(ARGS.getOrDefault("max-resident", Integer.toString(settings.maxResidentPlayers)));
+        settings.maxResidentBytes = Long.parseLong(ARGS.getOrDefault("max-resident-mb", "0")) << 20;
+        if (ARGS.containsKey("snapshot")) {
+            settings.snapshotFormat = GameCore.Settings.SnapshotFormat.valueOf(ARGS.get("snapshot").toUpperCase());
+        }
+
+        final List<Frontend> frontends = new ArrayList<>();
+        final boolean cli = Boolean.parseBoolean(ARGS.getOrDefault("cli", "true"));
+        if (cli) {
+            frontends.add(new CliFrontend());
+        }
+        WebSocketFrontend webSocketFrontend = null;
+        if (ARGS.containsKey("websocket")) {
+            final int port = Integer.parseInt(ARGS.get("websocket"));
+            final int threads = Integer.parseInt(ARGS.getOrDefault("websocket-threads", "2"));
+            webSocketFrontend = new WebSocketFrontend(new InetSocketAddress(port), threads);
+            frontends.add(webSocketFrontend);
+        }
+
+        final GameCore core = new GameCore(
                 new File(ARGS.getOrDefault("resources", "resources")),
                 new File(ARGS.getOrDefault("state", "state")),
-                new CliFrontend());
+                settings,
+                frontends.toArray(new Frontend[0]));
+        if (!core.isLoaded()) {
+            System.err.println("Failed to load the game state, see the log");
+            core.shutdown();
+            System.exit(1);
+            return;
+        }
+
+        final MetricsExporter metrics = new MetricsExporter(core.getMetrics());
+        if (Boolean.parseBoolean(ARGS.getOrDefault("jmx", "true"))) {
+            metrics.registerMBean();
+        }
+        if (ARGS.containsKey("metrics")) {
+            // port alone binds to loopback, host:port to the given address
+            final String address = ARGS.get("metrics");
+            final int portSplit = address.lastIndexOf(':');
+            final InetSocketAddress socketAddress = portSplit == -1
+                    ? new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address))
+                    : new InetSocketAddress(address.substring(0, portSplit), Integer.parseInt(address.substring(portSplit + 1)));
+            try {
+                metrics.serveHttp(socketAddress);
+            } catch (IOException e) {
+                System.err.println("Failed to serve metrics at "+socketAddress+": "+e);
+            }
+        }
+        if (ARGS.containsKey("metrics-file")) {
+            metrics.writeFile(new File(ARGS.get("metrics-file")),
+                    Long.parseLong(ARGS.getOrDefault("metrics-interval", "15")), TimeUnit.SECONDS);
+        }
+
+        if (!cli) {
+            // Nobody will type "quit", shut down with the process
+            final WebSocketFrontend stopWebSocket = webSocketFrontend;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                if (stopWebSocket != null) {
+                    stopWebSocket.shutdown();
+                }
+                core.shutdown();
+                metrics.close();
+            }, "Shutdown"));
+
+            // Standard input is free for commands of the operator
+            final Thread commands = new Thread(() -> readCommands(core), "Command Input Thread");
+            commands.setDaemon(true);
+            commands.start();
+        }
+    }
+
+    /** Perform commands typed into the standard input, until it ends. */
+    private static void readCommands(GameCore core) {
+        final BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        while (true) {
+            final String line;
+            try {
+                line = in.readLine();
+            } catch (IOException e) {
+                System.err.println("Failed to read commands: "+e);
+                return;
+            }
+            if (line == null) return;
+            if (line.trim().equalsIgnoreCase("reload")) {
+                core.reloadWorld();
+            } else if (!line.trim().isEmpty()) {
+                System.err.println("Unknown command: "+line.trim()+", known commands: reload");
+            }
+        }
     }
 }
@@ -1,5 +1,7 @@
 package ib053.core;
 
+import ib053.util.Histogram;
+
 /**
  * Represents a single action which the user can do.
  */
@@ -19,11 +21,15 @@ public final class Action {
     /** Display name of the action. */
     public final String name;
 
-    private boolean enabled = true;
+    /** Index of this action in its activity */
+    final int index;
 
     private final Perform perform;
+    /** Latency of {@link #perform(Player)} from {@link Metrics}, resolved on first perform */
+    private Histogram latency;
 
-    Action(ActivityBase activity, String key, String group, String name, Perform perform) {
+    Action(ActivityBase activity, int index, String key, String group, String name, Perform perform) {
+        this.index = index;
         this.perform = perform;
         assert activity != null;
         assert name != null;
@@ -35,12 +41,11 @@ public final class Action {
     }
 
     public boolean isEnabled() {
-        return enabled;
+        return activity.isActionEnabled(index);
     }
 
     public final void setEnabled(boolean enabled) {
-        if (this.enabled != enabled) {
-            this.enabled = enabled;
+        if (activity.setActionEnabled(index, enabled)) {
             if (activity.core != null) {
                 for (Player player : activity.engagedPlayers) {
                     activity.core.notifyPlayerActivityChanged(player);
@@ -56,7 +61,17 @@ public final class Action {
             return false;
         }
 
+        final long startNanos = System.nanoTime();
         perform.perform(player);
+        final long nanos = System.nanoTime() - startNanos;
+
+        Histogram latency = this.latency;
+        if (latency == null) {
+            final GameCore core = activity.core;
+            if (core == null) return true;
+            this.latency = latency = core.metrics.actionLatency(key);
+        }
+        latency.record(nanos);
         return true;
     }
 
@@ -12,7 +12,8 @@ import java.util.*;
  * Subclassed for each activity.
  * Each concrete subclass must be annotated with {@link Activity} and be implemented according to the ActivityType.
  *
- * Instances may implement {@link Serializable} if they wish to save any state.
+ * Instances may implement {@link Serializable} if they wish to save any state,
+ * or {@link BinarySerializable} to also have a compact form in binary snapshots.
  * No other way of serialization is possible.
  */
 public abstract class ActivityBase {
@@ -21,10 +22,14 @@ public abstract class ActivityBase {
      * May be changed only during initialization of activity through
      * {@link #action(String, String, Perform)} and {@link #action(String, String, String, Perform)}. */
     private final ArrayList<Action> actions = new ArrayList<>();
-    private final ActionsView actionsView = new ActionsView(actions);
+    /** Bit of each enabled action, at {@link Action#index} */
+    private final BitSet enabledActions = new BitSet();
+    private final ActionsView actionsView = new ActionsView(actions, enabledActions);
+    /** Incremented whenever an action is enabled or disabled */
+    private long actionsVersion = 0;
 
-    /** List of players engaged in this activity. Modifiable only through {@link GameCore#changePlayerActivity(Player, ActivityBase)} */
-    final List<Player> engagedPlayers = new ArrayList<>();
+    /** Players engaged in this activity. Modifiable only through {@link GameCore#changePlayerActivity(Player, ActivityBase)} */
+    final PlayerSet engagedPlayers = new PlayerSet(PlayerSet.Membership.ACTIVITY);
 
     /** Core to which this activity is initialized to. Null = not initialized. */
     GameCore core = null;
@@ -35,8 +40,9 @@ public abstract class ActivityBase {
 
     protected final Action action(String key, String group, String name, Perform perform) {
         if (core != null) throw new IllegalStateException("Activity is already initialized");
-        final Action action = new Action(this, key, group, name, perform);
+        final Action action = new Action(this, actions.size(), key, group, name, perform);
         actions.add(action);
+        enabledActions.set(action.index);
         return action;
     }
 
@@ -59,11 +65,43 @@ public abstract class ActivityBase {
     /** Called when player begins this activity. */
     public void beginActivity(Player player) {}
 
+    /** Called instead of {@link #beginActivity(Player)} when the player is put back into this activity after a crash,
+     * because the journal says that they began it at given wall clock time, after the last snapshot. */
+    public void resumeActivity(Player player, long beganMillis) {}
+
     /** @return Immutable view into currently enabled actions available to players engaged in this activity. */
     public final Collection<Action> getActions() {
         return actionsView;
     }
 
+    /** @return number which grows whenever the {@link #getActions()} change,
+     * frontends don't need to rebuild action lists of the same activity when this is unchanged */
+    public final long getActionsVersion() {
+        return actionsVersion;
+    }
+
+    final boolean isActionEnabled(int index) {
+        return enabledActions.get(index);
+    }
+
+    /** @return true if the action's state has changed */
+    final boolean setActionEnabled(int index, boolean enabled) {
+        if (enabledActions.get(index) == enabled) return false;
+        enabledActions.set(index, enabled);
+        actionsVersion++;
+        return true;
+    }
+
+    /** @return read-only view of players engaged in this activity, see {@link PlayerSet} */
+    public final Collection<Player> getEngagedPlayers() {
+        return engagedPlayers;
+    }
+
+    /** @return amount of players engaged in this activity */
+    public final int getEngagedPlayerCount() {
+        return engagedPlayers.size();
+    }
+
     /** Called when player asks for description of the action. */
     public abstract String getDescription(Player player);
 
@@ -77,37 +115,38 @@ public abstract class ActivityBase {
         void read(GameCore core, JsonValue json);
     }
 
+    /** Extends {@link Serializable} with binary snapshot format.
+     * Activities which implement only {@link Serializable} are stored in binary snapshots as JSON text. */
+    public interface BinarySerializable extends Serializable {
+        void write(SnapshotOutput out);
+        void read(GameCore core, SnapshotInput in);
+    }
+
     private final static class ActionsView implements Collection<Action> {
 
         private final ArrayList<Action> collection;
+        private final BitSet enabled;
 
-        private ActionsView(ArrayList<Action> collection) {
+        private ActionsView(ArrayList<Action> collection, BitSet enabled) {
             this.collection = collection;
+            this.enabled = enabled;
         }
 
         @Override
         public int size() {
-            final int baseSize = collection.size();
-            int realSize = 0;
-            //noinspection ForLoopReplaceableByForEach
-            for (int i = 0; i < baseSize; i++) {
-                if (collection.get(i).isEnabled()) {
-                    realSize++;
-                }
-            }
-            return realSize;
+            return enabled.cardinality();
         }
 
         @Override
         public boolean isEmpty() {
-            return size() == 0;
+            return enabled.isEmpty();
         }
 
         @Override
         public boolean contains(Object o) {
             if (o instanceof Action) {
                 final Action action = (Action) o;
-                return action.isEnabled() && collection.contains(action);
+                return action.index < collection.size() && collection.get(action.index) == action && enabled.get(action.index);
             }
             return false;
         }
@@ -116,33 +155,19 @@ public abstract class ActivityBase {
         public Iterator<Action> iterator() {
             return new Iterator<Action>() {
 
-                int nextPossible = 0;
-                boolean nextFound = false;
+                int next = enabled.nextSetBit(0);
 
                 @Override
                 public boolean hasNext() {
-                    if (nextFound) {
-                        return nextPossible != -1;
-                    }
-
-                    nextFound = true;
-                    for (;;) {
-                        if (nextPossible >= collection.size()) {
-                            nextPossible = -1;
-                            return false;
-                        }
-                        if (collection.get(nextPossible).isEnabled()) {
-                            return true;
-                        }
-                        nextPossible++;
-                    }
+                    return next != -1;
                 }
 
                 @Override
                 public Action next() {
-                    if (!hasNext()) throw new NoSuchElementException();
-                    nextFound = false;
-                    return collection.get(nextPossible++);
+                    if (next == -1) throw new NoSuchElementException();
+                    final Action action = collection.get(next);
+                    next = enabled.nextSetBit(next + 1);
+                    return action;
                 }
             };
         }
@@ -162,11 +187,8 @@ public abstract class ActivityBase {
                 actions = new Action[size];
             }
             int actionsI = 0;
-            for (int i = 0; i < collection.size() && actionsI < size; i++) {
-                final Action action = collection.get(i);
-                if (action.isEnabled()) {
-                    actions[actionsI++] = action;
-                }
+            for (int i = enabled.nextSetBit(0); i != -1 && actionsI < size; i = enabled.nextSetBit(i + 1)) {
+                actions[actionsI++] = collection.get(i);
             }
             //noinspection unchecked
             return (T[]) actions;
@@ -184,7 +206,7 @@ public abstract class ActivityBase {
 
         @Override
         public boolean containsAll(Collection<?> c) {
-            for (Action action : collection) {
+            for (Object action : c) {
                 if (!contains(action)) return false;
             }
             return true;
@@ -1,7 +1,10 @@
 package ib053.core;
 
+import com.esotericsoftware.jsonbeans.Json;
 import com.esotericsoftware.jsonbeans.JsonReader;
 import com.esotericsoftware.jsonbeans.JsonValue;
+import com.esotericsoftware.jsonbeans.OutputType;
+import com.koloboke.collect.map.LongObjCursor;
 import com.koloboke.collect.map.LongObjMap;
 import com.koloboke.collect.map.ObjObjMap;
 import com.koloboke.collect.map.hash.HashLongObjMaps;
@@ -12,18 +15,23 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.StringWriter;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
 
 /**
  * Used only in {@link GameCore} to hold instances of Activities.
+ *
+ * Methods called while the game is running are synchronized, because all event loop shards share one cache.
  */
 final class ActivityCache {
 
     private static final Logger LOG = LoggerFactory.getLogger(ActivityCache.class);
 
-    private final File activityFile;
     private final GameCore gameCore;
 
     /** Cache of which Activity implementation has which type (determined by its {@link Activity} annotation) */
@@ -35,12 +43,11 @@ final class ActivityCache {
     /** Contains all custom activities in which players are */
     private final ObjSet<ActivityBase> customActivities = HashObjSets.newMutableSet();
 
-    ActivityCache(File activityFile, GameCore gameCore) {
-        this.activityFile = activityFile;
+    ActivityCache(GameCore gameCore) {
         this.gameCore = gameCore;
     }
 
-    ActivityType getActivityType(Class<? extends ActivityBase> activityClass) {
+    synchronized ActivityType getActivityType(Class<? extends ActivityBase> activityClass) {
         final ActivityType result = activityTypes.get(activityClass);
         if (result != null) return result;
 
@@ -78,7 +85,7 @@ final class ActivityCache {
         }
     }
 
-    void ensureInitialized(ActivityBase activity) {
+    synchronized void ensureInitialized(ActivityBase activity) {
         if (activity.core == null) {
             activity.core = gameCore;
             activity.initialize();
@@ -87,7 +94,7 @@ final class ActivityCache {
         }
     }
 
-    ActivityBase getSingletonActivity(Class<? extends ActivityBase> activity) {
+    synchronized ActivityBase getSingletonActivity(Class<? extends ActivityBase> activity) {
         assert getActivityType(activity) == ActivityType.SINGLETON_ACTIVITY : activity+" is not a singleton activity";
 
         ActivityBase singleton = singletonActivities.get(activity);
@@ -108,7 +115,7 @@ final class ActivityCache {
         return locationMap;
     }
 
-    ActivityBase getLocationActivity(Class<? extends ActivityBase> activity, Location location) {
+    synchronized ActivityBase getLocationActivity(Class<? extends ActivityBase> activity, Location location) {
         assert getActivityType(activity) == ActivityType.PER_LOCATION_ACTIVITY : activity+" is not a location activity";
 
         final LongObjMap<ActivityBase> locationMap = getPerLocationActivityMap(activity);
@@ -123,7 +130,29 @@ final class ActivityCache {
         return instance;
     }
 
-    void refreshPossiblyCustomActivity(ActivityBase activity) {
+    /** Replace per-location activities which have players with new instances for the reloaded locations,
+     * the others are dropped and created again when needed. Locations of activities with players must still exist.
+     * @param move called with every player of a replaced activity and their new activity */
+    synchronized void reloadLocationActivities(LongObjMap<Location> locations, BiConsumer<Player, ActivityBase> move) {
+        for (Map.Entry<Class<? extends ActivityBase>, LongObjMap<ActivityBase>> entry : locationActivities.entrySet()) {
+            final LongObjCursor<ActivityBase> cursor = entry.getValue().cursor();
+            while (cursor.moveNext()) {
+                final ActivityBase oldInstance = cursor.value();
+                if (oldInstance.engagedPlayers.isEmpty()) {
+                    cursor.remove();
+                    continue;
+                }
+                final ActivityBase instance = instantiate(entry.getKey(), locations.get(cursor.key()));
+                ensureInitialized(instance);
+                cursor.setValue(instance);
+                for (Player player : oldInstance.engagedPlayers.toArray(new Player[0])) {
+                    move.accept(player, instance);
+                }
+            }
+        }
+    }
+
+    synchronized void refreshPossiblyCustomActivity(ActivityBase activity) {
         if (getActivityType(activity.getClass()) != ActivityType.CUSTOM_ACTIVITY) return;
         int engagedPlayerCount = activity.engagedPlayers.size();
         if (engagedPlayerCount == 0) {
@@ -135,6 +164,37 @@ final class ActivityCache {
         }
     }
 
+    /** Reports amount of players engaged in each activity class
+     * and amount of live custom activities of each class (for {@link ib053.core.activities.FightingActivity} that are fights). */
+    void collectMetrics(Metrics.Sink sink) {
+        final Map<String, Integer> players = new TreeMap<>();
+        final Map<String, Integer> custom = new TreeMap<>();
+        synchronized (this) {
+            for (ActivityBase activity : singletonActivities.values()) {
+                players.merge(activity.getClass().getSimpleName(), activity.engagedPlayers.size(), Integer::sum);
+            }
+            for (LongObjMap<ActivityBase> locationMap : locationActivities.values()) {
+                for (ActivityBase activity : locationMap.values()) {
+                    players.merge(activity.getClass().getSimpleName(), activity.engagedPlayers.size(), Integer::sum);
+                }
+            }
+            for (ActivityBase activity : customActivities) {
+                players.merge(activity.getClass().getSimpleName(), activity.engagedPlayers.size(), Integer::sum);
+                custom.merge(activity.getClass().getSimpleName(), 1, Integer::sum);
+            }
+        }
+
+        sink.family("ib053_players_in_activity", Metrics.Kind.GAUGE, "Players engaged in activities of the class", "activity");
+        for (Map.Entry<String, Integer> entry : players.entrySet()) {
+            sink.sample(entry.getKey(), entry.getValue());
+        }
+        sink.family("ib053_live_custom_activities", Metrics.Kind.GAUGE,
+                "Custom activities with players in them, FightingActivity are fights in progress", "activity");
+        for (Map.Entry<String, Integer> entry : custom.entrySet()) {
+            sink.sample(entry.getKey(), entry.getValue());
+        }
+    }
+
     private void loadEngagedPlayers(ActivityBase activity, JsonValue activityJson) {
         JsonValue engagedPlayersJson = activityJson.get("_engagedPlayers");
         if (engagedPlayersJson == null || engagedPlayersJson.size == 0) return;
@@ -145,12 +205,16 @@ final class ActivityCache {
                 LOG.warn("Not adding player {} to activity {}, because player does not exist", engagedPlayerIdJson, activity);
                 continue;
             }
-            activity.engagedPlayers.add(engagedPlayer);
+            if (engagedPlayer.currentActivity != null) {
+                LOG.warn("Not adding player {} to activity {}, because player already is in {}", engagedPlayer.getId(), activity, engagedPlayer.currentActivity);
+                continue;
+            }
+            activity.engagedPlayers.addPlayer(engagedPlayer);
             engagedPlayer.currentActivity = activity;
         }
     }
 
-    boolean load() {
+    boolean load(File activityFile) {
         if (!activityFile.exists()) {
             LOG.info("Not loading activity file {}, because it doesn't exist", activityFile);
             return true;
@@ -276,7 +340,8 @@ final class ActivityCache {
         }
     }
 
-    void save() {
+    /** @return true if saved successfully */
+    boolean save(File activityFile) {
         try {
             PersistenceUtil.saveJsonSecurely(activityFile, json -> {
                 json.writeObjectStart();
@@ -368,8 +433,277 @@ final class ActivityCache {
                 json.writeObjectEnd();
             });
             LOG.info("Activities saved");
+            return true;
+        } catch (PersistenceUtil.PersistenceException e) {
+            LOG.error("Failed to save activities", e);
+            return false;
+        }
+    }
+
+    private static final byte STATE_NONE = 0;
+    private static final byte STATE_BINARY = 1;
+    private static final byte STATE_JSON = 2;
+
+    private void writeBinaryEngagedPlayers(SnapshotOutput out, ActivityBase activity) {
+        out.writeInt(activity.engagedPlayers.size());
+        for (Player engagedPlayer : activity.engagedPlayers) {
+            out.writeLong(engagedPlayer.getId());
+        }
+    }
+
+    /** Activity state is written as a length-prefixed block, so that it can be skipped when its activity can't be restored. */
+    private static void writeBinaryState(SnapshotOutput out, ActivityBase activity) {
+        if (activity instanceof ActivityBase.BinarySerializable) {
+            final SnapshotOutput state = SnapshotOutput.inMemory();
+            ((ActivityBase.BinarySerializable) activity).write(state);
+            final ByteBuffer contents = state.contents();
+            out.writeByte(STATE_BINARY);
+            out.writeInt(contents.remaining());
+            out.writeBytes(contents);
+        } else if (activity instanceof ActivityBase.Serializable) {
+            final StringWriter writer = new StringWriter();
+            final Json json = new Json(OutputType.json);
+            json.setWriter(writer);
+            json.writeObjectStart();
+            ((ActivityBase.Serializable) activity).write(json);
+            json.writeObjectEnd();
+            out.writeByte(STATE_JSON);
+            out.writeString(writer.toString());
+        } else {
+            out.writeByte(STATE_NONE);
+        }
+    }
+
+    /** @return state reader, which reads the state into the activity, null if there is no state */
+    private static StateReader readBinaryState(SnapshotInput in) {
+        final byte kind = in.readByte();
+        switch (kind) {
+            case STATE_NONE:
+                return null;
+            case STATE_BINARY: {
+                final byte[] state = in.readBytes(in.readInt());
+                return (core, activity) -> {
+                    if (activity instanceof ActivityBase.BinarySerializable) {
+                        ((ActivityBase.BinarySerializable) activity).read(core, new SnapshotInput(ByteBuffer.wrap(state)));
+                    } else {
+                        LOG.warn("Activity {} has binary state, but is not BinarySerializable, ignoring it", activity);
+                    }
+                };
+            }
+            case STATE_JSON: {
+                final String state = in.readString();
+                return (core, activity) -> {
+                    if (activity instanceof ActivityBase.Serializable) {
+                        ((ActivityBase.Serializable) activity).read(core, new JsonReader().parse(state));
+                    } else {
+                        LOG.warn("Activity {} has JSON state, but is not Serializable, ignoring it", activity);
+                    }
+                };
+            }
+            default:
+                throw new IllegalArgumentException("Unknown activity state kind "+kind);
+        }
+    }
+
+    private interface StateReader {
+        void read(GameCore core, ActivityBase activity);
+    }
+
+    /** @return activity class of given name and type, or null if it can't be restored */
+    private Class<? extends ActivityBase> restorableClass(String className, ActivityType expectedType) {
+        final Class<? extends ActivityBase> activityClass;
+        try {
+            activityClass = Class.forName(className).asSubclass(ActivityBase.class);
+        } catch (ClassNotFoundException | ClassCastException e) {
+            LOG.error("Not restoring state of activity {}", className, e);
+            return null;
+        }
+
+        final ActivityType activityType = getActivityType(activityClass);
+        if (activityType != expectedType) {
+            LOG.error("Not restoring state of activity {} saved as {}, because its real type is {}", className, expectedType, activityType);
+            return null;
+        }
+        return activityClass;
+    }
+
+    /** Binary variant of {@link #load(File)} */
+    boolean loadBinary(File activityFile) {
+        if (!activityFile.exists()) {
+            LOG.info("Not loading activity file {}, because it doesn't exist", activityFile);
+            return true;
+        }
+
+        final int[] activitiesLoaded = {0};
+        final boolean[] error = {false};
+        try {
+            PersistenceUtil.loadBinary(activityFile, PersistenceUtil.BINARY_KIND_ACTIVITIES, (in, version) -> {
+                // Singleton
+                final int singletonCount = in.readInt();
+                for (int i = 0; i < singletonCount; i++) {
+                    final Class<? extends ActivityBase> singletonClass = restorableClass(in.readString(), ActivityType.SINGLETON_ACTIVITY);
+                    final long[] engaged = readIds(in);
+                    final StateReader state = readBinaryState(in);
+                    if (singletonClass == null) {
+                        error[0] = true;
+                        continue;
+                    }
+
+                    final ActivityBase singleton = instantiate(singletonClass);
+                    restore(singleton, state, engaged);
+                    singletonActivities.put(singletonClass, singleton);
+                    activitiesLoaded[0]++;
+                }
+
+                // Per-location
+                final int perLocationClassCount = in.readInt();
+                for (int i = 0; i < perLocationClassCount; i++) {
+                    final Class<? extends ActivityBase> perLocationClass = restorableClass(in.readString(), ActivityType.PER_LOCATION_ACTIVITY);
+                    final LongObjMap<ActivityBase> locationMap = perLocationClass == null ? null : getPerLocationActivityMap(perLocationClass);
+
+                    final int instanceCount = in.readInt();
+                    for (int j = 0; j < instanceCount; j++) {
+                        final long locationId = in.readLong();
+                        final long[] engaged = readIds(in);
+                        final StateReader state = readBinaryState(in);
+                        if (perLocationClass == null) {
+                            error[0] = true;
+                            continue;
+                        }
+
+                        final Location location = gameCore.findLocation(locationId);
+                        if (location == null) {
+                            LOG.error("Not restoring state of per-location activity {} for location {}, because the location no longer exists", perLocationClass, locationId);
+                            error[0] = true;
+                            continue;
+                        }
+
+                        final ActivityBase instance = instantiate(perLocationClass, location);
+                        restore(instance, state, engaged);
+                        locationMap.put(locationId, instance);
+                        activitiesLoaded[0]++;
+                    }
+                }
+
+                // Custom
+                final int customCount = in.readInt();
+                for (int i = 0; i < customCount; i++) {
+                    final Class<? extends ActivityBase> customClass = restorableClass(in.readString(), ActivityType.CUSTOM_ACTIVITY);
+                    final long[] engaged = readIds(in);
+                    final StateReader state = readBinaryState(in);
+                    if (customClass == null) {
+                        error[0] = true;
+                        continue;
+                    }
+
+                    final ActivityBase instance = instantiate(customClass);
+                    restore(instance, state, engaged);
+                    customActivities.add(instance);
+                    activitiesLoaded[0]++;
+                }
+            });
+        } catch (PersistenceUtil.PersistenceException e) {
+            LOG.error("Failed to read activity file {}", activityFile, e);
+            return false;
+        }
+
+        if (error[0]) {
+            LOG.error("Loading of activities failed");
+            return false;
+        } else {
+            LOG.info("Loaded {} stateful activities", activitiesLoaded[0]);
+            return true;
+        }
+    }
+
+    private static long[] readIds(SnapshotInput in) {
+        final long[] ids = new long[in.readInt()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = in.readLong();
+        }
+        return ids;
+    }
+
+    private void restore(ActivityBase activity, StateReader state, long[] engagedPlayerIds) {
+        if (state != null) {
+            state.read(gameCore, activity);
+        }
+        ensureInitialized(activity);
+
+        for (long engagedPlayerId : engagedPlayerIds) {
+            final Player engagedPlayer = gameCore.findPlayer(engagedPlayerId);
+            if (engagedPlayer == null) {
+                LOG.warn("Not adding player {} to activity {}, because player does not exist", engagedPlayerId, activity);
+                continue;
+            }
+            if (engagedPlayer.currentActivity != null) {
+                LOG.warn("Not adding player {} to activity {}, because player already is in {}", engagedPlayer.getId(), activity, engagedPlayer.currentActivity);
+                continue;
+            }
+            activity.engagedPlayers.addPlayer(engagedPlayer);
+            engagedPlayer.currentActivity = activity;
+        }
+    }
+
+    /** Binary variant of {@link #save(File)} */
+    boolean saveBinary(File activityFile) {
+        try {
+            PersistenceUtil.saveBinarySecurely(activityFile, PersistenceUtil.BINARY_KIND_ACTIVITIES, out -> {
+                {
+                    int singletonCount = 0;
+                    for (ActivityBase singleton : singletonActivities.values()) {
+                        if (singleton instanceof ActivityBase.Serializable || !singleton.engagedPlayers.isEmpty()) {
+                            singletonCount++;
+                        }
+                    }
+
+                    out.writeInt(singletonCount);
+                    for (ActivityBase singleton : singletonActivities.values()) {
+                        if (singleton instanceof ActivityBase.Serializable || !singleton.engagedPlayers.isEmpty()) {
+                            out.writeString(singleton.getClass().getName());
+                            writeBinaryEngagedPlayers(out, singleton);
+                            writeBinaryState(out, singleton);
+                        }
+                    }
+                }
+
+                {
+                    int perLocationClassCount = 0;
+                    for (LongObjMap<ActivityBase> locations : locationActivities.values()) {
+                        if (!locations.isEmpty()) {
+                            perLocationClassCount++;
+                        }
+                    }
+
+                    out.writeInt(perLocationClassCount);
+                    for (Map.Entry<Class<? extends ActivityBase>, LongObjMap<ActivityBase>> entry : locationActivities.entrySet()) {
+                        final LongObjMap<ActivityBase> locations = entry.getValue();
+                        if (locations.isEmpty()) continue;
+
+                        out.writeString(entry.getKey().getName());
+                        out.writeInt(locations.size());
+                        for (Map.Entry<Long, ActivityBase> locationEntry : locations.entrySet()) {
+                            out.writeLong(locationEntry.getKey());
+                            writeBinaryEngagedPlayers(out, locationEntry.getValue());
+                            writeBinaryState(out, locationEntry.getValue());
+                        }
+                    }
+                }
+
+                {
+                    out.writeInt(customActivities.size());
+                    for (ActivityBase customActivity : customActivities) {
+                        out.writeString(customActivity.getClass().getName());
+                        writeBinaryEngagedPlayers(out, customActivity);
+                        writeBinaryState(out, customActivity);
+                    }
+                }
+            });
+            LOG.info("Activities saved");
+            return true;
         } catch (PersistenceUtil.PersistenceException e) {
             LOG.error("Failed to save activities", e);
+            return false;
         }
     }
 }
@@ -7,26 +7,44 @@ import com.esotericsoftware.jsonbeans.JsonValue;
  * Holds attributes for item/player/enemy/etc.
  *
  * Not all attributes make sense for all attribute holders, however this is not checked (yet).
+ *
+ * Values are either in an array of their own, or in a slice of a shared column, see {@link PlayerColumns}.
  */
 public final class Attributes implements AttributeHolder {
 
-    private final int[] modifiers = new int[Attribute.VALUES.length];
+    private final int[] modifiers;
+    /** Index of the first value in {@link #modifiers} */
+    private final int offset;
     private final boolean mutable;
+    /** Incremented on every modification */
+    private int version = 0;
 
     public Attributes(boolean mutable) {
+        this(new int[Attribute.VALUES.length], 0, mutable);
+    }
+
+    /** View of values from the offset of given array, which is shared with others */
+    Attributes(int[] modifiers, int offset, boolean mutable) {
+        this.modifiers = modifiers;
+        this.offset = offset;
         this.mutable = mutable;
     }
 
+    /** @return number which changes whenever these attributes are modified */
+    int getVersion() {
+        return version;
+    }
+
     /** @return value of attribute, unclamped */
     public int getRaw(Attribute attribute) {
         assert attribute != null;
-        return modifiers[attribute.ordinal()];
+        return modifiers[offset + attribute.ordinal()];
     }
 
     /** @return value of attribute, clamped to valid range */
     public int get(Attribute attribute) {
         assert attribute != null;
-        final int value = modifiers[attribute.ordinal()];
+        final int value = modifiers[offset + attribute.ordinal()];
         if (value < attribute.minValue) {
             return attribute.minValue;
         } else if (value > attribute.maxValue) {
@@ -42,7 +60,8 @@ public final class Attributes implements AttributeHolder {
     public void set(Attribute attribute, int value) {
         assert attribute != null;
         if (!mutable) throw new UnsupportedOperationException("Can't set attribute of immutable Attributes");
-        modifiers[attribute.ordinal()] = value;
+        modifiers[offset + attribute.ordinal()] = value;
+        version++;
     }
 
     /** Add to value of given attribute.
@@ -52,25 +71,35 @@ public final class Attributes implements AttributeHolder {
     public int add(Attribute attribute, int value) {
         assert attribute != null;
         if (!mutable) throw new UnsupportedOperationException("Can't set attribute of immutable Attributes");
-        modifiers[attribute.ordinal()] += value;
+        modifiers[offset + attribute.ordinal()] += value;
+        version++;
         return get(attribute);
     }
 
     /** Creates a mutable copy of given base, use with {@link #and(Attributes)} */
     public static Attributes combinationOf(Attributes base) {
         final Attributes result = new Attributes(true);
-        System.arraycopy(base.modifiers, 0, result.modifiers, 0, Attribute.VALUES.length);
+        System.arraycopy(base.modifiers, base.offset, result.modifiers, 0, Attribute.VALUES.length);
         return result;
     }
 
+    /** Overwrites these attributes with values of other attributes */
+    void setTo(Attributes other) {
+        assert other != null;
+        if (!mutable) throw new UnsupportedOperationException("Can't set attribute of immutable Attributes");
+        System.arraycopy(other.modifiers, other.offset, modifiers, offset, Attribute.VALUES.length);
+        version++;
+    }
+
     /** Adds other attributes into these attributes and returns this */
     public Attributes and(Attributes other) {
         assert other != null;
         if (!mutable) throw new UnsupportedOperationException("Can't set attribute of immutable Attributes");
 
         for (int i = 0; i < Attribute.VALUES.length; i++) {
-            this.modifiers[i] += other.modifiers[i];
+            this.modifiers[offset + i] += other.modifiers[other.offset + i];
         }
+        version++;
 
         return this;
     }
@@ -88,7 +117,7 @@ public final class Attributes implements AttributeHolder {
         else json.writeObjectStart(jsonObjectName);
 
         for (Attribute attribute : Attribute.VALUES) {
-            final int value = attributes.modifiers[attribute.ordinal()];
+            final int value = attributes.modifiers[attributes.offset + attribute.ordinal()];
             if (value != 0) {
                 json.writeValue(attribute.shortName, value, int.class);
             }
@@ -96,4 +125,46 @@ public final class Attributes implements AttributeHolder {
 
         json.writeObjectEnd();
     }
+
+    /** Writes names of all attributes, in the order in which {@link #write(SnapshotOutput, Attributes)} writes values. */
+    static void writeColumns(SnapshotOutput out) {
+        out.writeByte(Attribute.VALUES.length);
+        for (Attribute attribute : Attribute.VALUES) {
+            out.writeString(attribute.shortName);
+        }
+    }
+
+    /** Reads what {@link #writeColumns(SnapshotOutput)} wrote.
+     * @return attributes in the order of stored values, null for attributes which no longer exist */
+    static Attribute[] readColumns(SnapshotInput in) {
+        final Attribute[] columns = new Attribute[in.readByte()];
+        for (int i = 0; i < columns.length; i++) {
+            final String shortName = in.readString();
+            for (Attribute attribute : Attribute.VALUES) {
+                if (attribute.shortName.equals(shortName)) {
+                    columns[i] = attribute;
+                    break;
+                }
+            }
+        }
+        return columns;
+    }
+
+    static void write(SnapshotOutput out, Attributes attributes) {
+        for (int i = 0; i < Attribute.VALUES.length; i++) {
+            out.writeInt(attributes.modifiers[attributes.offset + i]);
+        }
+    }
+
+    /** @param columns as returned by {@link #readColumns(SnapshotInput)} */
+    static Attributes read(SnapshotInput in, Attribute[] columns, boolean mutable) {
+        final Attributes attributes = new Attributes(mutable);
+        for (Attribute column : columns) {
+            final int value = in.readInt();
+            if (column != null) {
+                attributes.modifiers[column.ordinal()] = value;
+            }
+        }
+        return attributes;
+    }
 }
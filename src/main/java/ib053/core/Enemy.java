@@ -2,6 +2,8 @@ package ib053.core;
 
 import com.esotericsoftware.jsonbeans.JsonValue;
 
+import java.util.function.ToIntFunction;
+
 /**
  * Represents an enemy type
  */
@@ -47,6 +49,26 @@ public final class Enemy implements AttributeHolder {
         return new Enemy(id, name, description, attributes);
     }
 
+    /** Write into the world image, see {@link World#compile(java.io.File)}.
+     * @param strings gives the index of each string in the string table of the image */
+    static void write(SnapshotOutput out, Enemy enemy, ToIntFunction<String> strings) {
+        out.writeLong(enemy.id);
+        out.writeInt(strings.applyAsInt(enemy.name));
+        out.writeInt(strings.applyAsInt(enemy.description));
+        Attributes.write(out, enemy.attributes);
+    }
+
+    /** Read what {@link #write(SnapshotOutput, Enemy, ToIntFunction)} wrote.
+     * @param strings string table of the image
+     * @param attributeColumns as returned by {@link Attributes#readColumns(SnapshotInput)} */
+    static Enemy read(SnapshotInput in, String[] strings, Attribute[] attributeColumns) {
+        final long id = in.readLong();
+        final String name = strings[in.readInt()];
+        final String description = strings[in.readInt()];
+        final Attributes attributes = Attributes.read(in, attributeColumns, false);
+        return new Enemy(id, name, description, attributes);
+    }
+
     @Override
     public int get(Attribute attribute) {
         return attributes.get(attribute);
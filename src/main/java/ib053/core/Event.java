@@ -1,15 +1,230 @@
 package ib053.core;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+
 /**
  * Thread-safe representation of one-time event player should be notified about,
  * but does not have to do anything with it.
+ *
+ * Events are a {@link Template} with arguments: up to two ints, and an enemy which the event is about.
+ * The message text is built only when a frontend asks for it, see {@link #getMessage()},
+ * frontends which don't show text can use the template id and the arguments directly.
  */
 public final class Event {
 
-    /** Event's message to player(s). */
-    public final String message;
+    /** Template of the message */
+    public final Template template;
+    /** Arguments {0} and {1} of the template */
+    public final int first, second;
+    /** Enemy which the event is about, or null */
+    public final Enemy enemy;
+    /** Whole message of {@link Template#TEXT} events, otherwise null */
+    final String text;
+
+    /** Message, built on first use. May be built more than once when racing, the result is the same. */
+    private String message;
 
+    Event(Template template, int first, int second, Enemy enemy, String text) {
+        assert template.hasEnemy == (enemy != null) : template;
+        this.template = template;
+        this.first = first;
+        this.second = second;
+        this.enemy = enemy;
+        this.text = text;
+        this.message = text;
+    }
+
+    /** Event with ad-hoc message, for messages which are rare or can't be templated */
     public Event(String message) {
-        this.message = message;
+        this(Template.TEXT, 0, 0, null, message);
+    }
+
+    public Event(Template template) {
+        this(template, 0, 0, null, null);
+        assert template.arguments == 0 : template;
+    }
+
+    public Event(Template template, int first) {
+        this(template, first, 0, null, null);
+        assert template.arguments == 1 : template;
+    }
+
+    public Event(Template template, int first, int second) {
+        this(template, first, second, null, null);
+        assert template.arguments == 2 : template;
+    }
+
+    public Event(Template template, Enemy enemy) {
+        this(template, 0, 0, enemy, null);
+        assert template.arguments == 0 : template;
+    }
+
+    public Event(Template template, Enemy enemy, int first) {
+        this(template, first, 0, enemy, null);
+        assert template.arguments == 1 : template;
+    }
+
+    /** @return event's message to player(s) */
+    public String getMessage() {
+        String message = this.message;
+        if (message == null) {
+            final StringBuilder sb = new StringBuilder(template.pattern.length() + 16);
+            appendMessage(sb);
+            this.message = message = sb.toString();
+        }
+        return message;
+    }
+
+    /** Append the message to the builder, without building it as a String on its own */
+    public void appendMessage(StringBuilder sb) {
+        if (message != null) {
+            sb.append(message);
+            return;
+        }
+        appendMessage(sb, template, first, second, enemy == null ? null : enemy.name, enemy == null ? null : enemy.description, text);
+    }
+
+    /** Append the message of the template with given arguments to the builder.
+     * Enemy is given by its name and description, so that the message can be built also without the enemy. */
+    static void appendMessage(StringBuilder sb, Template template, int first, int second, String enemyName, String enemyDescription, String text) {
+        for (int i = 0; i < template.parts.length; i++) {
+            final Object part = template.parts[i];
+            if (part instanceof String) {
+                sb.append((String) part);
+            } else {
+                switch ((Template.Placeholder) part) {
+                    case FIRST:
+                        sb.append(first);
+                        break;
+                    case SECOND:
+                        sb.append(second);
+                        break;
+                    case ENEMY:
+                        sb.append(enemyName);
+                        break;
+                    case ENEMY_DESCRIPTION:
+                        sb.append(enemyDescription);
+                        break;
+                    case TEXT:
+                        sb.append(text);
+                        break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getMessage();
+    }
+
+    /**
+     * Message of events, with placeholders for the arguments of the event:
+     * {0} and {1} for the ints, {enemy} for the name of the enemy and {enemy.description} for its description.
+     *
+     * Templates are interned, equal patterns give the same template, and numbered in the order of creation.
+     * Create them once, into static fields.
+     */
+    public static final class Template {
+
+        /** Guarded by itself */
+        private static final ArrayList<Template> BY_ID = new ArrayList<>();
+        /** Guarded by {@link #BY_ID} */
+        private static final HashMap<String, Template> BY_PATTERN = new HashMap<>();
+
+        /** Template of ad-hoc messages, whose whole text is in the event */
+        public static final Template TEXT = of("{text}");
+
+        /** Unique id, small and dense, assigned in order of creation */
+        public final int id;
+        public final String pattern;
+        /** Strings and {@link Placeholder}s */
+        private final Object[] parts;
+        /** How many int arguments are used, events must be created with exactly this many */
+        private final int arguments;
+        final boolean hasEnemy;
+
+        private Template(int id, String pattern) {
+            this.id = id;
+            this.pattern = pattern;
+
+            final ArrayList<Object> parts = new ArrayList<>();
+            int arguments = 0;
+            boolean hasEnemy = false;
+            int literalStart = 0;
+            int open;
+            while ((open = pattern.indexOf('{', literalStart)) != -1) {
+                final int close = pattern.indexOf('}', open);
+                if (close == -1) throw new IllegalArgumentException("Unclosed placeholder in "+pattern);
+                final Placeholder placeholder = Placeholder.of(pattern.substring(open + 1, close));
+                if (placeholder == null) throw new IllegalArgumentException("Unknown placeholder in "+pattern);
+
+                if (open > literalStart) parts.add(pattern.substring(literalStart, open));
+                parts.add(placeholder);
+                if (placeholder == Placeholder.FIRST) arguments = Math.max(arguments, 1);
+                if (placeholder == Placeholder.SECOND) arguments = 2;
+                if (placeholder == Placeholder.ENEMY || placeholder == Placeholder.ENEMY_DESCRIPTION) hasEnemy = true;
+                literalStart = close + 1;
+            }
+            if (literalStart < pattern.length()) parts.add(pattern.substring(literalStart));
+
+            this.parts = parts.toArray();
+            this.arguments = arguments;
+            this.hasEnemy = hasEnemy;
+        }
+
+        /** @return template with given pattern, created if it does not exist yet */
+        public static Template of(String pattern) {
+            synchronized (BY_ID) {
+                Template template = BY_PATTERN.get(pattern);
+                if (template == null) {
+                    template = new Template(BY_ID.size(), pattern);
+                    BY_ID.add(template);
+                    BY_PATTERN.put(pattern, template);
+                }
+                return template;
+            }
+        }
+
+        /** @return amount of templates created so far, their ids are from 0 to this (exclusive) */
+        public static int count() {
+            synchronized (BY_ID) {
+                return BY_ID.size();
+            }
+        }
+
+        /** @return template with given id or null if no such template exists */
+        public static Template get(int id) {
+            synchronized (BY_ID) {
+                return id >= 0 && id < BY_ID.size() ? BY_ID.get(id) : null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return id+": "+pattern;
+        }
+
+        private enum Placeholder {
+            FIRST("0"),
+            SECOND("1"),
+            ENEMY("enemy"),
+            ENEMY_DESCRIPTION("enemy.description"),
+            TEXT("text");
+
+            private final String name;
+
+            Placeholder(String name) {
+                this.name = name;
+            }
+
+            static Placeholder of(String name) {
+                for (Placeholder placeholder : values()) {
+                    if (placeholder.name.equals(name)) return placeholder;
+                }
+                return null;
+            }
+        }
     }
 }
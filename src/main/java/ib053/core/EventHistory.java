@@ -0,0 +1,217 @@
+package ib053.core;
+
+import com.esotericsoftware.jsonbeans.Json;
+import com.esotericsoftware.jsonbeans.JsonValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Recent events of one player, kept by the core so that every frontend can show them, also to clients which reconnect.
+ *
+ * Ring buffer of the last {@link #CAPACITY} events. Events are stored as columns of their template ids and arguments,
+ * not as {@link Event} objects, so the history does not keep their rendered messages alive.
+ * Every event gets a sequence number, the first event of the player has 1 and each next one has one more.
+ * Frontends remember the sequence number which they have seen last and read only the events after it.
+ *
+ * Saved with the player. Like the player, it may be accessed only from the player's event loop shard.
+ */
+public final class EventHistory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventHistory.class);
+
+    /** Amount of the most recent events which are kept */
+    public static final int CAPACITY = 16;
+
+    /** Stand-in for the enemy of loaded events, whose enemy is no longer in the world */
+    static final String LOST_ENEMY_NAME = "Forgotten enemy", LOST_ENEMY_DESCRIPTION = "Nobody remembers what it was like.";
+
+    /** Rough estimate of the heap taken by one history, see {@link Player#estimateHeapBytes()} */
+    static final int HEAP_BYTES = 32 + 4 * (16 + 4 * CAPACITY);
+
+    private final int[] templates = new int[CAPACITY];
+    private final int[] firsts = new int[CAPACITY];
+    private final int[] seconds = new int[CAPACITY];
+    /** Enemy of the event, text of {@link Event.Template#TEXT} events, or null */
+    private final Object[] subjects = new Object[CAPACITY];
+    /** Sequence number of the next recorded event, the event with sequence number s is at s % CAPACITY */
+    private long nextSequence = 1;
+
+    void record(Event event) {
+        final int index = (int) (nextSequence % CAPACITY);
+        templates[index] = event.template.id;
+        firsts[index] = event.first;
+        seconds[index] = event.second;
+        subjects[index] = event.enemy != null ? event.enemy : event.text;
+        nextSequence++;
+    }
+
+    /** @return sequence number which the next event will get, the last event has one less */
+    public long getNextSequence() {
+        return nextSequence;
+    }
+
+    /** @return sequence number of the oldest event which is still kept, {@link #getNextSequence()} if there are none */
+    public long getFirstSequence() {
+        return Math.max(1, nextSequence - CAPACITY);
+    }
+
+    /** @return event with given sequence number or null if it is not kept (anymore or yet) */
+    public Event get(long sequence) {
+        if (sequence < getFirstSequence() || sequence >= nextSequence) return null;
+        final int index = (int) (sequence % CAPACITY);
+        final Event.Template template = Event.Template.get(templates[index]);
+        final Object subject = subjects[index];
+        return new Event(template, firsts[index], seconds[index],
+                subject instanceof Enemy ? (Enemy) subject : null,
+                subject instanceof String ? (String) subject : null);
+    }
+
+    /** Add the events with given sequence number and later into the list, oldest first.
+     * Events which are not kept anymore are skipped.
+     * @return sequence number to ask for next time, to get only the newer events */
+    public long since(long sequence, List<? super Event> into) {
+        for (long s = Math.max(sequence, getFirstSequence()); s < nextSequence; s++) {
+            into.add(get(s));
+        }
+        return nextSequence;
+    }
+
+    /** Write the templates of the events as a table, for {@link #write(SnapshotOutput, EventHistory)} */
+    static void writeTemplates(SnapshotOutput out) {
+        final int count = Event.Template.count();
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeString(Event.Template.get(i).pattern);
+        }
+    }
+
+    /** @return templates by their ids at the time of writing, as written by {@link #writeTemplates(SnapshotOutput)} */
+    static Event.Template[] readTemplates(SnapshotInput in) {
+        final Event.Template[] templates = new Event.Template[in.readInt()];
+        for (int i = 0; i < templates.length; i++) {
+            templates[i] = Event.Template.of(in.readString());
+        }
+        return templates;
+    }
+
+    /** @return all templates by their ids, for reading histories which were written during this run */
+    static Event.Template[] currentTemplates() {
+        final Event.Template[] templates = new Event.Template[Event.Template.count()];
+        for (int i = 0; i < templates.length; i++) {
+            templates[i] = Event.Template.get(i);
+        }
+        return templates;
+    }
+
+    /** @param history may be null if there were no events */
+    static void write(SnapshotOutput out, EventHistory history) {
+        if (history == null) {
+            out.writeLong(1);
+            out.writeByte(0);
+            return;
+        }
+        out.writeLong(history.nextSequence);
+        final long first = history.getFirstSequence();
+        out.writeByte((int) (history.nextSequence - first));
+        for (long s = first; s < history.nextSequence; s++) {
+            final int index = (int) (s % CAPACITY);
+            out.writeInt(history.templates[index]);
+            out.writeInt(history.firsts[index]);
+            out.writeInt(history.seconds[index]);
+            final Object subject = history.subjects[index];
+            if (subject instanceof Enemy) {
+                out.writeByte(1);
+                out.writeLong(((Enemy) subject).id);
+            } else if (subject instanceof String) {
+                out.writeByte(2);
+                out.writeString((String) subject);
+            } else {
+                out.writeByte(0);
+            }
+        }
+    }
+
+    /** @param templates as returned by {@link #readTemplates(SnapshotInput)}
+     * @return read history or null if it has no events */
+    static EventHistory read(SnapshotInput in, Event.Template[] templates, GameCore core) {
+        final long nextSequence = in.readLong();
+        final int count = in.readByte();
+        if (nextSequence <= 1) return null;
+
+        final EventHistory history = new EventHistory();
+        history.nextSequence = nextSequence - count;
+        for (int i = 0; i < count; i++) {
+            final Event.Template template = templates[in.readInt()];
+            final int first = in.readInt();
+            final int second = in.readInt();
+            final byte subjectKind = in.readByte();
+            final Object subject = subjectKind == 1 ? core.findEnemy(in.readLong()) : subjectKind == 2 ? in.readString() : null;
+            history.restore(template, first, second, subject);
+        }
+        history.nextSequence = nextSequence;
+        return history;
+    }
+
+    /** @param history may be null if there were no events */
+    static void write(Json json, String name, EventHistory history) {
+        if (history == null) return;
+        json.writeObjectStart(name);
+        json.writeValue("next", history.nextSequence, long.class);
+        json.writeArrayStart("events");
+        for (long s = history.getFirstSequence(); s < history.nextSequence; s++) {
+            final int index = (int) (s % CAPACITY);
+            json.writeObjectStart();
+            json.writeValue("template", Event.Template.get(history.templates[index]).pattern, String.class);
+            if (history.firsts[index] != 0) json.writeValue("first", history.firsts[index], int.class);
+            if (history.seconds[index] != 0) json.writeValue("second", history.seconds[index], int.class);
+            final Object subject = history.subjects[index];
+            if (subject instanceof Enemy) {
+                json.writeValue("enemy", ((Enemy) subject).id, long.class);
+            } else if (subject instanceof String) {
+                json.writeValue("text", subject, String.class);
+            }
+            json.writeObjectEnd();
+        }
+        json.writeArrayEnd();
+        json.writeObjectEnd();
+    }
+
+    /** @param value as written by {@link #write(Json, String, EventHistory)}, may be null
+     * @return read history or null if it has no events */
+    static EventHistory read(JsonValue value, GameCore core) {
+        if (value == null) return null;
+        final long nextSequence = value.getLong("next");
+        final JsonValue events = value.get("events");
+        if (nextSequence <= 1) return null;
+
+        int count = 0;
+        for (JsonValue ignored : events) {
+            count++;
+        }
+
+        final EventHistory history = new EventHistory();
+        history.nextSequence = nextSequence - count;
+        for (JsonValue event : events) {
+            final Object subject = event.has("enemy") ? core.findEnemy(event.getLong("enemy")) : event.getString("text", null);
+            history.restore(Event.Template.of(event.getString("template")), event.getInt("first", 0), event.getInt("second", 0), subject);
+        }
+        history.nextSequence = nextSequence;
+        return history;
+    }
+
+    /** Record loaded event. Event whose enemy is no longer in the world is recorded as text, with a stand-in for the enemy. */
+    private void restore(Event.Template template, int first, int second, Object subject) {
+        final Enemy enemy = subject instanceof Enemy ? (Enemy) subject : null;
+        final String text = subject instanceof String ? (String) subject : null;
+        if (template.hasEnemy && enemy == null) {
+            LOG.warn("Event \"{}\" has lost its enemy", template.pattern);
+            final StringBuilder message = new StringBuilder(template.pattern.length() + 32);
+            Event.appendMessage(message, template, first, second, LOST_ENEMY_NAME, LOST_ENEMY_DESCRIPTION, text);
+            record(new Event(message.toString()));
+            return;
+        }
+        record(new Event(template, first, second, template.hasEnemy ? enemy : null, text));
+    }
+}
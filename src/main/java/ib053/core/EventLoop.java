@@ -0,0 +1,420 @@
+package ib053.core;
+
+import ib053.util.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Future;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs all game logic of {@link GameCore}.
+ *
+ * Work is split between one or more shards, each of which runs on its own single thread.
+ * Every location belongs to exactly one shard and each player is owned by the shard of the location they are in.
+ * Tasks scheduled for a player always run on the player's owning shard, so everything that concerns one player
+ * happens on one thread, one task after another, just like when there is only one shard.
+ *
+ * When a player moves to a location of a different shard, the ownership is handed off when the current task finishes.
+ * Tasks which were already queued in the old shard are forwarded to the new one when they come up.
+ *
+ * Delayed tasks are kept either by the shard's executor, or by a {@link TimingWheel},
+ * depending on {@link GameCore.Settings#scheduler}.
+ *
+ * Notifications for players (activity changes and events) are collected during each task and delivered
+ * by the {@link TaskListener} when it finishes, in one batch per player, see {@link #deferNotifications(Player)}.
+ *
+ * When {@link GameCore.Settings#randomSeed} is set, tasks of a player run with the player's {@link RandomStream},
+ * see {@link RandomUtil#use(RandomStream)}.
+ *
+ * Each shard measures how late its tasks start and how long they run, see {@link #collectMetrics(Metrics.Sink)}.
+ */
+final class EventLoop {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventLoop.class);
+
+    private final Shard[] shards;
+    private final TaskListener listener;
+    /** @see GameCore.Settings#randomSeed */
+    private final Long randomSeed;
+
+    EventLoop(GameCore.Settings settings, TaskListener listener) {
+        this.listener = listener;
+        this.randomSeed = settings.randomSeed;
+        final int shardCount = settings.shards;
+        if (shardCount < 1) throw new IllegalArgumentException("There must be at least one shard, got "+shardCount);
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i, settings);
+        }
+    }
+
+    int getShardCount() {
+        return shards.length;
+    }
+
+    /** @return index of the shard which owns given location */
+    int shardOf(Location location) {
+        return (int) Math.floorMod(location.id, (long) shards.length);
+    }
+
+    /** @return shard on which the calling thread runs, or null if the caller is not a thread of this loop */
+    Shard currentShard() {
+        final Thread thread = Thread.currentThread();
+        if (thread instanceof ShardThread) {
+            final Shard shard = ((ShardThread) thread).shard;
+            if (shard.index < shards.length && shards[shard.index] == shard) {
+                return shard;
+            }
+        }
+        return null;
+    }
+
+    /** Run the task on the current shard, or on the first shard when not called from the loop. */
+    void schedule(Runnable task, long delay, TimeUnit unit) {
+        final Shard current = currentShard();
+        (current == null ? shards[0] : current).schedule(null, task, delay, unit);
+    }
+
+    /** Run the task on the shard which will own the player at that time. */
+    void schedule(Player owner, Runnable task, long delay, TimeUnit unit) {
+        shards[owner.shard].schedule(owner, task, delay, unit);
+    }
+
+    /** Called when player moves into given location.
+     * Hands the player off to the location's shard, after the current task is done. */
+    void relocate(Player player, Location location) {
+        final int newShard = shardOf(location);
+        final Shard current = currentShard();
+        if (current == null) {
+            // Not from the loop, tasks may run on the shards meanwhile. The caller makes sure that none of them is the player's,
+            // like when loading or with shards paused by runPaused, so the player is handed off right away.
+            player.shard = newShard;
+        } else if (player.handoffShard != -1) {
+            // Already moving during this task
+            player.handoffShard = newShard;
+        } else if (player.shard != newShard) {
+            player.handoffShard = newShard;
+            current.handoffs.add(player);
+        }
+    }
+
+    /** Remember that the player has pending notifications, the listener is asked to flush them when the current task finishes.
+     * Caller is responsible for not deferring the same player twice in one task.
+     * @return false if not called from the loop, in which case nothing is remembered */
+    boolean deferNotifications(Player player) {
+        final Shard current = currentShard();
+        if (current == null) return false;
+        current.notified.add(player);
+        return true;
+    }
+
+    /** Run the action on the calling thread, while every shard waits between two tasks,
+     * so that the action sees no task half done and no task runs concurrently with it.
+     * Must not be called from the loop.
+     * @return false if the shards didn't all stop in time, the action is not run then */
+    boolean runPaused(Runnable action, long timeout, TimeUnit unit) throws InterruptedException {
+        assert currentShard() == null : "Shards can't be paused from the loop";
+        // Everybody meets twice, first when all shards have stopped, then when the action is done
+        final CyclicBarrier barrier = new CyclicBarrier(shards.length + 1);
+        for (Shard shard : shards) {
+            shard.schedule(null, () -> {
+                try {
+                    barrier.await();
+                    barrier.await();
+                } catch (InterruptedException | BrokenBarrierException e) {
+                    LOG.debug("Shard is not paused anymore: {}", e.toString());
+                }
+            }, 0, TimeUnit.NANOSECONDS);
+        }
+
+        try {
+            barrier.await(timeout, unit);
+        } catch (BrokenBarrierException | TimeoutException e) {
+            // Barrier stays broken, so shards which come late don't wait
+            return false;
+        }
+        try {
+            action.run();
+        } finally {
+            try {
+                barrier.await();
+            } catch (BrokenBarrierException e) {
+                LOG.warn("Shards were released early", e);
+            }
+        }
+        return true;
+    }
+
+    /** Reports queue depth, task wait and task run times of each shard. */
+    void collectMetrics(Metrics.Sink sink) {
+        sink.family("ib053_event_loop_queue_depth", Metrics.Kind.GAUGE,
+                "Tasks waiting in the shard, including delayed ones", "shard");
+        for (Shard shard : shards) {
+            sink.sample(Integer.toString(shard.index), shard.queueDepth());
+        }
+        sink.family("ib053_event_loop_task_wait_seconds", Metrics.Kind.HISTOGRAM,
+                "How late tasks started after they were due, for the timing wheel how late its ticks started", "shard");
+        for (Shard shard : shards) {
+            sink.sample(Integer.toString(shard.index), shard.taskWait.snapshot());
+        }
+        sink.family("ib053_event_loop_task_run_seconds", Metrics.Kind.HISTOGRAM,
+                "How long tasks ran, including delivery of their notifications", "shard");
+        for (Shard shard : shards) {
+            sink.sample(Integer.toString(shard.index), shard.taskRun.snapshot());
+        }
+    }
+
+    /** Initiates shutdown of all shards and waits for them to terminate, for given amount of time in total.
+     * @return true if terminated successfully */
+    boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        for (Shard shard : shards) {
+            shard.executor.shutdown();
+        }
+
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean terminated = true;
+        for (Shard shard : shards) {
+            terminated &= shard.executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+        return terminated;
+    }
+
+    /** Stops all shards immediately, without waiting. */
+    void shutdownNow() {
+        for (Shard shard : shards) {
+            shard.executor.shutdownNow();
+        }
+    }
+
+    /** @return true if the task was scheduled for a player who has been hibernated since, in which case it must be dropped,
+     * because the player's slot may already hold another player */
+    private static boolean isFreed(Player owner, Runnable task) {
+        if (owner == null || !owner.freed) return false;
+        LOG.debug("Dropping task of hibernated player {}: {}", owner, task);
+        return true;
+    }
+
+    /** Run the task with the owner's random stream, if the game is seeded. */
+    private void runFor(Player owner, Runnable task) {
+        final Long seed = randomSeed;
+        if (seed == null || owner == null) {
+            task.run();
+            return;
+        }
+        RandomStream stream = owner.random;
+        if (stream == null) {
+            owner.random = stream = new RandomStream(RandomStream.seed(seed, owner.getId()));
+        }
+        final RandomStream previous = RandomUtil.use(stream);
+        try {
+            task.run();
+        } finally {
+            RandomUtil.use(previous);
+        }
+    }
+
+    final class Shard implements TimingWheel.Sink {
+        final int index;
+        private final ScheduledThreadPoolExecutor executor;
+        /** Holds delayed tasks when {@link GameCore.Settings.Scheduler#TIMING_WHEEL} is used, null otherwise */
+        private final TimingWheel timingWheel;
+        /** Players which moved to a location of a different shard during the current task */
+        private final ArrayList<Player> handoffs = new ArrayList<>();
+        /** Players with notifications deferred during the current task */
+        private final ArrayList<Player> notified = new ArrayList<>();
+        /** Player for whom the current task runs, null if the task has no owner */
+        private Player currentOwner = null;
+
+        /** Nanoseconds by which tasks started later than they were due */
+        private final Histogram taskWait = new Histogram();
+        /** Nanoseconds from the start of a task until it is finished, see {@link #finishTask()} */
+        private final Histogram taskRun = new Histogram();
+        /** When did the current task of the executor start */
+        private long taskStartNanos;
+
+        private Shard(int index, GameCore.Settings settings) {
+            this.index = index;
+            this.executor = new ScheduledThreadPoolExecutor(1, runnable -> new ShardThread(this, runnable)) {
+                @Override
+                protected void beforeExecute(Thread t, Runnable r) {
+                    super.beforeExecute(t, r);
+                    if (r instanceof Delayed) {
+                        taskWait.record(-((Delayed) r).getDelay(TimeUnit.NANOSECONDS));
+                    }
+                    taskStartNanos = System.nanoTime();
+                }
+
+                @Override
+                protected void afterExecute(Runnable r, Throwable t) {
+                    super.afterExecute(r, t);
+
+                    if (t == null && r instanceof Future && ((Future) r).isDone()) {
+                        try {
+                            ((Future) r).get();
+                        } catch (Throwable e) {
+                            t = e;
+                        }
+                    }
+
+                    if (t != null) {
+                        LOG.error("EventLoop item crashed", t);
+                    }
+
+                    finishTask();
+                    // The only periodic task is the timing wheel tick, its expired tasks are measured one by one
+                    if (!(r instanceof RunnableScheduledFuture) || !((RunnableScheduledFuture) r).isPeriodic()) {
+                        taskRun.record(System.nanoTime() - taskStartNanos);
+                    }
+                }
+            };
+
+            if (settings.scheduler == GameCore.Settings.Scheduler.TIMING_WHEEL) {
+                final long tickNanos = TimeUnit.MILLISECONDS.toNanos(settings.timerTickMillis);
+                timingWheel = new TimingWheel(tickNanos, settings.timerWheelSize, System.nanoTime());
+                executor.scheduleAtFixedRate(() -> timingWheel.advance(System.nanoTime(), this), tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+            } else {
+                timingWheel = null;
+            }
+        }
+
+        /** @param owner player whose shard should run the task, null if it should run on this shard */
+        private void schedule(Player owner, Runnable task, long delay, TimeUnit unit) {
+            if (executor.isShutdown()) {
+                // Tasks which are still running schedule their follow-ups, those would be rejected
+                LOG.debug("Dropping task scheduled after shutdown: {}", task);
+                return;
+            }
+            if (timingWheel != null && delay > 0) {
+                timingWheel.schedule(owner, task, unit.toNanos(delay), System.nanoTime());
+            } else if (owner == null) {
+                executor.schedule(task, delay, unit);
+            } else {
+                executor.schedule(new PlayerTask(owner, task), delay, unit);
+            }
+        }
+
+        /** Run the task, which was scheduled on another shard for a player who moved here, as soon as possible.
+         * Dropped after shutdown, like in {@link #schedule(Player, Runnable, long, TimeUnit)}. */
+        private void forward(PlayerTask task) {
+            if (executor.isShutdown()) {
+                LOG.debug("Dropping task forwarded after shutdown: {}", task.task);
+                return;
+            }
+            executor.execute(task);
+        }
+
+        /** Run a task expired from the timing wheel, on this shard's thread. */
+        @Override
+        public void expire(Player owner, Runnable task) {
+            if (owner != null && owner.shard != index) {
+                shards[owner.shard].schedule(owner, task, 0, TimeUnit.NANOSECONDS);
+                return;
+            }
+            if (isFreed(owner, task)) return;
+
+            final long startNanos = System.nanoTime();
+            currentOwner = owner;
+            try {
+                runFor(owner, task);
+            } catch (Throwable t) {
+                LOG.error("EventLoop item crashed", t);
+            }
+            finishTask();
+            taskRun.record(System.nanoTime() - startNanos);
+        }
+
+        /** @return amount of tasks waiting in the executor and in the timing wheel */
+        private int queueDepth() {
+            return executor.getQueue().size() + (timingWheel == null ? 0 : timingWheel.size());
+        }
+
+        /** Called on the shard's thread after every task. */
+        private void finishTask() {
+            final ArrayList<Player> notified = this.notified;
+            if (!notified.isEmpty()) {
+                // Listener may cause more notifications, those are appended and flushed as well
+                //noinspection ForLoopReplaceableByForEach
+                for (int i = 0; i < notified.size(); i++) {
+                    try {
+                        listener.flushNotifications(notified.get(i));
+                    } catch (Throwable t) {
+                        LOG.error("EventLoop notification listener crashed", t);
+                    }
+                }
+                notified.clear();
+            }
+
+            final Player owner = currentOwner;
+            if (owner != null) {
+                currentOwner = null;
+                try {
+                    listener.taskFinished(owner);
+                } catch (Throwable t) {
+                    LOG.error("EventLoop task listener crashed", t);
+                }
+            }
+
+            final ArrayList<Player> handoffs = this.handoffs;
+            if (handoffs.isEmpty()) return;
+            //noinspection ForLoopReplaceableByForEach
+            for (int i = 0; i < handoffs.size(); i++) {
+                final Player player = handoffs.get(i);
+                player.shard = player.handoffShard;
+                player.handoffShard = -1;
+            }
+            handoffs.clear();
+        }
+    }
+
+    private final class PlayerTask implements Runnable {
+        private final Player owner;
+        private final Runnable task;
+
+        private PlayerTask(Player owner, Runnable task) {
+            this.owner = owner;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            final int ownerShard = owner.shard;
+            final Shard current = currentShard();
+            if (current != null && current.index != ownerShard) {
+                // Player has moved since this was scheduled
+                shards[ownerShard].forward(this);
+                return;
+            }
+            if (isFreed(owner, task)) return;
+            if (current != null) {
+                current.currentOwner = owner;
+            }
+            runFor(owner, task);
+        }
+    }
+
+    /** Notified on the shard's thread at the end of tasks. */
+    interface TaskListener {
+        /** Called after each task which was scheduled for a player. */
+        void taskFinished(Player owner);
+
+        /** Called after a task, during which {@link #deferNotifications(Player)} was called for the player. */
+        default void flushNotifications(Player player) {}
+    }
+
+    private static final class ShardThread extends Thread {
+        private final Shard shard;
+
+        private ShardThread(Shard shard, Runnable runnable) {
+            super(runnable, "EventLoop-"+shard.index);
+            this.shard = shard;
+        }
+    }
+}
@@ -1,10 +1,14 @@
 package ib053.core;
 
-import com.esotericsoftware.jsonbeans.JsonReader;
-import com.esotericsoftware.jsonbeans.JsonValue;
+import com.koloboke.collect.map.LongLongMap;
 import com.koloboke.collect.map.LongObjMap;
-import com.koloboke.collect.map.hash.HashLongObjMap;
+import com.koloboke.collect.map.ObjLongMap;
+import com.koloboke.collect.map.hash.HashLongLongMaps;
 import com.koloboke.collect.map.hash.HashLongObjMaps;
+import com.koloboke.collect.map.hash.HashObjLongMaps;
+import com.koloboke.collect.set.LongSet;
+import com.koloboke.collect.set.hash.HashLongSets;
+import ib053.core.activities.FightingActivity;
 import ib053.core.activities.LevelUpActivity;
 import ib053.core.activities.LocationActivity;
 import ib053.frontend.Frontend;
@@ -12,12 +16,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.Future;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.LongConsumer;
 
 /**
@@ -28,141 +32,190 @@ public final class GameCore {
     private static final Logger LOG = LoggerFactory.getLogger(GameCore.class);
 
     private final Frontend[] frontends;
-    private final ScheduledExecutorService eventLoop = new ScheduledThreadPoolExecutor(1) {
-        @Override
-        protected void afterExecute(Runnable r, Throwable t) {
-            super.afterExecute(r, t);
+    private final EventLoop eventLoop;
 
-            if (t == null && r instanceof Future) {
-                try {
-                    ((Future) r).get();
-                } catch (Throwable e) {
-                    t = e;
-                }
-            }
+    static final long STARTING_LOCATION_ID = 0;
 
-            if (t != null) {
-                LOG.error("EventLoop item crashed", t);
-            }
-        }
-    };
-
-    private static final long STARTING_LOCATION_ID = 0;
+    /** Item which new players get equipped with */
+    static final long STARTING_ITEM_ID = 1;
 
-    private static final String LOCATION_FILE_NAME = "locations.json";
-    private final LongObjMap<Location> worldLocations;
-    private static final String ITEM_FILE_NAME = "items.json";
-    private final LongObjMap<Item> worldItems;
-    private static final String ENEMY_FILE_NAME = "enemies.json";
-    private final LongObjMap<Enemy> worldEnemies;
+    private final File resourceFolder;
+    /** Replaced as a whole by {@link #reloadWorld()} */
+    private volatile World world;
 
     private final File stateFolder;
-    private static final String PLAYER_FILE_NAME = "players.json";
-    private final LongObjMap<Player> players = HashLongObjMaps.newMutableMap();
-    private final LongObjMap<List<Player>> playersInLocation;
+    private final Settings.SnapshotFormat snapshotFormat;
+    private static final String PLAYER_FILE_NAME = "players";
+    private final LongObjMap<Player> players;
+    /** Ids of players by their {@link #foldName(String) folded} name, guarded by players */
+    private final ObjLongMap<String> playerIdsByName = HashObjLongMaps.newMutableMap();
+    /** Id which will be given to the next created player, only grows, guarded by players */
+    private long nextPlayerId = 1;
+    /** Hot state of players in memory, see {@link Player} */
+    final PlayerColumns playerColumns = new PlayerColumns();
 
-    private static final String ACTIVITY_FILE_NAME = "activities.json";
+    private static final String ACTIVITY_FILE_NAME = "activities";
     private final ActivityCache activityCache;
 
+    /** Measurements of this core, see {@link #getMetrics()} */
+    final Metrics metrics;
+    /** @see #getCoalescedActivityNotifications() */
+    private final LongAdder coalescedActivityNotifications = new LongAdder();
+
+    private static final String JOURNAL_FILE_NAME = "journal.bin";
+    /** Journal of changes since the last save, null if disabled */
+    private final Journal journal;
+    /** How often does the snapshotter check whether a snapshot is due */
+    private static final long SNAPSHOT_CHECK_SECONDS = 10;
+    /** @see Settings#snapshotJournalBytes */
+    private final long snapshotJournalBytes;
+    /** @see Settings#snapshotIntervalSeconds */
+    private final long snapshotIntervalNanos;
+    /** Saves snapshots while the game runs, see {@link #snapshotIfDue()}, null if it doesn't */
+    private ScheduledExecutorService snapshotter = null;
+    /** Roughly when was the first record of the journal committed, accessed only by the snapshotter */
+    private long journalStartNanos = System.nanoTime();
+
+    private static final String HIBERNATED_FILE_NAME = "hibernated.bin";
+    /** Hibernates inactive players, null if disabled, guarded by players */
+    private final PlayerResidency residency;
+    /** Whether the state was loaded, see {@link #isLoaded()} */
+    private boolean loaded = false;
+
+    /** Creates the game core with default {@link Settings}.
+     * @see #GameCore(File, File, Settings, Frontend...) */
+    public GameCore(File resourceFolder, File stateFolder, Frontend...frontends) {
+        this(resourceFolder, stateFolder, new Settings(), frontends);
+    }
+
     /** Creates the game core and starts the event loop, starting the game.
      * Handles the initialization of front-ends. */
-    public GameCore(File resourceFolder, File stateFolder, Frontend...frontends) {
+    public GameCore(File resourceFolder, File stateFolder, Settings settings, Frontend...frontends) {
         this.frontends = frontends;
+        this.eventLoop = new EventLoop(settings, new EventLoopListener());
+        this.resourceFolder = resourceFolder;
         this.stateFolder = stateFolder;
-        final File locationFile = new File(resourceFolder, LOCATION_FILE_NAME);
-        final File itemFile = new File(resourceFolder, ITEM_FILE_NAME);
-        final File enemyFile = new File(resourceFolder, ENEMY_FILE_NAME);
-        final File playerFile = new File(stateFolder, PLAYER_FILE_NAME);
-        final File activityFile = new File(stateFolder, ACTIVITY_FILE_NAME);
-
-        final JsonReader jsonReader = new JsonReader();
-
-        { // Load locations
-            final JsonValue locationJson = jsonReader.parse(locationFile);
-            assert locationJson.isArray();
-            final HashLongObjMap<Location> locations = HashLongObjMaps.newMutableMap((int) (locationJson.size * 1.25f));
-            for (JsonValue value : locationJson) {
-                final Location location = Location.read(value);
-                final Location previous = locations.put(location.id, location);
-                if (previous != null) {
-                    throw new IllegalArgumentException("Locations " + location.name + " and " + previous.name + " share identical ID " + previous.id);
-                }
+        this.snapshotFormat = settings.snapshotFormat;
+        this.snapshotJournalBytes = settings.snapshotJournalBytes;
+        this.snapshotIntervalNanos = TimeUnit.SECONDS.toNanos(settings.snapshotIntervalSeconds);
+        // Load the snapshot which was saved last, whatever its format
+        Settings.SnapshotFormat loadFormat = snapshotFormat;
+        for (Settings.SnapshotFormat format : Settings.SnapshotFormat.values()) {
+            if (format.playerFile(stateFolder).lastModified() > loadFormat.playerFile(stateFolder).lastModified()) {
+                loadFormat = format;
             }
-            worldLocations = HashLongObjMaps.newImmutableMap(locations);
-
-            // Fill playersInLocation with ArrayLists
-            playersInLocation = HashLongObjMaps.newImmutableMap((map) -> {
-                worldLocations.keySet().forEach((LongConsumer) id -> map.accept(id, new ArrayList<>()));
-            });
-
-            LOG.info("Loaded {} locations from {}", worldLocations.size(), locationFile);
         }
+        final File playerFile = loadFormat.playerFile(stateFolder);
+        final File activityFile = loadFormat.activityFile(stateFolder);
+        final File journalFile = new File(stateFolder, JOURNAL_FILE_NAME);
 
-        { // Load items
-            final JsonValue itemJson = jsonReader.parse(itemFile);
-            assert itemJson.isArray();
-            final HashLongObjMap<Item> items = HashLongObjMaps.newMutableMap((int) (itemJson.size * 1.25f));
-            for (JsonValue value : itemJson) {
-                final Item item = Item.read(value);
-                final Item previous = items.put(item.id, item);
-                if (previous != null) {
-                    throw new IllegalArgumentException("Items " + item.name + " and " + previous.name + " share identical ID " + previous.id);
-                }
-            }
-            worldItems = HashLongObjMaps.newImmutableMap(items);
-            LOG.info("Loaded {} items from {}", worldItems.size(), itemFile);
-        }
-
-        { // Load enemies
-            final JsonValue itemJson = jsonReader.parse(enemyFile);
-            assert itemJson.isArray();
-            final HashLongObjMap<Enemy> enemies = HashLongObjMaps.newMutableMap((int) (itemJson.size * 1.25f));
-            for (JsonValue value : itemJson) {
-                final Enemy enemy = Enemy.read(value);
-                final Enemy previous = enemies.put(enemy.id, enemy);
-                if (previous != null) {
-                    throw new IllegalArgumentException("Enemies " + enemy.name + " and " + previous.name + " share identical ID " + previous.id);
+        final long startTime = System.nanoTime();
+        try (StateLoader loader = new StateLoader()) {
+            { // Load world files, players are put into the sets of locations when their activities are restored
+                world = World.load(loader, resourceFolder, null);
+                for (String problem : world.check()) {
+                    LOG.warn("World: {}", problem);
                 }
+                LOG.info("Loaded {} locations, {} items and {} enemies from {} in {} ms",
+                        world.locations.size(), world.items.size(), world.enemies.size(), world.source, millisSince(startTime));
             }
-            worldEnemies = HashLongObjMaps.newImmutableMap(enemies);
-            LOG.info("Loaded {} enemies from {}", worldEnemies.size(), enemyFile);
-        }
-
-        { // Load players
-            if (playerFile.exists()) {
-                final JsonValue playerArray = new JsonReader().parse(playerFile);
-                assert playerArray.isArray();
 
-                for (JsonValue playerJson : playerArray) {
-                    final Player player;
+            { // Load players
+                final long playersStartTime = System.nanoTime();
+                if (playerFile.exists() && loadFormat == Settings.SnapshotFormat.BINARY) {
+                    players = HashLongObjMaps.newMutableMap();
                     try {
-                        player = Player.read(playerJson, this);
-                    } catch (Exception e) {
+                        PersistenceUtil.loadBinary(playerFile, PersistenceUtil.BINARY_KIND_PLAYERS, (in, version) -> {
+                            final Attribute[] attributeColumns = Attributes.readColumns(in);
+                            final Event.Template[] eventTemplates = version >= 3 ? EventHistory.readTemplates(in) : null;
+                            final int playerCount = in.readInt();
+                            players.ensureCapacity(playerCount);
+                            for (int i = 0; i < playerCount; i++) {
+                                final Player player = Player.read(in, attributeColumns, eventTemplates, this);
+                                final Player oldPlayer = players.put(player.getId(), player);
+                                if (oldPlayer != null) {
+                                    throw new IllegalArgumentException("Invalid save file, two players ("+player.getName()+" and "+oldPlayer.getName()+") share the same ID "+ player.getId()+"!");
+                                }
+                            }
+                            if (version >= 2) {
+                                nextPlayerId = in.readLong();
+                            }
+                        });
+                    } catch (PersistenceUtil.PersistenceException e) {
                         throw new IllegalArgumentException("Invalid save file", e);
                     }
-                    final Player oldPlayer = players.put(player.getId(), player);
-                    if (oldPlayer != null) {
-                        throw new IllegalArgumentException("Invalid save file, two players ("+player.getName()+" and "+oldPlayer.getName()+") share the same ID "+ player.getId()+"!");
+                    LOG.info("Loaded {} players from {} in {} ms", players.size(), playerFile, millisSince(playersStartTime));
+                } else if (playerFile.exists()) {
+                    final Map<String, String> values = new HashMap<>();
+                    players = loader.loadPlayers(playerFile, this, values);
+                    final String savedNextPlayerId = values.get("nextPlayerId");
+                    if (savedNextPlayerId != null) {
+                        nextPlayerId = Long.parseLong(savedNextPlayerId);
                     }
+                    LOG.info("Loaded {} players from {} in {} ms", players.size(), playerFile, millisSince(playersStartTime));
+                } else {
+                    players = HashLongObjMaps.newMutableMap();
+                    LOG.info("Loaded no players, no player file at {}", playerFile);
                 }
-                LOG.info("Loaded {} players from {}", players.size(), playerFile);
+                playerIdsByName.ensureCapacity(players.size());
+                for (Player player : players.values()) {
+                    player.shard = eventLoop.shardOf(player.getLocation());
+                    indexPlayer(player);
+                }
+            }
+        }
+
+        final JournalReplay journalReplay = new JournalReplay();
+        { // Replay changes since the last save
+            if (settings.journal) {
+                final long journalStartTime = System.nanoTime();
+                final long journalLength;
+                try {
+                    journalLength = Journal.replay(journalFile, journalReplay);
+                    journal = new Journal(journalFile, journalLength, settings.journalCommitMillis, TimeUnit.MILLISECONDS);
+                } catch (IOException e) {
+                    throw new IllegalArgumentException("Failed to open journal "+journalFile, e);
+                }
+                LOG.info("Replayed journal in {} ms", millisSince(journalStartTime));
             } else {
-                LOG.info("Loaded no players, no player file at {}", playerFile);
+                journal = null;
             }
         }
 
+        residency = PlayerResidency.enabled(settings)
+                ? new PlayerResidency(this, new File(stateFolder, HIBERNATED_FILE_NAME), settings)
+                : null;
+
         { // Load activities
-            activityCache = new ActivityCache(activityFile, this);
-            if(!activityCache.load()) {
-                eventLoop.shutdown();
+            final long activitiesStartTime = System.nanoTime();
+            activityCache = new ActivityCache(this);
+            metrics = new Metrics(this, eventLoop, activityCache, residency, frontends);
+            final boolean loaded = loadFormat == Settings.SnapshotFormat.BINARY
+                    ? activityCache.loadBinary(activityFile)
+                    : activityCache.load(activityFile);
+            if(!loaded) {
+                eventLoop.shutdownNow();
+                closeJournal(false);
                 return;
             }
+            journalReplay.restoreActivities();
+            LOG.info("Loaded activities from {} in {} ms", activityFile, millisSince(activitiesStartTime));
         }
+        loaded = true;
 
-        LOG.info("Starting with {} frontend(s)", frontends.length);
+        if (journal != null && (snapshotJournalBytes > 0 || snapshotIntervalNanos > 0)) {
+            snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "Snapshotter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotter.scheduleWithFixedDelay(this::snapshotIfDue, SNAPSHOT_CHECK_SECONDS, SNAPSHOT_CHECK_SECONDS, TimeUnit.SECONDS);
+        }
+
+        LOG.info("Starting with {} frontend(s) on {} event loop shard(s), loaded in {} ms", frontends.length, eventLoop.getShardCount(), millisSince(startTime));
 
         // Initialize this in the event loop, so that nothing may disrupt the initialization
-        eventLoop.execute(() -> {
+        eventLoop.schedule(() -> {
             for (Frontend frontend : frontends) {
                 LOG.info("Initializing frontend: {}", frontend.getClass().getSimpleName());
                 frontend.initialize(this);
@@ -172,30 +225,77 @@ public final class GameCore {
                 frontend.begin();
             }
 
+            if (residency != null) {
+                residency.begin();
+            }
+
             LOG.info("Initialization done");
-        });
+        }, 0, TimeUnit.NANOSECONDS);
     }
 
-    /** Posts given runnable into event loop to be run in given amount of time */
+    /** @return false if the saved state failed to load, the game then doesn't run and {@link #shutdown()} saves nothing */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    private static long millisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /** Posts given runnable into event loop to be run in given amount of time.
+     * Runs on the current shard, use {@link #schedule(Player, Runnable, long, TimeUnit)} for anything that touches a player. */
     public void schedule(Runnable runnable, long delay, TimeUnit unit) {
         eventLoop.schedule(runnable, delay, unit);
     }
 
+    /** Posts given runnable into event loop to be run in given amount of time,
+     * on the shard which owns the player at that time. */
+    public void schedule(Player player, Runnable runnable, long delay, TimeUnit unit) {
+        eventLoop.schedule(player, runnable, delay, unit);
+    }
+
     /** Creates a whole new Player, with given name.
      * Call initNewPlayer when ready to start playing.
-     * @return new player or null if the name is already taken. */
+     * @return new player or null if the name is already taken (ignoring case). */
     public Player createNewPlayer(String name) {
         assert name != null;
-        long id = 1; // Sequential player IDs for now
-        //Check if name is not taken
-        for (Player player : players.values()) {
-            if (player.getId() >= id) {
-                id = player.getId() + 1;
+        synchronized (players) {
+            final Player player = createPlayer(name);
+            if (player != null) {
+                LOG.info("Created new player named {} with id {}", name, player.getId());
             }
-            if (player.getName().equals(name)) {
-                return null;
+            return player;
+        }
+    }
+
+    /** Creates new players with given names, like {@link #createNewPlayer(String)}, but faster for many players.
+     * @return list of created players in the order of names, null for names which are already taken */
+    public List<Player> createNewPlayers(Collection<String> names) {
+        final ArrayList<Player> result = new ArrayList<>(names.size());
+        int created = 0;
+        synchronized (players) {
+            players.ensureCapacity(players.size() + names.size());
+            playerIdsByName.ensureCapacity(playerIdsByName.size() + names.size());
+            for (String name : names) {
+                assert name != null;
+                final Player player = createPlayer(name);
+                if (player != null) {
+                    created++;
+                }
+                result.add(player);
             }
         }
+        LOG.info("Created {} new players", created);
+        return result;
+    }
+
+    /** Must hold players lock. */
+    private Player createPlayer(String name) {
+        final String foldedName = foldName(name);
+        if (playerIdsByName.containsKey(foldedName)) {
+            return null;
+        }
+        final long id = nextPlayerId++;
 
         final Attributes attributes = new Attributes(true);
         attributes.set(Attribute.LEVEL, 1);
@@ -206,18 +306,41 @@ public final class GameCore {
         attributes.set(Attribute.LUCK, 5);
         attributes.set(Attribute.STAMINA, 5);
 
-        LOG.info("Created new player named {} with id {}", name, id);
         final Player player = new Player(this, id, name, attributes);
         players.put(id, player);
+        playerIdsByName.put(foldedName, id);
+        if (journal != null) {
+            journal.created(player);
+            markJournaled(player);
+        }
         return player;
     }
 
+    /** Adds loaded player into {@link #playerIdsByName} and makes sure that their id won't be given again.
+     * Must hold players lock, or be called during loading. */
+    private void indexPlayer(Player player) {
+        final String foldedName = foldName(player.getName());
+        if (playerIdsByName.containsKey(foldedName)) {
+            LOG.warn("Players {} and {} have the same name {}, only the first one can be found by name", playerIdsByName.getLong(foldedName), player.getId(), player.getName());
+        } else {
+            playerIdsByName.put(foldedName, player.getId());
+        }
+        if (player.getId() >= nextPlayerId) {
+            nextPlayerId = player.getId() + 1;
+        }
+    }
+
+    /** @return name in the form in which it is unique among players, that is, case-folded */
+    private static String foldName(String name) {
+        return name.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+    }
+
     public void initNewPlayer(Player player) {
         assert player.currentActivity == null;
-        assert player.location == null;
+        assert player.getLocation() == null;
 
-        player.setEquipment(worldItems.get(1));//Give player dull knife
-        changePlayerLocation(player, worldLocations.get(STARTING_LOCATION_ID));
+        player.setEquipment(getItem(STARTING_ITEM_ID));//Give player dull knife
+        changePlayerLocation(player, getLocation(STARTING_LOCATION_ID));
         changePlayerActivityToDefault(player);
     }
 
@@ -225,15 +348,16 @@ public final class GameCore {
         assert player != null;
         assert toPlace != null;
 
-        if (player.location != null) {
-            final List<Player> playersInOldLocation = playersInLocation.get(player.location.id);
-            assert playersInOldLocation != null;
-            playersInOldLocation.remove(player);
+        final Location fromPlace = player.getLocation();
+        if (fromPlace != null) {
+            world.playersInLocation.get(fromPlace.id).removePlayer(player);
+        }
+        player.setLocation(toPlace);
+        world.playersInLocation.get(toPlace.id).addPlayer(player);
+        eventLoop.relocate(player, toPlace);
+        if (journal != null) {
+            journal.location(player);
         }
-        player.location = toPlace;
-        final List<Player> playersInNewLocation = playersInLocation.get(toPlace.id);
-        assert playersInNewLocation != null;
-        playersInNewLocation.add(player);
     }
 
     /**
@@ -241,8 +365,9 @@ public final class GameCore {
      * This is the only way to change player's activity.
      *
      * Calls respective Activity.begin/endActivity() and {@link #notifyPlayerActivityChanged(Player)}.
+     * @param locationId of per-location activity, -1 for other activities
      */
-    private void changePlayerActivityNoCheck(Player player, ActivityBase newActivity) {
+    private void changePlayerActivityNoCheck(Player player, ActivityBase newActivity, long locationId) {
         assert player != null;
         assert newActivity != null;
 
@@ -251,12 +376,15 @@ public final class GameCore {
 
         if (oldActivity != null) {
             oldActivity.endActivity(player);
-            oldActivity.engagedPlayers.remove(player);
+            oldActivity.engagedPlayers.removePlayer(player);
             activityCache.refreshPossiblyCustomActivity(oldActivity);
         }
 
         player.currentActivity = newActivity;
-        player.currentActivity.engagedPlayers.add(player);
+        newActivity.engagedPlayers.addPlayer(player);
+        if (journal != null) {
+            journal.activity(player, newActivity.getClass(), locationId, System.currentTimeMillis());
+        }
         newActivity.beginActivity(player);
         activityCache.refreshPossiblyCustomActivity(newActivity);
 
@@ -268,17 +396,17 @@ public final class GameCore {
         assert activityCache.getActivityType(customActivity.getClass()) == ActivityType.CUSTOM_ACTIVITY;
 
         activityCache.ensureInitialized(customActivity);
-        changePlayerActivityNoCheck(player, customActivity);
+        changePlayerActivityNoCheck(player, customActivity, -1);
     }
 
     /** Change player's activity into singleton activity */
     public void changePlayerActivity(Player player, Class<? extends ActivityBase> singletonActivityType) {
-        changePlayerActivityNoCheck(player, activityCache.getSingletonActivity(singletonActivityType));
+        changePlayerActivityNoCheck(player, activityCache.getSingletonActivity(singletonActivityType), -1);
     }
 
     /** Change player's activity into per-location activity */
     public void changePlayerActivity(Player player, Class<? extends ActivityBase> locationActivityType, Location location) {
-        changePlayerActivityNoCheck(player, activityCache.getLocationActivity(locationActivityType, location));
+        changePlayerActivityNoCheck(player, activityCache.getLocationActivity(locationActivityType, location), location.id);
     }
 
     /** Changes the player's activity to default activity (LocationActivity, usually) */
@@ -286,92 +414,477 @@ public final class GameCore {
         changePlayerActivity(player, LocationActivity.class, player.getLocation());
     }
 
+    /** Puts the player into the activity without calling its begin/endActivity(), used when restoring saved state. */
+    private void restorePlayerActivity(Player player, ActivityBase activity) {
+        final ActivityBase oldActivity = player.currentActivity;
+        if (oldActivity == activity) return;
+
+        if (oldActivity != null) {
+            oldActivity.engagedPlayers.removePlayer(player);
+            activityCache.refreshPossiblyCustomActivity(oldActivity);
+        }
+        player.currentActivity = activity;
+        activity.engagedPlayers.addPlayer(player);
+        activityCache.refreshPossiblyCustomActivity(activity);
+    }
+
+    /** Called by {@link Player#setEquipment(Item)} */
+    void journalEquipment(Player player, Item item) {
+        if (journal != null) {
+            journal.equipment(player, item);
+        }
+    }
+
+    /** Writes health, experience, virtue points and attributes of the player into the journal, if they have changed.
+     * Called after every event loop task done for the player, which is when these usually change. */
+    private void journalVitals(Player player) {
+        if (journal == null) return;
+        if (player.getHealth() != player.journaledHealth
+                || player.getExperience() != player.journaledExperience
+                || player.getVirtuePoints() != player.journaledVirtuePoints
+                || player.attributes.getVersion() != player.journaledAttributesVersion) {
+            journal.vitals(player);
+            markJournaled(player);
+        }
+    }
+
+    private static void markJournaled(Player player) {
+        player.journaledHealth = player.getHealth();
+        player.journaledExperience = player.getExperience();
+        player.journaledVirtuePoints = player.getVirtuePoints();
+        player.journaledAttributesVersion = player.attributes.getVersion();
+    }
+
     /** Called when player has new actions to choose from.
-     * Delegates this notification to frontends.
+     * Delegates this notification to frontends, at the end of the current event loop task,
+     * so that frontends are notified only once, no matter how many times the activity has changed during the task.
      * Called automatically when changing activity. */
     public void notifyPlayerActivityChanged(Player player) {
-        for (Frontend frontend : frontends) {
-            frontend.playerActivityChanged(player);
+        if (player.activityChangedPending) {
+            coalescedActivityNotifications.increment();
+            return;
         }
+        if (deferNotifications(player)) {
+            player.activityChangedPending = true;
+        } else {
+            // Not in event loop, nothing to coalesce with
+            deliverActivityChanged(player);
+        }
+    }
+
+    /** @return how many activity change notifications were not delivered,
+     * because the player was already going to be notified at the end of the task */
+    public long getCoalescedActivityNotifications() {
+        return coalescedActivityNotifications.sum();
     }
 
     /** Called by {@link ActivityBase} when player has witnessed an Event.
-     * Delegates this notification to frontends. */
+     * Delegates this notification to frontends, at the end of the current event loop task,
+     * together with all other events of the player from the task, see {@link Frontend#playerReceiveEvents(Player, List)}. */
     public void notifyPlayerEventHappened(Player player, Event event) {
-        for (Frontend frontend : frontends) {
-            frontend.playerReceiveEvent(player, event);
+        player.getEventHistory().record(event);
+        if (deferNotifications(player)) {
+            ArrayList<Event> pendingEvents = player.pendingEvents;
+            if (pendingEvents == null) {
+                player.pendingEvents = pendingEvents = new ArrayList<>();
+            }
+            pendingEvents.add(event);
+        } else {
+            deliverEvents(player, Collections.singletonList(event));
+        }
+    }
+
+    /** @return true if the notifications for the player will be flushed at the end of the current task,
+     * false if not in event loop and they have to be delivered immediately */
+    private boolean deferNotifications(Player player) {
+        return player.notificationsDeferred || (player.notificationsDeferred = eventLoop.deferNotifications(player));
+    }
+
+    /** Deliver notifications of the player, which were deferred until the end of the task.
+     * Events go first, so that frontends see them before the resulting activity. */
+    private void flushNotifications(Player player) {
+        player.notificationsDeferred = false;
+
+        final ArrayList<Event> pendingEvents = player.pendingEvents;
+        if (pendingEvents != null && !pendingEvents.isEmpty()) {
+            // Detached, events caused by frontends go to a new list and are flushed again
+            player.pendingEvents = null;
+            try {
+                deliverEvents(player, pendingEvents);
+            } finally {
+                pendingEvents.clear();
+                if (player.pendingEvents == null) {
+                    player.pendingEvents = pendingEvents;
+                }
+            }
+        }
+
+        if (player.activityChangedPending) {
+            player.activityChangedPending = false;
+            deliverActivityChanged(player);
         }
     }
 
+    private void deliverEvents(Player player, List<Event> events) {
+        final Frontend[] frontends = this.frontends;
+        for (int i = 0; i < frontends.length; i++) {
+            final long startNanos = System.nanoTime();
+            frontends[i].playerReceiveEvents(player, events);
+            metrics.frontendLatency[i].record(System.nanoTime() - startNanos);
+        }
+    }
+
+    private void deliverActivityChanged(Player player) {
+        final Frontend[] frontends = this.frontends;
+        for (int i = 0; i < frontends.length; i++) {
+            final long startNanos = System.nanoTime();
+            frontends[i].playerActivityChanged(player);
+            metrics.frontendLatency[i].record(System.nanoTime() - startNanos);
+        }
+    }
+
+    private static final Event.Template EXPERIENCE_GAINED = Event.Template.of("You have gained {0} xp");
+    private static final Event.Template EXPERIENCE_GAINED_TOWARDS_LEVEL = Event.Template.of("You have gained {0} xp ({1}% to next level)");
+
     public void giveExperience(Player player, int experiencePoints) {
-        player.experience += experiencePoints;
+        player.setExperience(player.getExperience() + experiencePoints);
         final int xpToNextLevel = player.getXpToNextLevel();
-        if (player.experience >= xpToNextLevel) {
-            notifyPlayerEventHappened(player, new Event("You have gained "+experiencePoints+" xp"));
+        if (player.getExperience() >= xpToNextLevel) {
+            notifyPlayerEventHappened(player, new Event(EXPERIENCE_GAINED, experiencePoints));
             changePlayerActivity(player, LevelUpActivity.class);
         } else {
-            notifyPlayerEventHappened(player, new Event("You have gained "+experiencePoints+" xp ("+(player.experience * 100 / xpToNextLevel)+"% to next level)"));
+            notifyPlayerEventHappened(player, new Event(EXPERIENCE_GAINED_TOWARDS_LEVEL, experiencePoints, player.getExperience() * 100 / xpToNextLevel));
+        }
+    }
+
+    /** @return amount of all players, including those who are not playing at the moment */
+    public int getPlayerCount() {
+        synchronized (players) {
+            return players.size() + (residency == null ? 0 : residency.getHibernatedCount());
+        }
+    }
+
+    /** @return amount of players kept in memory, that is, all players minus the hibernated ones */
+    public int getResidentPlayerCount() {
+        synchronized (players) {
+            return players.size();
         }
     }
 
-    /** @return Player with given ID or null if no such player exists */
+    /** @return measurements of this core, to be exported for monitoring */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /** @return Player with given ID or null if no such player exists.
+     * Hibernated player is faulted in, see {@link Settings#hibernateAfterSeconds}. */
     public Player findPlayer(long playerId) {
-        return players.get(playerId);
+        synchronized (players) {
+            return findResidentPlayer(playerId);
+        }
+    }
+
+    /** @return Player with given name (ignoring case) or null if no such player exists.
+     * Hibernated player is faulted in, see {@link Settings#hibernateAfterSeconds}. */
+    public Player findPlayerByName(String name) {
+        final String foldedName = foldName(name);
+        synchronized (players) {
+            if (!playerIdsByName.containsKey(foldedName)) return null;
+            return findResidentPlayer(playerIdsByName.getLong(foldedName));
+        }
+    }
+
+    /** Must hold players lock.
+     * @return player from memory, faulted in if hibernated, or null if no such player exists */
+    private Player findResidentPlayer(long playerId) {
+        final Player player = players.get(playerId);
+        if (residency == null) {
+            return player;
+        } else if (player != null) {
+            residency.hit(player);
+            return player;
+        }
+
+        final Player woken = residency.wake(playerId);
+        if (woken == null) return null;
+        final Location location = woken.getLocation();
+        woken.shard = eventLoop.shardOf(location);
+        players.put(playerId, woken);
+        world.playersInLocation.get(location.id).addPlayer(woken);
+        restorePlayerActivity(woken, activityCache.getLocationActivity(LocationActivity.class, location));
+        markJournaled(woken);
+        return woken;
+    }
+
+    /** Called on the player's shard, to hibernate the player chosen by {@link PlayerResidency}.
+     * Does nothing if the player has been active since they were chosen, or can't be hibernated anymore. */
+    void hibernate(Player player, long lastActiveNanos) {
+        synchronized (players) {
+            final Location location = player.getLocation();
+            if (player.lastActiveNanos != lastActiveNanos
+                    || players.get(player.getId()) != player
+                    || player.currentActivity != activityCache.getLocationActivity(LocationActivity.class, location)
+                    || player.handoffShard != -1
+                    || player.notificationsDeferred
+                    || isPlaying(player)) {
+                return;
+            }
+            residency.hibernate(player);
+            players.remove(player.getId());
+            world.playersInLocation.get(location.id).removePlayer(player);
+            player.currentActivity.engagedPlayers.removePlayer(player);
+            player.currentActivity = null;
+            player.freeSlot();
+        }
+    }
+
+    /** Called by {@link PlayerResidency} periodically */
+    void compactHibernatedPlayers() {
+        synchronized (players) {
+            residency.compactIfNeeded();
+        }
+    }
+
+    /** @return true if any frontend is playing the player at the moment, see {@link Frontend#isPlaying(Player)} */
+    boolean isPlaying(Player player) {
+        for (Frontend frontend : frontends) {
+            if (frontend.isPlaying(player)) return true;
+        }
+        return false;
     }
 
     /** @return Player with given ID
      * @throws IllegalArgumentException if not such player exists */
     public Player getPlayer(long playerId) {
-        final Player result = players.get(playerId);
+        final Player result = findPlayer(playerId);
         if (result == null) throw new IllegalArgumentException("Unknown player "+playerId);
         return result;
     }
 
+    /** @return read-only view of players in given location, see {@link PlayerSet} */
+    public Collection<Player> getPlayersIn(Location location) {
+        return world.playersInLocation.get(location.id);
+    }
+
+    /** @return amount of players in given location */
+    public int getPopulation(Location location) {
+        return world.playersInLocation.get(location.id).size();
+    }
+
     /** @return Location with given ID or null if no such location exists */
     public Location findLocation(long locationId) {
-        return worldLocations.get(locationId);
+        return world.locations.get(locationId);
     }
 
     /** @return Location with given ID
      * @throws IllegalArgumentException if not such location exists */
     public Location getLocation(long locationId) {
-        final Location result = worldLocations.get(locationId);
+        final Location result = world.locations.get(locationId);
         if (result == null) throw new IllegalArgumentException("Unknown location "+locationId);
         return result;
     }
 
     /** @return Item with given ID or null if no such item exists */
     public Item findItem(long itemId) {
-        return worldItems.get(itemId);
+        return world.items.get(itemId);
     }
 
     /** @return Item with given ID
      * @throws IllegalArgumentException if not such item exists */
     public Item getItem(long itemId) {
-        final Item result = worldItems.get(itemId);
+        final Item result = world.items.get(itemId);
         if (result == null) throw new IllegalArgumentException("Unknown item "+itemId);
         return result;
     }
 
     /** @return Enemy with given ID or null if no such enemy exists */
     public Enemy findEnemy(long enemyId) {
-        return worldEnemies.get(enemyId);
+        return world.enemies.get(enemyId);
     }
 
     /** @return Enemy with given ID
      * @throws IllegalArgumentException if not such enemy exists */
     public Enemy getEnemy(long enemyId) {
-        final Enemy result = worldEnemies.get(enemyId);
+        final Enemy result = world.enemies.get(enemyId);
         if (result == null) throw new IllegalArgumentException("Unknown enemy "+enemyId);
         return result;
     }
 
+    /** Compile the world files of the resource folder into a binary image, which is loaded much faster than the files.
+     * Image is used only while the files stay as they were when it was compiled, otherwise the files are loaded. */
+    public static void compileWorld(File resourceFolder) throws PersistenceUtil.PersistenceException {
+        World.compile(resourceFolder);
+    }
+
+    /** @return sets of players of all locations */
+    Collection<PlayerSet> getPlayersInLocations() {
+        return world.playersInLocation.values();
+    }
+
+    /** Load the world files again and replace the world with them, without stopping the game.
+     *
+     * Files are parsed and checked on the calling thread, then the world is replaced while the event loop waits between tasks.
+     * Players stay where they are, with what they have, now as described by the new files. Per-location activities
+     * with players are built again for the new locations and their players moved over, without ending or beginning
+     * any activity, frontends are notified that the activity has changed. Fights in progress keep their enemy as it was.
+     *
+     * Nothing is replaced when the new world refers to something that it does not have, or when it lacks something
+     * which players refer to: locations in which players are, items which they have and enemies which they fight.
+     * Must not be called from the event loop.
+     * @return true if the world has been replaced, problems are logged otherwise */
+    public boolean reloadWorld() {
+        if (eventLoop.currentShard() != null) throw new IllegalStateException("World can't be reloaded from the event loop");
+        final long startTime = System.nanoTime();
+
+        final World newWorld;
+        try (StateLoader loader = new StateLoader()) {
+            newWorld = World.load(loader, resourceFolder, world);
+        } catch (RuntimeException e) {
+            LOG.error("Not reloading world, failed to load it from {}", resourceFolder, e);
+            return false;
+        }
+        final List<String> problems = newWorld.check();
+
+        if (problems.isEmpty()) {
+            try {
+                final boolean paused = eventLoop.runPaused(() -> {
+                    synchronized (players) {
+                        checkReferences(newWorld, problems);
+                        if (problems.isEmpty()) {
+                            replaceWorld(newWorld);
+                        }
+                    }
+                }, 10, TimeUnit.SECONDS);
+                if (!paused) {
+                    problems.add("Event loop did not stop between tasks");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                problems.add("Interrupted while waiting for the event loop");
+            }
+        }
+
+        if (!problems.isEmpty()) {
+            LOG.error("Not reloading world from {}:", resourceFolder);
+            for (String problem : problems) {
+                LOG.error("World: {}", problem);
+            }
+            return false;
+        }
+        LOG.info("Reloaded {} locations, {} items and {} enemies from {} in {} ms",
+                newWorld.locations.size(), newWorld.items.size(), newWorld.enemies.size(), newWorld.source, millisSince(startTime));
+        return true;
+    }
+
+    /** Called when the event loop is paused and with players lock.
+     * Adds descriptions of what players need from the world, but the new world does not have, into problems. */
+    private void checkReferences(World newWorld, List<String> problems) {
+        final LongSet locationIds = HashLongSets.newMutableSet();
+        final LongSet itemIds = HashLongSets.newMutableSet();
+        final LongSet enemyIds = HashLongSets.newMutableSet();
+        for (Player player : players.values()) {
+            player.forEachReference(locationIds::add, itemIds::add);
+            if (player.currentActivity instanceof FightingActivity) {
+                enemyIds.add(((FightingActivity) player.currentActivity).getEnemy().id);
+            }
+        }
+        if (residency != null) {
+            residency.collectReferences(locationIds, itemIds);
+        }
+
+        locationIds.forEach((LongConsumer) id -> {
+            if (id != PlayerColumns.NO_LOCATION && !newWorld.locations.containsKey(id)) {
+                problems.add("Location "+id+" would be removed, but there are players in it");
+            }
+        });
+        itemIds.forEach((LongConsumer) id -> {
+            if (!newWorld.items.containsKey(id)) {
+                problems.add("Item "+id+" would be removed, but players have it");
+            }
+        });
+        enemyIds.forEach((LongConsumer) id -> {
+            if (!newWorld.enemies.containsKey(id)) {
+                problems.add("Enemy "+id+" would be removed, but players fight it");
+            }
+        });
+    }
+
+    /** Called when the event loop is paused and with players lock, after {@link #checkReferences(World, List)} found no problems. */
+    private void replaceWorld(World newWorld) {
+        world = newWorld;
+        for (Player player : players.values()) {
+            player.worldReloaded();
+        }
+        activityCache.reloadLocationActivities(newWorld.locations, (player, activity) -> {
+            restorePlayerActivity(player, activity);
+            schedule(player, () -> notifyPlayerActivityChanged(player), 0, TimeUnit.NANOSECONDS);
+        });
+    }
+
+    /** Called by the snapshotter, saves a snapshot when the journal has grown too long or too old,
+     * so that it doesn't grow without bound and its replay stays short. */
+    private void snapshotIfDue() {
+        final long now = System.nanoTime();
+        final long journalLength = journal.getCommittedLength();
+        if (journalLength == 0) {
+            journalStartNanos = now;
+            return;
+        }
+        if ((snapshotJournalBytes > 0 && journalLength >= snapshotJournalBytes)
+                || (snapshotIntervalNanos > 0 && now - journalStartNanos >= snapshotIntervalNanos)) {
+            LOG.info("Saving snapshot, journal has {} bytes", journalLength);
+            snapshot();
+        }
+    }
+
+    /** Save players and activities while the event loop waits between tasks, like {@link #reloadWorld()} replaces the world,
+     * then truncate the journal, as everything in it is in the saved files.
+     * Must not be called from the event loop.
+     * @return true if saved, problems are logged otherwise */
+    boolean snapshot() {
+        if (eventLoop.currentShard() != null) throw new IllegalStateException("Snapshot can't be saved from the event loop");
+        final boolean[] saved = {false};
+        try {
+            final boolean paused = eventLoop.runPaused(() -> {
+                // Players may be created and woken outside of the event loop
+                synchronized (players) {
+                    saved[0] = saveState();
+                    if (saved[0] && journal != null) {
+                        try {
+                            journal.truncate();
+                        } catch (IOException e) {
+                            LOG.error("Failed to truncate journal", e);
+                        }
+                    }
+                }
+            }, 10, TimeUnit.SECONDS);
+            if (!paused) {
+                LOG.warn("Not saving snapshot, event loop did not stop between tasks");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Not saving snapshot, interrupted while waiting for the event loop");
+        }
+        return saved[0];
+    }
+
     public void shutdown() {
         LOG.info("Shutting down");
 
-        eventLoop.shutdown();
+        if (snapshotter != null) {
+            // Snapshot in progress needs the event loop, let it finish
+            snapshotter.shutdown();
+            try {
+                if (!snapshotter.awaitTermination(1, TimeUnit.MINUTES)) {
+                    LOG.warn("Snapshot is still being saved, shutting down anyway");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
         try {
-            if(eventLoop.awaitTermination(10, TimeUnit.SECONDS)) {
+            if(eventLoop.shutdown(10, TimeUnit.SECONDS)) {
                 LOG.info("Event loop terminated");
             } else {
                 LOG.warn("Event loop doesn't want to terminate, shutting down");
@@ -382,23 +895,310 @@ public final class GameCore {
             eventLoop.shutdownNow();
         }
 
+        if (!loaded) {
+            // Saving would overwrite the state which failed to load with whatever part of it was loaded
+            LOG.warn("State was not loaded, not saving it");
+            if (residency != null) {
+                residency.close();
+            }
+            return;
+        }
+
+        final boolean saved = saveState();
+        // Everything in the journal is now in the save files
+        closeJournal(saved);
+        if (residency != null) {
+            residency.close();
+        }
+    }
+
+    /** Save players and activities into the files of {@link #snapshotFormat}. Nothing may modify them concurrently.
+     * @return true if both were saved */
+    private boolean saveState() {
+        final long saveStartTime = System.nanoTime();
+        boolean saved = true;
+        final File playerFile = snapshotFormat.playerFile(stateFolder);
         { // Save players
             try {
-                final File playerFile = new File(stateFolder, PLAYER_FILE_NAME);
-                PersistenceUtil.saveJsonSecurely(playerFile, json -> {
-                    json.writeArrayStart();
-                    for (Player player : players.values()) {
-                        Player.write(json, player);
-                    }
-                    json.writeArrayEnd();
-                });
-                LOG.info("{} players saved to {}", players.size(), playerFile);
+                savePlayers();
+                LOG.info("{} players saved to {}", getPlayerCount(), playerFile);
             } catch (PersistenceUtil.PersistenceException e) {
                 LOG.error("Failed to save players file", e);
+                saved = false;
+            }
+        }
+
+        final File activityFile = snapshotFormat.activityFile(stateFolder);
+        { // Save activities
+            saved &= snapshotFormat == Settings.SnapshotFormat.BINARY
+                    ? activityCache.saveBinary(activityFile)
+                    : activityCache.save(activityFile);
+        }
+        if (saved) {
+            metrics.recordSave(System.nanoTime() - saveStartTime, playerFile.length() + activityFile.length());
+        }
+        return saved;
+    }
+
+    /** Save all players into the player file of {@link #snapshotFormat}, including the hibernated ones.
+     * Nothing may modify the players concurrently.
+     * @return the saved file */
+    File savePlayers() throws PersistenceUtil.PersistenceException {
+        final File playerFile = snapshotFormat.playerFile(stateFolder);
+        if (snapshotFormat == Settings.SnapshotFormat.BINARY) {
+            PersistenceUtil.saveBinarySecurely(playerFile, PersistenceUtil.BINARY_KIND_PLAYERS, out -> {
+                Attributes.writeColumns(out);
+                EventHistory.writeTemplates(out);
+                out.writeInt(getPlayerCount());
+                for (Player player : players.values()) {
+                    Player.write(out, player);
+                }
+                if (residency != null) {
+                    residency.writeHibernated(out);
+                }
+                out.writeLong(nextPlayerId);
+            });
+        } else {
+            PersistenceUtil.saveJsonSecurely(playerFile, json -> {
+                json.writeObjectStart();
+                json.writeValue("nextPlayerId", nextPlayerId, long.class);
+                json.writeArrayStart("players");
+                for (Player player : players.values()) {
+                    Player.write(json, player);
+                }
+                if (residency != null) {
+                    residency.writeHibernated(json);
+                }
+                json.writeArrayEnd();
+                json.writeObjectEnd();
+            });
+        }
+        return playerFile;
+    }
+
+    private void closeJournal(boolean truncate) {
+        if (journal == null) return;
+        try {
+            if (truncate) {
+                journal.truncate();
+            }
+            journal.close();
+        } catch (IOException e) {
+            LOG.error("Failed to close journal", e);
+        }
+    }
+
+    private final class EventLoopListener implements EventLoop.TaskListener {
+        @Override
+        public void taskFinished(Player owner) {
+            // Task has hibernated its owner, whose slot may already hold another player
+            if (owner.freed) return;
+            owner.lastActiveNanos = System.nanoTime();
+            journalVitals(owner);
+        }
+
+        @Override
+        public void flushNotifications(Player player) {
+            GameCore.this.flushNotifications(player);
+        }
+    }
+
+    /** Applies journal records on top of the loaded players.
+     * Activities are restored only after they are loaded. */
+    private final class JournalReplay implements Journal.Replay {
+
+        private final LongObjMap<String> activityClasses = HashLongObjMaps.newMutableMap();
+        private final LongLongMap activityLocations = HashLongLongMaps.newMutableMap();
+        private final LongLongMap activityBeganMillis = HashLongLongMaps.newMutableMap();
+
+        private Player player(long playerId) {
+            final Player player = players.get(playerId);
+            if (player == null) {
+                LOG.warn("Journal refers to unknown player {}", playerId);
+            }
+            return player;
+        }
+
+        private void setAttributes(Player player, int[] attributes) {
+            for (int i = 0; i < attributes.length; i++) {
+                if (player.attributes.getRaw(Attribute.VALUES[i]) != attributes[i]) {
+                    player.attributes.set(Attribute.VALUES[i], attributes[i]);
+                }
+            }
+        }
+
+        @Override
+        public void created(long playerId, String name, int[] attributes) {
+            if (players.containsKey(playerId)) return;
+            final Player player = new Player(GameCore.this, playerId, name, new Attributes(true));
+            setAttributes(player, attributes);
+            player.setHealth(player.getMaxHealth());
+            players.put(playerId, player);
+            indexPlayer(player);
+        }
+
+        @Override
+        public void location(long playerId, long locationId) {
+            final Player player = player(playerId);
+            final Location location = findLocation(locationId);
+            if (player == null || location == null) return;
+            player.setLocation(location);
+            player.shard = eventLoop.shardOf(location);
+        }
+
+        @Override
+        public void equipment(long playerId, long itemId) {
+            final Player player = player(playerId);
+            final Item item = findItem(itemId);
+            if (player == null || item == null || !item.type.canEquip) return;
+            player.setEquipment(item);
+        }
+
+        @Override
+        public void vitals(long playerId, int health, int experience, int virtuePoints, int[] attributes) {
+            final Player player = player(playerId);
+            if (player == null) return;
+            player.setHealth(health);
+            player.setExperience(experience);
+            player.setVirtuePoints(virtuePoints);
+            setAttributes(player, attributes);
+        }
+
+        @Override
+        public void activity(long playerId, String activityClass, long locationId, long beganMillis) {
+            activityClasses.put(playerId, activityClass);
+            activityLocations.put(playerId, locationId);
+            activityBeganMillis.put(playerId, beganMillis);
+        }
+
+        /** Puts all players into their location and journaled activity, called once everything is loaded. */
+        void restoreActivities() {
+            for (Player player : players.values()) {
+                Location location = player.getLocation();
+                if (location == null) {
+                    // Created, but crashed before being placed anywhere
+                    location = getLocation(STARTING_LOCATION_ID);
+                    player.setLocation(location);
+                    player.shard = eventLoop.shardOf(location);
+                }
+                world.playersInLocation.get(location.id).addPlayer(player);
+
+                final String activityClassName = activityClasses.get(player.getId());
+                ActivityBase activity = null;
+                if (activityClassName != null) {
+                    try {
+                        final Class<? extends ActivityBase> activityClass = Class.forName(activityClassName).asSubclass(ActivityBase.class);
+                        switch (activityCache.getActivityType(activityClass)) {
+                            case SINGLETON_ACTIVITY:
+                                activity = activityCache.getSingletonActivity(activityClass);
+                                break;
+                            case PER_LOCATION_ACTIVITY: {
+                                final Location activityLocation = findLocation(activityLocations.get(player.getId()));
+                                if (activityLocation != null) {
+                                    activity = activityCache.getLocationActivity(activityClass, activityLocation);
+                                }
+                                break;
+                            }
+                            case CUSTOM_ACTIVITY:
+                                // State of custom activities is not journaled, player gets default activity
+                                break;
+                        }
+                    } catch (ClassNotFoundException | ClassCastException | IllegalArgumentException e) {
+                        LOG.warn("Can't restore journaled activity {} of player {}", activityClassName, player.getId(), e);
+                    }
+                } else if (player.currentActivity != null) {
+                    activity = player.currentActivity;
+                }
+
+                if (activity == null) {
+                    activity = activityCache.getLocationActivity(LocationActivity.class, location);
+                }
+                final boolean journaled = activity != player.currentActivity && activityClassName != null;
+                restorePlayerActivity(player, activity);
+                if (journaled) {
+                    // The activity's state from the snapshot doesn't know about the player yet
+                    activity.resumeActivity(player, activityBeganMillis.get(player.getId()));
+                }
+                markJournaled(player);
             }
         }
+    }
+
+    /** Tunable parameters of the {@link GameCore}. */
+    public static final class Settings {
+        /** Amount of event loop shards, each running on its own thread.
+         * More than one shard requires the frontends to handle calls for different players from different threads.
+         * @see EventLoop */
+        public int shards = 1;
+
+        /** Whether to keep the journal of player changes, so that they survive a crash */
+        public boolean journal = true;
+        /** How often is the journal written and forced to the disk, changes of this last interval may be lost in crash */
+        public int journalCommitMillis = 5;
+        /** When the journal grows over this many bytes, players and activities are saved while the game runs
+         * and the journal is truncated. 0 to save only when the game shuts down. */
+        public long snapshotJournalBytes = 64L << 20;
+        /** Players and activities are also saved when the oldest record of the journal is this old, 0 for no limit.
+         * @see #snapshotJournalBytes */
+        public int snapshotIntervalSeconds = 3600;
+
+        /** Format in which are players and activities saved.
+         * Loaded is the format which was saved most recently, so the format may be changed between runs. */
+        public SnapshotFormat snapshotFormat = SnapshotFormat.JSON;
+
+        /** How are delayed tasks ({@link #schedule(Runnable, long, TimeUnit)}) kept until they are due. */
+        public Scheduler scheduler = Scheduler.EXECUTOR;
+        /** Length of one tick of {@link Scheduler#TIMING_WHEEL}, delayed tasks run at most this late */
+        public int timerTickMillis = 10;
+        /** Amount of ticks in one revolution of {@link Scheduler#TIMING_WHEEL}.
+         * Tasks delayed by more than one revolution are slightly more expensive. */
+        public int timerWheelSize = 512;
+
+        /** Players who stay in {@link LocationActivity} for this long without doing anything, and whom no frontend plays,
+         * are hibernated: written to the disk and removed from memory, until they are found again. 0 to never hibernate idle players.
+         * @see PlayerResidency */
+        public int hibernateAfterSeconds = 0;
+        /** When more players are in memory, the least recently active of those who can be hibernated are hibernated, 0 for no limit */
+        public int maxResidentPlayers = 0;
+        /** When players in memory take more than this many bytes (estimated), the least recently active of those who can be
+         * hibernated are hibernated, 0 for no limit */
+        public long maxResidentBytes = 0;
+        /** How often are players checked for hibernation */
+        public int residencySweepMillis = 1000;
+
+        /** When set, tasks of each player use their own {@link RandomStream} seeded by this and the player's id,
+         * so that fights and everything else a player does are reproducible, independently of other players.
+         * When null, each event loop thread uses its own randomly seeded stream. */
+        public Long randomSeed = null;
+
+        public enum SnapshotFormat {
+            /** Human readable, players.json and activities.json */
+            JSON(".json"),
+            /** Compact and fast, players.bin and activities.bin, see {@link PersistenceUtil#saveBinarySecurely} */
+            BINARY(".bin");
+
+            private final String extension;
 
-        // Save activities
-        activityCache.save();
+            SnapshotFormat(String extension) {
+                this.extension = extension;
+            }
+
+            File playerFile(File stateFolder) {
+                return new File(stateFolder, PLAYER_FILE_NAME + extension);
+            }
+
+            File activityFile(File stateFolder) {
+                return new File(stateFolder, ACTIVITY_FILE_NAME + extension);
+            }
+        }
+
+        public enum Scheduler {
+            /** Delayed tasks are held in the priority queue of a {@link java.util.concurrent.ScheduledThreadPoolExecutor}.
+             * Precise, but O(log n) and one allocation per task. Tasks still pending at shutdown are run. */
+            EXECUTOR,
+            /** Delayed tasks are held in a {@link TimingWheel}.
+             * O(1) without allocation, precise to {@link #timerTickMillis}. Tasks still pending at shutdown are dropped. */
+            TIMING_WHEEL
+        }
     }
 }
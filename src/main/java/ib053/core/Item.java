@@ -2,6 +2,8 @@ package ib053.core;
 
 import com.esotericsoftware.jsonbeans.JsonValue;
 
+import java.util.function.ToIntFunction;
+
 /**
  * Represents single inventory item type.
  */
@@ -59,6 +61,31 @@ public final class Item {
         return new Item(id, type, name, lore, value, attributes);
     }
 
+    /** Write into the world image, see {@link World#compile(java.io.File)}.
+     * @param strings gives the index of each string in the string table of the image, -1 for null */
+    static void write(SnapshotOutput out, Item item, ToIntFunction<String> strings) {
+        out.writeLong(item.id);
+        out.writeInt(strings.applyAsInt(item.type.name()));
+        out.writeInt(strings.applyAsInt(item.name));
+        out.writeInt(strings.applyAsInt(item.lore));
+        out.writeInt(item.value);
+        Attributes.write(out, item.attributes);
+    }
+
+    /** Read what {@link #write(SnapshotOutput, Item, ToIntFunction)} wrote.
+     * @param strings string table of the image
+     * @param attributeColumns as returned by {@link Attributes#readColumns(SnapshotInput)} */
+    static Item read(SnapshotInput in, String[] strings, Attribute[] attributeColumns) {
+        final long id = in.readLong();
+        final ItemType type = ItemType.valueOf(strings[in.readInt()]);
+        final String name = strings[in.readInt()];
+        final int loreIndex = in.readInt();
+        final String lore = loreIndex == -1 ? null : strings[loreIndex];
+        final int value = in.readInt();
+        final Attributes attributes = Attributes.read(in, attributeColumns, false);
+        return new Item(id, type, name, lore, value, attributes);
+    }
+
     public static final int VALUE_CANT_SELL = -1;
 
     public enum ItemType {
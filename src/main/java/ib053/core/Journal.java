@@ -0,0 +1,339 @@
+package ib053.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of player mutations, which happened since the last snapshot.
+ *
+ * Records are appended into memory and written by a committer thread, which forces them to the disk
+ * every few milliseconds (group commit). A crash therefore loses at most the last commit interval.
+ * All records hold absolute values, so replaying a record which is already part of the snapshot does no harm.
+ *
+ * Each record is: int length of type and payload, byte type, payload, int CRC32 of type and payload.
+ * Replay stops at the first incomplete or damaged record, which is expected after a crash.
+ */
+final class Journal implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Journal.class);
+
+    private static final byte RECORD_CREATE = 1;
+    private static final byte RECORD_LOCATION = 2;
+    private static final byte RECORD_EQUIPMENT = 3;
+    private static final byte RECORD_VITALS = 4;
+    private static final byte RECORD_ACTIVITY = 5;
+
+    private static final int MAX_RECORD_LENGTH = 1 << 16;
+
+    private final File file;
+    private final FileChannel channel;
+    private final long commitIntervalNanos;
+    private final Thread committer;
+    private final CRC32 crc = new CRC32();
+
+    /** Records waiting for the commit, guarded by this */
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    /** Buffer which is being written by the committer, swapped with pending. Accessed only by committer. */
+    private ByteBuffer committing = ByteBuffer.allocate(1 << 16);
+    /** Length of the file, that is, of the committed records */
+    private volatile long committedLength;
+    private volatile boolean open = true;
+
+    /** Opens the journal for appending, after its valid records.
+     * @param validLength length of valid records in the file, as returned by {@link #replay(File, Replay)} */
+    Journal(File file, long validLength, long commitInterval, TimeUnit unit) throws IOException {
+        this.file = file;
+        this.commitIntervalNanos = unit.toNanos(commitInterval);
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            //noinspection ResultOfMethodCallIgnored
+            parent.mkdirs();
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // Drop anything after the valid part, it was not committed
+        channel.truncate(validLength);
+        channel.position(validLength);
+        committedLength = validLength;
+
+        committer = new Thread(this::commitLoop, "Journal Committer");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    void created(Player player) {
+        final byte[] name = player.getName().getBytes(StandardCharsets.UTF_8);
+        synchronized (this) {
+            final int start = begin(8 + 2 + name.length + 1 + Attribute.VALUES.length * 4);
+            pending.put(RECORD_CREATE);
+            pending.putLong(player.getId());
+            pending.putShort((short) name.length);
+            pending.put(name);
+            putAttributes(player.attributes);
+            end(start);
+        }
+    }
+
+    synchronized void location(Player player) {
+        final int start = begin(8 + 8);
+        pending.put(RECORD_LOCATION);
+        pending.putLong(player.getId());
+        pending.putLong(player.getLocation().id);
+        end(start);
+    }
+
+    synchronized void equipment(Player player, Item item) {
+        final int start = begin(8 + 8);
+        pending.put(RECORD_EQUIPMENT);
+        pending.putLong(player.getId());
+        pending.putLong(item.id);
+        end(start);
+    }
+
+    synchronized void vitals(Player player) {
+        final int start = begin(8 + 4 * 3 + 1 + Attribute.VALUES.length * 4);
+        pending.put(RECORD_VITALS);
+        pending.putLong(player.getId());
+        pending.putInt(player.getHealth());
+        pending.putInt(player.getExperience());
+        pending.putInt(player.getVirtuePoints());
+        putAttributes(player.attributes);
+        end(start);
+    }
+
+    /** @param locationId of per-location activity, -1 for other activities
+     * @param beganMillis wall clock time at which the player began the activity */
+    void activity(Player player, Class<? extends ActivityBase> activity, long locationId, long beganMillis) {
+        final byte[] className = activity.getName().getBytes(StandardCharsets.UTF_8);
+        synchronized (this) {
+            final int start = begin(8 + 2 + className.length + 8 + 8);
+            pending.put(RECORD_ACTIVITY);
+            pending.putLong(player.getId());
+            pending.putShort((short) className.length);
+            pending.put(className);
+            pending.putLong(locationId);
+            pending.putLong(beganMillis);
+            end(start);
+        }
+    }
+
+    private void putAttributes(Attributes attributes) {
+        pending.put((byte) Attribute.VALUES.length);
+        for (Attribute attribute : Attribute.VALUES) {
+            pending.putInt(attributes.getRaw(attribute));
+        }
+    }
+
+    /** Make room for a record with payload of given size and write its length placeholder.
+     * @return position of the record start */
+    private int begin(int payloadSize) {
+        final int recordSize = 4 + 1 + payloadSize + 4;
+        if (pending.remaining() < recordSize) {
+            final ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + recordSize));
+            pending.flip();
+            bigger.put(pending);
+            pending = bigger;
+        }
+        final int start = pending.position();
+        pending.putInt(0);
+        return start;
+    }
+
+    private void end(int start) {
+        final int length = pending.position() - start - 4;
+        pending.putInt(start, length);
+        crc.reset();
+        crc.update(pending.array(), start + 4, length);
+        pending.putInt((int) crc.getValue());
+    }
+
+    private void commitLoop() {
+        while (open) {
+            LockSupport.parkNanos(this, commitIntervalNanos);
+            try {
+                commit();
+            } catch (IOException e) {
+                LOG.error("Failed to commit journal {}", file, e);
+            }
+        }
+    }
+
+    /** Write and force everything appended so far.
+     * Holds the channel lock from the swap to the force, so that {@link #truncate()} can't discard pending records
+     * and then have older ones written after it. */
+    private void commit() throws IOException {
+        synchronized (channel) {
+            final ByteBuffer toWrite;
+            synchronized (this) {
+                if (pending.position() == 0) return;
+                toWrite = pending;
+                pending = committing;
+                committing = toWrite;
+            }
+
+            toWrite.flip();
+            while (toWrite.hasRemaining()) {
+                channel.write(toWrite);
+            }
+            channel.force(false);
+            committedLength += toWrite.limit();
+            toWrite.clear();
+        }
+    }
+
+    /** Discard all records, called after their effects were saved in a snapshot. */
+    void truncate() throws IOException {
+        synchronized (channel) {
+            synchronized (this) {
+                pending.clear();
+            }
+            channel.truncate(0);
+            channel.position(0);
+            channel.force(true);
+            committedLength = 0;
+        }
+    }
+
+    /** @return length of the records written into the file so far, the ones waiting for the commit are not counted */
+    long getCommittedLength() {
+        return committedLength;
+    }
+
+    /** Commits remaining records and closes the journal. */
+    @Override
+    public void close() throws IOException {
+        open = false;
+        LockSupport.unpark(committer);
+        try {
+            committer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (channel) {
+            commit();
+            channel.close();
+        }
+    }
+
+    /** Reads all valid records of the journal file.
+     * @return length of the valid part of the file, where new records should be appended */
+    static long replay(File file, Replay replay) throws IOException {
+        if (!file.exists()) return 0;
+
+        final CRC32 crc = new CRC32();
+        long validLength = 0;
+        int records = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            byte[] record = new byte[256];
+            for (;;) {
+                final int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                    LOG.warn("Journal {} has invalid record length {} after {} bytes, ignoring the rest", file, length, validLength);
+                    break;
+                }
+                if (record.length < length) {
+                    record = new byte[Math.max(length, record.length * 2)];
+                }
+                final int checksum;
+                try {
+                    in.readFully(record, 0, length);
+                    checksum = in.readInt();
+                } catch (EOFException e) {
+                    LOG.warn("Journal {} ends with incomplete record, ignoring it", file);
+                    break;
+                }
+                crc.reset();
+                crc.update(record, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    LOG.warn("Journal {} has damaged record after {} bytes, ignoring the rest", file, validLength);
+                    break;
+                }
+
+                replayRecord(ByteBuffer.wrap(record, 0, length), replay);
+                validLength += 4 + length + 4;
+                records++;
+            }
+        }
+
+        LOG.info("Replayed {} records from journal {}", records, file);
+        return validLength;
+    }
+
+    private static void replayRecord(ByteBuffer record, Replay replay) {
+        final byte type = record.get();
+        final long playerId = record.getLong();
+        switch (type) {
+            case RECORD_CREATE: {
+                final String name = getString(record);
+                replay.created(playerId, name, getAttributes(record));
+                break;
+            }
+            case RECORD_LOCATION:
+                replay.location(playerId, record.getLong());
+                break;
+            case RECORD_EQUIPMENT:
+                replay.equipment(playerId, record.getLong());
+                break;
+            case RECORD_VITALS: {
+                final int health = record.getInt();
+                final int experience = record.getInt();
+                final int virtuePoints = record.getInt();
+                replay.vitals(playerId, health, experience, virtuePoints, getAttributes(record));
+                break;
+            }
+            case RECORD_ACTIVITY: {
+                final String activityClass = getString(record);
+                final long locationId = record.getLong();
+                replay.activity(playerId, activityClass, locationId, record.getLong());
+                break;
+            }
+            default:
+                LOG.warn("Unknown journal record type {}, skipping", type);
+        }
+    }
+
+    private static String getString(ByteBuffer record) {
+        final int length = record.getShort() & 0xFFFF;
+        final String result = new String(record.array(), record.arrayOffset() + record.position(), length, StandardCharsets.UTF_8);
+        record.position(record.position() + length);
+        return result;
+    }
+
+    private static int[] getAttributes(ByteBuffer record) {
+        final int count = record.get();
+        final int[] attributes = new int[Attribute.VALUES.length];
+        for (int i = 0; i < count; i++) {
+            final int value = record.getInt();
+            if (i < attributes.length) {
+                attributes[i] = value;
+            }
+        }
+        return attributes;
+    }
+
+    /** Receives records during replay, in the order in which they were written. */
+    interface Replay {
+        /** @param attributes raw values of all {@link Attribute#VALUES} */
+        void created(long playerId, String name, int[] attributes);
+        void location(long playerId, long locationId);
+        void equipment(long playerId, long itemId);
+        /** @param attributes raw values of all {@link Attribute#VALUES} */
+        void vitals(long playerId, int health, int experience, int virtuePoints, int[] attributes);
+        /** @param locationId of per-location activity, -1 for other activities
+         * @param beganMillis wall clock time at which the player began the activity */
+        void activity(long playerId, String activityClass, long locationId, long beganMillis);
+    }
+}
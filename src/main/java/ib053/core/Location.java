@@ -3,6 +3,9 @@ package ib053.core;
 import com.esotericsoftware.jsonbeans.JsonValue;
 import com.koloboke.collect.map.ObjLongMap;
 import com.koloboke.collect.map.hash.HashObjLongMaps;
+import ib053.util.AliasTable;
+
+import java.util.function.ToIntFunction;
 
 /**
  * Represents single location type.
@@ -16,93 +19,171 @@ public final class Location {
     public final String description;
     /** Map of "description of path" -> location id */
     public final ObjLongMap<String> directions;
+    /** Keys of {@link #directions} in the order in which they were put in,
+     * the world image puts them in in the same order, so that the map iterates (and actions are listed) the same */
+    private final String[] directionOrder;
 
     /** Location id of a location which is graveyard for this location.
      * Defaults to self. */
     public final long graveyardId;
 
-    /** Two-array map of enemyId -> enemyRarity. Enemy rarity works as follows:
+    /** Ids of enemies which live here. Each has a rarity, which works as follows:
      * When player enters a location, all enemies with rarity > 1 are considered in random order.
      * For each of them, random number [1,2) is generated, and if this number is smaller than that enemy's rarity,
      * fight with that enemy begins.
      *
      * Otherwise, when player is looking for a fight, 1 is subtracted from rarities in [1,2] range
-     * and all rarities are used as weights in random selection. */
+     * and all rarities are used as weights in random selection.
+     * Both selections are precomputed into {@link AliasTable}s. */
     private final long[] enemies;
+    /** Rarity of each of {@link #enemies}, as loaded */
     private final float[] enemyRarities;
-    private final float baseEnemyRaritiesSum;
 
-    /** Helper array holding indices into enemies and enemyRarities.
-     * Used when choosing an enemy. */
-    private final int[] _enemyTraversalPermutation;
+    /** Samples index into enemies by base rarity, null if no enemy can be looked for */
+    private final AliasTable fightTable;
+    /** Ids of enemies which may appear on entry, followed by -1 for no enemy, indexed by {@link #entryTable} */
+    private final long[] entryEnemies;
+    /** Samples the outcome of entering, index into entryEnemies, null if no enemy appears on entry */
+    private final AliasTable entryTable;
 
-    private Location(long id, String name, String description, ObjLongMap<String> directions, long graveyardId, long[] enemies, float[] enemyRarities) {
+    private Location(long id, String name, String description, ObjLongMap<String> directions, String[] directionOrder, long graveyardId, long[] enemies, float[] enemyRarities) {
         this.id = id;
         this.name = name;
         this.description = description;
         this.directions = directions;
+        this.directionOrder = directionOrder;
         this.graveyardId = graveyardId;
         this.enemies = enemies;
         this.enemyRarities = enemyRarities;
 
+        final double[] fightWeights = new double[enemies.length];
         float baseEnemyRaritiesSum = 0;
-        for (float enemyRarity : enemyRarities) {
+        int entryCandidates = 0;
+        for (int i = 0; i < enemyRarities.length; i++) {
+            final float enemyRarity = enemyRarities[i];
             if (enemyRarity > 1f) {
-                baseEnemyRaritiesSum += enemyRarity - 1f;
+                fightWeights[i] = enemyRarity - 1f;
+                entryCandidates++;
             } else {
-                baseEnemyRaritiesSum += enemyRarity;
+                fightWeights[i] = Math.max(enemyRarity, 0f);
             }
+            baseEnemyRaritiesSum += fightWeights[i];
         }
-        this.baseEnemyRaritiesSum = baseEnemyRaritiesSum;
+        this.fightTable = baseEnemyRaritiesSum > 0f ? new AliasTable(fightWeights) : null;
 
-        int[] enemyTraversalPermutation = enemies.length == 0 ? NO_ENEMY_TRAVERSAL_PERMUTATION : new int[enemies.length];
-        for (int i = 0; i < enemyTraversalPermutation.length; i++) {
-            enemyTraversalPermutation[i] = i;
+        if (entryCandidates == 0) {
+            this.entryEnemies = null;
+            this.entryTable = null;
+        } else {
+            final long[] entryEnemies = new long[entryCandidates + 1];
+            final double[] entryChances = new double[entryCandidates];
+            int candidate = 0;
+            for (int i = 0; i < enemyRarities.length; i++) {
+                if (enemyRarities[i] > 1f) {
+                    entryEnemies[candidate] = enemies[i];
+                    entryChances[candidate] = Math.min(enemyRarities[i] - 1f, 1f);
+                    candidate++;
+                }
+            }
+            // Last outcome is no fight
+            entryEnemies[entryCandidates] = -1;
+            this.entryEnemies = entryEnemies;
+            this.entryTable = new AliasTable(entryOutcomeProbabilities(entryChances));
         }
-        this._enemyTraversalPermutation = enemyTraversalPermutation;
     }
 
-    private int[] enemyPermutation() {
-        final int[] p = _enemyTraversalPermutation;
-        RandomUtil.shuffle(p);
-        return p;
+    /** Computes the distribution of the outcome of checking each candidate in random order, until one succeeds.
+     *
+     * When the order is made by giving each candidate an independent uniform time t and going by it,
+     * candidate j is reached (and then succeeds with chance p<sub>j</sub>) if all candidates with earlier time fail,
+     * so it wins with probability p<sub>j</sub> ∫<sub>0</sub><sup>1</sup> ∏<sub>i≠j</sub> (1 - p<sub>i</sub> t) dt.
+     * The integrand is a polynomial of degree n - 1, integrated exactly by Gauss-Legendre quadrature.
+     *
+     * @param chances of each candidate to succeed, from 0 to 1
+     * @return probability of each candidate winning, followed by the probability of none winning */
+    static double[] entryOutcomeProbabilities(double[] chances) {
+        final int n = chances.length;
+        final double[] outcomes = new double[n + 1];
+
+        double none = 1;
+        for (double chance : chances) {
+            none *= 1 - chance;
+        }
+        outcomes[n] = none;
+
+        final int nodeCount = (n + 1) / 2;
+        final double[] nodes = new double[nodeCount];
+        final double[] weights = new double[nodeCount];
+        gaussLegendre(nodes, weights);
+        for (int node = 0; node < nodeCount; node++) {
+            final double t = nodes[node];
+            double product = 1;
+            for (double chance : chances) {
+                product *= 1 - chance * t;
+            }
+            // Nodes are inside (0, 1), so no factor is zero
+            for (int j = 0; j < n; j++) {
+                outcomes[j] += weights[node] * product / (1 - chances[j] * t);
+            }
+        }
+        for (int j = 0; j < n; j++) {
+            outcomes[j] *= chances[j];
+        }
+        return outcomes;
     }
 
-    public boolean hasEnemies() {
-        return enemyRarities.length > 0 && baseEnemyRaritiesSum > 0f;
+    /** Fill nodes and weights of Gauss-Legendre quadrature on [0, 1], with as many nodes as the arrays are long. */
+    private static void gaussLegendre(double[] nodes, double[] weights) {
+        final int n = nodes.length;
+        for (int i = 0; i < n; i++) {
+            // Newton's method from the usual approximation of the i-th root of Legendre polynomial P_n on [-1, 1]
+            double x = Math.cos(Math.PI * (i + 0.75) / (n + 0.5));
+            double derivative;
+            for (int iteration = 0; ; iteration++) {
+                double p0 = 1, p1 = x;
+                for (int k = 2; k <= n; k++) {
+                    final double p2 = ((2 * k - 1) * x * p1 - (k - 1) * p0) / k;
+                    p0 = p1;
+                    p1 = p2;
+                }
+                derivative = n * (x * p1 - p0) / (x * x - 1);
+                final double step = p1 / derivative;
+                x -= step;
+                if (Math.abs(step) < 1e-15 || iteration >= 100) break;
+            }
+            nodes[i] = (x + 1) / 2;
+            weights[i] = 1 / ((1 - x * x) * derivative * derivative);
+        }
     }
 
-    public long selectEnemyToFightOnEntry() {
-        final float[] enemyRarities = this.enemyRarities;
-        if (enemyRarities.length == 0) return -1;
+    /** @return ids of all enemies which live here, must not be modified */
+    long[] getEnemyIds() {
+        return enemies;
+    }
 
-        for (int enemyIndex : enemyPermutation()) {
-            if (enemyRarities[enemyIndex] <= 1f) continue;
-            if ((enemyRarities[enemyIndex] - 1f) > RandomUtil.RANDOM.nextFloat()) return enemies[enemyIndex];
-        }
+    public boolean hasEnemies() {
+        return fightTable != null;
+    }
 
-        return -1;
+    /** @return id of the enemy which ambushes the player entering this location, or -1 if none does.
+     * Candidates (enemies with rarity over 1) are considered in random order, each succeeding with chance of their rarity - 1.
+     * Precomputed, O(1) and safe to call from any thread. */
+    public long selectEnemyToFightOnEntry() {
+        final AliasTable entryTable = this.entryTable;
+        if (entryTable == null) return -1;
+        return entryEnemies[entryTable.sample(RandomUtil.nextDouble())];
     }
 
+    /** @return id of an enemy chosen with probability proportional to its base rarity, -1 if there are none.
+     * Precomputed, O(1) and safe to call from any thread. */
     public long selectEnemyToFight() {
-        final float[] enemyRarities = this.enemyRarities;
-        if (enemyRarities.length == 0) return -1;
-
-        float remainingWeight = RandomUtil.RANDOM.nextFloat() * baseEnemyRaritiesSum;
-        for (int enemyIndex : enemyPermutation()) {
-            remainingWeight -= enemyRarities[enemyIndex];
-            if (remainingWeight <= 0f) {
-                return enemies[enemyIndex];
-            }
-        }
-
-        assert false : "This should not happen";
-        return enemies[0];
+        final AliasTable fightTable = this.fightTable;
+        if (fightTable == null) return -1;
+        return enemies[fightTable.sample(RandomUtil.nextDouble())];
     }
 
     private static final long[] NO_ENEMIES = new long[0];
     private static final float[] NO_ENEMY_RARITIES = new float[0];
-    private static final int[] NO_ENEMY_TRAVERSAL_PERMUTATION = new int[0];
 
     public static Location read(JsonValue jsonValue) {
         final long id = jsonValue.getLong("id");
@@ -111,8 +192,12 @@ public final class Location {
 
         final long graveyardId = jsonValue.getLong("graveyard", id);
 
+        final JsonValue directionsJson = jsonValue.get("directions");
+        final String[] directionOrder = new String[directionsJson.size];
         final ObjLongMap<String> directions = HashObjLongMaps.newImmutableMap((map) -> {
-            for (JsonValue direction : jsonValue.get("directions")) {
+            int i = 0;
+            for (JsonValue direction : directionsJson) {
+                directionOrder[i++] = direction.name();
                 map.accept(direction.name(), direction.asLong());
             }
         });
@@ -145,6 +230,57 @@ public final class Location {
             }
         }
 
-        return new Location(id, name, description, directions, graveyardId, enemies, enemyRarities);
+        return new Location(id, name, description, directions, directionOrder, graveyardId, enemies, enemyRarities);
+    }
+
+    /** Write into the world image, see {@link World#compile(java.io.File)}.
+     * @param strings gives the index of each string in the string table of the image */
+    static void write(SnapshotOutput out, Location location, ToIntFunction<String> strings) {
+        out.writeLong(location.id);
+        out.writeInt(strings.applyAsInt(location.name));
+        out.writeInt(strings.applyAsInt(location.description));
+        out.writeLong(location.graveyardId);
+        out.writeInt(location.directionOrder.length);
+        for (String message : location.directionOrder) {
+            out.writeInt(strings.applyAsInt(message));
+            out.writeLong(location.directions.getLong(message));
+        }
+        out.writeInt(location.enemies.length);
+        for (int i = 0; i < location.enemies.length; i++) {
+            out.writeLong(location.enemies[i]);
+            out.writeFloat(location.enemyRarities[i]);
+        }
+    }
+
+    /** Read what {@link #write(SnapshotOutput, Location, ToIntFunction)} wrote.
+     * @param strings string table of the image */
+    @SuppressWarnings("deprecation") // Koloboke's ObjLongConsumer, the only way to build the map in the order of directionOrder
+    static Location read(SnapshotInput in, String[] strings) {
+        final long id = in.readLong();
+        final String name = strings[in.readInt()];
+        final String description = strings[in.readInt()];
+        final long graveyardId = in.readLong();
+
+        final String[] directionOrder = new String[in.readInt()];
+        final ObjLongMap<String> directions = HashObjLongMaps.newImmutableMap((map) -> {
+            for (int i = 0; i < directionOrder.length; i++) {
+                directionOrder[i] = strings[in.readInt()];
+                map.accept(directionOrder[i], in.readLong());
+            }
+        });
+
+        final int enemyCount = in.readInt();
+        long[] enemies = NO_ENEMIES;
+        float[] enemyRarities = NO_ENEMY_RARITIES;
+        if (enemyCount != 0) {
+            enemies = new long[enemyCount];
+            enemyRarities = new float[enemyCount];
+            for (int i = 0; i < enemyCount; i++) {
+                enemies[i] = in.readLong();
+                enemyRarities[i] = in.readFloat();
+            }
+        }
+
+        return new Location(id, name, description, directions, directionOrder, graveyardId, enemies, enemyRarities);
     }
 }
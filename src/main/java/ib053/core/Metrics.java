@@ -0,0 +1,129 @@
+package ib053.core;
+
+import ib053.frontend.Frontend;
+import ib053.util.Histogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Measurements of a running {@link GameCore}, cheap enough to be always on.
+ *
+ * Durations are recorded into {@link Histogram}s as nanoseconds, recording costs two {@link System#nanoTime()}
+ * calls and a few atomic increments. Gauges, like the amount of players in each activity, are not maintained
+ * but computed when the metrics are {@link #collect(Sink) collected}.
+ *
+ * Histograms hold everything recorded since the start, consumers derive rates and recent percentiles
+ * from differences between collections.
+ */
+public final class Metrics {
+
+    private final GameCore core;
+    private final EventLoop eventLoop;
+    private final ActivityCache activityCache;
+    /** Null if players are not hibernated */
+    private final PlayerResidency residency;
+    private final String[] frontendNames;
+
+    /** Latency of {@link Action#perform(Player)} by {@link Action#key} */
+    private final ConcurrentHashMap<String, Histogram> actionLatency = new ConcurrentHashMap<>();
+    /** Latency of calls of each frontend, at indices of {@link GameCore#frontends} */
+    final Histogram[] frontendLatency;
+    /** Duration of saving players and activities */
+    private final Histogram saveDuration = new Histogram();
+    /** Size of the last save in bytes, -1 if nothing was saved yet */
+    private volatile long saveBytes = -1;
+
+    Metrics(GameCore core, EventLoop eventLoop, ActivityCache activityCache, PlayerResidency residency, Frontend[] frontends) {
+        this.core = core;
+        this.eventLoop = eventLoop;
+        this.activityCache = activityCache;
+        this.residency = residency;
+        this.frontendNames = new String[frontends.length];
+        this.frontendLatency = new Histogram[frontends.length];
+        for (int i = 0; i < frontends.length; i++) {
+            frontendNames[i] = frontends[i].getClass().getSimpleName();
+            frontendLatency[i] = new Histogram();
+        }
+    }
+
+    /** @return histogram of action with given key, created when first needed */
+    Histogram actionLatency(String key) {
+        return actionLatency.computeIfAbsent(key, k -> new Histogram());
+    }
+
+    void recordSave(long nanos, long bytes) {
+        saveDuration.record(nanos);
+        saveBytes = bytes;
+    }
+
+    /** Reports all metrics into the sink. May be called from any thread, takes only short locks. */
+    public void collect(Sink sink) {
+        sink.family("ib053_players", Kind.GAUGE, "Players in the game", null);
+        sink.sample(null, core.getPlayerCount());
+        if (residency != null) {
+            residency.collectMetrics(sink);
+        }
+
+        final int[] levels = core.playerColumns.countLevels();
+        sink.family("ib053_players_at_level", Kind.GAUGE, "Players in memory at each level", "level");
+        for (int level = 0; level < levels.length; level++) {
+            if (levels[level] > 0) {
+                sink.sample(Integer.toString(level), levels[level]);
+            }
+        }
+
+        activityCache.collectMetrics(sink);
+        eventLoop.collectMetrics(sink);
+
+        sink.family("ib053_action_seconds", Kind.HISTOGRAM, "How long it took to perform an action", "action");
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(actionLatency).entrySet()) {
+            sink.sample(entry.getKey(), entry.getValue().snapshot());
+        }
+
+        sink.family("ib053_frontend_callback_seconds", Kind.HISTOGRAM,
+                "How long frontends took to handle activity changes and events of a player", "frontend");
+        for (int i = 0; i < frontendNames.length; i++) {
+            sink.sample(frontendNames[i], frontendLatency[i].snapshot());
+        }
+
+        sink.family("ib053_coalesced_activity_notifications_total", Kind.COUNTER,
+                "Activity change notifications merged with an earlier one of the same task", null);
+        sink.sample(null, core.getCoalescedActivityNotifications());
+
+        sink.family("ib053_save_seconds", Kind.HISTOGRAM, "How long it took to save players and activities", null);
+        sink.sample(null, saveDuration.snapshot());
+        final long saveBytes = this.saveBytes;
+        if (saveBytes >= 0) {
+            sink.family("ib053_save_bytes", Kind.GAUGE, "Size of the last saved players and activities", null);
+            sink.sample(null, saveBytes);
+        }
+    }
+
+    public enum Kind {
+        /** Value which can go up and down */
+        GAUGE,
+        /** Value which only grows */
+        COUNTER,
+        /** Distribution of durations, sampled as a {@link Histogram.Snapshot} of nanoseconds */
+        HISTOGRAM
+    }
+
+    /** Receives collected metrics, see {@link #collect(Sink)}.
+     * Metrics come in families, samples of a family are told apart by the value of one label. */
+    public interface Sink {
+        /** Begin a family, following samples belong to it until the next family begins.
+         * @param name in the form of Prometheus metric names, with unit suffix
+         * @param label name of the label which tells samples apart, null if the family has only one sample */
+        void family(String name, Kind kind, String help, String label);
+
+        /** Sample of {@link Kind#GAUGE} or {@link Kind#COUNTER} family.
+         * @param labelValue null if the family has no label */
+        void sample(String labelValue, double value);
+
+        /** Sample of {@link Kind#HISTOGRAM} family.
+         * @param labelValue null if the family has no label */
+        void sample(String labelValue, Histogram.Snapshot nanos);
+    }
+}
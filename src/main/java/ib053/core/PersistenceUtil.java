@@ -6,7 +6,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.function.Consumer;
+import java.util.zip.CRC32;
 
 /**
  *
@@ -15,31 +25,68 @@ public class PersistenceUtil {
 
     private static final Logger LOG = LoggerFactory.getLogger(PersistenceUtil.class);
 
-    public static void saveJsonSecurely(File to, Consumer<Json> serialize) throws PersistenceException {
-        final Json json = new Json(OutputType.json);
-        final StringWriter writer = new StringWriter();
-        json.setWriter(writer);
+    /** First int of every binary save file: "IB53" */
+    private static final int BINARY_MAGIC = 0x49423533;
+    /** Version of the binary format, written after the kind.
+     * 2: players are followed by the next player id
+     * 3: players have event history, templates of events follow the attribute columns */
+    public static final int BINARY_VERSION = 3;
+    /** Kind of binary save file holding players */
+    public static final byte BINARY_KIND_PLAYERS = 1;
+    /** Kind of binary save file holding activities */
+    public static final byte BINARY_KIND_ACTIVITIES = 2;
+    /** Kind of binary file holding compiled world data */
+    public static final byte BINARY_KIND_WORLD = 3;
 
-        try {
-            serialize.accept(json);
-        } catch (Exception ex) {
-            throw new PersistenceException("Serialization failure", ex);
-        }
+    /** Size of the buffer through which are files written and verified, the only memory a save needs besides the serializer */
+    private static final int BUFFER_SIZE = 1 << 16;
 
-        final CharSequence playersJsonString = writer.getBuffer();
+    /** Serialize into json, written straight into the file, see {@link #saveSecurely(File, ChannelSerializer)}. */
+    public static void saveJsonSecurely(File to, Consumer<Json> serialize) throws PersistenceException {
+        saveSecurely(to, channel -> {
+            final Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE), BUFFER_SIZE);
+            final Json json = new Json(OutputType.json);
+            json.setWriter(writer);
+            serialize.accept(json);
+            writer.flush();
+        });
+    }
 
-        try {
-            PersistenceUtil.saveSecurely(playersJsonString, to);
-        } catch (PersistenceException ex) {
-            LOG.error("Failed to save json to file {}, json contents: {}", to, playersJsonString);
-            throw new PersistenceException("IO failure", ex);
+    /** Save given CharSequence into a file, see {@link #saveSecurely(File, ChannelSerializer)}. */
+    public static void saveSecurely(CharSequence data, File to) throws PersistenceException {
+        if (data == null) {
+            throw new IllegalArgumentException("data can't be null");
         }
+        saveSecurely(to, channel -> {
+            final Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE), BUFFER_SIZE);
+            writer.append(data);
+            writer.flush();
+        });
     }
 
-    /** Save given CharSequence into a file in a way that fails gracefully and does not lose data on failure. */
-    public static void saveSecurely(CharSequence data, File to) throws PersistenceException {
-        if (to == null || data == null) {
-            throw new IllegalArgumentException("to and data can't be null");
+    /** Save binary data of given kind into a file, see {@link #saveSecurely(File, ChannelSerializer)}.
+     * @param kind BINARY_KIND_ constant, checked when loading */
+    public static void saveBinarySecurely(File to, byte kind, Consumer<SnapshotOutput> serialize) throws PersistenceException {
+        saveSecurely(to, channel -> {
+            final SnapshotOutput out = new SnapshotOutput(channel);
+            out.writeInt(BINARY_MAGIC);
+            out.writeByte(kind);
+            out.writeInt(BINARY_VERSION);
+            serialize.accept(out);
+            out.flush();
+        });
+    }
+
+    /**
+     * Save data written by the serializer into a file in a way that fails gracefully and does not lose data on failure.
+     *
+     * Data is streamed into a .saving file, while its CRC32 is computed.
+     * The file is then forced to the disk and read back to check the checksum.
+     * The previous version of the file is kept as .bak and the .saving file atomically replaces the original.
+     */
+    public static void saveSecurely(File to, ChannelSerializer serializer) throws PersistenceException {
+        if (to == null || serializer == null) {
+            throw new IllegalArgumentException("to and serializer can't be null");
         }
         final File canonicalTo;
         try {
@@ -54,43 +101,178 @@ public class PersistenceUtil {
         }
         parentFile.mkdirs();
 
-        final File savingFile = new File(canonicalTo.getParent(), canonicalTo.getName() + ".saving");
-        try(FileWriter writer = new FileWriter(savingFile)) {
-            writer.append(data);
-            writer.flush();
-        } catch (IOException e) {
+        final File savingFile = new File(parentFile, canonicalTo.getName() + ".saving");
+        final ChecksumChannel checksumChannel;
+        try (FileChannel channel = FileChannel.open(savingFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            checksumChannel = new ChecksumChannel(channel);
+            try {
+                serializer.write(checksumChannel);
+            } catch (IOException | UncheckedIOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new PersistenceException("Serialization failure", e);
+            }
+            channel.force(true);
+        } catch (IOException | UncheckedIOException e) {
+            deleteQuietly(savingFile);
             throw new PersistenceException("Failed to save initial file", e);
+        } catch (PersistenceException e) {
+            deleteQuietly(savingFile);
+            throw e;
         }
 
-        char[] fileContent = new char[data.length()];
         // Check that saving file has correct content
-        try(FileReader reader = new FileReader(savingFile)) {
-            int read = reader.read(fileContent);
-            if (read != fileContent.length) {
-                throw new PersistenceException(".saving file contains invalid amount of characters");
+        try (FileChannel channel = FileChannel.open(savingFile.toPath(), StandardOpenOption.READ)) {
+            final CRC32 crc = new CRC32();
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            long size = 0;
+            int read;
+            while ((read = channel.read(buffer)) >= 0) {
+                size += read;
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
             }
-
-            for (int i = 0; i < read; i++) {
-                if (fileContent[i] != data.charAt(i)) {
-                    throw new PersistenceException(".saving file differs at position "+i);
-                }
+            if (size != checksumChannel.size) {
+                throw new PersistenceException(".saving file contains "+size+" bytes instead of "+checksumChannel.size);
+            }
+            if (crc.getValue() != checksumChannel.crc.getValue()) {
+                throw new PersistenceException(".saving file has invalid checksum");
             }
         } catch (IOException e) {
             throw new PersistenceException("Exception while checking .saving file content", e);
         }
 
         //Everything seems fine
-        if(canonicalTo.exists() && !canonicalTo.delete()) {
-            throw new PersistenceException("Can't delete old save file");
+        final Path target = canonicalTo.toPath();
+        if (Files.exists(target)) {
+            final Path backup = new File(parentFile, canonicalTo.getName() + ".bak").toPath();
+            try {
+                // Link, so that the original file stays in place until it is replaced
+                Files.deleteIfExists(backup);
+                try {
+                    Files.createLink(backup, target);
+                } catch (UnsupportedOperationException | IOException e) {
+                    Files.copy(target, backup, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+            } catch (IOException e) {
+                LOG.warn("Failed to keep backup of {}", canonicalTo, e);
+            }
         }
 
-        if(!savingFile.renameTo(canonicalTo)) {
-            throw new PersistenceException("Can't rename .saving file");
+        try {
+            Files.move(savingFile.toPath(), target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new PersistenceException("Can't move .saving file into place", e);
+        }
+
+        // Make the rename durable, not possible on all systems
+        try (FileChannel directory = FileChannel.open(parentFile.toPath(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException ignored) {
         }
 
         LOG.debug("Data successfully saved into {}", canonicalTo);
     }
 
+    private static void deleteQuietly(File file) {
+        if (file.exists() && !file.delete()) {
+            LOG.warn("Failed to delete {}", file);
+        }
+    }
+
+    /** Reads data saved by {@link #saveBinarySecurely(File, byte, Consumer)}, see {@link #loadBinary(File, byte, BinaryDeserializer)}. */
+    public interface BinaryDeserializer {
+        /** @param version of the format in which the data was saved, up to {@link #BINARY_VERSION} */
+        void read(SnapshotInput in, int version);
+    }
+
+    /** Writes data of a file, see {@link #saveSecurely(File, ChannelSerializer)}. */
+    public interface ChannelSerializer {
+        /** Write everything into the channel. The channel must not be closed. */
+        void write(WritableByteChannel channel) throws IOException;
+    }
+
+    /** Passes everything into a channel, while computing its checksum and size */
+    private static final class ChecksumChannel implements WritableByteChannel {
+        private final WritableByteChannel channel;
+        final CRC32 crc = new CRC32();
+        long size = 0;
+
+        private ChecksumChannel(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            final ByteBuffer written = src.duplicate();
+            final int amount = channel.write(src);
+            written.limit(written.position() + amount);
+            crc.update(written);
+            size += amount;
+            return amount;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+            // Closed by saveSecurely
+        }
+    }
+
+    /** Load binary data saved by {@link #saveBinarySecurely(File, byte, Consumer)}.
+     * @param kind which the file must have */
+    public static void loadBinary(File from, byte kind, BinaryDeserializer deserialize) throws PersistenceException {
+        try (FileChannel channel = FileChannel.open(from.toPath(), StandardOpenOption.READ)) {
+            final SnapshotInput in = new SnapshotInput(channel);
+            final int version = readBinaryHeader(from, in, kind);
+            deserialize.read(in, version);
+            if (!in.isAtEnd()) {
+                throw new PersistenceException(from+" has unexpected data at the end");
+            }
+        } catch (IOException | UncheckedIOException e) {
+            throw new PersistenceException("Failed to read "+from, e);
+        } catch (IllegalArgumentException e) {
+            throw new PersistenceException("Invalid save file "+from, e);
+        }
+    }
+
+    /** Map binary data saved by {@link #saveBinarySecurely(File, byte, Consumer)} into memory, to be read without copying it first.
+     * Data is read by the caller, who may stop anywhere, the mapping stays valid until the input is collected.
+     * @param kind which the file must have
+     * @return input positioned after the header, reading data of {@link #BINARY_VERSION} or older */
+    public static SnapshotInput mapBinary(File from, byte kind) throws PersistenceException {
+        try (FileChannel channel = FileChannel.open(from.toPath(), StandardOpenOption.READ)) {
+            final SnapshotInput in = new SnapshotInput(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            readBinaryHeader(from, in, kind);
+            return in;
+        } catch (IOException | UncheckedIOException e) {
+            throw new PersistenceException("Failed to map "+from, e);
+        } catch (IllegalArgumentException e) {
+            throw new PersistenceException("Invalid save file "+from, e);
+        }
+    }
+
+    /** @return version of the data */
+    private static int readBinaryHeader(File from, SnapshotInput in, byte kind) throws PersistenceException {
+        if (in.readInt() != BINARY_MAGIC) {
+            throw new PersistenceException(from+" is not a binary save file");
+        }
+        final byte fileKind = in.readByte();
+        if (fileKind != kind) {
+            throw new PersistenceException(from+" holds data of kind "+fileKind+", expected "+kind);
+        }
+        final int version = in.readInt();
+        if (version > BINARY_VERSION) {
+            throw new PersistenceException(from+" has version "+version+", which is newer than supported "+BINARY_VERSION);
+        }
+        return version;
+    }
+
     public static final class PersistenceException extends Exception {
         public PersistenceException() {
         }
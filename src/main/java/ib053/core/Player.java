@@ -6,13 +6,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.EnumMap;
 import java.util.List;
+import java.util.function.LongConsumer;
 
 /**
  * Represents the player and their character.
  *
  * Contains only pure getters/setters, for fields that need them.
+ *
+ * Hot state (vitals, attributes, equipment and location) is not in the object, but in the slot of the player
+ * in {@link PlayerColumns}, the object is a view of it.
  */
 public final class Player implements AttributeHolder {
 
@@ -22,23 +25,66 @@ public final class Player implements AttributeHolder {
     private final long id;
     private final String name;
 
+    /** Slot of this player in {@link GameCore#playerColumns} */
+    private final int slot;
+    /** Page of {@link #slot} and index in it */
+    private final PlayerColumns.Page page;
+    private final int index;
+
+    /** View of the attributes in {@link PlayerColumns.Page#attributes} */
     public final Attributes attributes;
-    /** Use {@link GameCore#giveExperience(Player, int)} to give experience. */
-    public int experience = 0;
-    public int virtuePoints = 0;
-    public int health;
 
-    private final EnumMap<Item.ItemType, Item> equipment = new EnumMap<>(Item.ItemType.class);
-    /** Inventory contents. Does not contain equipment, that is in {@link #equipment} */
+    /** Inventory contents. Does not contain equipment, that is in {@link PlayerColumns.Page#equipment} */
     private final List<Item> inventory = new ArrayList<>();
 
+    /** {@link #attributes} combined with attributes of equipment, see {@link #get(Attribute)} */
+    private final Attributes combinedAttributes;
+    /** Version of {@link #attributes} from which {@link #combinedAttributes} were computed */
+    private int combinedAttributesVersion;
+    /** True when {@link #combinedAttributes} must be computed again, because equipment has changed */
+    private boolean combinedAttributesInvalid = true;
+
+    /** Recent events of the player, null until the first event.
+     * @see #getEventHistory() */
+    EventHistory eventHistory;
+
     /** Do not modify. Serialized elsewhere.
      * @see GameCore#changePlayerActivity(Player, ActivityBase) */
     transient ActivityBase currentActivity;
 
-    /** Do not modify.
-     * @see GameCore#changePlayerLocation(Player, Location) */
-    Location location;
+    /** Index of the event loop shard which owns this player. Do not modify.
+     * @see EventLoop */
+    transient volatile int shard;
+    /** Index of the shard to which this player moves at the end of current task, -1 if not moving.
+     * @see EventLoop#relocate(Player, Location) */
+    transient int handoffShard = -1;
+
+    /** Index of this player in the {@link PlayerSet} of their location and of their activity, -1 if not in any. Do not modify. */
+    transient int locationSetIndex = -1, activitySetIndex = -1;
+
+    /** Whether the player is waiting for the end of the current task to have their notifications delivered.
+     * @see EventLoop#deferNotifications(Player) */
+    transient boolean notificationsDeferred;
+    /** Whether frontends will be notified of activity change at the end of the current task.
+     * @see GameCore#notifyPlayerActivityChanged(Player) */
+    transient boolean activityChangedPending;
+    /** Events to be delivered to frontends at the end of the current task, null until the first event.
+     * @see GameCore#notifyPlayerEventHappened(Player, Event) */
+    transient ArrayList<Event> pendingEvents;
+    /** Stream of random numbers current during tasks of this player, when {@link GameCore.Settings#randomSeed} is set.
+     * Created on the first task. @see EventLoop */
+    transient RandomStream random;
+
+    /** Values last written to the {@link Journal}, vitals are journaled only when they differ.
+     * @see GameCore#journalVitals(Player) */
+    transient int journaledHealth, journaledExperience, journaledVirtuePoints, journaledAttributesVersion;
+
+    /** {@link System#nanoTime()} when the player was last active, least recently active players are hibernated first.
+     * @see PlayerResidency */
+    transient long lastActiveNanos = System.nanoTime();
+    /** Whether the slot of this player has been freed, the player was hibernated and is represented by a new object when woken.
+     * Tasks still scheduled for this object are dropped. @see #freeSlot() */
+    transient volatile boolean freed;
 
     public GameCore getCore() {
         return core;
@@ -56,7 +102,30 @@ public final class Player implements AttributeHolder {
 
     /** Location in which the player resides. */
     public Location getLocation() {
-        return location;
+        return core.findLocation(page.locations[index]);
+    }
+
+    /** Do not call directly.
+     * @see GameCore#changePlayerLocation(Player, Location) */
+    void setLocation(Location location) {
+        page.locations[index] = location == null ? PlayerColumns.NO_LOCATION : location.id;
+    }
+
+    public int getHealth() {
+        return page.health[index];
+    }
+
+    public void setHealth(int health) {
+        page.health[index] = health;
+    }
+
+    /** Recent events of the player, for frontends to show */
+    public EventHistory getEventHistory() {
+        EventHistory eventHistory = this.eventHistory;
+        if (eventHistory == null) {
+            this.eventHistory = eventHistory = new EventHistory();
+        }
+        return eventHistory;
     }
 
     /** Activity which the player is performing */
@@ -65,29 +134,102 @@ public final class Player implements AttributeHolder {
     }
 
     public int getExperience() {
-        return experience;
+        return page.experience[index];
+    }
+
+    /** Use {@link GameCore#giveExperience(Player, int)} to give experience. */
+    public void setExperience(int experience) {
+        page.experience[index] = experience;
+    }
+
+    public int getVirtuePoints() {
+        return page.virtuePoints[index];
+    }
+
+    public void setVirtuePoints(int virtuePoints) {
+        page.virtuePoints[index] = virtuePoints;
     }
 
     public Item getEquipment(Item.ItemType type) {
         if (!type.canEquip) return null;
-        return equipment.get(type);
+        final long itemId = page.equipment[index * PlayerColumns.EQUIPMENT + type.ordinal()];
+        return itemId == PlayerColumns.NO_ITEM ? null : core.findItem(itemId);
     }
 
     /** Returns old equipped item if any, or given item if that item can't be equipped. */
     public Item setEquipment(Item item) {
         if (item.type.canEquip) {
-            return equipment.put(item.type, item);
+            final Item old = getEquipment(item.type);
+            putEquipment(item);
+            core.journalEquipment(this, item);
+            return old;
         } else {
             return item;
         }
     }
 
+    private void putEquipment(Item item) {
+        page.equipment[index * PlayerColumns.EQUIPMENT + item.type.ordinal()] = item.id;
+        combinedAttributesInvalid = true;
+    }
+
+    /** @return amount of equipped items */
+    private int getEquipmentCount() {
+        int count = 0;
+        for (int i = index * PlayerColumns.EQUIPMENT; i < (index + 1) * PlayerColumns.EQUIPMENT; i++) {
+            if (page.equipment[i] != PlayerColumns.NO_ITEM) count++;
+        }
+        return count;
+    }
+
+    /** @param attributes copied into the slot of the player */
     Player(GameCore core, long id, String name, Attributes attributes) {
         this.core = core;
         this.id = id;
         this.name = name;
-        this.attributes = attributes;
-        this.health = attributes.get(Attribute.STAMINA) * 5;
+        this.slot = core.playerColumns.allocate(id);
+        this.page = core.playerColumns.page(slot);
+        this.index = slot & PlayerColumns.PAGE_MASK;
+        this.attributes = new Attributes(page.attributes, index * PlayerColumns.ATTRIBUTES, true);
+        this.attributes.setTo(attributes);
+        this.combinedAttributes = new Attributes(page.combinedAttributes, index * PlayerColumns.ATTRIBUTES, true);
+        setHealth(attributes.get(Attribute.STAMINA) * 5);
+    }
+
+    /** Give the slot of this player back to {@link PlayerColumns}, when the player is removed from memory.
+     * This object must not be used afterwards. */
+    void freeSlot() {
+        freed = true;
+        core.playerColumns.free(slot);
+    }
+
+    /** Pass the id of the location of this player to the first consumer
+     * and the ids of all their items, equipped or not, to the second one. */
+    void forEachReference(LongConsumer locationIds, LongConsumer itemIds) {
+        locationIds.accept(page.locations[index]);
+        for (int i = index * PlayerColumns.EQUIPMENT; i < (index + 1) * PlayerColumns.EQUIPMENT; i++) {
+            if (page.equipment[i] != PlayerColumns.NO_ITEM) itemIds.accept(page.equipment[i]);
+        }
+        for (Item item : inventory) {
+            itemIds.accept(item.id);
+        }
+    }
+
+    /** Called by {@link GameCore#reloadWorld()} when the items have been replaced, all items of this player exist in the new world. */
+    void worldReloaded() {
+        inventory.replaceAll(item -> core.getItem(item.id));
+        combinedAttributesInvalid = true;
+    }
+
+    /** @return rough estimate of the heap taken by this player, for {@link GameCore.Settings#maxResidentBytes} */
+    int estimateHeapBytes() {
+        // Player, views of its attributes, inventory list with its array and its slot in the columns
+        int bytes = 112 + 2 * 32 + 40 + 16 + PlayerColumns.SLOT_BYTES;
+        bytes += 4 * inventory.size();
+        if (eventHistory != null) {
+            bytes += EventHistory.HEAP_BYTES;
+        }
+        return bytes;
     }
 
     @Override
@@ -96,9 +238,16 @@ public final class Player implements AttributeHolder {
             return this.attributes.get(attribute);
         }
 
-        final Attributes combinedAttributes = Attributes.combinationOf(this.attributes);
-        for (Item item : equipment.values()) {
-            combinedAttributes.and(item.attributes);
+        if (combinedAttributesInvalid || combinedAttributesVersion != attributes.getVersion()) {
+            combinedAttributes.setTo(attributes);
+            for (Item.ItemType type : Item.ItemType.VALUES) {
+                final Item item = getEquipment(type);
+                if (item != null) {
+                    combinedAttributes.and(item.attributes);
+                }
+            }
+            combinedAttributesVersion = attributes.getVersion();
+            combinedAttributesInvalid = false;
         }
         return combinedAttributes.get(attribute);
     }
@@ -109,18 +258,18 @@ public final class Player implements AttributeHolder {
         final Attributes attributes = Attributes.read(value.get("attributes"), true);
 
         final Player player = new Player(core, id, name, attributes);
-        player.experience = value.getInt("experience");
-        player.virtuePoints = value.getInt("virtuePoints");
-        player.health = value.getInt("health");
-        player.location = core.getLocation(value.getLong("locationId"));
+        player.setExperience(value.getInt("experience"));
+        player.setVirtuePoints(value.getInt("virtuePoints"));
+        player.setHealth(value.getInt("health"));
+        player.setLocation(savedLocation(core, value.getLong("locationId")));
 
         for (JsonValue equipment : value.get("equipment")) {
             final long itemId = equipment.asLong();
             final Item item = core.findItem(itemId);
-            if (item == null || !item.type.canEquip || player.equipment.containsKey(item.type)) {
+            if (item == null || !item.type.canEquip || player.getEquipment(item.type) != null) {
                 LOG.warn("Invalid equipment item id {}", itemId);
             } else {
-                player.equipment.put(item.type, item);
+                player.putEquipment(item);
             }
         }
 
@@ -134,22 +283,100 @@ public final class Player implements AttributeHolder {
             }
         }
 
+        player.eventHistory = EventHistory.read(value.get("eventHistory"), core);
+
+        return player;
+    }
+
+    /** @return location of saved id, the starting location for players who were created, but not placed before the save */
+    private static Location savedLocation(GameCore core, long locationId) {
+        return core.getLocation(locationId == PlayerColumns.NO_LOCATION ? GameCore.STARTING_LOCATION_ID : locationId);
+    }
+
+    /** @param attributeColumns as returned by {@link Attributes#readColumns(SnapshotInput)}
+     * @param eventTemplates as returned by {@link EventHistory#readTemplates(SnapshotInput)}, null if saved without event history */
+    static Player read(SnapshotInput in, Attribute[] attributeColumns, Event.Template[] eventTemplates, GameCore core) {
+        final long id = in.readLong();
+        final String name = in.readString();
+        final Attributes attributes = Attributes.read(in, attributeColumns, true);
+
+        final Player player = new Player(core, id, name, attributes);
+        player.setExperience(in.readInt());
+        player.setVirtuePoints(in.readInt());
+        player.setHealth(in.readInt());
+        player.setLocation(savedLocation(core, in.readLong()));
+
+        final int equipmentCount = in.readByte();
+        for (int i = 0; i < equipmentCount; i++) {
+            final long itemId = in.readLong();
+            final Item item = core.findItem(itemId);
+            if (item == null || !item.type.canEquip || player.getEquipment(item.type) != null) {
+                LOG.warn("Invalid equipment item id {}", itemId);
+            } else {
+                player.putEquipment(item);
+            }
+        }
+
+        final int inventoryCount = in.readInt();
+        for (int i = 0; i < inventoryCount; i++) {
+            final long itemId = in.readLong();
+            final Item item = core.findItem(itemId);
+            if (item == null) {
+                LOG.warn("Invalid equipment item id {}", itemId);
+            } else {
+                player.inventory.add(item);
+            }
+        }
+
+        if (eventTemplates != null) {
+            player.eventHistory = EventHistory.read(in, eventTemplates, core);
+        }
+
         return player;
     }
 
+    /** Event templates must be written before the players, see {@link EventHistory#writeTemplates(SnapshotOutput)} */
+    static void write(SnapshotOutput out, Player player) {
+        out.writeLong(player.id);
+        out.writeString(player.name);
+        Attributes.write(out, player.attributes);
+        out.writeInt(player.getExperience());
+        out.writeInt(player.getVirtuePoints());
+        out.writeInt(player.getHealth());
+        out.writeLong(player.page.locations[player.index]);
+
+        out.writeByte(player.getEquipmentCount());
+        final long[] equipment = player.page.equipment;
+        for (int i = player.index * PlayerColumns.EQUIPMENT; i < (player.index + 1) * PlayerColumns.EQUIPMENT; i++) {
+            if (equipment[i] != PlayerColumns.NO_ITEM) {
+                out.writeLong(equipment[i]);
+            }
+        }
+
+        out.writeInt(player.inventory.size());
+        for (Item inventoryItem : player.inventory) {
+            out.writeLong(inventoryItem.id);
+        }
+
+        EventHistory.write(out, player.eventHistory);
+    }
+
     static void write(Json json, Player player) {
         json.writeObjectStart();
         json.writeValue("id", player.id, long.class);
         json.writeValue("name", player.name, String.class);
         Attributes.write(json, "attributes", player.attributes);
-        json.writeValue("experience", player.experience, int.class);
-        json.writeValue("virtuePoints", player.virtuePoints, int.class);
-        json.writeValue("health", player.health, int.class);
-        json.writeValue("locationId", player.location.id, long.class);
+        json.writeValue("experience", player.getExperience(), int.class);
+        json.writeValue("virtuePoints", player.getVirtuePoints(), int.class);
+        json.writeValue("health", player.getHealth(), int.class);
+        json.writeValue("locationId", player.page.locations[player.index], long.class);
 
         json.writeArrayStart("equipment");
-        for (Item equipped : player.equipment.values()) {
-            json.writeValue(equipped.id, long.class);
+        final long[] equipment = player.page.equipment;
+        for (int i = player.index * PlayerColumns.EQUIPMENT; i < (player.index + 1) * PlayerColumns.EQUIPMENT; i++) {
+            if (equipment[i] != PlayerColumns.NO_ITEM) {
+                json.writeValue(equipment[i], long.class);
+            }
         }
         json.writeArrayEnd();
 
@@ -159,6 +386,8 @@ public final class Player implements AttributeHolder {
         }
         json.writeArrayEnd();
 
+        EventHistory.write(json, "eventHistory", player.eventHistory);
+
         json.writeObjectEnd();
     }
 }
@@ -0,0 +1,146 @@
+package ib053.core;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Hot state of the players in memory, kept in primitive columns indexed by a dense slot of each player.
+ * {@link Player} is a view of its slot.
+ *
+ * Columns are split into pages of {@link #PAGE_SIZE} slots. Pages are never reallocated, so players and their
+ * {@link Attributes} keep the arrays of their page. Slots of players removed from memory are reused, the lowest first,
+ * so that players stay packed in the first pages and the trailing empty pages can be dropped.
+ *
+ * Bulk scans over all players, such as {@link #countLevels()}, go through the pages one after another
+ * instead of chasing the objects of each player.
+ *
+ * Allocation of slots is thread safe. Values in the slot belong to the player and are accessed like the player.
+ */
+final class PlayerColumns {
+
+    static final int PAGE_BITS = 10;
+    static final int PAGE_SIZE = 1 << PAGE_BITS;
+    static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    static final int ATTRIBUTES = Attribute.VALUES.length;
+    static final int EQUIPMENT = Item.ItemType.VALUES.length;
+
+    /** Id in {@link Page#equipment} of an empty equipment slot */
+    static final long NO_ITEM = Long.MIN_VALUE;
+    /** Id in {@link Page#locations} of a player who is not in any location yet */
+    static final long NO_LOCATION = Long.MIN_VALUE;
+    /** Id in {@link Page#ids} of a free slot, player ids start at 1 */
+    private static final long NO_PLAYER = 0;
+
+    /** Bytes taken by one slot in all columns */
+    static final int SLOT_BYTES = 8 + 3 * 4 + 2 * 4 * ATTRIBUTES + 8 * EQUIPMENT + 8;
+
+    /** Guarded by this */
+    private Page[] pages = new Page[0];
+    /** Slots which belong to a player, guarded by this */
+    private final BitSet used = new BitSet();
+    /** No slot below this is free, guarded by this */
+    private int firstFree = 0;
+    /** Used slots of each page, guarded by this */
+    private int[] pageUsage = new int[0];
+
+    /** One page of every column, slot s is at index s & {@link #PAGE_MASK} of page s >> {@link #PAGE_BITS}. */
+    static final class Page {
+        final long[] ids = new long[PAGE_SIZE];
+        final int[] health = new int[PAGE_SIZE];
+        final int[] experience = new int[PAGE_SIZE];
+        final int[] virtuePoints = new int[PAGE_SIZE];
+        /** {@link #ATTRIBUTES} values of each slot, in the order of {@link Attribute#VALUES} */
+        final int[] attributes = new int[PAGE_SIZE * ATTRIBUTES];
+        /** Attributes combined with equipment, computed from {@link #attributes} when needed, see {@link Player#get(Attribute)} */
+        final int[] combinedAttributes = new int[PAGE_SIZE * ATTRIBUTES];
+        /** {@link #EQUIPMENT} item ids of each slot, by {@link Item.ItemType#ordinal()}, {@link #NO_ITEM} if empty */
+        final long[] equipment = new long[PAGE_SIZE * EQUIPMENT];
+        /** Id of the location of each slot, {@link #NO_LOCATION} if not placed yet */
+        final long[] locations = new long[PAGE_SIZE];
+    }
+
+    /** @return slot for the player, with all values empty */
+    synchronized int allocate(long playerId) {
+        assert playerId != NO_PLAYER;
+        final int slot = used.nextClearBit(firstFree);
+        used.set(slot);
+        firstFree = slot + 1;
+
+        final int pageIndex = slot >>> PAGE_BITS;
+        if (pageIndex >= pages.length) {
+            pages = Arrays.copyOf(pages, pageIndex + 1);
+            pageUsage = Arrays.copyOf(pageUsage, pageIndex + 1);
+        }
+        Page page = pages[pageIndex];
+        if (page == null) {
+            pages[pageIndex] = page = new Page();
+        }
+        pageUsage[pageIndex]++;
+
+        final int index = slot & PAGE_MASK;
+        page.ids[index] = playerId;
+        page.health[index] = 0;
+        page.experience[index] = 0;
+        page.virtuePoints[index] = 0;
+        Arrays.fill(page.attributes, index * ATTRIBUTES, (index + 1) * ATTRIBUTES, 0);
+        Arrays.fill(page.combinedAttributes, index * ATTRIBUTES, (index + 1) * ATTRIBUTES, 0);
+        Arrays.fill(page.equipment, index * EQUIPMENT, (index + 1) * EQUIPMENT, NO_ITEM);
+        page.locations[index] = NO_LOCATION;
+        return slot;
+    }
+
+    /** @return page which holds given slot, valid for as long as the slot is allocated */
+    synchronized Page page(int slot) {
+        return pages[slot >>> PAGE_BITS];
+    }
+
+    /** Free the slot of a player who is removed from memory. Their {@link Player} object must not be used anymore. */
+    synchronized void free(int slot) {
+        if (!used.get(slot)) throw new IllegalStateException("Slot "+slot+" is not allocated");
+        used.clear(slot);
+        firstFree = Math.min(firstFree, slot);
+        final int pageIndex = slot >>> PAGE_BITS;
+        pages[pageIndex].ids[slot & PAGE_MASK] = NO_PLAYER;
+        pageUsage[pageIndex]--;
+
+        // Drop empty pages from the end
+        int pageCount = pages.length;
+        while (pageCount > 0 && pageUsage[pageCount - 1] == 0) {
+            pageCount--;
+        }
+        if (pageCount < pages.length) {
+            pages = Arrays.copyOf(pages, pageCount);
+            pageUsage = Arrays.copyOf(pageUsage, pageCount);
+        }
+    }
+
+    /** @return amount of allocated pages */
+    synchronized int getPageCount() {
+        return pages.length;
+    }
+
+    /** @return how many players there are at each level, indexed by level. Values may change during the scan. */
+    int[] countLevels() {
+        final Page[] pages;
+        synchronized (this) {
+            pages = this.pages;
+        }
+        final int level = Attribute.LEVEL.ordinal();
+        int[] counts = new int[16];
+        for (Page page : pages) {
+            if (page == null) continue;
+            final long[] ids = page.ids;
+            final int[] attributes = page.attributes;
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                if (ids[i] == NO_PLAYER) continue;
+                final int playerLevel = Math.max(attributes[i * ATTRIBUTES + level], Attribute.LEVEL.minValue);
+                if (playerLevel >= counts.length) {
+                    counts = Arrays.copyOf(counts, Math.max(counts.length * 2, playerLevel + 1));
+                }
+                counts[playerLevel]++;
+            }
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,350 @@
+package ib053.core;
+
+import com.esotericsoftware.jsonbeans.Json;
+import com.koloboke.collect.map.LongIntMap;
+import com.koloboke.collect.map.LongLongCursor;
+import com.koloboke.collect.map.LongLongMap;
+import com.koloboke.collect.map.hash.HashLongIntMaps;
+import com.koloboke.collect.map.hash.HashLongLongMaps;
+import com.koloboke.collect.set.LongSet;
+import ib053.core.activities.LocationActivity;
+import ib053.util.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps only the recently active players in memory, the others are hibernated in a file in the state folder.
+ *
+ * Periodically sweeps the players in locations. Players who are in {@link LocationActivity}, are not played by any frontend
+ * and were not active for {@link GameCore.Settings#hibernateAfterSeconds}, are hibernated. When there are more resident
+ * players than {@link GameCore.Settings#maxResidentPlayers}, or they take more than {@link GameCore.Settings#maxResidentBytes},
+ * the least recently active such players are hibernated too. Player is active when a task for them runs or when they are found.
+ * Hibernated players are faulted back in when they are found, see {@link GameCore#findPlayer(long)}.
+ *
+ * The file holds players serialized like in the binary snapshot, one after another. Records of players who were faulted in
+ * are garbage, the file is compacted when there is more garbage than live records.
+ * The file is valid only during one run, snapshots contain hibernated players too, so it is discarded on start and on shutdown.
+ * Hibernation doesn't change the player, so the journal still applies to the last snapshot.
+ *
+ * Apart from the sweep, all methods must be called while holding the lock of {@link GameCore}'s players.
+ */
+final class PlayerResidency {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PlayerResidency.class);
+
+    /** Compaction is not worth it for less garbage than this */
+    private static final long MIN_COMPACTED_GARBAGE = 1 << 20;
+
+    private final GameCore core;
+
+    private final long hibernateAfterNanos;
+    private final int maxResidentPlayers;
+    private final long maxResidentBytes;
+    private final long sweepMillis;
+
+    private final File file;
+    private FileChannel channel;
+    /** Offset of the record of each hibernated player in {@link #channel} */
+    private final LongLongMap offsets = HashLongLongMaps.newMutableMap();
+    /** Where the next record will be written */
+    private long end = 0;
+    /** Bytes of records of players who are no longer hibernated */
+    private long garbage = 0;
+    /** How many hibernated players are in each location, so that {@link GameCore#reloadWorld()} can check them without reading them */
+    private final LongIntMap locationReferences = HashLongIntMaps.newMutableMap();
+    /** How many hibernated players have each item, equipped or not */
+    private final LongIntMap itemReferences = HashLongIntMaps.newMutableMap();
+
+    /** Players found in memory */
+    private final LongAdder hits = new LongAdder();
+    /** Players faulted in from the file */
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder hibernations = new LongAdder();
+    /** Nanoseconds which it took to fault a player in */
+    private final Histogram faultLatency = new Histogram();
+    /** Estimate of the heap taken by resident players in locations, at the last sweep */
+    private volatile long residentBytes = 0;
+
+    PlayerResidency(GameCore core, File file, GameCore.Settings settings) {
+        this.core = core;
+        this.hibernateAfterNanos = TimeUnit.SECONDS.toNanos(settings.hibernateAfterSeconds);
+        this.maxResidentPlayers = settings.maxResidentPlayers;
+        this.maxResidentBytes = settings.maxResidentBytes;
+        this.sweepMillis = settings.residencySweepMillis;
+        this.file = file;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to open hibernated player file "+file, e);
+        }
+    }
+
+    /** @return true if the settings ask for hibernation of players */
+    static boolean enabled(GameCore.Settings settings) {
+        return settings.hibernateAfterSeconds > 0 || settings.maxResidentPlayers > 0 || settings.maxResidentBytes > 0;
+    }
+
+    /** Schedule the periodic sweep */
+    void begin() {
+        core.schedule(this::sweep, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Choose the players to hibernate, they are hibernated by tasks on their shards.
+     * Runs outside of the players lock, reads of other shards' players are only a hint, {@link GameCore} checks them again. */
+    private void sweep() {
+        try {
+            final long now = System.nanoTime();
+            final ArrayList<Candidate> candidates = new ArrayList<>();
+            long residentBytes = 0;
+            for (PlayerSet players : core.getPlayersInLocations()) {
+                for (Player player : players) {
+                    residentBytes += player.estimateHeapBytes();
+                    if (player.currentActivity instanceof LocationActivity && !core.isPlaying(player)) {
+                        candidates.add(new Candidate(player, player.lastActiveNanos));
+                    }
+                }
+            }
+            this.residentBytes = residentBytes;
+
+            int excessPlayers = maxResidentPlayers > 0 ? core.getResidentPlayerCount() - maxResidentPlayers : 0;
+            long excessBytes = maxResidentBytes > 0 ? residentBytes - maxResidentBytes : 0;
+            candidates.sort(Comparator.comparingLong(candidate -> candidate.lastActiveNanos));
+            for (Candidate candidate : candidates) {
+                final Player player = candidate.player;
+                final long lastActive = candidate.lastActiveNanos;
+                final boolean idle = hibernateAfterNanos > 0 && now - lastActive >= hibernateAfterNanos;
+                if (!idle && excessPlayers <= 0 && excessBytes <= 0) break;
+                core.schedule(player, () -> core.hibernate(player, lastActive), 0, TimeUnit.NANOSECONDS);
+                excessPlayers--;
+                excessBytes -= player.estimateHeapBytes();
+            }
+
+            core.compactHibernatedPlayers();
+        } catch (Throwable t) {
+            LOG.error("Residency sweep failed", t);
+        }
+        core.schedule(this::sweep, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Counts the player found in memory */
+    void hit(Player player) {
+        player.lastActiveNanos = System.nanoTime();
+        hits.increment();
+    }
+
+    /** Write the player into the file. Caller removes them from memory. */
+    void hibernate(Player player) {
+        final SnapshotOutput out = SnapshotOutput.inMemory();
+        out.writeInt(0);
+        Player.write(out, player);
+        final ByteBuffer record = out.contents();
+        record.putInt(0, record.remaining() - 4);
+        final long offset = end;
+        write(record, offset);
+        end += record.limit();
+        offsets.put(player.getId(), offset);
+        countReferences(player, 1);
+        hibernations.increment();
+    }
+
+    private void countReferences(Player player, int delta) {
+        player.forEachReference(
+                locationId -> count(locationReferences, locationId, delta),
+                itemId -> count(itemReferences, itemId, delta));
+    }
+
+    private static void count(LongIntMap counts, long id, int delta) {
+        if (counts.addValue(id, delta) == 0) {
+            counts.remove(id);
+        }
+    }
+
+    /** Add ids of locations in which hibernated players are, and of items which they have */
+    void collectReferences(LongSet locationIds, LongSet itemIds) {
+        locationIds.addAll(locationReferences.keySet());
+        itemIds.addAll(itemReferences.keySet());
+    }
+
+    /** @return amount of hibernated players */
+    int getHibernatedCount() {
+        return offsets.size();
+    }
+
+    /** Read the player from the file and forget their record. Caller puts them into memory.
+     * @return the player or null if they are not hibernated */
+    Player wake(long playerId) {
+        if (!offsets.containsKey(playerId)) return null;
+        final long startNanos = System.nanoTime();
+        final ByteBuffer record = read(offsets.remove(playerId));
+        garbage += 4 + record.remaining();
+        final Player player = decode(record);
+        countReferences(player, -1);
+        misses.increment();
+        faultLatency.record(System.nanoTime() - startNanos);
+        return player;
+    }
+
+    /** Write all hibernated players into the binary snapshot, as they were written */
+    void writeHibernated(SnapshotOutput out) {
+        final LongLongCursor cursor = offsets.cursor();
+        while (cursor.moveNext()) {
+            out.writeBytes(read(cursor.value()));
+        }
+    }
+
+    /** Write all hibernated players into the JSON snapshot */
+    void writeHibernated(Json json) {
+        final LongLongCursor cursor = offsets.cursor();
+        while (cursor.moveNext()) {
+            final Player player = decode(read(cursor.value()));
+            Player.write(json, player);
+            player.freeSlot();
+        }
+    }
+
+    private Player decode(ByteBuffer record) {
+        return Player.read(new SnapshotInput(record), Attribute.VALUES, EventHistory.currentTemplates(), core);
+    }
+
+    /** @return contents of the record at the offset, without the length */
+    private ByteBuffer read(long offset) {
+        final ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(length, offset);
+        final ByteBuffer record = ByteBuffer.allocate(length.getInt(0));
+        readFully(record, offset + 4);
+        record.flip();
+        return record;
+    }
+
+    private void readFully(ByteBuffer into, long offset) {
+        try {
+            while (into.hasRemaining()) {
+                if (channel.read(into, offset + into.position()) < 0) {
+                    throw new IOException("Hibernated player file "+file+" ends at "+(offset + into.position()));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void write(ByteBuffer from, long offset) {
+        try {
+            while (from.hasRemaining()) {
+                channel.write(from, offset + from.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Rewrite the file with only the records of hibernated players, when most of it is garbage */
+    void compactIfNeeded() {
+        if (garbage < MIN_COMPACTED_GARBAGE || garbage < end - garbage) return;
+
+        final long startNanos = System.nanoTime();
+        final File compactedFile = new File(file.getPath() + ".compacted");
+        // Offsets and channel are replaced only once the compacted file is in place, until then the old ones stay valid
+        final LongLongMap compactedOffsets = HashLongLongMaps.newMutableMap(offsets.size());
+        long compactedEnd = 0;
+        FileChannel compacted = null;
+        try {
+            compacted = FileChannel.open(compactedFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            final LongLongCursor cursor = offsets.cursor();
+            while (cursor.moveNext()) {
+                final ByteBuffer record = read(cursor.value());
+                final ByteBuffer length = ByteBuffer.allocate(4).putInt(0, record.remaining());
+                final long offset = compactedEnd;
+                while (length.hasRemaining()) {
+                    compacted.write(length, offset + length.position());
+                }
+                while (record.hasRemaining()) {
+                    compacted.write(record, offset + 4 + record.position());
+                }
+                compactedOffsets.put(cursor.key(), offset);
+                compactedEnd = offset + 4 + record.limit();
+            }
+            Files.move(compactedFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            if (compacted != null) {
+                try {
+                    compacted.close();
+                } catch (IOException closeException) {
+                    e.addSuppressed(closeException);
+                }
+            }
+            try {
+                Files.deleteIfExists(compactedFile.toPath());
+            } catch (IOException deleteException) {
+                e.addSuppressed(deleteException);
+            }
+            throw new UncheckedIOException("Failed to compact hibernated players", e instanceof IOException ? (IOException) e : new IOException(e));
+        }
+
+        final FileChannel old = channel;
+        channel = compacted;
+        offsets.clear();
+        offsets.putAll(compactedOffsets);
+        LOG.info("Compacted hibernated players from {} to {} bytes in {} ms", end, compactedEnd,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        end = compactedEnd;
+        garbage = 0;
+        try {
+            old.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close the old hibernated player file", e);
+        }
+    }
+
+    /** Close and delete the file, hibernated players must have been saved. */
+    void close() {
+        try {
+            channel.close();
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            LOG.warn("Failed to delete hibernated player file {}", file, e);
+        }
+    }
+
+    /** Player who may be hibernated, with their last activity as of the sweep, which changes concurrently */
+    private static final class Candidate {
+        final Player player;
+        final long lastActiveNanos;
+
+        Candidate(Player player, long lastActiveNanos) {
+            this.player = player;
+            this.lastActiveNanos = lastActiveNanos;
+        }
+    }
+
+    /** Reports residency of players, hits, misses and how long it took to fault players in. */
+    void collectMetrics(Metrics.Sink sink) {
+        sink.family("ib053_players_resident", Metrics.Kind.GAUGE, "Players kept in memory", null);
+        sink.sample(null, core.getResidentPlayerCount());
+        sink.family("ib053_players_resident_bytes", Metrics.Kind.GAUGE, "Estimated heap taken by players in locations, at the last sweep", null);
+        sink.sample(null, residentBytes);
+        sink.family("ib053_players_hibernated_total", Metrics.Kind.COUNTER, "Players hibernated to the disk", null);
+        sink.sample(null, hibernations.sum());
+        sink.family("ib053_player_residency_hits_total", Metrics.Kind.COUNTER, "Players found in memory", null);
+        sink.sample(null, hits.sum());
+        sink.family("ib053_player_residency_misses_total", Metrics.Kind.COUNTER, "Players faulted in from the disk", null);
+        sink.sample(null, misses.sum());
+        sink.family("ib053_player_fault_seconds", Metrics.Kind.HISTOGRAM, "How long it took to fault a player in from the disk", null);
+        sink.sample(null, faultLatency.snapshot());
+    }
+}
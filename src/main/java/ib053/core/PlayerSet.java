@@ -0,0 +1,173 @@
+package ib053.core;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ * Set of players in a location or in an activity, read-only for everyone outside of the core.
+ *
+ * Each player can be in at most one set of each {@link Membership} at a time and remembers their index in it,
+ * so adding and removing is O(1). Removal moves the last player into the freed index.
+ *
+ * Iteration goes over a snapshot of the set taken when it starts, so players may enter or leave while iterating,
+ * for example when notifying all players of an activity. The snapshot is shared with the set, which copies the players
+ * only when it changes while an iteration is still in progress. Finished iterations cost nothing extra.
+ * Iterators which are abandoned before their end count as in progress until the set is next copied.
+ *
+ * Thread safe, because locations and per-location activities may be entered from different event loop shards.
+ */
+public final class PlayerSet extends AbstractCollection<Player> {
+
+    private static final Player[] NO_PLAYERS = new Player[0];
+
+    private final Membership membership;
+    private Player[] players = NO_PLAYERS;
+    private int size = 0;
+    /** Iterations in progress over {@link #players}, which must be copied before being changed while there are any */
+    private int readers = 0;
+
+    PlayerSet(Membership membership) {
+        this.membership = membership;
+    }
+
+    /** @throws IllegalStateException if the player already is in a set of the same {@link Membership} */
+    synchronized void addPlayer(Player player) {
+        if (membership.getIndex(player) != -1) {
+            throw new IllegalStateException("Player "+player+" already is in a "+membership+" set");
+        }
+        if (readers > 0 || size == players.length) {
+            players = Arrays.copyOf(players, size == players.length ? Math.max(size * 2, 8) : players.length);
+            readers = 0;
+        }
+        players[size] = player;
+        membership.setIndex(player, size);
+        size++;
+    }
+
+    /** @return true if the player was in this set */
+    synchronized boolean removePlayer(Player player) {
+        final int index = membership.getIndex(player);
+        if (index < 0 || index >= size || players[index] != player) {
+            return false;
+        }
+        if (readers > 0) {
+            players = players.clone();
+            readers = 0;
+        }
+        final int last = --size;
+        final Player lastPlayer = players[last];
+        players[index] = lastPlayer;
+        membership.setIndex(lastPlayer, index);
+        players[last] = null;
+        membership.setIndex(player, -1);
+        return true;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public synchronized boolean contains(Object o) {
+        if (!(o instanceof Player)) return false;
+        final int index = membership.getIndex((Player) o);
+        return index >= 0 && index < size && players[index] == o;
+    }
+
+    @Override
+    public Iterator<Player> iterator() {
+        final Player[] players;
+        final int size;
+        synchronized (this) {
+            players = this.players;
+            size = this.size;
+            readers++;
+        }
+
+        return new Iterator<Player>() {
+            private int next = 0;
+            private boolean released = false;
+
+            @Override
+            public boolean hasNext() {
+                if (next < size) return true;
+                if (!released) {
+                    released = true;
+                    release(players);
+                }
+                return false;
+            }
+
+            @Override
+            public Player next() {
+                if (next >= size) throw new NoSuchElementException();
+                return players[next++];
+            }
+        };
+    }
+
+    @Override
+    public void forEach(Consumer<? super Player> action) {
+        final Player[] players;
+        final int size;
+        synchronized (this) {
+            players = this.players;
+            size = this.size;
+            readers++;
+        }
+
+        try {
+            for (int i = 0; i < size; i++) {
+                action.accept(players[i]);
+            }
+        } finally {
+            release(players);
+        }
+    }
+
+    /** End an iteration over given snapshot, it no longer needs to be copied on change if it is the last one */
+    private synchronized void release(Player[] snapshot) {
+        // Snapshot which is no longer current was already copied away from and its readers forgotten
+        if (snapshot == players && readers > 0) {
+            readers--;
+        }
+    }
+
+    /** Kind of sets, which determines where the player keeps their index. */
+    enum Membership {
+        LOCATION {
+            @Override
+            int getIndex(Player player) {
+                return player.locationSetIndex;
+            }
+
+            @Override
+            void setIndex(Player player, int index) {
+                player.locationSetIndex = index;
+            }
+        },
+        ACTIVITY {
+            @Override
+            int getIndex(Player player) {
+                return player.activitySetIndex;
+            }
+
+            @Override
+            void setIndex(Player player, int index) {
+                player.activitySetIndex = index;
+            }
+        };
+
+        abstract int getIndex(Player player);
+        abstract void setIndex(Player player, int index);
+    }
+}
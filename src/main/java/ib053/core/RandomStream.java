@@ -0,0 +1,99 @@
+package ib053.core;
+
+import java.util.SplittableRandom;
+
+/**
+ * Stream of random numbers, backed by a {@link SplittableRandom}, for use by one thread at a time.
+ *
+ * Unlike {@link java.util.Random}, nothing is shared between streams, so streams of different threads don't contend.
+ * Streams created with the same seed produce the same numbers, see {@link RandomUtil} for how they are handed out.
+ * No method allocates.
+ */
+public final class RandomStream {
+
+    private final SplittableRandom random;
+    /** Second value generated by the last {@link #nextGaussian()} */
+    private double nextGaussian;
+    private boolean hasNextGaussian = false;
+
+    public RandomStream(long seed) {
+        this(new SplittableRandom(seed));
+    }
+
+    private RandomStream(SplittableRandom random) {
+        this.random = random;
+    }
+
+    /** @return new stream, whose numbers are independent of this one, and which is determined by the state of this one */
+    public RandomStream split() {
+        return new RandomStream(random.split());
+    }
+
+    /** @return uniformly distributed int from 0 (inclusive) to bound (exclusive) */
+    public int nextInt(int bound) {
+        return random.nextInt(bound);
+    }
+
+    public long nextLong() {
+        return random.nextLong();
+    }
+
+    /** @return uniformly distributed float from 0 (inclusive) to 1 (exclusive) */
+    public float nextFloat() {
+        return (random.nextInt() >>> 8) * 0x1.0p-24f;
+    }
+
+    /** @return uniformly distributed double from 0 (inclusive) to 1 (exclusive) */
+    public double nextDouble() {
+        return random.nextDouble();
+    }
+
+    /** @return normally distributed double with mean 0 and standard deviation 1 */
+    public double nextGaussian() {
+        if (hasNextGaussian) {
+            hasNextGaussian = false;
+            return nextGaussian;
+        }
+        // Marsaglia polar method, same as java.util.Random
+        double x, y, s;
+        do {
+            x = 2 * random.nextDouble() - 1;
+            y = 2 * random.nextDouble() - 1;
+            s = x * x + y * y;
+        } while (s >= 1 || s == 0);
+        final double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+        nextGaussian = y * multiplier;
+        hasNextGaussian = true;
+        return x * multiplier;
+    }
+
+    /** @param probability number between 0 (never) and 1 (always)
+     * @return true with given probability */
+    public boolean check(float probability) {
+        return probability > nextFloat();
+    }
+
+    /** Picks randomly first (true) or second (false) with given weights, which can be from range [0, inf) */
+    public boolean chooseFirst(float firstWeight, float secondWeight) {
+        return firstWeight > (nextFloat() * (firstWeight + secondWeight));
+    }
+
+    /** Shuffle the items in place, every permutation is equally likely. */
+    public void shuffle(int[] items) {
+        for (int i = items.length - 1; i > 0; i--) {
+            final int target = random.nextInt(i + 1);
+            final int tmp = items[i];
+            items[i] = items[target];
+            items[target] = tmp;
+        }
+    }
+
+    /** @return seed for a stream derived from the seed and the key,
+     * different keys give unrelated seeds (SplitMix64 finalizer of their combination) */
+    public static long seed(long seed, long key) {
+        long z = seed + key * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -1,34 +1,71 @@
 package ib053.core;
 
-import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
- * Utils that work with randomness
+ * Utils that work with randomness.
+ *
+ * Numbers come from the current {@link RandomStream} of the calling thread, see {@link #random()}.
+ * Each thread has its own stream, split from a common root, so threads never contend for a shared seed.
+ * Code which needs reproducible results can make its own seeded stream current for a while,
+ * see {@link #use(RandomStream)}. The event loop does that for tasks of players, when {@link GameCore.Settings#randomSeed} is set.
  */
-public class RandomUtil {
-    public static final Random RANDOM = new Random();
+public final class RandomUtil {
 
-    public static void shuffle(int[] items) {
-        int range = items.length;
-        for (int i = 0; i < items.length - 1; i++) {
-            int target =  i + RANDOM.nextInt(range--);
-            // Swap i and range
-
-            int tmp = items[i];
-            items[i] = items[target];
-            items[target] = tmp;
+    /** Root from which the streams of threads are split, guarded by itself */
+    private static final SplittableRandom ROOT = new SplittableRandom();
+
+    private static final ThreadLocal<Current> CURRENT = ThreadLocal.withInitial(() -> {
+        synchronized (ROOT) {
+            return new Current(new RandomStream(ROOT.nextLong()));
         }
+    });
+
+    private RandomUtil() {}
+
+    /** @return stream which is current on this thread, valid only on this thread */
+    public static RandomStream random() {
+        return CURRENT.get().stream;
+    }
+
+    /** Make the stream current on this thread, until it is replaced by another call.
+     * @param stream to use, null to go back to the thread's own stream
+     * @return previously current stream, to be restored when done */
+    public static RandomStream use(RandomStream stream) {
+        final Current current = CURRENT.get();
+        final RandomStream previous = current.stream;
+        current.stream = stream == null ? current.threadStream : stream;
+        return previous;
+    }
+
+    public static void shuffle(int[] items) {
+        random().shuffle(items);
     }
 
     /** @param probability number between 0 (never) and 1 (always)
      * @return true with given probability  */
     public static boolean check(float probability) {
-        return probability > RANDOM.nextFloat();
+        return random().check(probability);
     }
 
     /** Picks randomly first (true) or second (false) with given weights, which can be from range [0, inf) */
     public static boolean chooseFirst(float firstWeight, float secondWeight) {
-        return firstWeight > (RANDOM.nextFloat() * (firstWeight + secondWeight));
+        return random().chooseFirst(firstWeight, secondWeight);
+    }
+
+    /** @return uniformly distributed float from 0 (inclusive) to 1 (exclusive) */
+    public static float nextFloat() {
+        return random().nextFloat();
+    }
+
+    /** @return uniformly distributed double from 0 (inclusive) to 1 (exclusive) */
+    public static double nextDouble() {
+        return random().nextDouble();
+    }
+
+    /** @return normally distributed double with mean 0 and standard deviation 1 */
+    public static double gaussian() {
+        return random().nextGaussian();
     }
 
     public static float clamp(float value, float min, float max) {
@@ -40,4 +77,14 @@ public class RandomUtil {
             return value;
         }
     }
+
+    private static final class Current {
+        final RandomStream threadStream;
+        RandomStream stream;
+
+        Current(RandomStream threadStream) {
+            this.threadStream = threadStream;
+            this.stream = threadStream;
+        }
+    }
 }
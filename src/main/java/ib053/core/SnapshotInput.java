@@ -0,0 +1,113 @@
+package ib053.core;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads binary snapshot data written by {@link SnapshotOutput}, either from a channel through a direct buffer,
+ * or from a buffer in memory.
+ *
+ * I/O errors are thrown as {@link UncheckedIOException}, premature end of data as {@link IllegalArgumentException}.
+ */
+public final class SnapshotInput {
+
+    private static final int CHANNEL_BUFFER_SIZE = 1 << 16;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+
+    /** Input which reads from given channel. */
+    public SnapshotInput(ReadableByteChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(CHANNEL_BUFFER_SIZE);
+        this.buffer.flip();
+    }
+
+    /** Input which reads remaining content of given buffer. */
+    public SnapshotInput(ByteBuffer contents) {
+        this.channel = null;
+        this.buffer = contents;
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes) return;
+        if (channel == null || bytes > buffer.capacity()) {
+            throw new IllegalArgumentException("Unexpected end of snapshot data");
+        }
+        buffer.compact();
+        try {
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    buffer.flip();
+                    throw new IllegalArgumentException("Unexpected end of snapshot data", new EOFException());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.flip();
+    }
+
+    /** @return true if there is no more data */
+    public boolean isAtEnd() {
+        if (buffer.hasRemaining() || channel == null) {
+            return !buffer.hasRemaining();
+        }
+        buffer.compact();
+        try {
+            final int read = channel.read(buffer);
+            buffer.flip();
+            return read < 0 && !buffer.hasRemaining();
+        } catch (IOException e) {
+            buffer.flip();
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public byte readByte() {
+        ensure(1);
+        return buffer.get();
+    }
+
+    public boolean readBoolean() {
+        return readByte() != 0;
+    }
+
+    public int readInt() {
+        ensure(4);
+        return buffer.getInt();
+    }
+
+    public long readLong() {
+        ensure(8);
+        return buffer.getLong();
+    }
+
+    public float readFloat() {
+        ensure(4);
+        return buffer.getFloat();
+    }
+
+    public String readString() {
+        final int length = readInt();
+        if (length == -1) return null;
+        return new String(readBytes(length), StandardCharsets.UTF_8);
+    }
+
+    public byte[] readBytes(int length) {
+        if (length < 0) throw new IllegalArgumentException("Invalid length "+length);
+        final byte[] bytes = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            ensure(1);
+            final int chunk = Math.min(length - offset, buffer.remaining());
+            buffer.get(bytes, offset, chunk);
+            offset += chunk;
+        }
+        return bytes;
+    }
+}
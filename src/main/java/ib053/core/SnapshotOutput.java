@@ -0,0 +1,151 @@
+package ib053.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes binary snapshot data, either through a direct buffer into a channel, or into a growing heap buffer.
+ *
+ * Multi-byte values are big-endian. Strings are written as int length of UTF-8 bytes, followed by the bytes, -1 for null.
+ * I/O errors are thrown as {@link UncheckedIOException}.
+ * @see SnapshotInput
+ */
+public final class SnapshotOutput implements Closeable {
+
+    private static final int CHANNEL_BUFFER_SIZE = 1 << 16;
+
+    private final WritableByteChannel channel;
+    private ByteBuffer buffer;
+    private long written = 0;
+
+    /** Output which writes into given channel. */
+    public SnapshotOutput(WritableByteChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(CHANNEL_BUFFER_SIZE);
+    }
+
+    private SnapshotOutput() {
+        this.channel = null;
+        this.buffer = ByteBuffer.allocate(256);
+    }
+
+    /** Output which collects everything in memory, see {@link #contents()}. */
+    public static SnapshotOutput inMemory() {
+        return new SnapshotOutput();
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes) return;
+        if (channel != null) {
+            flush();
+            if (buffer.remaining() >= bytes) return;
+        }
+        final ByteBuffer bigger = channel == null
+                ? ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes))
+                : ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        buffer.flip();
+        bigger.put(buffer);
+        buffer = bigger;
+    }
+
+    public void writeByte(int value) {
+        ensure(1);
+        buffer.put((byte) value);
+    }
+
+    public void writeBoolean(boolean value) {
+        writeByte(value ? 1 : 0);
+    }
+
+    public void writeInt(int value) {
+        ensure(4);
+        buffer.putInt(value);
+    }
+
+    public void writeLong(long value) {
+        ensure(8);
+        buffer.putLong(value);
+    }
+
+    public void writeFloat(float value) {
+        ensure(4);
+        buffer.putFloat(value);
+    }
+
+    public void writeString(String value) {
+        if (value == null) {
+            writeInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length);
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    public void writeBytes(byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            if (!buffer.hasRemaining()) {
+                ensure(Math.min(length, CHANNEL_BUFFER_SIZE));
+            }
+            final int chunk = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /** Writes remaining content of the buffer. */
+    public void writeBytes(ByteBuffer bytes) {
+        while (bytes.hasRemaining()) {
+            if (!buffer.hasRemaining()) {
+                ensure(Math.min(bytes.remaining(), CHANNEL_BUFFER_SIZE));
+            }
+            if (bytes.remaining() <= buffer.remaining()) {
+                buffer.put(bytes);
+            } else {
+                final int limit = bytes.limit();
+                bytes.limit(bytes.position() + buffer.remaining());
+                buffer.put(bytes);
+                bytes.limit(limit);
+            }
+        }
+    }
+
+    /** @return total amount of bytes written so far */
+    public long size() {
+        return written + buffer.position();
+    }
+
+    /** @return everything written into in-memory output, ready to be read */
+    public ByteBuffer contents() {
+        if (channel != null) throw new IllegalStateException("Not an in-memory output");
+        final ByteBuffer result = buffer.duplicate();
+        result.flip();
+        return result;
+    }
+
+    /** Write buffered data into the channel. */
+    public void flush() {
+        if (channel == null) return;
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    /** Flushes, does not close the channel. */
+    @Override
+    public void close() {
+        flush();
+    }
+}
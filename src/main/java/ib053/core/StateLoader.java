@@ -0,0 +1,338 @@
+package ib053.core;
+
+import com.esotericsoftware.jsonbeans.JsonReader;
+import com.esotericsoftware.jsonbeans.JsonValue;
+import com.koloboke.collect.map.LongObjMap;
+import com.koloboke.collect.map.hash.HashLongObjMap;
+import com.koloboke.collect.map.hash.HashLongObjMaps;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Loads world and player files of {@link GameCore} in parallel, on a fork/join pool.
+ *
+ * World files are independent of each other, so they are parsed concurrently.
+ * The player file is read as a stream, one record at a time, and records are built into players
+ * in chunks, so that only a few records are ever held as text or DOM.
+ */
+final class StateLoader implements AutoCloseable {
+
+    /** Amount of player records built in one fork/join task */
+    private static final int PLAYER_CHUNK_SIZE = 1024;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    private final ForkJoinPool pool = new ForkJoinPool();
+
+    /** Start loading a world file, which holds an array of objects with unique ids.
+     * @param kind plural name of loaded objects, for messages */
+    <T> CompletableFuture<LongObjMap<T>> loadWorldFile(File file, String kind, Function<JsonValue, T> read, ToLongFunction<T> id, Function<T, String> name) {
+        return CompletableFuture.supplyAsync(() -> {
+            final JsonValue json = new JsonReader().parse(file);
+            assert json.isArray();
+            final HashLongObjMap<T> result = HashLongObjMaps.newMutableMap((int) (json.size * 1.25f));
+            for (JsonValue value : json) {
+                final T loaded = read.apply(value);
+                final T previous = result.put(id.applyAsLong(loaded), loaded);
+                if (previous != null) {
+                    throw new IllegalArgumentException(kind + " " + name.apply(loaded) + " and " + name.apply(previous) + " share identical ID " + id.applyAsLong(previous));
+                }
+            }
+            return HashLongObjMaps.newImmutableMap(result);
+        }, pool);
+    }
+
+    /** Read players from the json file.
+     * Must be called only after all world data, which players refer to, is loaded.
+     * @param values receives other values saved with the players, see {@link #readPlayerFile(Reader, Consumer, Map)}
+     * @return mutable map of all players */
+    LongObjMap<Player> loadPlayers(File file, GameCore core, Map<String, String> values) {
+        // Chunks are built in order, the oldest one is waited for when reading gets too far ahead of building
+        final ArrayDeque<ForkJoinTask<Player[]>> pending = new ArrayDeque<>();
+        final int maxPending = 2 * pool.getParallelism();
+        final List<Player[]> builtChunks = new ArrayList<>();
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            final ArrayList<String> records = new ArrayList<>(PLAYER_CHUNK_SIZE);
+            readPlayerFile(reader, record -> {
+                records.add(record);
+                if (records.size() == PLAYER_CHUNK_SIZE) {
+                    pending.addLast(pool.submit(new PlayerChunk(records.toArray(new String[0]), core)));
+                    records.clear();
+                    if (pending.size() > maxPending) {
+                        builtChunks.add(join(pending.removeFirst()));
+                    }
+                }
+            }, values);
+            if (!records.isEmpty()) {
+                pending.addLast(pool.submit(new PlayerChunk(records.toArray(new String[0]), core)));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to read "+file, e);
+        }
+        while (!pending.isEmpty()) {
+            builtChunks.add(join(pending.removeFirst()));
+        }
+
+        int playerCount = 0;
+        for (Player[] chunk : builtChunks) {
+            playerCount += chunk.length;
+        }
+
+        final LongObjMap<Player> players = HashLongObjMaps.newMutableMap(playerCount);
+        for (Player[] chunk : builtChunks) {
+            for (Player player : chunk) {
+                final Player oldPlayer = players.put(player.getId(), player);
+                if (oldPlayer != null) {
+                    throw new IllegalArgumentException("Invalid save file, two players ("+player.getName()+" and "+oldPlayer.getName()+") share the same ID "+ player.getId()+"!");
+                }
+            }
+        }
+        return players;
+    }
+
+    /** Wait for the result of a task, rethrowing its original exception. */
+    static <T> T join(ForkJoinTask<T> task) {
+        try {
+            return task.join();
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /** Wait for the result of a future, rethrowing its original exception. */
+    static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static RuntimeException unwrap(CompletionException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) return (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        return e;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    private static final class PlayerChunk implements Callable<Player[]> {
+        private final String[] records;
+        private final GameCore core;
+
+        private PlayerChunk(String[] records, GameCore core) {
+            this.records = records;
+            this.core = core;
+        }
+
+        @Override
+        public Player[] call() {
+            final JsonReader jsonReader = new JsonReader();
+            final Player[] players = new Player[records.length];
+            for (int i = 0; i < records.length; i++) {
+                try {
+                    players[i] = Player.read(jsonReader.parse(records[i]), core);
+                } catch (Exception e) {
+                    throw new IllegalArgumentException("Invalid save file", e);
+                }
+                records[i] = null;
+            }
+            return players;
+        }
+    }
+
+    /** Read the player file, which is an object with "players" array of player records and other plain values,
+     * or only the array of records (older saves).
+     * @param recordConsumer receives text of each record
+     * @param values receives other values of the object, as text */
+    static void readPlayerFile(Reader reader, Consumer<String> recordConsumer, Map<String, String> values) throws IOException {
+        final PushbackReader in = new PushbackReader(new BufferedReader(reader, READ_BUFFER_SIZE), READ_BUFFER_SIZE);
+        int c = nextNonWhitespace(in);
+        if (c == '[') {
+            forEachArrayElement(in, recordConsumer);
+        } else if (c == '{') {
+            c = nextNonWhitespace(in);
+            while (c != '}') {
+                if (c != '"') throw new IOException("Expected key, got "+describe(c));
+                final String key = readString(in);
+                if (nextNonWhitespace(in) != ':') throw new IOException("Expected ':' after \""+key+"\"");
+                c = nextNonWhitespace(in);
+                if (c == '[' && key.equals("players")) {
+                    forEachArrayElement(in, recordConsumer);
+                } else if (c == '"') {
+                    values.put(key, readString(in));
+                } else {
+                    values.put(key, readPlainValue(in, c));
+                }
+
+                c = nextNonWhitespace(in);
+                if (c == ',') {
+                    c = nextNonWhitespace(in);
+                } else if (c != '}') {
+                    throw new IOException("Expected ',' or '}', got "+describe(c));
+                }
+            }
+        } else {
+            throw new IOException("Expected array or object, got "+describe(c));
+        }
+
+        c = nextNonWhitespace(in);
+        if (c != -1) {
+            throw new IOException("Unexpected "+describe(c)+" after the end");
+        }
+    }
+
+    private static int nextNonWhitespace(Reader in) throws IOException {
+        int c;
+        do {
+            c = in.read();
+        } while (c != -1 && (Character.isWhitespace(c) || c == '\uFEFF'));
+        return c;
+    }
+
+    private static String describe(int c) {
+        return c == -1 ? "end of file" : "'" + (char) c + "'";
+    }
+
+    /** Read rest of a string, whose opening quote was already read. */
+    private static String readString(Reader in) throws IOException {
+        final StringBuilder result = new StringBuilder();
+        for (;;) {
+            int c = in.read();
+            if (c == -1) throw new EOFException("Unterminated string");
+            if (c == '"') return result.toString();
+            if (c == '\\') {
+                c = in.read();
+                switch (c) {
+                    case -1: throw new EOFException("Unterminated string");
+                    case 'n': result.append('\n'); break;
+                    case 't': result.append('\t'); break;
+                    case 'r': result.append('\r'); break;
+                    case 'b': result.append('\b'); break;
+                    case 'f': result.append('\f'); break;
+                    case 'u': {
+                        final char[] hex = new char[4];
+                        for (int i = 0; i < hex.length; i++) {
+                            final int h = in.read();
+                            if (h == -1) throw new EOFException("Unterminated string");
+                            hex[i] = (char) h;
+                        }
+                        try {
+                            result.append((char) Integer.parseInt(new String(hex), 16));
+                        } catch (NumberFormatException e) {
+                            throw new IOException("Invalid escape \\u"+new String(hex));
+                        }
+                        break;
+                    }
+                    default: result.append((char) c);
+                }
+            } else {
+                result.append((char) c);
+            }
+        }
+    }
+
+    /** Read number, boolean or null, whose first character is given. */
+    private static String readPlainValue(PushbackReader in, int first) throws IOException {
+        final StringBuilder result = new StringBuilder();
+        int c = first;
+        while (c != -1 && c != ',' && c != '}' && !Character.isWhitespace(c)) {
+            if (c == '{' || c == '[' || c == '"' || c == ']') throw new IOException("Only plain values are supported, got "+describe(c));
+            result.append((char) c);
+            c = in.read();
+        }
+        if (c != -1) {
+            in.unread(c);
+        }
+        return result.toString();
+    }
+
+    /** Split json array, whose opening bracket was already read, into the text of its elements, without parsing them.
+     * Leaves the reader just after the closing bracket. */
+    private static void forEachArrayElement(PushbackReader reader, Consumer<String> elementConsumer) throws IOException {
+        final char[] buffer = new char[READ_BUFFER_SIZE];
+        final StringBuilder element = new StringBuilder();
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            // Characters of the current element from this index are not yet in element, -1 if not in element
+            int segmentStart = element.length() != 0 ? 0 : -1;
+            for (int i = 0; i < read; i++) {
+                final char c = buffer[i];
+                if (inString) {
+                    if (escaped) {
+                        escaped = false;
+                    } else if (c == '\\') {
+                        escaped = true;
+                    } else if (c == '"') {
+                        inString = false;
+                    }
+                    continue;
+                }
+
+                if (depth == 0 && (c == ',' || c == ']')) {
+                    if (segmentStart != -1) {
+                        element.append(buffer, segmentStart, i - segmentStart);
+                        segmentStart = -1;
+                    }
+                    flushElement(element, elementConsumer);
+                    if (c == ']') {
+                        // Return what was read past the array
+                        reader.unread(buffer, i + 1, read - i - 1);
+                        return;
+                    }
+                    continue;
+                }
+
+                if (segmentStart == -1) {
+                    if (Character.isWhitespace(c)) continue;
+                    segmentStart = i;
+                }
+
+                switch (c) {
+                    case '"':
+                        inString = true;
+                        break;
+                    case '{':
+                    case '[':
+                        depth++;
+                        break;
+                    case '}':
+                    case ']':
+                        if (depth == 0) throw new IOException("Unexpected '"+c+"'");
+                        depth--;
+                        break;
+                }
+            }
+            if (segmentStart != -1) {
+                element.append(buffer, segmentStart, read - segmentStart);
+            }
+        }
+        throw new EOFException("Unterminated array");
+    }
+
+    private static void flushElement(StringBuilder element, Consumer<String> elementConsumer) {
+        if (element.length() == 0) return;
+        elementConsumer.accept(element.toString());
+        element.setLength(0);
+    }
+}
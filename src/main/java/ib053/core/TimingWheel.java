@@ -0,0 +1,150 @@
+package ib053.core;
+
+/**
+ * Hashed timing wheel which holds delayed tasks of one {@link EventLoop} shard.
+ *
+ * Time is split into ticks of fixed length and every tick maps to one bucket, a list of tasks due in that tick.
+ * Tasks that are due more than one revolution of the wheel later wait in their bucket for the remaining rounds.
+ * As long as most delays are shorter than one revolution, scheduling and expiring a task is O(1).
+ * Task nodes are pooled, so scheduling does not allocate once the wheel has seen its peak amount of tasks.
+ *
+ * Scheduling is thread-safe, {@link #advance(long, Sink)} may be called only from the thread of the owning shard.
+ */
+final class TimingWheel {
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final int mask;
+    private final Node[] heads;
+    private final Node[] tails;
+
+    /** Index of the last tick whose bucket has been expired */
+    private long processedTick = 0;
+    /** Unused nodes, linked through {@link Node#next} */
+    private Node free = null;
+    private int size = 0;
+
+    /** @param tickNanos length of one tick
+     * @param wheelSize amount of buckets, rounded up to power of two */
+    TimingWheel(long tickNanos, int wheelSize, long nowNanos) {
+        if (tickNanos <= 0) throw new IllegalArgumentException("Tick must be positive");
+        if (wheelSize <= 0 || wheelSize > (1 << 30)) throw new IllegalArgumentException("Invalid wheel size "+wheelSize);
+        final int buckets = Integer.highestOneBit(wheelSize - 1) << 1;
+        this.tickNanos = tickNanos;
+        this.startNanos = nowNanos;
+        this.mask = Math.max(buckets, 1) - 1;
+        this.heads = new Node[mask + 1];
+        this.tails = new Node[mask + 1];
+    }
+
+    long getTickNanos() {
+        return tickNanos;
+    }
+
+    /** @return amount of tasks waiting in the wheel */
+    synchronized int size() {
+        return size;
+    }
+
+    /** Schedule the task to be expired at the first tick after given delay.
+     * @param owner player whose shard should run the task, may be null */
+    synchronized void schedule(Player owner, Runnable task, long delayNanos, long nowNanos) {
+        long deadlineTick = (nowNanos - startNanos + delayNanos + tickNanos - 1) / tickNanos;
+        if (deadlineTick <= processedTick) {
+            deadlineTick = processedTick + 1;
+        }
+
+        Node node = free;
+        if (node == null) {
+            node = new Node();
+        } else {
+            free = node.next;
+            node.next = null;
+        }
+        node.owner = owner;
+        node.task = task;
+        node.rounds = (deadlineTick - processedTick - 1) / heads.length;
+
+        final int bucket = (int) (deadlineTick & mask);
+        final Node tail = tails[bucket];
+        if (tail == null) {
+            heads[bucket] = node;
+        } else {
+            tail.next = node;
+        }
+        tails[bucket] = node;
+        size++;
+    }
+
+    /** Expire all ticks up to given time and pass their due tasks to the sink, in the order in which they were scheduled. */
+    void advance(long nowNanos, Sink sink) {
+        final long targetTick = (nowNanos - startNanos) / tickNanos;
+        for (;;) {
+            Node expired = null;
+            Node expiredTail = null;
+
+            synchronized (this) {
+                if (processedTick >= targetTick) {
+                    return;
+                }
+                final int bucket = (int) (++processedTick & mask);
+
+                Node previous = null;
+                Node node = heads[bucket];
+                while (node != null) {
+                    final Node next = node.next;
+                    if (node.rounds == 0) {
+                        if (previous == null) {
+                            heads[bucket] = next;
+                        } else {
+                            previous.next = next;
+                        }
+                        node.next = null;
+                        if (expiredTail == null) {
+                            expired = node;
+                        } else {
+                            expiredTail.next = node;
+                        }
+                        expiredTail = node;
+                        size--;
+                    } else {
+                        node.rounds--;
+                        previous = node;
+                    }
+                    node = next;
+                }
+                tails[bucket] = previous;
+            }
+
+            if (expired == null) {
+                continue;
+            }
+
+            // Run outside of the lock, tasks usually schedule more tasks
+            for (Node node = expired; node != null; node = node.next) {
+                final Player owner = node.owner;
+                final Runnable task = node.task;
+                node.owner = null;
+                node.task = null;
+                sink.expire(owner, task);
+            }
+
+            synchronized (this) {
+                expiredTail.next = free;
+                free = expired;
+            }
+        }
+    }
+
+    /** Receives expired tasks. */
+    interface Sink {
+        void expire(Player owner, Runnable task);
+    }
+
+    private static final class Node {
+        Node next;
+        Player owner;
+        Runnable task;
+        long rounds;
+    }
+}
@@ -0,0 +1,243 @@
+package ib053.core;
+
+import com.koloboke.collect.map.LongObjMap;
+import com.koloboke.collect.map.hash.HashLongObjMaps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongConsumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Locations, items and enemies of the game, as loaded from the resource folder, and the players in each location.
+ *
+ * Immutable, {@link GameCore} replaces it as a whole when the world is reloaded, see {@link GameCore#reloadWorld()}.
+ *
+ * World is described by JSON files. They may be compiled into a binary image, see {@link #compile(File)},
+ * which is then loaded instead, for as long as the files hash to the same value as when it was compiled.
+ * The image is memory mapped and read in one pass, with no parsing and with each string stored once.
+ */
+final class World {
+
+    private static final Logger LOG = LoggerFactory.getLogger(World.class);
+
+    static final String LOCATION_FILE_NAME = "locations.json";
+    static final String ITEM_FILE_NAME = "items.json";
+    static final String ENEMY_FILE_NAME = "enemies.json";
+    /** Compiled world data, see {@link #compile(File)} */
+    static final String IMAGE_FILE_NAME = "world.bin";
+
+    final LongObjMap<Location> locations;
+    final LongObjMap<Item> items;
+    final LongObjMap<Enemy> enemies;
+    /** Players in each location, see {@link GameCore#getPlayersIn(Location)} */
+    final LongObjMap<PlayerSet> playersInLocation;
+    /** Image or folder of JSON files from which this was loaded */
+    final File source;
+
+    private World(LongObjMap<Location> locations, LongObjMap<Item> items, LongObjMap<Enemy> enemies, World previous, File source) {
+        this.locations = locations;
+        this.items = items;
+        this.enemies = enemies;
+        this.playersInLocation = HashLongObjMaps.newImmutableMap((map) -> {
+            locations.keySet().forEach((LongConsumer) id -> {
+                final PlayerSet players = previous == null ? null : previous.playersInLocation.get(id);
+                map.accept(id, players != null ? players : new PlayerSet(PlayerSet.Membership.LOCATION));
+            });
+        }, locations.size());
+        this.source = source;
+    }
+
+    /** Load the world from the image, if it is up to date, or from the JSON files.
+     * @param previous world which is being reloaded, locations which it has keep their set of players, null if there is none */
+    static World load(StateLoader loader, File resourceFolder, World previous) {
+        final File imageFile = new File(resourceFolder, IMAGE_FILE_NAME);
+        if (imageFile.exists()) {
+            final World world = loadImage(imageFile, resourceFolder, previous);
+            if (world != null) return world;
+        }
+        return loadJson(loader, resourceFolder, previous);
+    }
+
+    /** Load the JSON files in parallel. */
+    static World loadJson(StateLoader loader, File resourceFolder, World previous) {
+        final CompletableFuture<LongObjMap<Location>> locations = loader.loadWorldFile(new File(resourceFolder, LOCATION_FILE_NAME), "Locations", Location::read, location -> location.id, location -> location.name);
+        final CompletableFuture<LongObjMap<Item>> items = loader.loadWorldFile(new File(resourceFolder, ITEM_FILE_NAME), "Items", Item::read, item -> item.id, item -> item.name);
+        final CompletableFuture<LongObjMap<Enemy>> enemies = loader.loadWorldFile(new File(resourceFolder, ENEMY_FILE_NAME), "Enemies", Enemy::read, enemy -> enemy.id, enemy -> enemy.name);
+        return new World(StateLoader.join(locations), StateLoader.join(items), StateLoader.join(enemies), previous, resourceFolder);
+    }
+
+    /** Load the image written by {@link #compile(File)}.
+     * @return loaded world, or null if the image is stale or can't be read */
+    static World loadImage(File imageFile, File resourceFolder, World previous) {
+        final byte[] sourceHash;
+        try {
+            sourceHash = sourceHash(resourceFolder);
+        } catch (IOException e) {
+            LOG.warn("Not loading world image {}, failed to hash the world files", imageFile, e);
+            return null;
+        }
+
+        try {
+            final SnapshotInput in = PersistenceUtil.mapBinary(imageFile, PersistenceUtil.BINARY_KIND_WORLD);
+            if (!Arrays.equals(in.readBytes(in.readInt()), sourceHash)) {
+                LOG.info("Not loading world image {}, it is stale, the world files have changed since it was compiled", imageFile);
+                return null;
+            }
+
+            final Attribute[] attributeColumns = Attributes.readColumns(in);
+            final String[] strings = new String[in.readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = in.readString();
+            }
+
+            final int locationCount = in.readInt();
+            final LongObjMap<Location> locations = HashLongObjMaps.newImmutableMap((map) -> {
+                for (int i = 0; i < locationCount; i++) {
+                    final Location location = Location.read(in, strings);
+                    map.accept(location.id, location);
+                }
+            }, locationCount);
+            final int itemCount = in.readInt();
+            final LongObjMap<Item> items = HashLongObjMaps.newImmutableMap((map) -> {
+                for (int i = 0; i < itemCount; i++) {
+                    final Item item = Item.read(in, strings, attributeColumns);
+                    map.accept(item.id, item);
+                }
+            }, itemCount);
+            final int enemyCount = in.readInt();
+            final LongObjMap<Enemy> enemies = HashLongObjMaps.newImmutableMap((map) -> {
+                for (int i = 0; i < enemyCount; i++) {
+                    final Enemy enemy = Enemy.read(in, strings, attributeColumns);
+                    map.accept(enemy.id, enemy);
+                }
+            }, enemyCount);
+            if (!in.isAtEnd()) {
+                throw new PersistenceUtil.PersistenceException(imageFile+" has unexpected data at the end");
+            }
+            return new World(locations, items, enemies, previous, imageFile);
+        } catch (PersistenceUtil.PersistenceException | IllegalArgumentException e) {
+            LOG.warn("Not loading world image {}, it is invalid", imageFile, e);
+            return null;
+        }
+    }
+
+    /** Parse the JSON files of the resource folder and write them into an image, which is loaded instead of them from then on.
+     * Image holds the hash of the files, once they change it is ignored, until it is compiled again. */
+    static void compile(File resourceFolder) throws PersistenceUtil.PersistenceException {
+        final byte[] sourceHash;
+        try {
+            // Before parsing, so that when the files change meanwhile, the image is stale and not wrong
+            sourceHash = sourceHash(resourceFolder);
+        } catch (IOException e) {
+            throw new PersistenceUtil.PersistenceException("Failed to hash the world files in "+resourceFolder, e);
+        }
+        final World world;
+        try (StateLoader loader = new StateLoader()) {
+            world = loadJson(loader, resourceFolder, null);
+        }
+        for (String problem : world.check()) {
+            LOG.warn("World: {}", problem);
+        }
+
+        // Strings are collected while the entries are written, so that the table can be written before them.
+        // HashMap, because similar strings cluster in linear probing of koloboke maps
+        final Map<String, Integer> stringIndices = new HashMap<>();
+        final List<String> strings = new ArrayList<>();
+        final ToIntFunction<String> stringIndex = string -> {
+            if (string == null) return -1;
+            return stringIndices.computeIfAbsent(string, s -> {
+                strings.add(s);
+                return strings.size() - 1;
+            });
+        };
+        final SnapshotOutput entries = SnapshotOutput.inMemory();
+        entries.writeInt(world.locations.size());
+        for (Location location : world.locations.values()) {
+            Location.write(entries, location, stringIndex);
+        }
+        entries.writeInt(world.items.size());
+        for (Item item : world.items.values()) {
+            Item.write(entries, item, stringIndex);
+        }
+        entries.writeInt(world.enemies.size());
+        for (Enemy enemy : world.enemies.values()) {
+            Enemy.write(entries, enemy, stringIndex);
+        }
+        final ByteBuffer entryBytes = entries.contents();
+
+        PersistenceUtil.saveBinarySecurely(new File(resourceFolder, IMAGE_FILE_NAME), PersistenceUtil.BINARY_KIND_WORLD, out -> {
+            out.writeInt(sourceHash.length);
+            out.writeBytes(sourceHash, 0, sourceHash.length);
+            Attributes.writeColumns(out);
+            out.writeInt(strings.size());
+            for (String string : strings) {
+                out.writeString(string);
+            }
+            out.writeBytes(entryBytes);
+        });
+    }
+
+    /** @return SHA-256 of the contents of the world files */
+    private static byte[] sourceHash(File resourceFolder) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always supported", e);
+        }
+        final byte[] buffer = new byte[1 << 16];
+        for (String fileName : new String[]{LOCATION_FILE_NAME, ITEM_FILE_NAME, ENEMY_FILE_NAME}) {
+            final File file = new File(resourceFolder, fileName);
+            // Length first, so that content can't move between the files unnoticed
+            digest.update(ByteBuffer.allocate(8).putLong(0, file.length()));
+            try (InputStream in = new FileInputStream(file)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+        }
+        return digest.digest();
+    }
+
+    /** @return descriptions of references between the world data which lead nowhere, empty if there are none */
+    List<String> check() {
+        final List<String> problems = new ArrayList<>();
+        if (!locations.containsKey(GameCore.STARTING_LOCATION_ID)) {
+            problems.add("Starting location "+GameCore.STARTING_LOCATION_ID+" does not exist");
+        }
+        if (!items.containsKey(GameCore.STARTING_ITEM_ID)) {
+            problems.add("Starting item "+GameCore.STARTING_ITEM_ID+" does not exist");
+        }
+        for (Location location : locations.values()) {
+            location.directions.forEach((String message, long place) -> {
+                if (!locations.containsKey(place)) {
+                    problems.add("Location "+location.id+" leads to location "+place+" which does not exist (\""+message+"\")");
+                }
+            });
+            if (!locations.containsKey(location.graveyardId)) {
+                problems.add("Location "+location.id+" has graveyard "+location.graveyardId+" which does not exist");
+            }
+            for (long enemyId : location.getEnemyIds()) {
+                if (!enemies.containsKey(enemyId)) {
+                    problems.add("Location "+location.id+" has enemy "+enemyId+" which does not exist");
+                }
+            }
+        }
+        return problems;
+    }
+}
@@ -12,53 +12,70 @@ import ib053.util.SerializationConstructor;
  * Activity for people that are dead.
  */
 @Activity(ActivityType.SINGLETON_ACTIVITY)
-public final class BeingDeadActivity extends ActivityBase implements ActivityBase.Serializable {
+public final class BeingDeadActivity extends ActivityBase implements ActivityBase.BinarySerializable {
 
+    /** Shared by players from all event loop shards, access only when synchronized on it */
     private final LongLongMap playerEnterTime = HashLongLongMaps.newMutableMap();
-    // Eternity time in MS (1 minute for now, but make bigger)
-    private static final long ETERNITY_MS = 1000L * 60L;
+    /** Eternity time in MS, for which the dead have to wait (1 minute for now, but make bigger) */
+    public static final long ETERNITY_MS = 1000L * 60L;
+
+    private static final Event.Template NO_SOUL = Event.Template.of("FOOL! YOU DON'T HAVE ANY EXPERIENCE! YOU HAVE NOTHING TO OFFER!");
+    private static final Event.Template FREED = Event.Template.of("At last, after an eternity, you are free");
+    private static final Event.Template FREED_SOON = Event.Template.of("No, you still have to wait for an eternity! (which is estimated to be very soon)");
+    private static final Event.Template FREED_IN_MINUTES = Event.Template.of("No, you still have to wait for an eternity! (which is estimated to be in around {0} minutes)");
 
     @SerializationConstructor
     private BeingDeadActivity() {
         action("being-dead.limbo.sell-your-soul",
                 "Limbo", "Sell your soul for all your experience! (on this level)" ,
                 player -> {
-                    if (player.experience <= 0) {
-                        core().notifyPlayerEventHappened(player, new Event("FOOL! YOU DON'T HAVE ANY EXPERIENCE! YOU HAVE NOTHING TO OFFER!"));
+                    if (player.getExperience() <= 0) {
+                        core().notifyPlayerEventHappened(player, new Event(NO_SOUL));
                     } else {
-                        player.experience = 0;
+                        player.setExperience(0);
                         resurrect(player);
                     }
                 });
 
         action("being-dead.limbo.wait-for-eternity",
                 "Limbo", "Wait for an eternity", player -> {
-                    final long freedIn = (playerEnterTime.get(player.getId()) + ETERNITY_MS) - System.currentTimeMillis();
+                    final long enterTime;
+                    synchronized (playerEnterTime) {
+                        enterTime = playerEnterTime.get(player.getId());
+                    }
+                    final long freedIn = (enterTime + ETERNITY_MS) - System.currentTimeMillis();
                     if (freedIn < 0) {
-                        core().notifyPlayerEventHappened(player, new Event("At last, after an eternity, you are free"));
+                        core().notifyPlayerEventHappened(player, new Event(FREED));
                         resurrect(player);
                     } else {
-                        final long remainingMinutes = (freedIn / 60000)+1;
-                        final StringBuilder sb = new StringBuilder("No, you still have to wait for an eternity! (which is estimated to be ");
+                        final int remainingMinutes = (int) (freedIn / 60000)+1;
                         if (remainingMinutes <= 1) {
-                            sb.append("very soon)");
+                            core().notifyPlayerEventHappened(player, new Event(FREED_SOON));
                         } else {
-                            sb.append("in around ").append(remainingMinutes).append(" minutes)");
+                            core().notifyPlayerEventHappened(player, new Event(FREED_IN_MINUTES, remainingMinutes));
                         }
-                        core().notifyPlayerEventHappened(player, new Event(sb.toString()));
                     }
                 });
     }
 
     private void resurrect(Player player) {
-        player.health = Math.max(1, player.getMaxHealth() / 4);
+        player.setHealth(Math.max(1, player.getMaxHealth() / 4));
         core().changePlayerLocation(player, core().getLocation(player.getLocation().graveyardId));
         core().changePlayerActivityToDefault(player);
     }
 
     @Override
     public void beginActivity(Player player) {
-        playerEnterTime.put(player.getId(), System.currentTimeMillis());
+        synchronized (playerEnterTime) {
+            playerEnterTime.put(player.getId(), System.currentTimeMillis());
+        }
+    }
+
+    @Override
+    public void resumeActivity(Player player, long beganMillis) {
+        synchronized (playerEnterTime) {
+            playerEnterTime.put(player.getId(), beganMillis);
+        }
     }
 
     @Override
@@ -68,7 +85,9 @@ public final class BeingDeadActivity extends ActivityBase implements ActivityBas
 
     @Override
     public void endActivity(Player player) {
-        playerEnterTime.remove(player.getId());
+        synchronized (playerEnterTime) {
+            playerEnterTime.remove(player.getId());
+        }
     }
 
     @Override
@@ -86,4 +105,22 @@ public final class BeingDeadActivity extends ActivityBase implements ActivityBas
             playerEnterTime.put(Long.parseLong(enterTime.name()), enterTime.asLong());
         }
     }
+
+    @Override
+    public void write(SnapshotOutput out) {
+        out.writeInt(playerEnterTime.size());
+        playerEnterTime.forEach((LongLongConsumer) (player, time) -> {
+            out.writeLong(player);
+            out.writeLong(time);
+        });
+    }
+
+    @Override
+    public void read(GameCore core, SnapshotInput in) {
+        final int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            final long player = in.readLong();
+            playerEnterTime.put(player, in.readLong());
+        }
+    }
 }
@@ -0,0 +1,73 @@
+package ib053.core.activities;
+
+import ib053.core.Attribute;
+import ib053.core.AttributeHolder;
+import ib053.core.RandomUtil;
+
+/**
+ * Formulas of a fight between a player and an enemy, as used by {@link FightingActivity}.
+ *
+ * Kept apart from the activity, so that balancing tools can play out fights with exactly the same rules,
+ * without a running game. Random numbers come from {@link RandomUtil#random()}.
+ */
+public final class CombatRules {
+
+    /** Delay between a finished turn and the next one, in seconds */
+    public static final int TURN_DELAY_SECONDS = 1;
+
+    private CombatRules() {}
+
+    /** @return initiative gained by the combatant for its next turn: its agility, a quarter more on a luck check */
+    public static int initiative(AttributeHolder self, AttributeHolder opponent) {
+        int initiative = self.get(Attribute.AGILITY);
+        if (self.luckCheck(opponent)) {
+            initiative += initiative / 4;
+        }
+        return initiative;
+    }
+
+    /** @return true if the enemy takes the next turn, false if it is the player's turn.
+     * Whoever has more initiative goes, ties are broken by luck. */
+    public static boolean enemyActsFirst(int enemyInitiative, int playerInitiative, AttributeHolder enemy, AttributeHolder player) {
+        return enemyInitiative > playerInitiative
+                || (enemyInitiative == playerInitiative && RandomUtil.chooseFirst(enemy.get(Attribute.LUCK), player.get(Attribute.LUCK)));
+    }
+
+    /** @return true if the player manages to run away from the enemy */
+    public static boolean flee(AttributeHolder player, AttributeHolder enemy) {
+        return RandomUtil.chooseFirst(player.get(Attribute.LUCK), enemy.get(Attribute.LUCK));
+    }
+
+    /** @return damage dealt by the attacker to the defender, 0 if missed */
+    public static int resolveAttack(AttributeHolder attacker, AttributeHolder defender) {
+        final int attackerDex = attacker.get(Attribute.DEXTERITY);
+        boolean hit = RandomUtil.chooseFirst(attackerDex + attackerDex / 3, defender.get(Attribute.DEXTERITY));
+        boolean critical = false;
+
+        if (attacker.luckCheck(defender)) {
+            if (hit) {
+                critical = true;
+            } else {
+                hit = true;
+            }
+        }
+
+        if (!hit) {
+            return 0;
+        }
+
+        final int baseWeaponDamage = attacker.get(Attribute.DAMAGE);
+        final int weaponDamageSpread = attacker.get(Attribute.DAMAGE_SPREAD);
+        final float weaponDamage = Math.max(
+                1f,
+                baseWeaponDamage + RandomUtil.clamp((float)RandomUtil.gaussian() / 1.5f, -1f, 1f) * weaponDamageSpread);
+        final float strengthModifier = (float) (Math.log10(attacker.get(Attribute.STRENGTH) + 1.0) + 1.0);
+        final float totalDamage = weaponDamage * strengthModifier;
+
+        if (critical) {
+            return Math.round(totalDamage * 2f);
+        } else {
+            return Math.round(totalDamage);
+        }
+    }
+}
@@ -11,7 +11,17 @@ import java.util.concurrent.TimeUnit;
  * Activity of someone that is fighting an enemy.
  */
 @Activity(ActivityType.CUSTOM_ACTIVITY)
-public final class FightingActivity extends ActivityBase implements ActivityBase.Serializable {
+public final class FightingActivity extends ActivityBase implements ActivityBase.BinarySerializable {
+
+    private static final Event.Template FIGHT_BEGINS = Event.Template.of("A fight with {enemy}!\n{enemy.description}");
+    private static final Event.Template PLAYER_HITS = Event.Template.of("You attack for {0}!");
+    private static final Event.Template PLAYER_MISSES = Event.Template.of("You attack, but miss!");
+    private static final Event.Template ENEMY_DEFEATED = Event.Template.of("{enemy} lies defeated!");
+    private static final Event.Template FLEE_SUCCEEDS = Event.Template.of("You flee to safety!");
+    private static final Event.Template FLEE_FAILS = Event.Template.of("Can't run away!");
+    private static final Event.Template ENEMY_HITS = Event.Template.of("{enemy} attacks for {0}!");
+    private static final Event.Template ENEMY_MISSES = Event.Template.of("{enemy} attacks, but misses!");
+    private static final Event.Template PLAYER_DIES = Event.Template.of("💀 You died");
 
     private Enemy enemy;
     private int enemyHealth;
@@ -20,24 +30,26 @@ public final class FightingActivity extends ActivityBase implements ActivityBase
     private Player player;
     private int playerInitiative;
 
+    private final Runnable enemyTurn = this::tryEnemyTurn;
+
     @SerializationConstructor
     private FightingActivity() {
         action("fighting.combat.attack", "Combat", "Attack!", player -> {
             allActionsSetEnabled(false);
             enemyInitiative += getEnemyInitiative();
 
-            final int playerAttackDamage = resolveAttack(player, enemy);
+            final int playerAttackDamage = CombatRules.resolveAttack(player, enemy);
             if (playerAttackDamage > 0) {
                 enemyHealth -= playerAttackDamage;
-                core().notifyPlayerEventHappened(player, new Event("You attack for "+playerAttackDamage+"!"));
+                core().notifyPlayerEventHappened(player, new Event(PLAYER_HITS, playerAttackDamage));
             } else {
-                core().notifyPlayerEventHappened(player, new Event("You attack, but miss!"));
+                core().notifyPlayerEventHappened(player, new Event(PLAYER_MISSES));
             }
 
             if (enemyHealth <= 0) {
                 // Game over
                 final int killExperience = enemy.killExperience;
-                core().notifyPlayerEventHappened(player, new Event(enemy.name+" lies defeated!"));
+                core().notifyPlayerEventHappened(player, new Event(ENEMY_DEFEATED, enemy));
 
                 core().changePlayerActivityToDefault(player);
                 core().giveExperience(player, killExperience);
@@ -47,12 +59,12 @@ public final class FightingActivity extends ActivityBase implements ActivityBase
         }).setEnabled(false);
 
         action("fighting.combat.flee", "Combat", "Run away!", player -> {
-            if (RandomUtil.chooseFirst(player.get(Attribute.LUCK), enemy.get(Attribute.LUCK))) {
+            if (CombatRules.flee(player, enemy)) {
                 // Flee successful
-                core().notifyPlayerEventHappened(player, new Event("You flee to safety!"));
+                core().notifyPlayerEventHappened(player, new Event(FLEE_SUCCEEDS));
                 core().changePlayerActivityToDefault(player);
             } else {
-                core().notifyPlayerEventHappened(player, new Event("Can't run away!"));
+                core().notifyPlayerEventHappened(player, new Event(FLEE_FAILS));
                 enemyInitiative += getEnemyInitiative();
                 nextTurn();
             }
@@ -76,7 +88,32 @@ public final class FightingActivity extends ActivityBase implements ActivityBase
         player = core.getPlayer(json.getInt("playerId"));
         playerInitiative = json.getInt("playerInitiative");
 
-        tryEnemyTurn();//TODO Proper task serialization!!!
+        resume(core);
+    }
+
+    @Override
+    public void write(SnapshotOutput out) {
+        out.writeLong(enemy.id);
+        out.writeInt(enemyHealth);
+        out.writeInt(enemyInitiative);
+        out.writeLong(player.getId());
+        out.writeInt(playerInitiative);
+    }
+
+    @Override
+    public void read(GameCore core, SnapshotInput in) {
+        enemy = core.getEnemy(in.readLong());
+        enemyHealth = in.readInt();
+        enemyInitiative = in.readInt();
+        player = core.getPlayer(in.readLong());
+        playerInitiative = in.readInt();
+
+        resume(core);
+    }
+
+    /** Continue the fight after load, when the player is back in it and the game is running */
+    private void resume(GameCore core) {
+        core.schedule(player, enemyTurn, CombatRules.TURN_DELAY_SECONDS, TimeUnit.SECONDS);//TODO Proper task serialization!!!
     }
 
     FightingActivity(Enemy enemy, Player player) {
@@ -85,79 +122,47 @@ public final class FightingActivity extends ActivityBase implements ActivityBase
         this.player = player;
     }
 
+    /** @return enemy which is being fought */
+    public Enemy getEnemy() {
+        return enemy;
+    }
+
     private void nextTurn() {
-        core().schedule(FightingActivity.this::tryEnemyTurn, 1, TimeUnit.SECONDS);
+        core().schedule(player, enemyTurn, CombatRules.TURN_DELAY_SECONDS, TimeUnit.SECONDS);
     }
 
     private int getEnemyInitiative() {
-        int initiative = enemy.get(Attribute.AGILITY);
-        if (enemy.luckCheck(player)) {
-            initiative += initiative / 4;
-        }
-        return initiative;
+        return CombatRules.initiative(enemy, player);
     }
 
     private int getPlayerInitiative() {
-        int initiative = player.get(Attribute.AGILITY);
-        if (player.luckCheck(enemy)) {
-            initiative += initiative / 4;
-        }
-        return initiative;
+        return CombatRules.initiative(player, enemy);
     }
 
-    private int resolveAttack(AttributeHolder attacker, AttributeHolder defender) {
-        final int attackerDex = attacker.get(Attribute.DEXTERITY);
-        boolean hit = RandomUtil.chooseFirst(attackerDex + attackerDex / 3, defender.get(Attribute.DEXTERITY));
-        boolean critical = false;
-
-        if (attacker.luckCheck(defender)) {
-            if (hit) {
-                critical = true;
-            } else {
-                hit = true;
-            }
-        }
-
-        if (!hit) {
-            return 0;
-        }
-
-        final int baseWeaponDamage = attacker.get(Attribute.DAMAGE);
-        final int weaponDamageSpread = attacker.get(Attribute.DAMAGE_SPREAD);
-        final float weaponDamage = Math.max(
-                1f,
-                baseWeaponDamage + RandomUtil.clamp((float)RandomUtil.RANDOM.nextGaussian() / 1.5f, -1f, 1f) * weaponDamageSpread);
-        final float strengthModifier = (float) (Math.log10(attacker.get(Attribute.STRENGTH) + 1.0) + 1.0);
-        final float totalDamage = weaponDamage * strengthModifier;
-
-        if (critical) {
-            return Math.round(totalDamage * 2f);
-        } else {
-            return Math.round(totalDamage);
+    private void tryEnemyTurn() {
+        if (player.getActivity() != this) {
+            // Player has left the fight (died or was restored elsewhere)
+            return;
         }
-    }
 
-    private void tryEnemyTurn() {
-        if (enemyInitiative > playerInitiative
-                || (enemyInitiative == playerInitiative && RandomUtil.chooseFirst(
-                enemy.get(Attribute.LUCK), player.get(Attribute.LUCK)))) {
+        if (CombatRules.enemyActsFirst(enemyInitiative, playerInitiative, enemy, player)) {
 
             allActionsSetEnabled(false);
             playerInitiative += getPlayerInitiative();
 
             // Enemy turn
-            final int enemyAttackDamage = resolveAttack(enemy, player);
+            final int enemyAttackDamage = CombatRules.resolveAttack(enemy, player);
             if (enemyAttackDamage > 0) {
-                player.health -= enemyAttackDamage;
-                core().notifyPlayerEventHappened(player, new Event(enemy.name+" attacks for "+enemyAttackDamage+"!"));
-                //if (player.health > 0) getCore().notifyPlayerEventHappened(player, new Event("You are down to "+player.health+"/"+player.getMaxHealth()+" HP!"));
+                player.setHealth(player.getHealth() - enemyAttackDamage);
+                core().notifyPlayerEventHappened(player, new Event(ENEMY_HITS, enemy, enemyAttackDamage));
+                //if (player.getHealth() > 0) getCore().notifyPlayerEventHappened(player, new Event("You are down to "+player.getHealth()+"/"+player.getMaxHealth()+" HP!"));
             } else {
-                core().notifyPlayerEventHappened(player, new Event(enemy.name+" attacks, but misses!"));
+                core().notifyPlayerEventHappened(player, new Event(ENEMY_MISSES, enemy));
             }
 
-            if (player.health <= 0) {
+            if (player.getHealth() <= 0) {
                 // Game over
-                core().notifyPlayerEventHappened(player, new Event("💀 You died"));
+                core().notifyPlayerEventHappened(player, new Event(PLAYER_DIES));
                 core().changePlayerActivity(player, BeingDeadActivity.class);
             }
 
@@ -176,12 +181,12 @@ public final class FightingActivity extends ActivityBase implements ActivityBase
         enemyInitiative = getEnemyInitiative();
         playerInitiative = getPlayerInitiative();
 
-        core().notifyPlayerEventHappened(player, new Event("A fight with "+enemy.name+"!\n"+enemy.description));
+        core().notifyPlayerEventHappened(player, new Event(FIGHT_BEGINS, enemy));
         tryEnemyTurn();
     }
 
     @Override
     public String getDescription(Player player) {
-        return "A fight against "+enemy.name+"!\nYou: "+player.health+"/"+player.getMaxHealth()+" HP\n"+enemy.name+" "+enemyHealth+"/"+enemy.getMaxHealth()+" HP";
+        return "A fight against "+enemy.name+"!\nYou: "+player.getHealth()+"/"+player.getMaxHealth()+" HP\n"+enemy.name+" "+enemyHealth+"/"+enemy.getMaxHealth()+" HP";
     }
 }
@@ -8,7 +8,10 @@ import ib053.core.*;
 @Activity(ActivityType.SINGLETON_ACTIVITY)
 public final class LevelUpActivity extends ActivityBase {
 
-    private static final int VIRTUE_POINTS_PER_LEVEL = 2;
+    /** Virtue points gained with each level */
+    public static final int VIRTUE_POINTS_PER_LEVEL = 2;
+
+    private static final Event.Template LEVEL_REACHED = Event.Template.of("🎉 You have reached level {0}!");
 
     private LevelUpActivity() {
         for (Attribute attribute : Attribute.VALUES) {
@@ -17,12 +20,12 @@ public final class LevelUpActivity extends ActivityBase {
             action("level-up,virtue."+attribute.name(),
                     "Add virtue point", "To "+attribute.shortName,
                     player -> {
-                        if (player.virtuePoints > 0) {//Just in case
+                        if (player.getVirtuePoints() > 0) {//Just in case
                             player.attributes.add(attribute, 1);
-                            player.virtuePoints -= 1;
+                            player.setVirtuePoints(player.getVirtuePoints() - 1);
                         }
 
-                        if (player.virtuePoints <= 0) {
+                        if (player.getVirtuePoints() <= 0) {
                             core().changePlayerActivityToDefault(player);
                         } else {
                             core().notifyPlayerActivityChanged(player);
@@ -34,20 +37,20 @@ public final class LevelUpActivity extends ActivityBase {
     @Override
     public void beginActivity(Player player) {
         final int xpToNextLevel = player.getXpToNextLevel();
-        if (player.experience < xpToNextLevel) {
+        if (player.getExperience() < xpToNextLevel) {
             player.getCore().changePlayerActivityToDefault(player);
         } else {
-            player.experience -= xpToNextLevel;
+            player.setExperience(player.getExperience() - xpToNextLevel);
             final int level = player.attributes.add(Attribute.LEVEL, 1);
-            player.virtuePoints += VIRTUE_POINTS_PER_LEVEL;
-            player.getCore().notifyPlayerEventHappened(player, new Event("🎉 You have reached level "+level+"!"));
+            player.setVirtuePoints(player.getVirtuePoints() + VIRTUE_POINTS_PER_LEVEL);
+            player.getCore().notifyPlayerEventHappened(player, new Event(LEVEL_REACHED, level));
         }
     }
 
     @Override
     public String getDescription(Player player) {
         final StringBuilder sb = new StringBuilder();
-        sb.append("You have ").append(player.virtuePoints).append(" virtue points and:\n");
+        sb.append("You have ").append(player.getVirtuePoints()).append(" virtue points and:\n");
         for (Attribute attribute : Attribute.VALUES) {
             if (attribute.type != Attribute.AttributeType.VIRTUE || attribute == Attribute.LUCK) continue;
             sb.append(attribute.shortName).append(": ").append(player.attributes.get(attribute)).append('\n');
@@ -10,6 +10,8 @@ import java.util.function.ObjLongConsumer;
 @Activity(ActivityType.PER_LOCATION_ACTIVITY)
 public final class LocationActivity extends ActivityBase {
 
+    private static final Event.Template AMBUSH = Event.Template.of("Ambush!");
+
     private final Location location;
 
     private LocationActivity(Location location) {
@@ -31,7 +33,7 @@ public final class LocationActivity extends ActivityBase {
             }
             sb.append("] ").append(player.getExperience()).append(" / ").append(xpToNextLevel).append('\n');
 
-            final int health = player.health;
+            final int health = player.getHealth();
             final int maxHealth = player.getMaxHealth();
             sb.append(health).append("/").append(maxHealth).append(" HP: ");
             if (health >= maxHealth) {
@@ -72,7 +74,7 @@ public final class LocationActivity extends ActivityBase {
                 core.changePlayerLocation(player, to);
                 final long enemyToFightOnEntry = to.selectEnemyToFightOnEntry();
                 if (enemyToFightOnEntry != -1) {
-                    core.notifyPlayerEventHappened(player, new Event("Ambush!"));
+                    core.notifyPlayerEventHappened(player, new Event(AMBUSH));
                     core.changePlayerActivity(player, new FightingActivity(core.getEnemy(enemyToFightOnEntry), player));
                 } else {
                     core.changePlayerActivityToDefault(player);
@@ -92,6 +94,11 @@ public final class LocationActivity extends ActivityBase {
     @Override
     public String getDescription(Player player) {
         final Location location = player.getLocation();
-        return "You are in "+location.name+": "+location.description;
+        final String description = "You are in "+location.name+": "+location.description;
+        final int others = core().getPopulation(location) - 1;
+        if (others <= 0) {
+            return description;
+        }
+        return description + "\n" + others + (others == 1 ? " other adventurer is here." : " other adventurers are here.");
     }
 }
@@ -4,11 +4,17 @@ import ib053.core.GameCore;
 import ib053.core.Event;
 import ib053.core.Player;
 
+import java.util.List;
+
 /**
  * Represents a frontend - service which communicates with players/humans.
  *
  * All methods are called from the GameCore's event loop - they should not block.
  * Received objects are safe to manipulate only from the GameCore's event loop thread, unless noted otherwise.
+ *
+ * When the event loop has more than one shard, calls concerning different players may come from different threads
+ * at the same time. Calls concerning one player never overlap.
+ * Work with a player should be posted through {@link GameCore#schedule(Player, Runnable, long, java.util.concurrent.TimeUnit)}.
  */
 public interface Frontend {
 
@@ -23,4 +29,22 @@ public interface Frontend {
 
     /** Called when player receives an event (player's character witnesses something or something happens to them) */
     void playerReceiveEvent(Player player, Event event);
+
+    /** Whether the frontend is playing the player at the moment and keeps their {@link Player} object.
+     * Players who are not played may be hibernated by the core, which makes their Player object stale,
+     * the player has to be found again, see {@link GameCore#findPlayer(long)}.
+     * May be called from any thread. */
+    default boolean isPlaying(Player player) {
+        return false;
+    }
+
+    /** Called with all events the player received during one event loop task, in order.
+     * Frontends which can deliver more events at once (for example in one network message) should override this.
+     * Default implementation calls {@link #playerReceiveEvent(Player, Event)} for each event.
+     * @param events not empty, valid only during the call, must not be retained or modified */
+    default void playerReceiveEvents(Player player, List<Event> events) {
+        for (Event event : events) {
+            playerReceiveEvent(player, event);
+        }
+    }
 }
@@ -0,0 +1,194 @@
+package ib053.frontend.bots;
+
+import com.koloboke.collect.map.LongObjMap;
+import com.koloboke.collect.map.hash.HashLongObjMaps;
+import ib053.core.Action;
+import ib053.core.ActivityBase;
+import ib053.core.Event;
+import ib053.core.GameCore;
+import ib053.core.Player;
+import ib053.frontend.Frontend;
+import ib053.util.Histogram;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless frontend, which plays with many synthetic players (bots), to load the game like real players would.
+ *
+ * Each bot performs a random enabled action of its activity after each think time, which is random
+ * between half and one and a half of the configured one. Bots whose activity has no enabled actions
+ * (for example during the enemy's turn) wait for the activity to change.
+ *
+ * Measures the amount of actions and the event loop lag, which is how late the bots' tasks run
+ * compared to when they were scheduled.
+ */
+public class BotFrontend implements Frontend {
+
+    private final int botCount;
+    private final String namePrefix;
+    private final long thinkNanos;
+
+    private GameCore core;
+    /** Bot of each player id, not modified after {@link #begin()} */
+    private LongObjMap<Bot> bots;
+
+    private final CountDownLatch started = new CountDownLatch(1);
+    private volatile boolean stopped = false;
+
+    private final LongAdder actions = new LongAdder();
+    private final LongAdder events = new LongAdder();
+    private final Histogram lag = new Histogram();
+
+    /** @param namePrefix bots are named by this and their number
+     * @param thinkMillis average delay between actions of one bot */
+    public BotFrontend(int botCount, String namePrefix, long thinkMillis) {
+        this.botCount = botCount;
+        this.namePrefix = namePrefix;
+        this.thinkNanos = TimeUnit.MILLISECONDS.toNanos(thinkMillis);
+    }
+
+    @Override
+    public void initialize(GameCore core) {
+        this.core = core;
+    }
+
+    /** Create the bots, or find them if they already exist, and start playing. */
+    @Override
+    public void begin() {
+        final List<String> names = new ArrayList<>(botCount);
+        for (int i = 0; i < botCount; i++) {
+            names.add(namePrefix + i);
+        }
+        final List<Player> created = core.createNewPlayers(names);
+
+        final LongObjMap<Bot> bots = HashLongObjMaps.newMutableMap(botCount);
+        final List<Bot> newBots = new ArrayList<>();
+        for (int i = 0; i < botCount; i++) {
+            Player player = created.get(i);
+            final boolean isNew = player != null;
+            if (player == null) {
+                player = core.findPlayerByName(names.get(i));
+                if (player == null) continue;
+            }
+            final Bot bot = new Bot(player);
+            bots.put(player.getId(), bot);
+            if (isNew) newBots.add(bot);
+        }
+        this.bots = bots;
+
+        for (Bot bot : newBots) {
+            core.schedule(bot.player, () -> core.initNewPlayer(bot.player), 0, TimeUnit.NANOSECONDS);
+        }
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (Bot bot : bots.values()) {
+            bot.think(random.nextLong(thinkNanos + 1));
+        }
+        started.countDown();
+    }
+
+    /** Wait until the bots start playing, see {@link #begin()}.
+     * @return true if they did, false if the time ran out */
+    public boolean awaitStart(long timeout, TimeUnit unit) throws InterruptedException {
+        return started.await(timeout, unit);
+    }
+
+    /** Stop playing, bots won't perform any more actions. */
+    public void stop() {
+        stopped = true;
+    }
+
+    /** @return amount of bots playing */
+    public int getBotCount() {
+        final LongObjMap<Bot> bots = this.bots;
+        return bots == null ? 0 : bots.size();
+    }
+
+    /** @return total amount of actions performed by bots */
+    public long getActions() {
+        return actions.sum();
+    }
+
+    /** @return total amount of events received by bots */
+    public long getEvents() {
+        return events.sum();
+    }
+
+    /** @return histogram of nanoseconds by which bots' tasks ran later than they were scheduled */
+    public Histogram getLag() {
+        return lag;
+    }
+
+    @Override
+    public boolean isPlaying(Player player) {
+        final LongObjMap<Bot> bots = this.bots;
+        return bots != null && bots.containsKey(player.getId());
+    }
+
+    @Override
+    public void playerActivityChanged(Player player) {
+        final LongObjMap<Bot> bots = this.bots;
+        if (bots == null) return;
+        final Bot bot = bots.get(player.getId());
+        if (bot != null && bot.idle && !stopped) {
+            bot.idle = false;
+            bot.think(thinkTime());
+        }
+    }
+
+    @Override
+    public void playerReceiveEvent(Player player, Event event) {
+        events.increment();
+    }
+
+    @Override
+    public void playerReceiveEvents(Player player, List<Event> events) {
+        this.events.add(events.size());
+    }
+
+    private long thinkTime() {
+        return thinkNanos / 2 + ThreadLocalRandom.current().nextLong(thinkNanos + 1);
+    }
+
+    private final class Bot implements Runnable {
+        final Player player;
+        /** When was the current task scheduled to run */
+        long dueNanos;
+        /** Waits for the activity to change, because there was nothing to do. Accessed only from player's tasks. */
+        boolean idle = false;
+
+        Bot(Player player) {
+            this.player = player;
+        }
+
+        void think(long delayNanos) {
+            dueNanos = System.nanoTime() + delayNanos;
+            core.schedule(player, this, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void run() {
+            if (stopped) return;
+            lag.record(System.nanoTime() - dueNanos);
+
+            final ActivityBase activity = player.getActivity();
+            final int actionCount = activity == null ? 0 : activity.getActions().size();
+            if (actionCount == 0) {
+                idle = true;
+                return;
+            }
+            final Iterator<Action> iterator = activity.getActions().iterator();
+            for (int skip = ThreadLocalRandom.current().nextInt(actionCount); skip > 0; skip--) {
+                iterator.next();
+            }
+            iterator.next().perform(player);
+            actions.increment();
+            think(thinkTime());
+        }
+    }
+}
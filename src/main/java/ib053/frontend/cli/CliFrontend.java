@@ -1,7 +1,9 @@
 package ib053.frontend.cli;
 
 import ib053.core.Action;
+import ib053.core.ActivityBase;
 import ib053.core.Event;
+import ib053.core.EventHistory;
 import ib053.core.GameCore;
 import ib053.core.Player;
 import ib053.frontend.Frontend;
@@ -20,6 +22,9 @@ import static ib053.frontend.cli.Ansi.TextAttribute.*;
  */
 public class CliFrontend implements Frontend {
 
+    /** The only player of the CLI */
+    private static final String PLAYER_NAME = "Conan the Librarian";
+
     private GameCore core;
     private Player player;
 
@@ -27,8 +32,12 @@ public class CliFrontend implements Frontend {
     private final PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), false);
 
     private final List<Action> availableActions = new ArrayList<>();
+    /** Activity and its actions version from which availableActions were taken */
+    private ActivityBase availableActionsActivity;
+    private long availableActionsVersion;
 
-    private final List<Event> lastEvents = new ArrayList<>();
+    /** How many of the most recent events are shown */
+    private static final int SHOWN_EVENTS = 10;
 
     @Override
     public void initialize(GameCore core) {
@@ -45,13 +54,13 @@ public class CliFrontend implements Frontend {
 
     @Override
     public void begin() {
-        player = core.findPlayer(1);
+        player = core.findPlayerByName(PLAYER_NAME);
         if (player == null) {
-            player = core.createNewPlayer("Conan the Librarian");
+            player = core.createNewPlayer(PLAYER_NAME);
             assert player != null;
             core.initNewPlayer(player);
         } else {
-            availableActions.addAll(player.getActivity().getActions());
+            updateAvailableActions();
             redraw();
         }
 
@@ -65,9 +74,11 @@ public class CliFrontend implements Frontend {
                 }
                 if (line == null || line.equalsIgnoreCase("quit") || line.equalsIgnoreCase("q") || line.equalsIgnoreCase("exit")) {
                     break;
+                } else if (line.equalsIgnoreCase("reload")) {
+                    core.reloadWorld();
                 } else {
                     final int action = parseInt(line, -1);
-                    core.schedule(() -> {
+                    core.schedule(player, () -> {
                         if (action < 1 || action > availableActions.size()) {
                             System.out.println("Invalid action");
                         } else {
@@ -86,12 +97,10 @@ public class CliFrontend implements Frontend {
         out.append("\n\n\n\n\n\n\n\n\n\n").append(ERASE_DISPLAY);
 
         out.append(attribute(BOLD)).append("Events:\n");
-        while (lastEvents.size() > 10) {
-            lastEvents.remove(0);
-        }
-
-        for (Event event : lastEvents) {
-            out.append(attribute(FG_BLUE)).append(event.message).append('\n');
+        final EventHistory history = player.getEventHistory();
+        final long next = history.getNextSequence();
+        for (long sequence = Math.max(history.getFirstSequence(), next - SHOWN_EVENTS); sequence < next; sequence++) {
+            out.append(attribute(FG_BLUE)).append(history.get(sequence).getMessage()).append('\n');
         }
         out.append('\n');
         out.append(attribute(FG_CYAN)).append(player.getActivity().getDescription(player)).append(attribute()).append('\n');
@@ -111,18 +120,36 @@ public class CliFrontend implements Frontend {
         out.flush();
     }
 
+    @Override
+    public boolean isPlaying(Player player) {
+        return player == this.player;
+    }
+
     @Override
     public void playerActivityChanged(Player player) {
         if (player != this.player) return;
-        availableActions.clear();
-        availableActions.addAll(player.getActivity().getActions());
+        updateAvailableActions();
         redraw();
     }
 
+    private void updateAvailableActions() {
+        final ActivityBase activity = player.getActivity();
+        if (activity == availableActionsActivity && activity.getActionsVersion() == availableActionsVersion) return;
+        availableActions.clear();
+        availableActions.addAll(activity.getActions());
+        availableActionsActivity = activity;
+        availableActionsVersion = activity.getActionsVersion();
+    }
+
     @Override
     public void playerReceiveEvent(Player player, Event event) {
         if (player != this.player) return;
-        lastEvents.add(event);
+        redraw();
+    }
+
+    @Override
+    public void playerReceiveEvents(Player player, List<Event> events) {
+        if (player != this.player) return;
         redraw();
     }
 }
@@ -0,0 +1,324 @@
+package ib053.frontend.websocket;
+
+import ib053.core.Player;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ib053.frontend.websocket.WebSocketProtocol.*;
+
+/**
+ * One client connection of {@link WebSocketFrontend}, served by its {@link IoThread}.
+ *
+ * Reading and the handshake happen only on the I/O thread. Frames may be sent from any thread, they are written
+ * directly into the socket when nothing is queued, and queued otherwise, to be written when the socket is writable.
+ *
+ * Backpressure: while more than {@link #READ_PAUSE_BYTES} are queued, or more than {@link #MAX_PENDING_ACTIONS}
+ * actions wait for the event loop, nothing more is read from the client. A client which does not read
+ * and lets the queue grow over {@link #MAX_QUEUED_BYTES} is disconnected.
+ */
+final class Connection implements FrameHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Connection.class);
+
+    /** Longest accepted HTTP request head, before the upgrade */
+    private static final int MAX_REQUEST_SIZE = 8 * 1024;
+    /** Longest accepted message from the client */
+    private static final int MAX_MESSAGE_SIZE = 4 * 1024;
+    static final int READ_PAUSE_BYTES = 64 * 1024;
+    static final int MAX_QUEUED_BYTES = 1024 * 1024;
+    static final int MAX_PENDING_ACTIONS = 4;
+
+    private final WebSocketFrontend frontend;
+    private final IoThread ioThread;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+
+    /** Request head collected so far, null once the connection is upgraded */
+    private byte[] request = new byte[512];
+    private int requestLength = 0;
+    private final FrameDecoder decoder = new FrameDecoder(MAX_MESSAGE_SIZE, true);
+
+    /** Frames waiting to be written, guarded by this */
+    private final ArrayDeque<ByteBuffer> outbox = new ArrayDeque<>();
+    /** Total remaining bytes in outbox, guarded by this */
+    private int queuedBytes = 0;
+    /** Close once the outbox is written, guarded by this */
+    private boolean closeAfterFlush = false;
+    /** Close as soon as possible, without writing the rest, guarded by this */
+    private boolean abort = false;
+    private volatile boolean closed = false;
+
+    /** Whether the connection waits in {@link IoThread}'s update queue */
+    private final AtomicBoolean updateRequested = new AtomicBoolean();
+    /** Actions sent to the event loop, which did not finish yet */
+    final AtomicInteger pendingActions = new AtomicInteger();
+
+    /** Player logged in through this connection, null before login */
+    volatile Player player;
+    /** Whether the login is being handled on the login thread, see {@link WebSocketFrontend} */
+    volatile boolean loggingIn = false;
+
+    Connection(WebSocketFrontend frontend, IoThread ioThread, SocketChannel channel, SelectionKey key) {
+        this.frontend = frontend;
+        this.ioThread = ioThread;
+        this.channel = channel;
+        this.key = key;
+    }
+
+    /** Send given message in a text frame. Thread safe. */
+    void sendText(String message) {
+        send(textFrame(message, null));
+    }
+
+    /** Send the message and close the connection. Thread safe. */
+    void sendTextAndClose(String message, int closeCode) {
+        synchronized (this) {
+            send(textFrame(message, null));
+            send(closeFrame(closeCode, null));
+            closeAfterFlush = true;
+        }
+        requestUpdate();
+    }
+
+    /** Queue given frame, or write it directly if nothing is queued. Thread safe. */
+    private void send(ByteBuffer frame) {
+        boolean update = false;
+        synchronized (this) {
+            if (closed || closeAfterFlush || abort) return;
+            if (outbox.isEmpty()) {
+                try {
+                    channel.write(frame);
+                } catch (IOException e) {
+                    abort = true;
+                    update = true;
+                }
+            }
+            if (!abort && frame.hasRemaining()) {
+                final boolean wasEmpty = outbox.isEmpty();
+                outbox.add(frame);
+                queuedBytes += frame.remaining();
+                if (queuedBytes > MAX_QUEUED_BYTES) {
+                    LOG.info("Disconnecting {}, which does not read fast enough", this);
+                    abort = true;
+                    update = true;
+                } else {
+                    // Write interest, and read pause when over limit
+                    update = wasEmpty || queuedBytes - frame.remaining() <= READ_PAUSE_BYTES && queuedBytes > READ_PAUSE_BYTES;
+                }
+            }
+        }
+        if (update) {
+            requestUpdate();
+        }
+    }
+
+    /** Have {@link #update()} called on the I/O thread. Thread safe. */
+    void requestUpdate() {
+        if (updateRequested.compareAndSet(false, true)) {
+            ioThread.requestUpdate(this);
+        }
+    }
+
+    /** Update interest in reading and writing according to the current state, on the I/O thread. */
+    void update() {
+        updateRequested.set(false);
+        if (closed) return;
+        final boolean abort;
+        final boolean writing;
+        final boolean readPaused;
+        synchronized (this) {
+            abort = this.abort || (closeAfterFlush && outbox.isEmpty());
+            writing = !outbox.isEmpty();
+            readPaused = queuedBytes > READ_PAUSE_BYTES || closeAfterFlush;
+        }
+        if (abort) {
+            close();
+            return;
+        }
+        final boolean reading = !readPaused && pendingActions.get() < MAX_PENDING_ACTIONS;
+        key.interestOps((reading ? SelectionKey.OP_READ : 0) | (writing ? SelectionKey.OP_WRITE : 0));
+    }
+
+    /** Write queued frames, on the I/O thread. */
+    void onWritable() throws IOException {
+        synchronized (this) {
+            ByteBuffer frame;
+            while ((frame = outbox.peek()) != null) {
+                final int written = channel.write(frame);
+                queuedBytes -= written;
+                if (frame.hasRemaining()) break;
+                outbox.poll();
+            }
+        }
+        update();
+    }
+
+    /** Read and process available data, on the I/O thread. */
+    void onReadable(ByteBuffer buffer) throws IOException {
+        synchronized (this) {
+            // Rest of the input is not interesting
+            if (closeAfterFlush || abort) return;
+        }
+        buffer.clear();
+        final int read = channel.read(buffer);
+        if (read < 0) {
+            close();
+            return;
+        }
+        buffer.flip();
+
+        if (request != null) {
+            readRequest(buffer);
+        }
+        if (request == null && buffer.hasRemaining()) {
+            decoder.decode(buffer, this);
+        }
+    }
+
+    private void readRequest(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            if (requestLength == request.length) {
+                if (requestLength >= MAX_REQUEST_SIZE) {
+                    respondHttpAndClose("431 Request Header Fields Too Large", "text/plain", "Request too large".getBytes(StandardCharsets.UTF_8));
+                    buffer.position(buffer.limit());
+                    return;
+                }
+                request = Arrays.copyOf(request, Math.min(request.length * 2, MAX_REQUEST_SIZE));
+            }
+            final byte b = buffer.get();
+            request[requestLength++] = b;
+            if (b == '\n' && requestLength >= 4
+                    && request[requestLength - 2] == '\r' && request[requestLength - 3] == '\n' && request[requestLength - 4] == '\r') {
+                final String head = new String(request, 0, requestLength, StandardCharsets.ISO_8859_1);
+                request = null;
+                handshake(head);
+                return;
+            }
+        }
+    }
+
+    private void handshake(String head) {
+        final String[] lines = head.split("\r\n");
+        final String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[0].equals("GET")) {
+            respondHttpAndClose("405 Method Not Allowed", "text/plain", "Only GET is supported".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        String upgrade = null, webSocketKey = null, webSocketVersion = null;
+        for (int i = 1; i < lines.length; i++) {
+            final int colon = lines[i].indexOf(':');
+            if (colon == -1) continue;
+            final String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            final String value = lines[i].substring(colon + 1).trim();
+            switch (name) {
+                case "upgrade": upgrade = value; break;
+                case "sec-websocket-key": webSocketKey = value; break;
+                case "sec-websocket-version": webSocketVersion = value; break;
+            }
+        }
+
+        if (upgrade == null || !upgrade.equalsIgnoreCase("websocket")) {
+            final byte[] page = frontend.getClientPage(requestLine[1]);
+            if (page == null) {
+                respondHttpAndClose("404 Not Found", "text/plain", "Not found".getBytes(StandardCharsets.UTF_8));
+            } else {
+                respondHttpAndClose("200 OK", "text/html; charset=utf-8", page);
+            }
+            return;
+        }
+        if (webSocketKey == null || !"13".equals(webSocketVersion)) {
+            respondHttpAndClose("426 Upgrade Required\r\nSec-WebSocket-Version: 13", "text/plain", "Unsupported WebSocket version".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+
+        final String response = "HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + acceptKey(webSocketKey) + "\r\n\r\n";
+        send(ByteBuffer.wrap(response.getBytes(StandardCharsets.ISO_8859_1)));
+        frontend.connected(this);
+    }
+
+    private void respondHttpAndClose(String status, String contentType, byte[] body) {
+        final String head = "HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + "Connection: close\r\n\r\n";
+        final byte[] headBytes = head.getBytes(StandardCharsets.ISO_8859_1);
+        final ByteBuffer response = ByteBuffer.allocate(headBytes.length + body.length);
+        response.put(headBytes).put(body).flip();
+        synchronized (this) {
+            send(response);
+            closeAfterFlush = true;
+        }
+        requestUpdate();
+    }
+
+    @Override
+    public void message(int opcode, byte[] payload, int length) {
+        switch (opcode) {
+            case OPCODE_TEXT:
+                frontend.received(this, new String(payload, 0, length, StandardCharsets.UTF_8));
+                break;
+            case OPCODE_PING:
+                send(frame(OPCODE_PONG, payload, 0, length, null));
+                break;
+            case OPCODE_PONG:
+                break;
+            case OPCODE_CLOSE:
+                synchronized (this) {
+                    send(closeFrame(CLOSE_NORMAL, null));
+                    closeAfterFlush = true;
+                }
+                requestUpdate();
+                break;
+            default:
+                error(CLOSE_UNSUPPORTED_DATA, "Only text messages are supported");
+        }
+    }
+
+    @Override
+    public void error(int closeCode, String reason) {
+        LOG.debug("Closing {}: {}", this, reason);
+        synchronized (this) {
+            send(closeFrame(closeCode, null));
+            closeAfterFlush = true;
+        }
+        requestUpdate();
+    }
+
+    /** @return whether the connection has been closed. Thread safe. */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /** Close immediately, on the I/O thread. */
+    void close() {
+        if (closed) return;
+        synchronized (this) {
+            closed = true;
+            outbox.clear();
+            queuedBytes = 0;
+        }
+        key.cancel();
+        IoThread.closeQuietly(channel);
+        frontend.disconnected(this);
+    }
+
+    @Override
+    public String toString() {
+        final Player player = this.player;
+        return "Connection{" + (player == null ? channel.socket().getRemoteSocketAddress() : player.getName()) + "}";
+    }
+}
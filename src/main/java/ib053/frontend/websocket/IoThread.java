@@ -0,0 +1,129 @@
+package ib053.frontend.websocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Thread which serves its share of {@link Connection}s through one {@link Selector}.
+ *
+ * Other threads never touch the selector directly, they post connections to be registered or updated
+ * and wake the selector up.
+ */
+final class IoThread extends Thread {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IoThread.class);
+
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    private final WebSocketFrontend frontend;
+    private final Selector selector;
+    /** Shared by all connections of this thread, they keep only what they could not process */
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+    private final ConcurrentLinkedQueue<SocketChannel> registrations = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Connection> updates = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running = true;
+
+    IoThread(WebSocketFrontend frontend, String name) throws IOException {
+        super(name);
+        setDaemon(true);
+        this.frontend = frontend;
+        this.selector = Selector.open();
+    }
+
+    /** Start serving given accepted channel. Thread safe. */
+    void register(SocketChannel channel) {
+        registrations.add(channel);
+        selector.wakeup();
+    }
+
+    /** Have {@link Connection#update()} called on this thread. Thread safe, but see {@link Connection#requestUpdate()}. */
+    void requestUpdate(Connection connection) {
+        updates.add(connection);
+        selector.wakeup();
+    }
+
+    /** Close all connections and stop. */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+
+                SocketChannel channel;
+                while ((channel = registrations.poll()) != null) {
+                    try {
+                        final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                        key.attach(new Connection(frontend, this, channel, key));
+                    } catch (IOException e) {
+                        LOG.warn("Failed to register connection", e);
+                        closeQuietly(channel);
+                    }
+                }
+
+                Connection connection;
+                while ((connection = updates.poll()) != null) {
+                    connection.update();
+                }
+
+                final Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    final SelectionKey key = selected.next();
+                    selected.remove();
+                    final Connection keyConnection = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isWritable()) {
+                            keyConnection.onWritable();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            keyConnection.onReadable(readBuffer);
+                        }
+                    } catch (IOException e) {
+                        LOG.debug("Connection {} failed: {}", keyConnection, e.toString());
+                        keyConnection.close();
+                    } catch (Exception e) {
+                        LOG.warn("Connection {} failed", keyConnection, e);
+                        keyConnection.close();
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            LOG.error("Selector failed", e);
+        } finally {
+            for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                ((Connection) key.attachment()).close();
+            }
+            SocketChannel channel;
+            while ((channel = registrations.poll()) != null) {
+                closeQuietly(channel);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close selector", e);
+            }
+        }
+    }
+
+    static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,286 @@
+package ib053.frontend.websocket;
+
+import com.esotericsoftware.jsonbeans.JsonReader;
+import com.esotericsoftware.jsonbeans.JsonValue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static ib053.frontend.websocket.WebSocketProtocol.*;
+
+/**
+ * Command line client of {@link WebSocketFrontend}, for testing the server on localhost.
+ *
+ * Opens given amount of sessions from a single thread, logs each in as a player named by the prefix and its number,
+ * and has it perform a random available action after each think time. Prints received messages when there is only
+ * one session, and totals every second otherwise.
+ *
+ * Arguments: [address:host:port] [sessions:N] [name:prefix] [think:ms] [duration:s]
+ */
+public class WebSocketClient {
+
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+    private static final int MAX_MESSAGE_SIZE = 1 << 20;
+
+    private final Selector selector;
+    private final boolean verbose;
+    private final long thinkMillis;
+    private final PriorityQueue<Session> thinking = new PriorityQueue<>((a, b) -> Long.compare(a.nextActionNanos, b.nextActionNanos));
+
+    private int connected, open, closed;
+    private long messages, actions, errors;
+
+    private WebSocketClient(boolean verbose, long thinkMillis) throws IOException {
+        this.selector = Selector.open();
+        this.verbose = verbose;
+        this.thinkMillis = thinkMillis;
+    }
+
+    public static void main(String[] args) throws IOException {
+        final Map<String, String> arguments = new HashMap<>();
+        for (String arg : args) {
+            int splitIndex = arg.indexOf(':');
+            if (splitIndex == -1) {
+                arguments.put(arg, null);
+            } else {
+                arguments.put(arg.substring(0, splitIndex), arg.substring(splitIndex + 1));
+            }
+        }
+
+        final String address = arguments.getOrDefault("address", "localhost:8080");
+        final int portSplit = address.lastIndexOf(':');
+        final InetSocketAddress socketAddress = new InetSocketAddress(address.substring(0, portSplit), Integer.parseInt(address.substring(portSplit + 1)));
+        final int sessions = Integer.parseInt(arguments.getOrDefault("sessions", "1"));
+        final String name = arguments.getOrDefault("name", "Tester");
+        final long think = Long.parseLong(arguments.getOrDefault("think", "1000"));
+        final long duration = Long.parseLong(arguments.getOrDefault("duration", "30"));
+
+        final WebSocketClient client = new WebSocketClient(sessions == 1, think);
+        for (int i = 0; i < sessions; i++) {
+            client.connect(socketAddress, sessions == 1 ? name : name + i);
+        }
+        client.run(TimeUnit.SECONDS.toNanos(duration));
+    }
+
+    private void connect(InetSocketAddress address, String name) throws IOException {
+        final SocketChannel channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        final Session session = new Session(channel, name);
+        if (channel.connect(address)) {
+            session.connected();
+        } else {
+            channel.register(selector, SelectionKey.OP_CONNECT, session);
+        }
+    }
+
+    private void run(long durationNanos) throws IOException {
+        final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        final long start = System.nanoTime();
+        long nextReport = start + TimeUnit.SECONDS.toNanos(1);
+
+        while (System.nanoTime() - start < durationNanos) {
+            final Session next = thinking.peek();
+            final long timeout = Math.min(nextReport, next == null ? Long.MAX_VALUE : next.nextActionNanos) - System.nanoTime();
+            selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeout)));
+
+            final Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+            while (selected.hasNext()) {
+                final SelectionKey key = selected.next();
+                selected.remove();
+                final Session session = (Session) key.attachment();
+                try {
+                    if (key.isConnectable()) {
+                        session.channel.finishConnect();
+                        session.connected();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        session.flush();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        session.read(readBuffer);
+                    }
+                } catch (IOException e) {
+                    if (verbose) System.out.println("Connection failed: " + e);
+                    session.close();
+                }
+            }
+
+            final long now = System.nanoTime();
+            Session thinker;
+            while ((thinker = thinking.peek()) != null && thinker.nextActionNanos <= now) {
+                thinking.poll();
+                thinker.act();
+            }
+
+            if (!verbose && now >= nextReport) {
+                nextReport += TimeUnit.SECONDS.toNanos(1);
+                System.out.printf("%ds: %d connected, %d open, %d closed, %d messages, %d actions, %d errors%n",
+                        TimeUnit.NANOSECONDS.toSeconds(now - start), connected, open, closed, messages, actions, errors);
+            }
+        }
+    }
+
+    private final class Session implements FrameHandler {
+        final SocketChannel channel;
+        final String name;
+        final FrameDecoder decoder = new FrameDecoder(MAX_MESSAGE_SIZE, false);
+        final ArrayDeque<ByteBuffer> outbox = new ArrayDeque<>();
+        final List<String> actionKeys = new ArrayList<>();
+        String expectedAccept;
+        /** Response head collected so far, null once upgraded */
+        StringBuilder response = new StringBuilder();
+        long nextActionNanos;
+        boolean waiting = false;
+
+        Session(SocketChannel channel, String name) {
+            this.channel = channel;
+            this.name = name;
+        }
+
+        void connected() throws IOException {
+            connected++;
+            final byte[] key = new byte[16];
+            ThreadLocalRandom.current().nextBytes(key);
+            final String encodedKey = Base64.getEncoder().encodeToString(key);
+            expectedAccept = acceptKey(encodedKey);
+            final InetSocketAddress remote = (InetSocketAddress) channel.getRemoteAddress();
+            send(ByteBuffer.wrap(("GET / HTTP/1.1\r\n"
+                    + "Host: " + remote.getHostString() + ":" + remote.getPort() + "\r\n"
+                    + "Upgrade: websocket\r\n"
+                    + "Connection: Upgrade\r\n"
+                    + "Sec-WebSocket-Key: " + encodedKey + "\r\n"
+                    + "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1)));
+        }
+
+        void send(ByteBuffer data) throws IOException {
+            outbox.add(data);
+            flush();
+        }
+
+        void sendText(String message) throws IOException {
+            final byte[] mask = new byte[4];
+            ThreadLocalRandom.current().nextBytes(mask);
+            send(textFrame(message, mask));
+        }
+
+        void flush() throws IOException {
+            ByteBuffer data;
+            while ((data = outbox.peek()) != null) {
+                channel.write(data);
+                if (data.hasRemaining()) break;
+                outbox.poll();
+            }
+            channel.register(selector, SelectionKey.OP_READ | (outbox.isEmpty() ? 0 : SelectionKey.OP_WRITE), this);
+        }
+
+        void read(ByteBuffer buffer) throws IOException {
+            buffer.clear();
+            if (channel.read(buffer) < 0) {
+                close();
+                return;
+            }
+            buffer.flip();
+            while (response != null && buffer.hasRemaining()) {
+                response.append((char) (buffer.get() & 0xFF));
+                final int length = response.length();
+                if (length >= 4 && response.charAt(length - 1) == '\n' && response.charAt(length - 2) == '\r'
+                        && response.charAt(length - 3) == '\n' && response.charAt(length - 4) == '\r') {
+                    final String head = response.toString();
+                    response = null;
+                    if (!head.startsWith("HTTP/1.1 101") || !head.contains(expectedAccept)) {
+                        if (verbose) System.out.println("Handshake failed:\n" + head);
+                        close();
+                        return;
+                    }
+                    open++;
+                    sendText("{\"login\":\"" + name.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}");
+                }
+            }
+            if (response == null && buffer.hasRemaining()) {
+                decoder.decode(buffer, this);
+            }
+        }
+
+        @Override
+        public void message(int opcode, byte[] payload, int length) {
+            try {
+                if (opcode == OPCODE_CLOSE) {
+                    close();
+                } else if (opcode == OPCODE_PING) {
+                    final byte[] mask = new byte[4];
+                    ThreadLocalRandom.current().nextBytes(mask);
+                    send(frame(OPCODE_PONG, payload, 0, length, mask));
+                } else if (opcode == OPCODE_TEXT) {
+                    messages++;
+                    final String text = new String(payload, 0, length, StandardCharsets.UTF_8);
+                    if (verbose) System.out.println(text);
+                    final JsonValue json = new JsonReader().parse(text);
+                    final JsonValue activity = json.get("activity");
+                    if (activity != null) {
+                        actionKeys.clear();
+                        for (JsonValue action : activity.get("actions")) {
+                            actionKeys.add(action.getString("key"));
+                        }
+                    } else if (json.has("error")) {
+                        errors++;
+                    }
+                    think();
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /** Schedule next action, unless one is already scheduled */
+        void think() {
+            if (waiting || actionKeys.isEmpty()) return;
+            waiting = true;
+            nextActionNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(thinkMillis / 2 + ThreadLocalRandom.current().nextLong(thinkMillis + 1));
+            thinking.add(this);
+        }
+
+        void act() {
+            waiting = false;
+            if (!channel.isOpen() || actionKeys.isEmpty()) return;
+            final String key = actionKeys.get(ThreadLocalRandom.current().nextInt(actionKeys.size()));
+            try {
+                sendText("{\"action\":\"" + key.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}");
+                actions++;
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        @Override
+        public void error(int closeCode, String reason) {
+            if (verbose) System.out.println("Protocol error: " + reason);
+            close();
+        }
+
+        void close() {
+            if (!channel.isOpen()) return;
+            closed++;
+            if (verbose) System.out.println("Closed");
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package ib053.frontend.websocket;
+
+import com.esotericsoftware.jsonbeans.JsonReader;
+import com.esotericsoftware.jsonbeans.JsonValue;
+import ib053.core.Action;
+import ib053.core.ActivityBase;
+import ib053.core.Event;
+import ib053.core.GameCore;
+import ib053.core.Player;
+import ib053.frontend.Frontend;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frontend for browsers (and other clients), which talk to the server through WebSockets.
+ *
+ * Connections are accepted by one thread and served by a few {@link IoThread}s, each with its own selector,
+ * so one server can hold tens of thousands of connections. Plain GET of "/" returns the bundled browser client.
+ * Players are looked up for login on a separate thread, because waking a hibernated player reads the disk.
+ *
+ * Messages are compact JSON objects, with a single key naming the message.
+ * Client sends:
+ * <ul>
+ *     <li>{"login":"name","since":1} - first message, plays as the player with given name, who is created if they don't exist.
+ *     Optional since is the "next" of the last events the client has seen, recent events after it are sent again,
+ *     all recent events are sent without it</li>
+ *     <li>{"action":"key"} - performs available action with given {@link Action#key}</li>
+ * </ul>
+ * Server sends:
+ * <ul>
+ *     <li>{"welcome":{"id":1,"name":"name"}} - after login</li>
+ *     <li>{"activity":{"description":"...","actions":[{"key":"...","group":"...","name":"..."}]}} - after login and when the activity changes</li>
+ *     <li>{"events":["message", ...],"next":2} - events of one event loop task, or recent events after login.
+ *     Next is the sequence number of the next event of the player.</li>
+ *     <li>{"error":"message"} - when the last message could not be handled</li>
+ * </ul>
+ * Only one connection may play as a player, new login disconnects the old one.
+ */
+public class WebSocketFrontend implements Frontend {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WebSocketFrontend.class);
+
+    private static final int MAX_NAME_LENGTH = 32;
+    private static final int ACCEPT_BACKLOG = 1024;
+
+    private final InetSocketAddress address;
+    private final IoThread[] ioThreads;
+
+    private GameCore core;
+    private ServerSocketChannel serverChannel;
+    private ExecutorService loginExecutor;
+    private byte[] clientPage;
+
+    /** Connection of each logged in player, by player id */
+    private final ConcurrentHashMap<Long, Connection> connections = new ConcurrentHashMap<>();
+
+    /** @param ioThreads amount of threads which serve the connections */
+    public WebSocketFrontend(InetSocketAddress address, int ioThreads) {
+        if (ioThreads < 1) throw new IllegalArgumentException("ioThreads must be positive");
+        this.address = address;
+        this.ioThreads = new IoThread[ioThreads];
+    }
+
+    @Override
+    public void initialize(GameCore core) {
+        this.core = core;
+    }
+
+    @Override
+    public void begin() {
+        try (InputStream in = WebSocketFrontend.class.getResourceAsStream("client.html")) {
+            if (in == null) {
+                LOG.warn("Bundled client page is missing");
+            } else {
+                final ByteArrayOutputStream page = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    page.write(buffer, 0, read);
+                }
+                clientPage = page.toByteArray();
+            }
+
+            for (int i = 0; i < ioThreads.length; i++) {
+                ioThreads[i] = new IoThread(this, "WebSocket I/O " + i);
+            }
+            loginExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "WebSocket Login");
+                thread.setDaemon(true);
+                return thread;
+            });
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverChannel.bind(address, ACCEPT_BACKLOG);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to start WebSocket server on " + address, e);
+        }
+
+        for (IoThread ioThread : ioThreads) {
+            ioThread.start();
+        }
+        final Thread acceptor = new Thread(this::acceptConnections, "WebSocket Acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        LOG.info("WebSocket server listening on {}", getAddress());
+    }
+
+    private void acceptConnections() {
+        int next = 0;
+        while (serverChannel.isOpen()) {
+            final SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                LOG.warn("Failed to accept connection", e);
+                continue;
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            } catch (IOException e) {
+                LOG.warn("Failed to configure connection", e);
+                IoThread.closeQuietly(channel);
+                continue;
+            }
+            ioThreads[next].register(channel);
+            next = (next + 1) % ioThreads.length;
+        }
+    }
+
+    /** Stop accepting connections and close the existing ones. */
+    public void shutdown() {
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to close server channel", e);
+        }
+        for (IoThread ioThread : ioThreads) {
+            if (ioThread != null) {
+                ioThread.shutdown();
+            }
+        }
+        if (loginExecutor != null) {
+            loginExecutor.shutdown();
+        }
+    }
+
+    /** @return address on which the server listens, with the actual port if it was chosen by the system */
+    public InetSocketAddress getAddress() {
+        try {
+            return (InetSocketAddress) serverChannel.getLocalAddress();
+        } catch (IOException e) {
+            return address;
+        }
+    }
+
+    /** @return amount of players currently connected */
+    public int getConnectedPlayerCount() {
+        return connections.size();
+    }
+
+    /** @return content of the page at the path, or null if there is no such page */
+    byte[] getClientPage(String path) {
+        return path.equals("/") || path.equals("/index.html") ? clientPage : null;
+    }
+
+    /** Connection has been upgraded to WebSocket, called on its I/O thread. */
+    void connected(Connection connection) {
+        LOG.debug("{} connected", connection);
+    }
+
+    /** Connection has been closed, called on its I/O thread. */
+    void disconnected(Connection connection) {
+        final Player player = connection.player;
+        if (player != null) {
+            connections.remove(player.getId(), connection);
+        }
+        LOG.debug("{} disconnected", connection);
+    }
+
+    /** Text message arrived, called on the connection's I/O thread. */
+    void received(Connection connection, String message) {
+        final JsonValue json;
+        try {
+            json = new JsonReader().parse(message);
+        } catch (Exception e) {
+            connection.sendText(errorMessage("Malformed message"));
+            return;
+        }
+        if (json == null || !json.isObject()) {
+            connection.sendText(errorMessage("Malformed message"));
+            return;
+        }
+
+        final Player player = connection.player;
+        final String login = json.getString("login", null);
+        final String action = json.getString("action", null);
+        if (login != null) {
+            if (player != null || connection.loggingIn) {
+                connection.sendText(errorMessage("Already logged in"));
+            } else {
+                login(connection, login, json.getLong("since", 0));
+            }
+        } else if (action != null) {
+            if (player == null) {
+                connection.sendText(errorMessage("Not logged in"));
+            } else {
+                performAction(connection, player, action);
+            }
+        } else {
+            connection.sendText(errorMessage("Unknown message"));
+        }
+    }
+
+    private void login(Connection connection, String name, long since) {
+        name = name.trim();
+        if (name.isEmpty() || name.length() > MAX_NAME_LENGTH) {
+            connection.sendText(errorMessage("Name must have 1 to " + MAX_NAME_LENGTH + " characters"));
+            return;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.isISOControl(name.charAt(i))) {
+                connection.sendText(errorMessage("Name must not contain control characters"));
+                return;
+            }
+        }
+
+        final String validName = name;
+        connection.loggingIn = true;
+        try {
+            loginExecutor.execute(() -> {
+                try {
+                    finishLogin(connection, validName, since);
+                } finally {
+                    connection.loggingIn = false;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            connection.loggingIn = false;
+            connection.sendText(errorMessage("Server is shutting down"));
+        }
+    }
+
+    /** Find or create the player with given valid name and play them through the connection, on the login thread. */
+    private void finishLogin(Connection connection, String name, long since) {
+        Player player = core.findPlayerByName(name);
+        final boolean created;
+        if (player == null) {
+            player = core.createNewPlayer(name);
+            created = player != null;
+            if (player == null) {
+                // Created by someone else in the meantime
+                player = core.findPlayerByName(name);
+                if (player == null) {
+                    connection.sendText(errorMessage("Can't create player " + name));
+                    return;
+                }
+            }
+        } else {
+            created = false;
+        }
+
+        connection.player = player;
+        final Connection previous = connections.put(player.getId(), connection);
+        if (previous != null) {
+            previous.sendTextAndClose(errorMessage("Logged in from another connection"), WebSocketProtocol.CLOSE_POLICY_VIOLATION);
+        }
+        if (connection.isClosed()) {
+            // Disconnected while the player was looked up, before it could remove itself.
+            // New player is still placed below, messages to the closed connection are dropped.
+            connections.remove(player.getId(), connection);
+        }
+
+        final Player loggedIn = player;
+        core.schedule(player, () -> {
+            connection.sendText(welcomeMessage(loggedIn));
+            final List<Event> missed = new ArrayList<>();
+            final long next = loggedIn.getEventHistory().since(since, missed);
+            if (!missed.isEmpty()) {
+                connection.sendText(eventsMessage(missed, next));
+            }
+            if (created) {
+                // Sends the activity when done
+                core.initNewPlayer(loggedIn);
+            } else if (loggedIn.getActivity() != null) {
+                connection.sendText(activityMessage(loggedIn));
+            }
+        }, 0, TimeUnit.SECONDS);
+    }
+
+    private void performAction(Connection connection, Player player, String key) {
+        if (connection.pendingActions.incrementAndGet() >= Connection.MAX_PENDING_ACTIONS) {
+            // Stop reading until some are done
+            connection.requestUpdate();
+        }
+        core.schedule(player, () -> {
+            try {
+                final ActivityBase activity = player.getActivity();
+                if (activity != null) {
+                    for (Action action : activity.getActions()) {
+                        if (action.key.equals(key)) {
+                            action.perform(player);
+                            return;
+                        }
+                    }
+                }
+                connection.sendText(errorMessage("Action " + key + " is not available"));
+            } finally {
+                if (connection.pendingActions.getAndDecrement() == Connection.MAX_PENDING_ACTIONS) {
+                    connection.requestUpdate();
+                }
+            }
+        }, 0, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public boolean isPlaying(Player player) {
+        return connections.containsKey(player.getId());
+    }
+
+    @Override
+    public void playerActivityChanged(Player player) {
+        final Connection connection = connections.get(player.getId());
+        if (connection == null) return;
+        connection.sendText(activityMessage(player));
+    }
+
+    @Override
+    public void playerReceiveEvent(Player player, Event event) {
+        final Connection connection = connections.get(player.getId());
+        if (connection == null) return;
+        final StringBuilder sb = new StringBuilder();
+        sb.append("{\"events\":[");
+        appendEvent(sb, new StringBuilder(), event);
+        sb.append("],\"next\":").append(player.getEventHistory().getNextSequence()).append('}');
+        connection.sendText(sb.toString());
+    }
+
+    @Override
+    public void playerReceiveEvents(Player player, List<Event> events) {
+        final Connection connection = connections.get(player.getId());
+        if (connection == null) return;
+        connection.sendText(eventsMessage(events, player.getEventHistory().getNextSequence()));
+    }
+
+    private static String eventsMessage(List<Event> events, long next) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("{\"events\":[");
+        final StringBuilder message = new StringBuilder();
+        for (int i = 0; i < events.size(); i++) {
+            if (i != 0) sb.append(',');
+            appendEvent(sb, message, events.get(i));
+        }
+        sb.append("],\"next\":").append(next).append('}');
+        return sb.toString();
+    }
+
+    private static String welcomeMessage(Player player) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("{\"welcome\":{\"id\":").append(player.getId()).append(",\"name\":");
+        appendString(sb, player.getName());
+        sb.append("}}");
+        return sb.toString();
+    }
+
+    private static String activityMessage(Player player) {
+        final ActivityBase activity = player.getActivity();
+        final StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"activity\":{\"description\":");
+        appendString(sb, activity.getDescription(player));
+        sb.append(",\"actions\":[");
+        boolean first = true;
+        for (Action action : activity.getActions()) {
+            if (!first) sb.append(',');
+            first = false;
+            sb.append("{\"key\":");
+            appendString(sb, action.key);
+            if (action.group != null) {
+                sb.append(",\"group\":");
+                appendString(sb, action.group);
+            }
+            sb.append(",\"name\":");
+            appendString(sb, action.name);
+            sb.append('}');
+        }
+        sb.append("]}}");
+        return sb.toString();
+    }
+
+    private static String errorMessage(String message) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("{\"error\":");
+        appendString(sb, message);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /** Append message of the event as JSON string, rendered through the scratch builder instead of a String of its own */
+    private static void appendEvent(StringBuilder sb, StringBuilder scratch, Event event) {
+        scratch.setLength(0);
+        event.appendMessage(scratch);
+        appendString(sb, scratch);
+    }
+
+    /** Append the string as a quoted JSON string. */
+    private static void appendString(StringBuilder sb, CharSequence string) {
+        sb.append('"');
+        for (int i = 0; i < string.length(); i++) {
+            final char c = string.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
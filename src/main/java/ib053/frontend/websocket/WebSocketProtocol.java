@@ -0,0 +1,242 @@
+package ib053.frontend.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * Parts of the WebSocket protocol (RFC 6455) shared by the server and the client: handshake keys and framing.
+ */
+final class WebSocketProtocol {
+
+    static final int OPCODE_CONTINUATION = 0x0;
+    static final int OPCODE_TEXT = 0x1;
+    static final int OPCODE_BINARY = 0x2;
+    static final int OPCODE_CLOSE = 0x8;
+    static final int OPCODE_PING = 0x9;
+    static final int OPCODE_PONG = 0xA;
+
+    static final int CLOSE_NORMAL = 1000;
+    static final int CLOSE_GOING_AWAY = 1001;
+    static final int CLOSE_PROTOCOL_ERROR = 1002;
+    static final int CLOSE_UNSUPPORTED_DATA = 1003;
+    static final int CLOSE_POLICY_VIOLATION = 1008;
+    static final int CLOSE_TOO_BIG = 1009;
+
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private WebSocketProtocol() {}
+
+    /** @return value of Sec-WebSocket-Accept header for given Sec-WebSocket-Key */
+    static String acceptKey(String key) {
+        try {
+            final MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            final byte[] digest = sha1.digest((key.trim() + ACCEPT_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-1 is always available", e);
+        }
+    }
+
+    /** @return whole frame with given payload, ready to be written
+     * @param mask null for server frames, masking key of 4 bytes for client frames */
+    static ByteBuffer frame(int opcode, byte[] payload, int offset, int length, byte[] mask) {
+        final int headerSize = 2 + (length < 126 ? 0 : length <= 0xFFFF ? 2 : 8) + (mask == null ? 0 : 4);
+        final ByteBuffer frame = ByteBuffer.allocate(headerSize + length);
+        frame.put((byte) (0x80 | opcode));
+        final int maskBit = mask == null ? 0 : 0x80;
+        if (length < 126) {
+            frame.put((byte) (maskBit | length));
+        } else if (length <= 0xFFFF) {
+            frame.put((byte) (maskBit | 126));
+            frame.putShort((short) length);
+        } else {
+            frame.put((byte) (maskBit | 127));
+            frame.putLong(length);
+        }
+        if (mask == null) {
+            frame.put(payload, offset, length);
+        } else {
+            frame.put(mask);
+            for (int i = 0; i < length; i++) {
+                frame.put((byte) (payload[offset + i] ^ mask[i & 3]));
+            }
+        }
+        frame.flip();
+        return frame;
+    }
+
+    static ByteBuffer textFrame(String text, byte[] mask) {
+        final byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        return frame(OPCODE_TEXT, payload, 0, payload.length, mask);
+    }
+
+    static ByteBuffer closeFrame(int code, byte[] mask) {
+        final byte[] payload = {(byte) (code >> 8), (byte) code};
+        return frame(OPCODE_CLOSE, payload, 0, payload.length, mask);
+    }
+
+    /** Receives complete messages and control frames from {@link FrameDecoder}. */
+    interface FrameHandler {
+        void message(int opcode, byte[] payload, int length);
+        /** Called on protocol violation, with the close code to report */
+        void error(int closeCode, String reason);
+    }
+
+    /**
+     * Incrementally decodes incoming frames, joins fragmented messages and unmasks payloads.
+     * Keeps only the bytes of an incomplete frame between calls.
+     */
+    static final class FrameDecoder {
+        private final int maxMessageSize;
+        private final boolean expectMasked;
+
+        /** Bytes of an incomplete frame, null if there are none */
+        private byte[] partial;
+        private int partialLength;
+
+        /** Payload of a fragmented message collected so far, null if not in a fragmented message */
+        private byte[] fragments;
+        /** Length of {@link #fragments}, 0 if not in a fragmented message */
+        private int fragmentsLength;
+        private int fragmentsOpcode;
+
+        FrameDecoder(int maxMessageSize, boolean expectMasked) {
+            this.maxMessageSize = maxMessageSize;
+            this.expectMasked = expectMasked;
+        }
+
+        /** Decode all complete frames in the data, consuming it.
+         * @return false if the handler was notified of an error and no more data should be decoded */
+        boolean decode(ByteBuffer data, FrameHandler handler) {
+            ByteBuffer in = data;
+            if (partial != null) {
+                final int needed = partialLength + data.remaining();
+                if (needed > partial.length) {
+                    final byte[] bigger = new byte[Math.max(needed, partial.length * 2)];
+                    System.arraycopy(partial, 0, bigger, 0, partialLength);
+                    partial = bigger;
+                }
+                data.get(partial, partialLength, data.remaining());
+                in = ByteBuffer.wrap(partial, 0, needed);
+                partial = null;
+            }
+
+            while (in.hasRemaining()) {
+                final int start = in.position();
+                final int frameResult = decodeFrame(in, handler);
+                if (frameResult < 0) return false;
+                if (frameResult == 0) {
+                    in.position(start);
+                    break;
+                }
+            }
+
+            if (in.hasRemaining()) {
+                final int remaining = in.remaining();
+                final byte[] rest = new byte[Math.max(remaining, 64)];
+                in.get(rest, 0, remaining);
+                partial = rest;
+                partialLength = remaining;
+            }
+            return true;
+        }
+
+        /** @return 1 if a frame was decoded, 0 if the frame is not complete, -1 on error */
+        private int decodeFrame(ByteBuffer in, FrameHandler handler) {
+            if (in.remaining() < 2) return 0;
+            final int b0 = in.get() & 0xFF;
+            final int b1 = in.get() & 0xFF;
+            final boolean fin = (b0 & 0x80) != 0;
+            final int opcode = b0 & 0x0F;
+            final boolean masked = (b1 & 0x80) != 0;
+
+            if ((b0 & 0x70) != 0) {
+                handler.error(CLOSE_PROTOCOL_ERROR, "Reserved bits set");
+                return -1;
+            }
+            if (masked != expectMasked) {
+                handler.error(CLOSE_PROTOCOL_ERROR, masked ? "Unexpected mask" : "Frame is not masked");
+                return -1;
+            }
+
+            long length = b1 & 0x7F;
+            if (length == 126) {
+                if (in.remaining() < 2) return 0;
+                length = in.getShort() & 0xFFFF;
+            } else if (length == 127) {
+                if (in.remaining() < 8) return 0;
+                length = in.getLong();
+            }
+            final boolean control = (opcode & 0x8) != 0;
+            if (control && (length > 125 || !fin)) {
+                handler.error(CLOSE_PROTOCOL_ERROR, "Invalid control frame");
+                return -1;
+            }
+            if (!control) {
+                if (opcode == OPCODE_CONTINUATION) {
+                    if (fragments == null) {
+                        handler.error(CLOSE_PROTOCOL_ERROR, "Unexpected continuation");
+                        return -1;
+                    }
+                } else if (fragments != null) {
+                    handler.error(CLOSE_PROTOCOL_ERROR, "Expected continuation");
+                    return -1;
+                }
+            }
+            // Only continuations add to the collected fragments, which are empty outside of a fragmented message
+            if (length < 0 || length + (control ? 0 : fragmentsLength) > maxMessageSize) {
+                handler.error(CLOSE_TOO_BIG, "Message too big");
+                return -1;
+            }
+
+            final int maskSize = masked ? 4 : 0;
+            if (in.remaining() < maskSize + length) return 0;
+            final int maskStart = in.position();
+            in.position(maskStart + maskSize);
+
+            final int payloadLength = (int) length;
+            final byte[] payload;
+            int payloadOffset;
+            if (control || (fin && opcode != OPCODE_CONTINUATION)) {
+                payload = new byte[payloadLength];
+                payloadOffset = 0;
+            } else {
+                // Part of fragmented message
+                if (opcode != OPCODE_CONTINUATION) {
+                    fragments = new byte[Math.max(payloadLength * 2, 64)];
+                    fragmentsOpcode = opcode;
+                }
+                if (fragmentsLength + payloadLength > fragments.length) {
+                    final byte[] bigger = new byte[Math.max(fragmentsLength + payloadLength, fragments.length * 2)];
+                    System.arraycopy(fragments, 0, bigger, 0, fragmentsLength);
+                    fragments = bigger;
+                }
+                payload = fragments;
+                payloadOffset = fragmentsLength;
+            }
+
+            in.get(payload, payloadOffset, payloadLength);
+            if (masked) {
+                for (int i = 0; i < payloadLength; i++) {
+                    payload[payloadOffset + i] ^= in.get(maskStart + (i & 3));
+                }
+            }
+
+            if (payload == fragments) {
+                fragmentsLength += payloadLength;
+                if (fin) {
+                    final int messageLength = fragmentsLength;
+                    fragments = null;
+                    fragmentsLength = 0;
+                    handler.message(fragmentsOpcode, payload, messageLength);
+                }
+            } else {
+                handler.message(opcode, payload, payloadLength);
+            }
+            return 1;
+        }
+    }
+}
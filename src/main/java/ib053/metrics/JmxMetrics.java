@@ -0,0 +1,126 @@
+package ib053.metrics;
+
+import ib053.core.Metrics;
+import ib053.util.Histogram;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exposes {@link Metrics} as attributes of one read-only MBean.
+ *
+ * Attributes are named by the metric and its label value, for example "ib053_action_seconds{location.myself}".
+ * Histograms are split into attributes of count, mean and percentiles, in seconds.
+ * Attributes are collected anew on every access, so new metrics (like actions performed for the first time) appear as they come.
+ */
+public final class JmxMetrics implements DynamicMBean {
+
+    public static final String OBJECT_NAME = "ib053:type=Metrics";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] QUANTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private final Metrics metrics;
+
+    public JmxMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /** @return name of the MBean when registered */
+    public static ObjectName objectName() {
+        try {
+            return new ObjectName(OBJECT_NAME);
+        } catch (MalformedObjectNameException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private Map<String, Object> collect() {
+        final Map<String, Object> values = new LinkedHashMap<>();
+        metrics.collect(new Metrics.Sink() {
+            private String name;
+
+            @Override
+            public void family(String name, Metrics.Kind kind, String help, String label) {
+                this.name = name;
+            }
+
+            private String attribute(String labelValue) {
+                return labelValue == null ? name : name + '{' + labelValue + '}';
+            }
+
+            @Override
+            public void sample(String labelValue, double value) {
+                values.put(attribute(labelValue), value);
+            }
+
+            @Override
+            public void sample(String labelValue, Histogram.Snapshot nanos) {
+                final String attribute = attribute(labelValue);
+                values.put(attribute + ".count", (double) nanos.getCount());
+                values.put(attribute + ".mean", nanos.getMean() / 1e9);
+                for (int i = 0; i < QUANTILES.length; i++) {
+                    values.put(attribute + '.' + QUANTILE_NAMES[i], nanos.getValueAt(QUANTILES[i]) / 1e9);
+                }
+                values.put(attribute + ".max", nanos.getMax() / 1e9);
+            }
+        });
+        return values;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        final Object value = collect().get(attribute);
+        if (value == null) throw new AttributeNotFoundException(attribute);
+        return value;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only");
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        final Map<String, Object> values = collect();
+        final AttributeList result = new AttributeList();
+        for (String attribute : attributes) {
+            final Object value = values.get(attribute);
+            if (value != null) {
+                result.add(new Attribute(attribute, value));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName), "Metrics have no operations");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        final Map<String, Object> values = collect();
+        final MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+        int i = 0;
+        for (String name : values.keySet()) {
+            attributes[i++] = new MBeanAttributeInfo(name, Double.class.getName(), name, true, false, false);
+        }
+        return new MBeanInfo(JmxMetrics.class.getName(), "Metrics of the game core", attributes, null, new MBeanOperationInfo[0], null);
+    }
+}
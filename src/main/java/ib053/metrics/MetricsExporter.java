@@ -0,0 +1,126 @@
+package ib053.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import ib053.core.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes {@link Metrics} available for monitoring, through JMX, HTTP or a file.
+ *
+ * All exports run on their own threads and only read the metrics, so they don't slow the event loop down.
+ */
+public final class MetricsExporter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsExporter.class);
+
+    private final Metrics metrics;
+
+    private boolean mBeanRegistered = false;
+    private HttpServer httpServer = null;
+    private ExecutorService httpExecutor = null;
+    private ScheduledExecutorService fileWriter = null;
+
+    public MetricsExporter(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /** Register {@link JmxMetrics} in the platform MBean server, under {@link JmxMetrics#OBJECT_NAME}. */
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new JmxMetrics(metrics), JmxMetrics.objectName());
+            mBeanRegistered = true;
+        } catch (JMException e) {
+            LOG.warn("Failed to register metrics MBean", e);
+        }
+    }
+
+    /** Serve metrics in {@link PrometheusFormat} at http://address/metrics, on its own thread. */
+    public void serveHttp(InetSocketAddress address) throws IOException {
+        final HttpServer server = HttpServer.create(address, 0);
+        server.createContext("/metrics", exchange -> {
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                final byte[] body = PrometheusFormat.format(metrics).getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", PrometheusFormat.CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+        final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "MetricsHttp");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.start();
+        httpServer = server;
+        httpExecutor = executor;
+        LOG.info("Serving metrics at http://{}:{}/metrics", address.getHostString(), server.getAddress().getPort());
+    }
+
+    /** Write metrics in {@link PrometheusFormat} into the file every interval.
+     * The file is replaced atomically, so that readers (like the node exporter's textfile collector) never see it half written. */
+    public void writeFile(File file, long interval, TimeUnit unit) {
+        final File temporaryFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        fileWriter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "MetricsFile");
+            thread.setDaemon(true);
+            return thread;
+        });
+        fileWriter.scheduleWithFixedDelay(() -> {
+            try {
+                Files.write(temporaryFile.toPath(), PrometheusFormat.format(metrics).getBytes(StandardCharsets.UTF_8));
+                Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                LOG.warn("Failed to write metrics to {}", file, e);
+            }
+        }, 0, interval, unit);
+        LOG.info("Writing metrics to {} every {} ms", file, unit.toMillis(interval));
+    }
+
+    /** Stop all exports. */
+    public void close() {
+        if (mBeanRegistered) {
+            mBeanRegistered = false;
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                server.unregisterMBean(JmxMetrics.objectName());
+            } catch (JMException e) {
+                LOG.warn("Failed to unregister metrics MBean", e);
+            }
+        }
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpExecutor.shutdown();
+            httpServer = null;
+            httpExecutor = null;
+        }
+        if (fileWriter != null) {
+            fileWriter.shutdown();
+            fileWriter = null;
+        }
+    }
+}
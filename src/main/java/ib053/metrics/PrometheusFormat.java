@@ -0,0 +1,119 @@
+package ib053.metrics;
+
+import ib053.core.Metrics;
+import ib053.util.Histogram;
+
+import java.util.Locale;
+
+/**
+ * Formats {@link Metrics} in the Prometheus text exposition format (version 0.0.4).
+ *
+ * Histograms are written as cumulative Prometheus histograms in seconds, with fixed buckets from 1 µs to 10 s.
+ * Because {@link Histogram} buckets don't align with them exactly, bucket counts may be a few percent lower than exact.
+ */
+public final class PrometheusFormat implements Metrics.Sink {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /** Upper bounds of written buckets in nanoseconds: 1, 2 and 5 of each decade */
+    private static final long[] BUCKETS = new long[3 * 7 + 1];
+    /** {@link #BUCKETS} in seconds, as written in le label */
+    private static final String[] BUCKET_LABELS = new String[BUCKETS.length];
+    static {
+        final long[] steps = {1, 2, 5};
+        long decade = 1000;
+        for (int i = 0; i < BUCKETS.length; i++) {
+            BUCKETS[i] = steps[i % 3] * decade;
+            BUCKET_LABELS[i] = number(BUCKETS[i] / 1e9);
+            if (i % 3 == 2) decade *= 10;
+        }
+    }
+
+    private final StringBuilder out = new StringBuilder();
+    private String name;
+    private String label;
+
+    private PrometheusFormat() {}
+
+    /** @return all metrics of given core in the text format */
+    public static String format(Metrics metrics) {
+        final PrometheusFormat format = new PrometheusFormat();
+        metrics.collect(format);
+        return format.out.toString();
+    }
+
+    @Override
+    public void family(String name, Metrics.Kind kind, String help, String label) {
+        this.name = name;
+        this.label = label;
+        out.append("# HELP ").append(name).append(' ');
+        escape(help, false);
+        out.append("\n# TYPE ").append(name).append(' ').append(kind.name().toLowerCase(Locale.ROOT)).append('\n');
+    }
+
+    @Override
+    public void sample(String labelValue, double value) {
+        out.append(name);
+        labels(labelValue, null, null);
+        out.append(' ').append(number(value)).append('\n');
+    }
+
+    @Override
+    public void sample(String labelValue, Histogram.Snapshot nanos) {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            out.append(name).append("_bucket");
+            labels(labelValue, "le", BUCKET_LABELS[i]);
+            out.append(' ').append(nanos.getCountAtOrBelow(BUCKETS[i])).append('\n');
+        }
+        out.append(name).append("_bucket");
+        labels(labelValue, "le", "+Inf");
+        out.append(' ').append(nanos.getCount()).append('\n');
+
+        out.append(name).append("_sum");
+        labels(labelValue, null, null);
+        out.append(' ').append(number(nanos.getSum() / 1e9)).append('\n');
+
+        out.append(name).append("_count");
+        labels(labelValue, null, null);
+        out.append(' ').append(nanos.getCount()).append('\n');
+    }
+
+    /** Write labels of a sample, the family's label and an extra one, if given. */
+    private void labels(String labelValue, String extraLabel, String extraValue) {
+        final boolean hasLabel = label != null && labelValue != null;
+        if (!hasLabel && extraLabel == null) return;
+        out.append('{');
+        if (hasLabel) {
+            out.append(label).append("=\"");
+            escape(labelValue, true);
+            out.append('"');
+        }
+        if (extraLabel != null) {
+            if (hasLabel) out.append(',');
+            out.append(extraLabel).append("=\"").append(extraValue).append('"');
+        }
+        out.append('}');
+    }
+
+    private static String number(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    private void escape(String text, boolean quotes) {
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c == '\\') {
+                out.append("\\\\");
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else if (c == '"' && quotes) {
+                out.append("\\\"");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package ib053.tools;
+
+import ib053.core.GameCore;
+import ib053.frontend.bots.BotFrontend;
+import ib053.util.Histogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Load generator, which runs the game with a {@link BotFrontend} and reports how it copes.
+ *
+ * Prints actions per second, percentiles of the event loop lag, heap usage and garbage collections
+ * of every reporting interval, then a summary of the whole run.
+ *
+ * Takes the resources:, shards:, scheduler: and timer-tick: arguments of {@link ib053.ServerMain}, and:
+ * <ul>
+ *     <li>bots:N - amount of bots (default 1000)</li>
+ *     <li>think:ms - average delay between actions of one bot (default 1000)</li>
+ *     <li>duration:s - how long to run (default 60)</li>
+ *     <li>report:s - length of the reporting interval (default 5)</li>
+ *     <li>state:folder - keep the state (and the bots) there, otherwise a temporary folder is used and deleted</li>
+ * </ul>
+ */
+public class BotSwarm {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final Map<String, String> arguments = new HashMap<>();
+        for (String arg : args) {
+            int splitIndex = arg.indexOf(':');
+            if (splitIndex == -1) {
+                arguments.put(arg, null);
+            } else {
+                arguments.put(arg.substring(0, splitIndex), arg.substring(splitIndex + 1));
+            }
+        }
+
+        final int bots = Integer.parseInt(arguments.getOrDefault("bots", "1000"));
+        final long think = Long.parseLong(arguments.getOrDefault("think", "1000"));
+        final long duration = Long.parseLong(arguments.getOrDefault("duration", "60"));
+        final long report = Long.parseLong(arguments.getOrDefault("report", "5"));
+
+        final GameCore.Settings settings = new GameCore.Settings();
+        settings.shards = Integer.parseInt(arguments.getOrDefault("shards", Integer.toString(settings.shards)));
+        if (arguments.containsKey("scheduler")) {
+            settings.scheduler = GameCore.Settings.Scheduler.valueOf(arguments.get("scheduler").toUpperCase().replace('-', '_'));
+        }
+        settings.timerTickMillis = Integer.parseInt(arguments.getOrDefault("timer-tick", Integer.toString(settings.timerTickMillis)));
+
+        final boolean temporaryState = !arguments.containsKey("state");
+        final File stateFolder = temporaryState ? Files.createTempDirectory("ib053-bots").toFile() : new File(arguments.get("state"));
+        // Journal of a throwaway state would only measure the disk
+        settings.journal = !temporaryState && Boolean.parseBoolean(arguments.getOrDefault("journal", Boolean.toString(settings.journal)));
+
+        final BotFrontend frontend = new BotFrontend(bots, "Bot ", think);
+        final GameCore core = new GameCore(new File(arguments.getOrDefault("resources", "resources")), stateFolder, settings, frontend);
+        if (!frontend.awaitStart(1, TimeUnit.MINUTES)) {
+            System.err.println("Bots did not start");
+            core.shutdown();
+            System.exit(1);
+            return;
+        }
+
+        System.out.printf("%d bots, think time %d ms, %d shard(s), %s scheduler%n", frontend.getBotCount(), think, settings.shards, settings.scheduler);
+        System.out.println("   time  actions/s   events/s   lag p50    p90      p99      p99.9    max      heap used/committed   GCs  GC time");
+
+        final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        final Histogram.Snapshot startLag = frontend.getLag().snapshot();
+        final long startNanos = System.nanoTime();
+        final long startActions = frontend.getActions();
+        final long startEvents = frontend.getEvents();
+        final long startGcCount = gcCount(collectors), startGcMillis = gcMillis(collectors);
+
+        Histogram.Snapshot lastLag = startLag;
+        long lastNanos = startNanos, lastActions = startActions, lastEvents = startEvents;
+        long lastGcCount = startGcCount, lastGcMillis = startGcMillis;
+        final long endNanos = startNanos + TimeUnit.SECONDS.toNanos(duration);
+        while (System.nanoTime() < endNanos) {
+            Thread.sleep(Math.min(TimeUnit.SECONDS.toMillis(report), Math.max(1, TimeUnit.NANOSECONDS.toMillis(endNanos - System.nanoTime()))));
+
+            final long now = System.nanoTime();
+            final Histogram.Snapshot lag = frontend.getLag().snapshot();
+            final long actions = frontend.getActions();
+            final long events = frontend.getEvents();
+            final long gcCount = gcCount(collectors), gcMillis = gcMillis(collectors);
+            printLine(TimeUnit.NANOSECONDS.toSeconds(now - startNanos) + "s", now - lastNanos,
+                    actions - lastActions, events - lastEvents, lag.since(lastLag), gcCount - lastGcCount, gcMillis - lastGcMillis);
+            lastNanos = now;
+            lastActions = actions;
+            lastEvents = events;
+            lastLag = lag;
+            lastGcCount = gcCount;
+            lastGcMillis = gcMillis;
+        }
+
+        printLine("total", lastNanos - startNanos, lastActions - startActions, lastEvents - startEvents,
+                lastLag.since(startLag), lastGcCount - startGcCount, lastGcMillis - startGcMillis);
+
+        frontend.stop();
+        core.shutdown();
+        if (temporaryState) {
+            try (Stream<Path> files = Files.walk(stateFolder.toPath())) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static void printLine(String time, long nanos, long actions, long events, Histogram.Snapshot lag, long gcCount, long gcMillis) {
+        final double seconds = nanos / 1e9;
+        final MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        System.out.printf("%7s %10.0f %10.0f %8.2f %8.2f %8.2f %8.2f %8.2f %8d/%-8d MiB %5d %5d ms%n",
+                time, actions / seconds, events / seconds,
+                millis(lag.getValueAt(0.5)), millis(lag.getValueAt(0.9)), millis(lag.getValueAt(0.99)),
+                millis(lag.getValueAt(0.999)), millis(lag.getMax()),
+                heap.getUsed() >> 20, heap.getCommitted() >> 20, gcCount, gcMillis);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static long gcCount(List<GarbageCollectorMXBean> collectors) {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis(List<GarbageCollectorMXBean> collectors) {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+}
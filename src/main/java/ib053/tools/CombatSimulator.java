@@ -0,0 +1,479 @@
+package ib053.tools;
+
+import com.esotericsoftware.jsonbeans.JsonReader;
+import com.esotericsoftware.jsonbeans.JsonValue;
+import ib053.core.*;
+import ib053.core.activities.BeingDeadActivity;
+import ib053.core.activities.CombatRules;
+import ib053.core.activities.LevelUpActivity;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Monte-Carlo simulator of fights between players and enemies, for balancing.
+ *
+ * Plays out fights with the {@link CombatRules} of the game over a grid of player levels, attribute builds,
+ * equipment and enemies of the world, on a {@link ForkJoinPool}. Every chunk of fights gets its own {@link RandomStream},
+ * derived from the seed, so the results don't depend on the amount of threads or on their scheduling.
+ * Writes one CSV row per combination: outcome rates, time to kill, damage distributions and experience per minute.
+ *
+ * The player always attacks, unless told to flee at low health, and reacts to their turn after a fixed delay.
+ * Every fight starts at full health, experience per minute counts the time to look for the next enemy
+ * and the eternity spent dead after lost fights.
+ *
+ * Takes the resources: argument of {@link ib053.ServerMain}, and:
+ * <ul>
+ *     <li>levels:1-10 - player levels, ranges and single levels separated by commas (default 1-10)</li>
+ *     <li>builds:balanced,strength,... - how the virtue points of levels are spent (default all builds)</li>
+ *     <li>items:1,3 - equippable items to try, every combination of at most one item of each type is a loadout (default all)</li>
+ *     <li>enemies:1,2 - enemies to fight (default all)</li>
+ *     <li>fights:N - fights of each combination (default 20000)</li>
+ *     <li>reaction:s - time in which the player acts on their turn (default 1)</li>
+ *     <li>flee:fraction - flee when health is below this fraction of maximum (default 0, never)</li>
+ *     <li>seed:N - seed of the random numbers, random by default</li>
+ *     <li>threads:N - parallelism (default all processors)</li>
+ *     <li>out:file - where to write the CSV (default standard output)</li>
+ * </ul>
+ */
+public class CombatSimulator {
+
+    /** Turns after which a fight is given up as unresolved, when neither side can hurt the other */
+    private static final int MAX_TURNS = 10_000;
+    /** Fights played by one task with one random stream */
+    private static final int CHUNK = 4096;
+
+    private static final String HEADER = "level,build,equipment,enemy,fights,win_rate,death_rate,flee_rate,unresolved_rate,"
+            + "ttk_mean_s,ttk_p50_s,ttk_p90_s,ttk_p99_s,"
+            + "damage_taken_mean,damage_taken_p50,damage_taken_p90,damage_taken_p99,"
+            + "hit_rate,hit_damage_mean,hit_damage_p50,hit_damage_p99,"
+            + "enemy_hit_rate,enemy_hit_damage_mean,enemy_hit_damage_p50,enemy_hit_damage_p99,"
+            + "xp_per_minute,minutes_to_level";
+
+    public static void main(String[] args) throws IOException {
+        final Map<String, String> arguments = new HashMap<>();
+        for (String arg : args) {
+            int splitIndex = arg.indexOf(':');
+            if (splitIndex == -1) {
+                arguments.put(arg, null);
+            } else {
+                arguments.put(arg.substring(0, splitIndex), arg.substring(splitIndex + 1));
+            }
+        }
+
+        final File resources = new File(arguments.getOrDefault("resources", "resources"));
+        final List<Enemy> enemies = new ArrayList<>();
+        for (JsonValue value : new JsonReader().parse(new File(resources, "enemies.json"))) {
+            enemies.add(Enemy.read(value));
+        }
+        final List<Item> items = new ArrayList<>();
+        for (JsonValue value : new JsonReader().parse(new File(resources, "items.json"))) {
+            final Item item = Item.read(value);
+            if (item.type.canEquip) items.add(item);
+        }
+        enemies.sort(Comparator.comparingLong(enemy -> enemy.id));
+        items.sort(Comparator.comparingLong(item -> item.id));
+
+        if (arguments.containsKey("enemies")) {
+            final Set<Long> ids = parseIds(arguments.get("enemies"));
+            enemies.removeIf(enemy -> !ids.contains(enemy.id));
+        }
+        if (arguments.containsKey("items")) {
+            final Set<Long> ids = parseIds(arguments.get("items"));
+            items.removeIf(item -> !ids.contains(item.id));
+        }
+        final List<Build> builds = new ArrayList<>();
+        if (arguments.containsKey("builds")) {
+            for (String build : arguments.get("builds").split(",")) {
+                builds.add(Build.valueOf(build.trim().toUpperCase()));
+            }
+        } else {
+            builds.addAll(Arrays.asList(Build.values()));
+        }
+        final int[] levels = parseLevels(arguments.getOrDefault("levels", "1-10"));
+        final List<Loadout> loadouts = Loadout.combinations(items);
+
+        final int fights = Integer.parseInt(arguments.getOrDefault("fights", "20000"));
+        final double reaction = Double.parseDouble(arguments.getOrDefault("reaction", "1"));
+        final float flee = Float.parseFloat(arguments.getOrDefault("flee", "0"));
+        final long seed = arguments.containsKey("seed") ? Long.parseLong(arguments.get("seed")) : RandomUtil.random().nextLong();
+        final int threads = Integer.parseInt(arguments.getOrDefault("threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+        if (fights <= 0 || reaction < 0 || threads <= 0) {
+            System.err.println("Usage: CombatSimulator [resources:<folder>] [levels:1-10] [builds:<build>,...] [items:<id>,...] [enemies:<id>,...] [fights:<N>] [reaction:<s>] [flee:<fraction>] [seed:<N>] [threads:<N>] [out:<file>]");
+            System.exit(1);
+            return;
+        }
+
+        final List<Cell> cells = new ArrayList<>();
+        for (int level : levels) {
+            for (Build build : builds) {
+                for (Loadout loadout : loadouts) {
+                    final Attributes player = Attributes.combinationOf(build.attributes(level)).and(loadout.attributes);
+                    for (Enemy enemy : enemies) {
+                        cells.add(new Cell(level, build, loadout, player, enemy,
+                                RandomStream.seed(seed, cells.size()), reaction, Math.round(flee * player.getMaxHealth())));
+                    }
+                }
+            }
+        }
+        System.err.println("Simulating "+fights+" fights of "+cells.size()+" combinations on "+threads+" threads, seed:"+seed);
+
+        final String out = arguments.get("out");
+        final long startTime = System.nanoTime();
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(out == null
+                ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+                : new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.UTF_8)))) {
+            final List<Fights> tasks = new ArrayList<>(cells.size());
+            for (Cell cell : cells) {
+                tasks.add((Fights) pool.submit(new Fights(cell, 0, fights)));
+            }
+
+            writer.println(HEADER);
+            for (Fights task : tasks) {
+                // Rows are written in order, as soon as they are done
+                task.cell.write(writer, task.join());
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        final double seconds = (System.nanoTime() - startTime) / 1e9;
+        final long totalFights = (long) fights * cells.size();
+        System.err.printf(Locale.ROOT, "Simulated %d fights in %.1f s (%.0f fights per second)%n", totalFights, seconds, totalFights / seconds);
+    }
+
+    private static Set<Long> parseIds(String ids) {
+        final Set<Long> result = new HashSet<>();
+        for (String id : ids.split(",")) {
+            result.add(Long.parseLong(id.trim()));
+        }
+        return result;
+    }
+
+    private static int[] parseLevels(String levels) {
+        final TreeSet<Integer> result = new TreeSet<>();
+        for (String range : levels.split(",")) {
+            final int dash = range.indexOf('-');
+            if (dash == -1) {
+                result.add(Integer.parseInt(range.trim()));
+            } else {
+                final int to = Integer.parseInt(range.substring(dash + 1).trim());
+                for (int level = Integer.parseInt(range.substring(0, dash).trim()); level <= to; level++) {
+                    result.add(level);
+                }
+            }
+        }
+        return result.stream().mapToInt(Integer::intValue).filter(level -> level >= 1).toArray();
+    }
+
+    private static String csv(String value) {
+        if (value.indexOf(',') == -1 && value.indexOf('"') == -1 && value.indexOf('\n') == -1) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /** How the player spends virtue points gained by levelling up */
+    private enum Build {
+        /** Points go to each attribute in turn */
+        BALANCED(Attribute.STRENGTH, Attribute.DEXTERITY, Attribute.AGILITY, Attribute.STAMINA),
+        STRENGTH(Attribute.STRENGTH),
+        DEXTERITY(Attribute.DEXTERITY),
+        AGILITY(Attribute.AGILITY),
+        STAMINA(Attribute.STAMINA);
+
+        private final Attribute[] order;
+
+        Build(Attribute... order) {
+            this.order = order;
+        }
+
+        /** @return attributes of a player on given level, who started as new player of {@link GameCore} and spent points like this */
+        Attributes attributes(int level) {
+            final Attributes attributes = new Attributes(true);
+            attributes.set(Attribute.LEVEL, level);
+            attributes.set(Attribute.STRENGTH, 5);
+            attributes.set(Attribute.DEXTERITY, 5);
+            attributes.set(Attribute.AGILITY, 5);
+            attributes.set(Attribute.LUCK, 5);
+            attributes.set(Attribute.STAMINA, 5);
+            final int points = (level - 1) * LevelUpActivity.VIRTUE_POINTS_PER_LEVEL;
+            for (int i = 0; i < points; i++) {
+                attributes.add(order[i % order.length], 1);
+            }
+            return attributes;
+        }
+    }
+
+    /** Equipment worn by the player, at most one item of each type */
+    private static final class Loadout {
+        final String name;
+        final Attributes attributes;
+
+        Loadout(String name, Attributes attributes) {
+            this.name = name;
+            this.attributes = attributes;
+        }
+
+        /** @return every combination of the items, with at most one item of each type, including none at all */
+        static List<Loadout> combinations(List<Item> items) {
+            final EnumMap<Item.ItemType, List<Item>> byType = new EnumMap<>(Item.ItemType.class);
+            for (Item item : items) {
+                byType.computeIfAbsent(item.type, type -> new ArrayList<>()).add(item);
+            }
+
+            List<List<Item>> combinations = Collections.singletonList(Collections.emptyList());
+            for (List<Item> ofType : byType.values()) {
+                final List<List<Item>> extended = new ArrayList<>(combinations);
+                for (List<Item> combination : combinations) {
+                    for (Item item : ofType) {
+                        final List<Item> with = new ArrayList<>(combination);
+                        with.add(item);
+                        extended.add(with);
+                    }
+                }
+                combinations = extended;
+            }
+
+            final List<Loadout> result = new ArrayList<>(combinations.size());
+            for (List<Item> combination : combinations) {
+                final Attributes attributes = new Attributes(true);
+                final StringJoiner name = new StringJoiner(" + ");
+                for (Item item : combination) {
+                    attributes.and(item.attributes);
+                    name.add(item.name);
+                }
+                result.add(new Loadout(combination.isEmpty() ? "none" : name.toString(), attributes));
+            }
+            return result;
+        }
+    }
+
+    /** One combination of the grid */
+    private static final class Cell {
+        final int level;
+        final Build build;
+        final Loadout loadout;
+        final AttributeHolder player;
+        final Enemy enemy;
+        /** Seed from which streams of the chunks are derived */
+        final long seed;
+        final double reaction;
+        /** Player flees when below this health */
+        final int fleeBelow;
+
+        Cell(int level, Build build, Loadout loadout, AttributeHolder player, Enemy enemy, long seed, double reaction, int fleeBelow) {
+            this.level = level;
+            this.build = build;
+            this.loadout = loadout;
+            this.player = player;
+            this.enemy = enemy;
+            this.seed = seed;
+            this.reaction = reaction;
+            this.fleeBelow = fleeBelow;
+        }
+
+        /** Play out one fight, like {@link ib053.core.activities.FightingActivity} would */
+        void fight(Tally tally) {
+            final AttributeHolder player = this.player;
+            final AttributeHolder enemy = this.enemy;
+            int health = player.getMaxHealth();
+            int enemyHealth = enemy.getMaxHealth();
+            int enemyInitiative = CombatRules.initiative(enemy, player);
+            int playerInitiative = CombatRules.initiative(player, enemy);
+            double seconds = 0;
+            int damageTaken = 0;
+
+            for (int turn = 0; turn < MAX_TURNS; turn++) {
+                if (CombatRules.enemyActsFirst(enemyInitiative, playerInitiative, enemy, player)) {
+                    playerInitiative += CombatRules.initiative(player, enemy);
+                    final int damage = CombatRules.resolveAttack(enemy, player);
+                    tally.enemyAttacks++;
+                    if (damage > 0) tally.enemyHitDamage.record(damage);
+                    health -= damage;
+                    damageTaken += damage;
+                    if (health <= 0) {
+                        tally.deaths++;
+                        tally.end(seconds, damageTaken);
+                        return;
+                    }
+                } else {
+                    seconds += reaction;
+                    if (health < fleeBelow) {
+                        if (CombatRules.flee(player, enemy)) {
+                            tally.fled++;
+                            tally.end(seconds, damageTaken);
+                            return;
+                        }
+                        enemyInitiative += CombatRules.initiative(enemy, player);
+                    } else {
+                        enemyInitiative += CombatRules.initiative(enemy, player);
+                        final int damage = CombatRules.resolveAttack(player, enemy);
+                        tally.playerAttacks++;
+                        if (damage > 0) tally.playerHitDamage.record(damage);
+                        enemyHealth -= damage;
+                        if (enemyHealth <= 0) {
+                            tally.wins++;
+                            tally.timeToKill.record((int) Math.round(seconds * 10));
+                            tally.end(seconds, damageTaken);
+                            return;
+                        }
+                    }
+                }
+                seconds += CombatRules.TURN_DELAY_SECONDS;
+            }
+            tally.unresolved++;
+            tally.end(seconds, damageTaken);
+        }
+
+        void write(PrintWriter out, Tally tally) {
+            final double fights = tally.fights;
+            // Looking for the next enemy takes one reaction, death an eternity
+            final double sessionSeconds = tally.seconds + fights * reaction + tally.deaths * (BeingDeadActivity.ETERNITY_MS / 1000.0);
+            final double xpPerMinute = tally.wins * (double) enemy.killExperience * 60.0 / sessionSeconds;
+            out.print(level);
+            out.print(',');
+            out.print(build.name().toLowerCase());
+            out.print(',');
+            out.print(csv(loadout.name));
+            out.print(',');
+            out.print(csv(enemy.name));
+            out.print(',');
+            out.print(tally.fights);
+            out.printf(Locale.ROOT, ",%.4f,%.4f,%.4f,%.4f",
+                    tally.wins / fights, tally.deaths / fights, tally.fled / fights, tally.unresolved / fights);
+            out.printf(Locale.ROOT, ",%.2f,%.1f,%.1f,%.1f",
+                    tally.timeToKill.mean() / 10, tally.timeToKill.valueAt(0.5) / 10.0, tally.timeToKill.valueAt(0.9) / 10.0, tally.timeToKill.valueAt(0.99) / 10.0);
+            out.printf(Locale.ROOT, ",%.2f,%d,%d,%d",
+                    tally.damageTaken.mean(), tally.damageTaken.valueAt(0.5), tally.damageTaken.valueAt(0.9), tally.damageTaken.valueAt(0.99));
+            out.printf(Locale.ROOT, ",%.4f,%.2f,%d,%d",
+                    tally.playerHitDamage.count / (double) Math.max(1, tally.playerAttacks), tally.playerHitDamage.mean(),
+                    tally.playerHitDamage.valueAt(0.5), tally.playerHitDamage.valueAt(0.99));
+            out.printf(Locale.ROOT, ",%.4f,%.2f,%d,%d",
+                    tally.enemyHitDamage.count / (double) Math.max(1, tally.enemyAttacks), tally.enemyHitDamage.mean(),
+                    tally.enemyHitDamage.valueAt(0.5), tally.enemyHitDamage.valueAt(0.99));
+            out.printf(Locale.ROOT, ",%.3f,%.1f%n", xpPerMinute, player.getXpToNextLevel() / xpPerMinute);
+        }
+    }
+
+    /** Plays fights of one cell, forking into chunks of at most {@link #CHUNK} fights */
+    private static final class Fights extends RecursiveTask<Tally> {
+        private static final long serialVersionUID = 1L;
+
+        final Cell cell;
+        final int from, to;
+
+        Fights(Cell cell, int from, int to) {
+            this.cell = cell;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Tally compute() {
+            if (to - from > CHUNK) {
+                // Split on whole chunks, so that the streams are the same however the work is divided
+                final int middle = from + Math.max(1, (to - from) / CHUNK / 2) * CHUNK;
+                final Fights first = new Fights(cell, from, middle);
+                first.fork();
+                final Tally tally = new Fights(cell, middle, to).compute();
+                tally.add(first.join());
+                return tally;
+            }
+
+            final Tally tally = new Tally();
+            final RandomStream previous = RandomUtil.use(new RandomStream(RandomStream.seed(cell.seed, from)));
+            try {
+                for (int i = from; i < to; i++) {
+                    cell.fight(tally);
+                }
+            } finally {
+                RandomUtil.use(previous);
+            }
+            return tally;
+        }
+    }
+
+    /** Results of some fights of one cell */
+    private static final class Tally {
+        long fights, wins, deaths, fled, unresolved;
+        /** Duration of all fights */
+        double seconds;
+        long playerAttacks, enemyAttacks;
+        /** Duration of won fights, in tenths of a second */
+        final Distribution timeToKill = new Distribution();
+        final Distribution damageTaken = new Distribution();
+        final Distribution playerHitDamage = new Distribution();
+        final Distribution enemyHitDamage = new Distribution();
+
+        void end(double seconds, int damageTaken) {
+            this.fights++;
+            this.seconds += seconds;
+            this.damageTaken.record(damageTaken);
+        }
+
+        void add(Tally other) {
+            fights += other.fights;
+            wins += other.wins;
+            deaths += other.deaths;
+            fled += other.fled;
+            unresolved += other.unresolved;
+            seconds += other.seconds;
+            playerAttacks += other.playerAttacks;
+            enemyAttacks += other.enemyAttacks;
+            timeToKill.add(other.timeToKill);
+            damageTaken.add(other.damageTaken);
+            playerHitDamage.add(other.playerHitDamage);
+            enemyHitDamage.add(other.enemyHitDamage);
+        }
+    }
+
+    /** Exact counts of small non-negative ints, larger values are counted as {@link #MAX_VALUE} */
+    private static final class Distribution {
+        private static final int MAX_VALUE = 1 << 20;
+
+        long[] counts = new long[64];
+        long count;
+        long sum;
+
+        void record(int value) {
+            if (value < 0) value = 0;
+            if (value > MAX_VALUE) value = MAX_VALUE;
+            if (value >= counts.length) {
+                counts = Arrays.copyOf(counts, Math.min(MAX_VALUE + 1, Integer.highestOneBit(value) << 1));
+            }
+            counts[value]++;
+            count++;
+            sum += value;
+        }
+
+        void add(Distribution other) {
+            if (other.counts.length > counts.length) {
+                counts = Arrays.copyOf(counts, other.counts.length);
+            }
+            for (int i = 0; i < other.counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            count += other.count;
+            sum += other.sum;
+        }
+
+        double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /** @return smallest value, at or below which is at least the quantile of the values */
+        int valueAt(double quantile) {
+            if (count == 0) return 0;
+            final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int value = 0; value < counts.length; value++) {
+                seen += counts[value];
+                if (seen >= rank) return value;
+            }
+            return counts.length - 1;
+        }
+    }
+}
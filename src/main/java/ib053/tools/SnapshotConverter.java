@@ -0,0 +1,50 @@
+package ib053.tools;
+
+import ib053.core.GameCore;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Converts saved players and activities between {@link GameCore.Settings.SnapshotFormat}s.
+ *
+ * Loads the state like the server would (including the journal), without any frontends, and saves it in the target format.
+ * Takes the same resources: and state: arguments as {@link ib053.ServerMain} and to:json or to:binary.
+ */
+public class SnapshotConverter {
+
+    public static void main(String[] args) {
+        final Map<String, String> arguments = new HashMap<>();
+        for (String arg : args) {
+            int splitIndex = arg.indexOf(':');
+            if (splitIndex == -1) {
+                arguments.put(arg, null);
+            } else {
+                arguments.put(arg.substring(0, splitIndex), arg.substring(splitIndex + 1));
+            }
+        }
+
+        final String to = arguments.get("to");
+        if (to == null) {
+            System.err.println("Usage: SnapshotConverter [resources:<folder>] [state:<folder>] to:json|binary");
+            System.exit(1);
+            return;
+        }
+
+        final GameCore.Settings settings = new GameCore.Settings();
+        settings.snapshotFormat = GameCore.Settings.SnapshotFormat.valueOf(to.toUpperCase());
+
+        final GameCore core = new GameCore(
+                new File(arguments.getOrDefault("resources", "resources")),
+                new File(arguments.getOrDefault("state", "state")),
+                settings);
+        if (!core.isLoaded()) {
+            System.err.println("Failed to load the state, nothing converted");
+            core.shutdown();
+            System.exit(1);
+            return;
+        }
+        core.shutdown();
+    }
+}
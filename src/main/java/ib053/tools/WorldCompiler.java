@@ -0,0 +1,41 @@
+package ib053.tools;
+
+import ib053.core.GameCore;
+import ib053.core.PersistenceUtil;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compiles the world files of the resource folder into a binary image, which the server loads instead of them,
+ * for as long as they don't change. Run it whenever the world files are edited, see {@link GameCore#compileWorld(File)}.
+ *
+ * Takes the same resources: argument as {@link ib053.ServerMain}.
+ */
+public class WorldCompiler {
+
+    public static void main(String[] args) {
+        final Map<String, String> arguments = new HashMap<>();
+        for (String arg : args) {
+            int splitIndex = arg.indexOf(':');
+            if (splitIndex == -1) {
+                arguments.put(arg, null);
+            } else {
+                arguments.put(arg.substring(0, splitIndex), arg.substring(splitIndex + 1));
+            }
+        }
+
+        final File resources = new File(arguments.getOrDefault("resources", "resources"));
+        final long startTime = System.nanoTime();
+        try {
+            GameCore.compileWorld(resources);
+        } catch (PersistenceUtil.PersistenceException e) {
+            System.err.println("Failed to compile world in "+resources+": "+e);
+            e.printStackTrace();
+            System.exit(1);
+            return;
+        }
+        System.out.println("Compiled world in "+resources+" in "+(System.nanoTime() - startTime) / 1_000_000+" ms");
+    }
+}
@@ -0,0 +1,86 @@
+package ib053.util;
+
+/**
+ * Samples indices with given weights in O(1), by Vose's alias method.
+ *
+ * Each index owns one column of equal height. The column is filled partly by its own weight
+ * and the rest by an alias, an index with more weight than fits its own column.
+ * Sampling picks a column and then either its index or its alias, both from a single uniform number.
+ *
+ * Immutable, so it may be sampled from any thread.
+ */
+public final class AliasTable {
+
+    /** Probability of choosing the column's own index instead of its alias, for each column */
+    private final double[] probabilities;
+    /** Index chosen instead of the column's own */
+    private final int[] aliases;
+
+    /** @param weights non-negative, at least one must be positive */
+    public AliasTable(double[] weights) {
+        final int n = weights.length;
+        if (n == 0) throw new IllegalArgumentException("There must be at least one weight");
+        double sum = 0;
+        for (double weight : weights) {
+            if (!(weight >= 0) || Double.isInfinite(weight)) throw new IllegalArgumentException("Invalid weight "+weight);
+            sum += weight;
+        }
+        if (sum <= 0) throw new IllegalArgumentException("At least one weight must be positive");
+
+        probabilities = new double[n];
+        aliases = new int[n];
+
+        // Weights scaled so that the average is 1, columns below 1 are small and take an alias from the large ones
+        final double[] scaled = new double[n];
+        final int[] small = new int[n];
+        final int[] large = new int[n];
+        int smallCount = 0, largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / sum;
+            if (scaled[i] < 1) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+
+        while (smallCount > 0 && largeCount > 0) {
+            final int less = small[--smallCount];
+            final int more = large[--largeCount];
+            probabilities[less] = scaled[less];
+            aliases[less] = more;
+            scaled[more] = (scaled[more] + scaled[less]) - 1;
+            if (scaled[more] < 1) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+        // What remains is 1 up to rounding errors
+        while (largeCount > 0) {
+            final int index = large[--largeCount];
+            probabilities[index] = 1;
+            aliases[index] = index;
+        }
+        while (smallCount > 0) {
+            final int index = small[--smallCount];
+            probabilities[index] = 1;
+            aliases[index] = index;
+        }
+    }
+
+    /** @return amount of indices */
+    public int size() {
+        return probabilities.length;
+    }
+
+    /** @param uniform random number from 0 (inclusive) to 1 (exclusive)
+     * @return index from 0 to {@link #size()} (exclusive), chosen with probability proportional to its weight */
+    public int sample(double uniform) {
+        final double scaled = uniform * probabilities.length;
+        int column = (int) scaled;
+        if (column >= probabilities.length) column = probabilities.length - 1;
+        // Fractional part is uniform as well and independent of the column
+        return scaled - column < probabilities[column] ? column : aliases[column];
+    }
+}
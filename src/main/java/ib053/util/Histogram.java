@@ -0,0 +1,131 @@
+package ib053.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative long values (usually nanoseconds), for percentiles of latencies.
+ *
+ * Values are counted in log-linear buckets: each power of two is split into {@link #SUB_BUCKETS} buckets,
+ * so reported values are at most about 6% off. Recording is one atomic increment of the bucket, and an add
+ * to a {@link LongAdder} of the sum, which every thread would contend on otherwise. Cheap enough to leave on.
+ * Values over 2^{@link #MAX_EXPONENT} are counted in the last bucket.
+ */
+public final class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 44;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    /** Count of each bucket */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    /** Sum of all recorded values */
+    private final LongAdder sum = new LongAdder();
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(bucketOf(value));
+        sum.add(value);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) return BUCKET_COUNT - 1;
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /** @return the highest value which falls into the bucket */
+    static long bucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        final int shift = bucket / SUB_BUCKETS - 1;
+        final long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /** @return copy of the current counts, values may be recorded concurrently */
+    public Snapshot snapshot() {
+        // Last element is the sum
+        final long[] copy = new long[BUCKET_COUNT + 1];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+        }
+        copy[BUCKET_COUNT] = sum.sum();
+        return new Snapshot(copy);
+    }
+
+    /** Counts of a {@link Histogram} at one moment, or between two moments. */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+
+        private Snapshot(long[] counts) {
+            this.counts = counts;
+            long count = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                count += counts[i];
+            }
+            this.count = count;
+        }
+
+        /** @return values recorded after the earlier snapshot of the same histogram, until this one */
+        public Snapshot since(Snapshot earlier) {
+            final long[] difference = new long[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                difference[i] = counts[i] - earlier.counts[i];
+            }
+            return new Snapshot(difference);
+        }
+
+        /** @return amount of recorded values */
+        public long getCount() {
+            return count;
+        }
+
+        /** @return sum of recorded values */
+        public long getSum() {
+            return counts[BUCKET_COUNT];
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) getSum() / count;
+        }
+
+        /** @param quantile from 0 to 1, for example 0.99 for the 99th percentile
+         * @return value which is not exceeded by the quantile of recorded values, 0 if there are none */
+        public long getValueAt(double quantile) {
+            if (count == 0) return 0;
+            final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += counts[i];
+                if (seen >= rank) return bucketUpperBound(i);
+            }
+            return bucketUpperBound(BUCKET_COUNT - 1);
+        }
+
+        /** @return amount of recorded values which are at most the given value.
+         * Values from the bucket in which the given value falls are not counted, unless it is the bucket's upper bound,
+         * so the result may be lower than the exact count, but never higher. */
+        public long getCountAtOrBelow(long value) {
+            if (value < 0) return 0;
+            int bucket = bucketOf(value);
+            if (bucketUpperBound(bucket) != value && bucket != BUCKET_COUNT - 1) bucket--;
+            long seen = 0;
+            for (int i = 0; i <= bucket; i++) {
+                seen += counts[i];
+            }
+            return seen;
+        }
+
+        /** @return upper bound of the highest recorded value, 0 if there are none */
+        public long getMax() {
+            for (int i = BUCKET_COUNT - 1; i >= 0; i--) {
+                if (counts[i] != 0) return bucketUpperBound(i);
+            }
+            return 0;
+        }
+    }
+}
@@ -1,24 +1,234 @@
+import ib053.core.RandomStream;
 import ib053.core.RandomUtil;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
 
 /**
+ * Statistical tests of {@link RandomUtil} and {@link RandomStream}.
  *
+ * Tests on seeded streams are deterministic. Bounds are set so that a correct generator
+ * fails them with probability of about one in a million, chi-squared critical values are for that level.
  */
 public class RandomUtilTest {
 
-    public static void main(String[] args){
-        int sum = 0;
-        final int iterations = 10000;
+    private static final int SAMPLES = 200_000;
+    /** Standard normal quantile for two-sided probability 1e-6 */
+    private static final double Z = 4.89;
+
+    /** Assert that the count of successes is consistent with binomial distribution of given probability */
+    private static void assertBinomial(String what, int successes, int trials, double probability) {
+        final double mean = trials * probability;
+        final double deviation = Math.sqrt(trials * probability * (1 - probability));
+        assertTrue(what + ": " + successes + " of " + trials + ", expected " + mean,
+                Math.abs(successes - mean) <= Z * deviation);
+    }
+
+    /** @return chi-squared statistic of counts against the uniform distribution */
+    private static double chiSquared(int[] counts, int total) {
+        final double expected = (double) total / counts.length;
+        double chi = 0;
+        for (int count : counts) {
+            chi += (count - expected) * (count - expected) / expected;
+        }
+        return chi;
+    }
+
+    @Test
+    public void checkHasGivenProbability() {
+        final RandomStream random = new RandomStream(1);
+        for (float probability : new float[]{0.01f, 0.1f, 0.5f, 0.66666666f, 0.99f}) {
+            int hits = 0;
+            for (int i = 0; i < SAMPLES; i++) {
+                if (random.check(probability)) hits++;
+            }
+            assertBinomial("check(" + probability + ")", hits, SAMPLES, probability);
+        }
+    }
+
+    @Test
+    public void checkOfZeroAndOneIsCertain() {
+        final RandomStream random = new RandomStream(2);
+        for (int i = 0; i < SAMPLES; i++) {
+            assertFalse(random.check(0f));
+            assertTrue(random.check(1f));
+        }
+    }
+
+    @Test
+    public void chooseFirstFollowsWeights() {
+        final RandomStream random = new RandomStream(3);
+        final float[][] weights = {{2, 1}, {1, 1}, {1, 9}, {5, 20}};
+        for (float[] weight : weights) {
+            int first = 0;
+            for (int i = 0; i < SAMPLES; i++) {
+                if (random.chooseFirst(weight[0], weight[1])) first++;
+            }
+            assertBinomial("chooseFirst(" + weight[0] + ", " + weight[1] + ")", first, SAMPLES, weight[0] / (weight[0] + weight[1]));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(random.chooseFirst(0, 3));
+            assertTrue(random.chooseFirst(3, 0));
+        }
+    }
+
+    @Test
+    public void nextFloatIsUniform() {
+        final RandomStream random = new RandomStream(4);
+        final int[] bins = new int[20];
+        for (int i = 0; i < SAMPLES; i++) {
+            final float value = random.nextFloat();
+            assertTrue(value >= 0f && value < 1f);
+            bins[(int) (value * bins.length)]++;
+        }
+        assertTrue(chiSquared(bins, SAMPLES) < 63.68);
+    }
+
+    @Test
+    public void nextIntIsUniform() {
+        final RandomStream random = new RandomStream(5);
+        final int[] bins = new int[10];
+        for (int i = 0; i < SAMPLES; i++) {
+            bins[random.nextInt(bins.length)]++;
+        }
+        assertTrue(chiSquared(bins, SAMPLES) < 44.81);
+    }
+
+    @Test
+    public void gaussianIsStandardNormal() {
+        final RandomStream random = new RandomStream(6);
+        double sum = 0, sumOfSquares = 0;
+        int withinOneDeviation = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            final double value = random.nextGaussian();
+            sum += value;
+            sumOfSquares += value * value;
+            if (Math.abs(value) <= 1) withinOneDeviation++;
+        }
+        final double mean = sum / SAMPLES;
+        final double variance = sumOfSquares / SAMPLES - mean * mean;
+        assertEquals("mean", 0, mean, Z / Math.sqrt(SAMPLES));
+        // Variance of the sample variance of normal distribution is 2/n
+        assertEquals("variance", 1, variance, Z * Math.sqrt(2.0 / SAMPLES));
+        assertBinomial("within one deviation", withinOneDeviation, SAMPLES, 0.682689492);
+    }
 
-        for (int i = 0; i < iterations; i++) {
-            sum += RandomUtil.chooseFirst(2,1) ? 1 : 0;
+    @Test
+    public void shuffleGivesAllPermutationsEqually() {
+        final RandomStream random = new RandomStream(7);
+        // 4 items have 24 permutations, identified by the items in base 4
+        final int[] counts = new int[256];
+        final int[] items = {0, 1, 2, 3};
+        for (int i = 0; i < SAMPLES; i++) {
+            random.shuffle(items);
+            counts[items[0] * 64 + items[1] * 16 + items[2] * 4 + items[3]]++;
+        }
+        final int[] permutationCounts = new int[24];
+        int permutations = 0;
+        for (int count : counts) {
+            if (count > 0) permutationCounts[permutations++] = count;
+        }
+        assertEquals(24, permutations);
+        assertTrue(chiSquared(permutationCounts, SAMPLES) < 70.55);
+    }
+
+    @Test
+    public void shuffleOfTinyArraysWorks() {
+        RandomUtil.shuffle(new int[0]);
+        final int[] one = {42};
+        RandomUtil.shuffle(one);
+        assertEquals(42, one[0]);
+    }
+
+    @Test
+    public void sameSeedGivesSameNumbers() {
+        final RandomStream a = new RandomStream(8);
+        final RandomStream b = new RandomStream(8);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(a.nextLong(), b.nextLong());
+            assertEquals(a.nextGaussian(), b.nextGaussian(), 0);
+        }
+        final RandomStream splitA = a.split();
+        final RandomStream splitB = b.split();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(splitA.nextLong(), splitB.nextLong());
         }
-        System.out.println("chooseFirst: Got: "+((float)sum * 100f/(float)iterations)+"%, expected 66%");
+    }
 
-        sum = 0;
-        for (int i = 0; i < iterations; i++) {
-            sum += RandomUtil.check(0.66666666f) ? 1 : 0;
+    @Test
+    public void splitAndDerivedStreamsDiffer() {
+        final RandomStream parent = new RandomStream(9);
+        final RandomStream child = parent.split();
+        int equal = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (parent.nextLong() == child.nextLong()) equal++;
         }
-        System.out.println("check: Got: "+((float)sum * 100f/(float)iterations)+"%, expected 66%");
+        assertEquals(0, equal);
+
+        final long first = RandomStream.seed(9, 1);
+        assertEquals(first, RandomStream.seed(9, 1));
+        assertNotEquals(first, RandomStream.seed(9, 2));
+        assertNotEquals(first, RandomStream.seed(10, 1));
+    }
+
+    @Test
+    public void useReplacesAndRestoresCurrentStream() {
+        final RandomStream threadStream = RandomUtil.random();
+        final RandomStream seeded = new RandomStream(10);
+        final RandomStream previous = RandomUtil.use(seeded);
+        assertSame(threadStream, previous);
+        assertSame(seeded, RandomUtil.random());
+
+        final RandomStream expected = new RandomStream(10);
+        assertEquals(expected.check(0.5f), RandomUtil.check(0.5f));
+        assertEquals(expected.nextGaussian(), RandomUtil.gaussian(), 0);
+
+        RandomUtil.use(previous);
+        assertSame(threadStream, RandomUtil.random());
+        RandomUtil.use(seeded);
+        RandomUtil.use(null);
+        assertSame(threadStream, RandomUtil.random());
     }
 
+    @Test
+    public void threadsHaveOwnStreams() throws InterruptedException {
+        final RandomStream mine = RandomUtil.random();
+        final AtomicReference<RandomStream> other = new AtomicReference<>();
+        final Thread thread = new Thread(() -> other.set(RandomUtil.random()));
+        thread.start();
+        thread.join();
+        assertNotNull(other.get());
+        assertNotSame(mine, other.get());
+    }
+
+    @Test
+    public void helpersDoNotAllocate() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+
+        final int[] items = {0, 1, 2, 3, 4, 5, 6, 7};
+        int sink = 0;
+        for (int round = 0; round < 3; round++) {
+            final long before = allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+            for (int i = 0; i < 100_000; i++) {
+                if (RandomUtil.check(0.5f)) sink++;
+                if (RandomUtil.chooseFirst(1, 2)) sink++;
+                if (RandomUtil.gaussian() > 0) sink++;
+                RandomUtil.shuffle(items);
+            }
+            final long allocated = allocations.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+            // First rounds may allocate in the class loading and the interpreter, the last one must not
+            if (round == 2) {
+                assertTrue("Allocated " + allocated + " bytes", allocated < 1024);
+            }
+        }
+        assertTrue(sink > 0);
+    }
 }
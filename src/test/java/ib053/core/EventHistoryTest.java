@@ -0,0 +1,237 @@
+package ib053.core;
+
+import com.esotericsoftware.jsonbeans.Json;
+import com.esotericsoftware.jsonbeans.JsonReader;
+import com.esotericsoftware.jsonbeans.JsonValue;
+import com.esotericsoftware.jsonbeans.OutputType;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the ring buffer of {@link EventHistory} and of saving it in both snapshot formats.
+ */
+public class EventHistoryTest {
+
+    private static final Event.Template NUMBERED = Event.Template.of("Event {0} of {1}");
+    private static final Event.Template BITES = Event.Template.of("{enemy} bites for {0}");
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    /** For the enemies of the bundled world */
+    private static GameCore core;
+
+    @BeforeClass
+    public static void startGame() throws IOException {
+        final GameCore.Settings settings = new GameCore.Settings();
+        settings.journal = false;
+        core = TestGame.start(folder.newFolder(), settings);
+    }
+
+    @AfterClass
+    public static void stopGame() {
+        core.shutdown();
+    }
+
+    /** @return history with given amount of numbered events, the event with sequence number s is "Event s of count" */
+    private static EventHistory numbered(int count) {
+        final EventHistory history = new EventHistory();
+        for (int i = 1; i <= count; i++) {
+            history.record(new Event(NUMBERED, i, count));
+        }
+        return history;
+    }
+
+    private static List<String> messages(List<Event> events) {
+        final List<String> messages = new ArrayList<>();
+        for (Event event : events) {
+            messages.add(event.getMessage());
+        }
+        return messages;
+    }
+
+    private static List<String> numberedMessages(int from, int to, int count) {
+        final List<String> messages = new ArrayList<>();
+        for (int i = from; i <= to; i++) {
+            messages.add("Event " + i + " of " + count);
+        }
+        return messages;
+    }
+
+    /** @return all kept events of the history */
+    private static List<String> kept(EventHistory history) {
+        final List<Event> events = new ArrayList<>();
+        history.since(0, events);
+        return messages(events);
+    }
+
+    @Test
+    public void emptyHistory() {
+        final EventHistory history = new EventHistory();
+        assertEquals(1, history.getFirstSequence());
+        assertEquals(1, history.getNextSequence());
+        assertNull(history.get(0));
+        assertNull(history.get(1));
+        final List<Event> events = new ArrayList<>();
+        assertEquals(1, history.since(1, events));
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void eventsGetSequenceNumbers() {
+        final EventHistory history = numbered(3);
+        assertEquals(1, history.getFirstSequence());
+        assertEquals(4, history.getNextSequence());
+        assertEquals("Event 2 of 3", history.get(2).getMessage());
+        assertNull("not yet", history.get(4));
+
+        final List<Event> events = new ArrayList<>();
+        assertEquals(4, history.since(2, events));
+        assertEquals(numberedMessages(2, 3, 3), messages(events));
+
+        events.clear();
+        assertEquals(4, history.since(4, events));
+        assertTrue("nothing newer", events.isEmpty());
+    }
+
+    @Test
+    public void oldestEventsAreOverwritten() {
+        final int count = EventHistory.CAPACITY * 3 + 5;
+        final EventHistory history = numbered(count);
+        final long first = count + 1 - EventHistory.CAPACITY;
+        assertEquals(first, history.getFirstSequence());
+        assertEquals(count + 1, history.getNextSequence());
+        assertNull("overwritten", history.get(first - 1));
+        assertEquals("Event " + first + " of " + count, history.get(first).getMessage());
+        assertEquals("Event " + count + " of " + count, history.get(count).getMessage());
+
+        // Asking for events which are not kept anymore gives all which are
+        final List<Event> events = new ArrayList<>();
+        assertEquals(count + 1, history.since(first - 10, events));
+        assertEquals(numberedMessages((int) first, count, count), messages(events));
+
+        events.clear();
+        history.since(count - 1, events);
+        assertEquals(numberedMessages(count - 1, count, count), messages(events));
+    }
+
+    @Test
+    public void eventsAtWrapAroundOfTheBuffer() {
+        for (int count = EventHistory.CAPACITY - 2; count <= EventHistory.CAPACITY + 2; count++) {
+            final EventHistory history = numbered(count);
+            assertEquals("count " + count, numberedMessages(Math.max(1, count + 1 - EventHistory.CAPACITY), count, count), kept(history));
+        }
+    }
+
+    /** Events of every kind of subject */
+    private static EventHistory mixed(int count) {
+        final Enemy enemy = core.findEnemy(1);
+        assertNotNull(enemy);
+        final EventHistory history = new EventHistory();
+        for (int i = 0; i < count; i++) {
+            switch (i % 3) {
+                case 0:
+                    history.record(new Event(NUMBERED, i, -i));
+                    break;
+                case 1:
+                    history.record(new Event(BITES, enemy, i));
+                    break;
+                default:
+                    history.record(new Event("Ad-hoc message " + i));
+                    break;
+            }
+        }
+        return history;
+    }
+
+    private static EventHistory binaryRoundTrip(EventHistory history) {
+        final SnapshotOutput out = SnapshotOutput.inMemory();
+        EventHistory.writeTemplates(out);
+        EventHistory.write(out, history);
+        final SnapshotInput in = new SnapshotInput(out.contents());
+        return EventHistory.read(in, EventHistory.readTemplates(in), core);
+    }
+
+    private static EventHistory jsonRoundTrip(EventHistory history) {
+        final StringWriter writer = new StringWriter();
+        final Json json = new Json(OutputType.json);
+        json.setWriter(writer);
+        json.writeObjectStart();
+        EventHistory.write(json, "history", history);
+        json.writeObjectEnd();
+        final JsonValue value = new JsonReader().parse(writer.toString());
+        return EventHistory.read(value.get("history"), core);
+    }
+
+    private static void assertSameHistory(EventHistory expected, EventHistory actual) {
+        assertEquals(expected.getFirstSequence(), actual.getFirstSequence());
+        assertEquals(expected.getNextSequence(), actual.getNextSequence());
+        for (long s = expected.getFirstSequence(); s < expected.getNextSequence(); s++) {
+            final Event expectedEvent = expected.get(s);
+            final Event actualEvent = actual.get(s);
+            assertEquals(expectedEvent.getMessage(), actualEvent.getMessage());
+            assertSame(expectedEvent.template, actualEvent.template);
+            assertSame(expectedEvent.enemy, actualEvent.enemy);
+            assertEquals(expectedEvent.first, actualEvent.first);
+            assertEquals(expectedEvent.second, actualEvent.second);
+        }
+    }
+
+    @Test
+    public void binaryRoundTrip() {
+        for (int count : new int[]{1, 3, EventHistory.CAPACITY, EventHistory.CAPACITY * 2 + 7}) {
+            final EventHistory history = mixed(count);
+            assertSameHistory(history, binaryRoundTrip(history));
+        }
+    }
+
+    @Test
+    public void jsonRoundTrip() {
+        for (int count : new int[]{1, 3, EventHistory.CAPACITY, EventHistory.CAPACITY * 2 + 7}) {
+            final EventHistory history = mixed(count);
+            assertSameHistory(history, jsonRoundTrip(history));
+        }
+    }
+
+    @Test
+    public void eventsOfLostEnemyUseStandIn() {
+        final Event.Template fight = Event.Template.of("Fight with {enemy}: {enemy.description}");
+        final EventHistory history = jsonRoundTrip(EventHistory.read(new JsonReader().parse("{next:4,events:["
+                + "{template:\"" + BITES.pattern + "\",first:4,enemy:9999},"
+                + "{template:\"" + fight.pattern + "\",enemy:9999},"
+                + "{template:\"" + BITES.pattern + "\",first:5,enemy:1}]}"), core));
+        final String lost = EventHistory.LOST_ENEMY_NAME;
+        assertEquals(Arrays.asList(lost + " bites for 4", "Fight with " + lost + ": " + EventHistory.LOST_ENEMY_DESCRIPTION,
+                core.findEnemy(1).name + " bites for 5"), kept(history));
+        assertSame(Event.Template.TEXT, history.get(1).template);
+        assertSame(BITES, history.get(3).template);
+        assertSameHistory(history, binaryRoundTrip(history));
+    }
+
+    @Test
+    public void missingHistoryIsNotSaved() {
+        assertNull(binaryRoundTrip(null));
+        assertNull(jsonRoundTrip(null));
+    }
+
+    @Test
+    public void loadedHistoryContinuesItsSequence() {
+        final EventHistory loaded = binaryRoundTrip(numbered(EventHistory.CAPACITY + 3));
+        loaded.record(new Event("After load"));
+        assertEquals(EventHistory.CAPACITY + 5, loaded.getNextSequence());
+        final List<Event> events = new ArrayList<>();
+        loaded.since(EventHistory.CAPACITY + 3, events);
+        assertEquals(Arrays.asList("Event " + (EventHistory.CAPACITY + 3) + " of " + (EventHistory.CAPACITY + 3), "After load"), messages(events));
+    }
+}
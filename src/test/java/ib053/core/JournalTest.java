@@ -0,0 +1,301 @@
+package ib053.core;
+
+import ib053.core.activities.BeingDeadActivity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of writing and replaying the {@link Journal}, including damaged ends of the file, and of recovering a game from it.
+ */
+public class JournalTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private GameCore core;
+    private Player player;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        final GameCore.Settings settings = new GameCore.Settings();
+        settings.journal = false;
+        core = TestGame.start(folder.newFolder("state"), settings);
+        player = TestGame.newPlayer(core, "Journalist");
+        file = new File(folder.getRoot(), "journal.bin");
+    }
+
+    @After
+    public void tearDown() {
+        core.shutdown();
+    }
+
+    /** Collects replayed records as text */
+    private static final class Recorder implements Journal.Replay {
+        final List<String> records = new ArrayList<>();
+
+        @Override
+        public void created(long playerId, String name, int[] attributes) {
+            records.add("created " + playerId + " " + name + " " + Arrays.toString(attributes));
+        }
+
+        @Override
+        public void location(long playerId, long locationId) {
+            records.add("location " + playerId + " " + locationId);
+        }
+
+        @Override
+        public void equipment(long playerId, long itemId) {
+            records.add("equipment " + playerId + " " + itemId);
+        }
+
+        @Override
+        public void vitals(long playerId, int health, int experience, int virtuePoints, int[] attributes) {
+            records.add("vitals " + playerId + " " + health + " " + experience + " " + virtuePoints + " " + Arrays.toString(attributes));
+        }
+
+        @Override
+        public void activity(long playerId, String activityClass, long locationId, long beganMillis) {
+            records.add("activity " + playerId + " " + activityClass + " " + locationId + " " + beganMillis);
+        }
+    }
+
+    private static int[] rawAttributes(Player player) {
+        final int[] attributes = new int[Attribute.VALUES.length];
+        for (int i = 0; i < attributes.length; i++) {
+            attributes[i] = player.attributes.getRaw(Attribute.VALUES[i]);
+        }
+        return attributes;
+    }
+
+    private Journal open(long validLength) throws IOException {
+        return new Journal(file, validLength, 1, TimeUnit.MILLISECONDS);
+    }
+
+    private Recorder replay(long expectedValidLength) throws IOException {
+        final Recorder recorder = new Recorder();
+        assertEquals("valid length", expectedValidLength, Journal.replay(file, recorder));
+        return recorder;
+    }
+
+    /** Write two location records, then a third one, @return file lengths after the first two and after all three */
+    private long[] writeThreeRecords() throws IOException {
+        try (Journal journal = open(0)) {
+            journal.location(player);
+            journal.location(player);
+        }
+        final long two = file.length();
+        try (Journal journal = open(two)) {
+            journal.location(player);
+        }
+        return new long[]{two, file.length()};
+    }
+
+    @Test
+    public void recordsRoundTrip() throws IOException {
+        final long id = player.getId();
+        final Item item = core.getItem(3);
+        onShard(() -> {
+            player.setExperience(7);
+            player.setVirtuePoints(2);
+            player.setHealth(11);
+        });
+        try (Journal journal = open(0)) {
+            journal.created(player);
+            journal.location(player);
+            journal.equipment(player, item);
+            journal.vitals(player);
+            journal.activity(player, BeingDeadActivity.class, -1, 123456789L);
+        }
+
+        final Recorder recorder = replay(file.length());
+        final String attributes = Arrays.toString(rawAttributes(player));
+        assertEquals(Arrays.asList(
+                "created " + id + " Journalist " + attributes,
+                "location " + id + " " + player.getLocation().id,
+                "equipment " + id + " 3",
+                "vitals " + id + " 11 7 2 " + attributes,
+                "activity " + id + " " + BeingDeadActivity.class.getName() + " -1 123456789"
+        ), recorder.records);
+    }
+
+    @Test
+    public void missingJournalReplaysNothing() throws IOException {
+        assertEquals(0, replay(0).records.size());
+    }
+
+    @Test
+    public void tornTailIsIgnoredAndDropped() throws IOException {
+        final long[] lengths = writeThreeRecords();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(lengths[1] - 3);
+        }
+        assertEquals(2, replay(lengths[0]).records.size());
+
+        // Reopening drops the torn record, new records follow the valid ones
+        try (Journal journal = open(lengths[0])) {
+            journal.equipment(player, core.getItem(2));
+        }
+        final Recorder recorder = replay(file.length());
+        assertEquals(3, recorder.records.size());
+        assertEquals("equipment " + player.getId() + " 2", recorder.records.get(2));
+    }
+
+    @Test
+    public void recordWithBadChecksumEndsReplay() throws IOException {
+        final long[] lengths = writeThreeRecords();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // Last byte of the location id in the payload of the third record, before its CRC
+            final long position = lengths[1] - 4 - 1;
+            raf.seek(position);
+            final int original = raf.read();
+            raf.seek(position);
+            raf.write(original ^ 0xFF);
+        }
+        assertEquals(2, replay(lengths[0]).records.size());
+    }
+
+    @Test
+    public void recordWithInvalidLengthEndsReplay() throws IOException {
+        final long[] lengths = writeThreeRecords();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(lengths[0]);
+            raf.writeInt(Integer.MAX_VALUE);
+        }
+        assertEquals(2, replay(lengths[0]).records.size());
+    }
+
+    @Test
+    public void truncateDiscardsEarlierRecords() throws IOException {
+        try (Journal journal = open(0)) {
+            journal.location(player);
+            journal.location(player);
+            journal.truncate();
+            journal.equipment(player, core.getItem(1));
+        }
+        final Recorder recorder = replay(file.length());
+        assertEquals(Arrays.asList("equipment " + player.getId() + " 1"), recorder.records);
+    }
+
+    @Test
+    public void gameRecoversFromJournalAfterCrash() throws IOException, InterruptedException {
+        final File stateFolder = folder.newFolder("crashing");
+        final GameCore.Settings settings = new GameCore.Settings();
+        settings.journalCommitMillis = 1;
+        final GameCore crashing = TestGame.start(stateFolder, settings);
+        final Player victim = TestGame.newPlayer(crashing, "Victim");
+        final long beforeDeath = System.currentTimeMillis();
+        TestGame.onShard(crashing, victim, () -> {
+            crashing.changePlayerLocation(victim, crashing.getLocation(2));
+            victim.setEquipment(crashing.getItem(3));
+            victim.setExperience(7);
+            victim.setHealth(0);
+            crashing.changePlayerActivity(victim, BeingDeadActivity.class);
+        });
+        final long afterDeath = System.currentTimeMillis();
+
+        // Wait until the last records are committed, then take the state as it is, like a crash would
+        awaitCommitted(stateFolder, "activity " + victim.getId() + " " + BeingDeadActivity.class.getName(), "vitals " + victim.getId() + " 0 7 ");
+        final File crashedFolder = crashedCopy(stateFolder);
+        crashing.shutdown();
+
+        final GameCore recovered = TestGame.start(crashedFolder, settings);
+        try {
+            final Player player = recovered.getPlayer(victim.getId());
+            assertEquals("Victim", player.getName());
+            assertEquals(2, player.getLocation().id);
+            assertEquals(crashing.getItem(3).id, player.getEquipment(Item.ItemType.WEAPON).id);
+            assertEquals(7, player.getExperience());
+            assertEquals(0, player.getHealth());
+            assertTrue(player.currentActivity instanceof BeingDeadActivity);
+
+            // The eternity started when the player died, not when the game recovered
+            final SnapshotOutput out = SnapshotOutput.inMemory();
+            ((BeingDeadActivity) player.currentActivity).write(out);
+            final SnapshotInput in = new SnapshotInput(out.contents());
+            assertEquals(1, in.readInt());
+            assertEquals(player.getId(), in.readLong());
+            final long enterTime = in.readLong();
+            assertTrue("enter time " + enterTime, enterTime >= beforeDeath && enterTime <= afterDeath);
+        } finally {
+            recovered.shutdown();
+        }
+    }
+
+    /** Wait until the journal of the game in the folder has records which start with each of the prefixes */
+    private static void awaitCommitted(File stateFolder, String... prefixes) throws IOException, InterruptedException {
+        final File journalFile = new File(stateFolder, "journal.bin");
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        for (;;) {
+            final Recorder recorder = new Recorder();
+            Journal.replay(journalFile, recorder);
+            if (Arrays.stream(prefixes).allMatch(prefix -> recorder.records.stream().anyMatch(record -> record.startsWith(prefix)))) {
+                return;
+            }
+            assertTrue("journal committed in time", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    /** @return copy of the files of a running game, as they would be after a crash */
+    private File crashedCopy(File stateFolder) throws IOException {
+        final File crashedFolder = folder.newFolder("crashed");
+        for (File stateFile : stateFolder.listFiles()) {
+            Files.copy(stateFile.toPath(), new File(crashedFolder, stateFile.getName()).toPath());
+        }
+        return crashedFolder;
+    }
+
+    @Test
+    public void snapshotWhileRunningTruncatesJournal() throws IOException, InterruptedException {
+        final File stateFolder = folder.newFolder("snapshotting");
+        final GameCore.Settings settings = new GameCore.Settings();
+        settings.journalCommitMillis = 1;
+        final GameCore running = TestGame.start(stateFolder, settings);
+        final File journalFile = new File(stateFolder, "journal.bin");
+        final Player saved = TestGame.newPlayer(running, "Saved");
+        TestGame.onShard(running, saved, () -> saved.setExperience(5));
+        awaitCommitted(stateFolder, "vitals " + saved.getId() + " ");
+
+        assertTrue(running.snapshot());
+        assertEquals(0, journalFile.length());
+        assertTrue(GameCore.Settings.SnapshotFormat.JSON.playerFile(stateFolder).exists());
+
+        // Changes after the snapshot are journaled again and replayed on top of it
+        TestGame.onShard(running, saved, () -> saved.setExperience(9));
+        awaitCommitted(stateFolder, "vitals " + saved.getId() + " ");
+        final File crashedFolder = crashedCopy(stateFolder);
+        running.shutdown();
+
+        final Recorder recorder = new Recorder();
+        Journal.replay(new File(crashedFolder, "journal.bin"), recorder);
+        assertEquals(1, recorder.records.size());
+        final GameCore recovered = TestGame.start(crashedFolder, settings);
+        try {
+            final Player player = recovered.getPlayer(saved.getId());
+            assertEquals("Saved", player.getName());
+            assertEquals(9, player.getExperience());
+            assertEquals(player.getLocation().id, saved.getLocation().id);
+        } finally {
+            recovered.shutdown();
+        }
+    }
+
+    private void onShard(Runnable action) {
+        TestGame.onShard(core, player, action);
+    }
+}
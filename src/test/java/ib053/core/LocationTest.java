@@ -0,0 +1,96 @@
+package ib053.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the distribution of enemies which ambush the player entering a {@link Location}.
+ */
+public class LocationTest {
+
+    /** @return probability of each candidate winning and of none winning, averaged over all orders of the candidates */
+    private static double[] enumerateOutcomes(double[] chances) {
+        final int n = chances.length;
+        final double[] outcomes = new double[n + 1];
+        final int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        final long[] orders = {0};
+        permute(order, 0, chances, outcomes, orders);
+        for (int i = 0; i <= n; i++) {
+            outcomes[i] /= orders[0];
+        }
+        return outcomes;
+    }
+
+    private static void permute(int[] order, int from, double[] chances, double[] outcomes, long[] orders) {
+        if (from == order.length) {
+            // Candidates are checked in this order until one succeeds
+            double allFailed = 1;
+            for (int candidate : order) {
+                outcomes[candidate] += allFailed * chances[candidate];
+                allFailed *= 1 - chances[candidate];
+            }
+            outcomes[order.length] += allFailed;
+            orders[0]++;
+            return;
+        }
+        for (int i = from; i < order.length; i++) {
+            swap(order, from, i);
+            permute(order, from + 1, chances, outcomes, orders);
+            swap(order, from, i);
+        }
+    }
+
+    private static void swap(int[] array, int a, int b) {
+        final int temp = array[a];
+        array[a] = array[b];
+        array[b] = temp;
+    }
+
+    private static void assertOutcomes(double[] chances) {
+        final double[] expected = enumerateOutcomes(chances);
+        final double[] actual = Location.entryOutcomeProbabilities(chances);
+        assertEquals(expected.length, actual.length);
+        double sum = 0;
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("outcome " + i + " of " + Arrays.toString(chances), expected[i], actual[i], 1e-12);
+            sum += actual[i];
+        }
+        assertEquals("outcomes sum", 1, sum, 1e-12);
+    }
+
+    @Test
+    public void entryOutcomesMatchEnumerationOfAllOrders() {
+        final RandomStream random = new RandomStream(21);
+        for (int n = 1; n <= 7; n++) {
+            for (int round = 0; round < 20; round++) {
+                final double[] chances = new double[n];
+                for (int i = 0; i < n; i++) {
+                    chances[i] = random.nextDouble();
+                }
+                assertOutcomes(chances);
+            }
+        }
+    }
+
+    @Test
+    public void entryOutcomesOfCertainAndImpossibleCandidates() {
+        assertOutcomes(new double[]{1});
+        assertOutcomes(new double[]{0});
+        assertOutcomes(new double[]{1, 1, 1});
+        assertOutcomes(new double[]{0, 0.5, 1});
+        assertOutcomes(new double[]{1, 0.25, 0, 0.75, 1, 0.1});
+    }
+
+    @Test
+    public void singleCandidateWinsWithItsChance() {
+        final double[] outcomes = Location.entryOutcomeProbabilities(new double[]{0.3});
+        assertEquals(0.3, outcomes[0], 1e-15);
+        assertEquals(0.7, outcomes[1], 1e-15);
+    }
+}
@@ -0,0 +1,222 @@
+package ib053.core;
+
+import ib053.core.activities.LocationActivity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of hibernating players into the file of {@link PlayerResidency}, waking them up, saving them and compacting the file.
+ */
+public class PlayerResidencyTest {
+
+    private static final int PLAYERS = 200;
+    /** Compaction is not done for less garbage than 1 MB */
+    private static final long GARBAGE = 3 << 20;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File state;
+    private GameCore core;
+    private final List<Long> ids = new ArrayList<>();
+    private final List<ByteBuffer> bytes = new ArrayList<>();
+
+    private static GameCore.Settings settings(GameCore.Settings.SnapshotFormat format) {
+        final GameCore.Settings settings = new GameCore.Settings();
+        settings.journal = false;
+        settings.snapshotFormat = format;
+        // Residency is enabled, but players are hibernated only by the tests
+        settings.hibernateAfterSeconds = 3600;
+        return settings;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        state = folder.newFolder();
+        start(GameCore.Settings.SnapshotFormat.BINARY);
+        for (int i = 0; i < PLAYERS; i++) {
+            final Player player = TestGame.newPlayer(core, "Sleeper " + i);
+            final int number = i;
+            TestGame.onShard(core, player, () -> {
+                if (number % 2 == 0) {
+                    core.changePlayerLocation(player, core.getLocation(1));
+                    core.changePlayerActivityToDefault(player);
+                }
+                player.setExperience(number);
+                player.setHealth(1 + number % 20);
+                player.attributes.set(Attribute.LUCK, number % 7);
+                core.notifyPlayerEventHappened(player, new Event("Good night " + number));
+                bytes.add(TestGame.serialized(player));
+            });
+            ids.add(player.getId());
+        }
+    }
+
+    private void start(GameCore.Settings.SnapshotFormat format) {
+        core = TestGame.start(state, settings(format));
+    }
+
+    @After
+    public void tearDown() {
+        if (core != null) {
+            core.shutdown();
+        }
+    }
+
+    private File hibernatedFile() {
+        return new File(state, "hibernated.bin");
+    }
+
+    /** Run the action on the only shard, where also the sweep runs, so that it can't compact the file in the meantime */
+    private void onShard(Runnable action) {
+        TestGame.onShard(core, core.findPlayer(ids.get(0)), action);
+    }
+
+    /** Must run on the shard */
+    private void hibernateAllNow() {
+        for (long id : ids) {
+            final Player player = core.getPlayer(id);
+            core.hibernate(player, player.lastActiveNanos);
+        }
+        assertEquals(0, core.getResidentPlayerCount());
+        assertEquals(PLAYERS, core.getPlayerCount());
+    }
+
+    /** Wake all players by finding them and check that they are as they were, must run on the shard */
+    private void assertAllWakeUnchangedNow() {
+        for (int i = 0; i < ids.size(); i++) {
+            final Player player = core.findPlayer(ids.get(i));
+            assertNotNull(player);
+            assertEquals(player.getName(), bytes.get(i), TestGame.serialized(player));
+            assertTrue(player.currentActivity instanceof LocationActivity);
+            assertTrue(core.getPlayersIn(player.getLocation()).contains(player));
+        }
+        assertEquals(PLAYERS, core.getResidentPlayerCount());
+    }
+
+    private void hibernateAll() {
+        onShard(this::hibernateAllNow);
+    }
+
+    private void assertAllWakeUnchanged() {
+        onShard(this::assertAllWakeUnchangedNow);
+    }
+
+    /** Hibernate and wake all players until there is enough garbage for compaction, then hibernate them again.
+     * Must run on the shard. */
+    private void makeGarbageNow() {
+        while (hibernatedFile().length() < GARBAGE) {
+            hibernateAllNow();
+            assertAllWakeUnchangedNow();
+        }
+        hibernateAllNow();
+    }
+
+    @Test
+    public void hibernatedPlayersWakeUnchanged() {
+        final Player before = core.getPlayer(ids.get(0));
+        hibernateAll();
+        assertTrue(hibernatedFile().length() > 0);
+        assertEquals(0, core.getPopulation(core.getLocation(1)));
+        assertAllWakeUnchanged();
+        assertNotSame(before, core.getPlayer(ids.get(0)));
+    }
+
+    @Test
+    public void tasksOfHibernatedPlayerAreDropped() {
+        final Player before = core.getPlayer(ids.get(0));
+        final AtomicBoolean ran = new AtomicBoolean();
+        onShard(() -> {
+            hibernateAllNow();
+            core.schedule(before, () -> ran.set(true), 0, TimeUnit.NANOSECONDS);
+        });
+        assertTrue(before.freed);
+        // Queued after the task of the old object, on the same shard
+        onShard(() -> assertNotSame(before, core.getPlayer(ids.get(0))));
+        assertFalse("task of the freed player ran", ran.get());
+    }
+
+    @Test
+    public void hibernatedPlayersAreFoundByName() {
+        hibernateAll();
+        assertEquals(ids.get(5).longValue(), core.findPlayerByName("sleeper 5").getId());
+        assertEquals(PLAYERS, core.getPlayerCount());
+        assertEquals(1, core.getResidentPlayerCount());
+    }
+
+    private void assertSavedWithHibernated(GameCore.Settings.SnapshotFormat format) {
+        core.shutdown();
+        start(format);
+        hibernateAll();
+        core.shutdown();
+        assertFalse("file is discarded on shutdown", hibernatedFile().exists());
+        start(format);
+        assertEquals(PLAYERS, core.getResidentPlayerCount());
+        assertAllWakeUnchanged();
+    }
+
+    @Test
+    public void hibernatedPlayersAreSavedInBinary() {
+        assertSavedWithHibernated(GameCore.Settings.SnapshotFormat.BINARY);
+    }
+
+    @Test
+    public void hibernatedPlayersAreSavedInJson() {
+        assertSavedWithHibernated(GameCore.Settings.SnapshotFormat.JSON);
+    }
+
+    @Test
+    public void compactionKeepsOnlyHibernatedPlayers() {
+        onShard(() -> {
+            makeGarbageNow();
+            final long before = hibernatedFile().length();
+            core.compactHibernatedPlayers();
+            final long after = hibernatedFile().length();
+            assertTrue("compacted from " + before + " to " + after, after > 0 && after < before / 2);
+            assertAllWakeUnchangedNow();
+
+            // New records are appended after the compacted ones
+            hibernateAllNow();
+            assertAllWakeUnchangedNow();
+        });
+    }
+
+    @Test
+    public void failedCompactionKeepsTheFile() {
+        final File compacted = new File(state, "hibernated.bin.compacted");
+        onShard(() -> {
+            makeGarbageNow();
+            assertTrue(compacted.mkdir());
+            final long before = hibernatedFile().length();
+            try {
+                core.compactHibernatedPlayers();
+                fail("Compaction into a directory succeeded");
+            } catch (UncheckedIOException expected) {
+                // The directory can't be opened as a file
+            }
+            assertFalse("compacted file is deleted", compacted.exists());
+            assertEquals(before, hibernatedFile().length());
+            assertAllWakeUnchangedNow();
+
+            // Next compaction succeeds
+            hibernateAllNow();
+            core.compactHibernatedPlayers();
+            assertTrue(hibernatedFile().length() < before / 2);
+            assertAllWakeUnchangedNow();
+        });
+    }
+}
@@ -0,0 +1,259 @@
+package ib053.core;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of index bookkeeping and of iteration over snapshots of {@link PlayerSet}.
+ */
+public class PlayerSetTest {
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static GameCore core;
+    /** Players which are in no location or activity of the core, so their activity index is free for the tests */
+    private static final List<Player> players = new ArrayList<>();
+
+    private final PlayerSet.Membership membership = PlayerSet.Membership.ACTIVITY;
+    private PlayerSet set;
+
+    @BeforeClass
+    public static void startGame() throws IOException {
+        final GameCore.Settings settings = new GameCore.Settings();
+        settings.journal = false;
+        core = TestGame.start(folder.newFolder(), settings);
+        for (int i = 0; i < 10; i++) {
+            players.add(core.createNewPlayer("Member " + i));
+        }
+    }
+
+    @AfterClass
+    public static void stopGame() {
+        // Placed, so that they can be saved
+        for (Player player : players) {
+            TestGame.onShard(core, player, () -> core.initNewPlayer(player));
+        }
+        core.shutdown();
+        players.clear();
+    }
+
+    @Before
+    public void setUp() {
+        set = new PlayerSet(membership);
+    }
+
+    @After
+    public void tearDown() {
+        for (Player player : players) {
+            membership.setIndex(player, -1);
+        }
+    }
+
+    private List<Player> players(int... indices) {
+        final List<Player> result = new ArrayList<>();
+        for (int index : indices) {
+            result.add(players.get(index));
+        }
+        return result;
+    }
+
+    private static List<Player> iterated(PlayerSet set) {
+        final List<Player> result = new ArrayList<>();
+        for (Player player : set) {
+            result.add(player);
+        }
+        return result;
+    }
+
+    /** Check that the set contains exactly the expected players and that their indices point to them */
+    private void assertContainsExactly(List<Player> expected) {
+        assertEquals(expected.size(), set.size());
+        assertEquals(expected.isEmpty(), set.isEmpty());
+        final List<Player> iterated = iterated(set);
+        assertEquals(new HashSet<>(expected), new HashSet<>(iterated));
+        assertEquals(expected.size(), iterated.size());
+        for (int i = 0; i < iterated.size(); i++) {
+            assertEquals("index of " + iterated.get(i), i, membership.getIndex(iterated.get(i)));
+        }
+        for (Player player : players) {
+            assertEquals(player.toString(), expected.contains(player), set.contains(player));
+            if (!expected.contains(player)) {
+                assertEquals(-1, membership.getIndex(player));
+            }
+        }
+    }
+
+    @Test
+    public void indicesStayConsistentAfterSwapRemoval() {
+        for (Player player : players) {
+            set.addPlayer(player);
+        }
+        assertContainsExactly(players);
+
+        // Last player moves into the freed index
+        assertTrue(set.removePlayer(players.get(3)));
+        assertEquals(3, membership.getIndex(players.get(9)));
+        assertContainsExactly(players(0, 1, 2, 4, 5, 6, 7, 8, 9));
+        assertFalse("not in the set anymore", set.removePlayer(players.get(3)));
+
+        assertTrue(set.removePlayer(players.get(8)));
+        assertTrue(set.removePlayer(players.get(0)));
+        assertContainsExactly(players(1, 2, 4, 5, 6, 7, 9));
+
+        set.addPlayer(players.get(3));
+        assertContainsExactly(players(1, 2, 3, 4, 5, 6, 7, 9));
+
+        for (Player player : players(1, 2, 3, 4, 5, 6, 7, 9)) {
+            assertTrue(set.removePlayer(player));
+        }
+        assertContainsExactly(players());
+    }
+
+    @Test
+    public void playerIsInOnlyOneSetOfMembership() {
+        final PlayerSet other = new PlayerSet(membership);
+        set.addPlayer(players.get(0));
+        try {
+            other.addPlayer(players.get(0));
+            fail("Player added to two sets");
+        } catch (IllegalStateException expected) {
+            // Must leave the first set
+        }
+        assertFalse("not removed from a set it is not in", other.removePlayer(players.get(0)));
+        assertTrue(set.contains(players.get(0)));
+        assertFalse(other.contains(players.get(0)));
+
+        assertTrue(set.removePlayer(players.get(0)));
+        other.addPlayer(players.get(0));
+        assertTrue(other.contains(players.get(0)));
+    }
+
+    @Test
+    public void iteratorGoesOverSnapshotWhileSetChanges() {
+        for (Player player : players(0, 1, 2, 3, 4)) {
+            set.addPlayer(player);
+        }
+        final List<Player> seen = new ArrayList<>();
+        final Iterator<Player> iterator = set.iterator();
+        seen.add(iterator.next());
+        // Removes a player who was not seen yet and moves the last one
+        assertTrue(set.removePlayer(players.get(2)));
+        set.addPlayer(players.get(5));
+        while (iterator.hasNext()) {
+            seen.add(iterator.next());
+        }
+
+        assertEquals(players(0, 1, 2, 3, 4), seen);
+        assertContainsExactly(players(0, 1, 3, 4, 5));
+    }
+
+    @Test
+    public void forEachGoesOverSnapshotWhileSetChanges() {
+        for (Player player : players(0, 1, 2, 3, 4)) {
+            set.addPlayer(player);
+        }
+        final List<Player> seen = new ArrayList<>();
+        set.forEach(player -> {
+            seen.add(player);
+            // Each player leaves and brings someone else, like when notifying players who change activity
+            assertTrue(set.removePlayer(player));
+            set.addPlayer(players.get(players.indexOf(player) + 5));
+        });
+
+        assertEquals(players(0, 1, 2, 3, 4), seen);
+        assertContainsExactly(players(5, 6, 7, 8, 9));
+    }
+
+    @Test
+    public void abandonedIteratorKeepsItsSnapshot() {
+        for (Player player : players(0, 1, 2)) {
+            set.addPlayer(player);
+        }
+        final Iterator<Player> abandoned = set.iterator();
+        assertEquals(players.get(0), abandoned.next());
+
+        assertTrue(set.removePlayer(players.get(1)));
+        set.addPlayer(players.get(3));
+        assertContainsExactly(players(0, 2, 3));
+
+        // Changes after the abandoned iterator behave the same, and it still sees what it started with
+        assertTrue(set.removePlayer(players.get(0)));
+        set.addPlayer(players.get(4));
+        assertContainsExactly(players(2, 3, 4));
+        assertEquals(players.get(1), abandoned.next());
+        assertEquals(players.get(2), abandoned.next());
+        assertFalse(abandoned.hasNext());
+    }
+
+    private Object storage() throws ReflectiveOperationException {
+        final Field field = PlayerSet.class.getDeclaredField("players");
+        field.setAccessible(true);
+        return field.get(set);
+    }
+
+    @Test
+    public void onlyIterationInProgressCopiesOnChange() throws ReflectiveOperationException {
+        for (Player player : players(0, 1, 2)) {
+            set.addPlayer(player);
+        }
+        final Object storage = storage();
+
+        // Finished iterations
+        assertEquals(players(0, 1, 2), iterated(set));
+        set.forEach(player -> {});
+        assertTrue(set.removePlayer(players.get(1)));
+        set.addPlayer(players.get(3));
+        assertSame("not copied", storage, storage());
+
+        // Iteration in progress
+        final Iterator<Player> iterator = set.iterator();
+        iterator.next();
+        assertTrue(set.removePlayer(players.get(0)));
+        final Object copied = storage();
+        assertNotSame(storage, copied);
+        set.addPlayer(players.get(4));
+        assertSame("copied only once", copied, storage());
+
+        set.forEach(player -> {
+            if (player == players.get(2)) {
+                set.addPlayer(players.get(5));
+            }
+        });
+        assertNotSame(copied, storage());
+        assertContainsExactly(players(2, 3, 4, 5));
+    }
+
+    @Test
+    public void setGrowsPastItsCapacity() {
+        final List<Player> expected = new ArrayList<>();
+        for (int round = 0; round < 3; round++) {
+            for (Player player : players) {
+                set.addPlayer(player);
+                expected.add(player);
+                assertContainsExactly(expected);
+            }
+            for (Player player : players) {
+                assertTrue(set.removePlayer(player));
+                expected.remove(player);
+                assertContainsExactly(expected);
+            }
+        }
+        assertEquals(Arrays.asList(), iterated(set));
+    }
+}
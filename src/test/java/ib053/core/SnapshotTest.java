@@ -0,0 +1,277 @@
+package ib053.core;
+
+import ib053.core.activities.BeingDeadActivity;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that saved players and activities load back the same, in both snapshot formats and from older binary versions.
+ */
+public class SnapshotTest {
+
+    private static final Event.Template FOUND_COINS = Event.Template.of("You have found {0} coins");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static GameCore.Settings settings(GameCore.Settings.SnapshotFormat format) {
+        final GameCore.Settings settings = new GameCore.Settings();
+        settings.journal = false;
+        settings.snapshotFormat = format;
+        return settings;
+    }
+
+    /** Players of the game whose state differs from a new player in every field */
+    private static Player[] playWith(GameCore core) {
+        final Player adventurer = TestGame.newPlayer(core, "Adventurer");
+        TestGame.onShard(core, adventurer, () -> {
+            core.changePlayerLocation(adventurer, core.getLocation(1));
+            adventurer.setEquipment(core.getItem(3));
+            adventurer.attributes.set(Attribute.STRENGTH, 8);
+            adventurer.setExperience(5);
+            adventurer.setVirtuePoints(1);
+            adventurer.setHealth(9);
+            core.notifyPlayerEventHappened(adventurer, new Event("Welcome back"));
+            core.notifyPlayerEventHappened(adventurer, new Event(FOUND_COINS, 12));
+        });
+        final Player dead = TestGame.newPlayer(core, "Unlucky");
+        TestGame.onShard(core, dead, () -> {
+            dead.setHealth(0);
+            core.changePlayerActivity(dead, BeingDeadActivity.class);
+        });
+        return new Player[]{adventurer, dead};
+    }
+
+    private static ByteBuffer[] serialized(GameCore core, Player[] players) {
+        final ByteBuffer[] result = new ByteBuffer[players.length];
+        for (int i = 0; i < players.length; i++) {
+            final int index = i;
+            TestGame.onShard(core, players[i], () -> result[index] = TestGame.serialized(players[index]));
+        }
+        return result;
+    }
+
+    /** @return serialized enter times of the dead */
+    private static ByteBuffer deadEnterTimes(GameCore core, Player dead) {
+        assertTrue(dead.currentActivity instanceof BeingDeadActivity);
+        final SnapshotOutput out = SnapshotOutput.inMemory();
+        ((BeingDeadActivity) dead.currentActivity).write(out);
+        return out.contents();
+    }
+
+    private static void assertLoadedSame(GameCore loaded, Player[] saved, ByteBuffer[] savedBytes, ByteBuffer savedEnterTimes) {
+        for (int i = 0; i < saved.length; i++) {
+            final Player player = loaded.getPlayer(saved[i].getId());
+            assertEquals(saved[i].getName(), player.getName());
+            assertEquals(saved[i].getName(), savedBytes[i], serialized(loaded, new Player[]{player})[0]);
+        }
+        assertEquals(savedEnterTimes, deadEnterTimes(loaded, loaded.getPlayer(saved[1].getId())));
+    }
+
+    private void assertRoundTrip(GameCore.Settings.SnapshotFormat format) throws IOException {
+        final File state = folder.newFolder();
+        final GameCore core = TestGame.start(state, settings(format));
+        final Player[] players = playWith(core);
+        final ByteBuffer[] bytes = serialized(core, players);
+        final ByteBuffer enterTimes = deadEnterTimes(core, players[1]);
+        core.shutdown();
+        assertTrue(format.playerFile(state).exists());
+
+        final GameCore loaded = TestGame.start(state, settings(format));
+        try {
+            assertLoadedSame(loaded, players, bytes, enterTimes);
+        } finally {
+            loaded.shutdown();
+        }
+    }
+
+    @Test
+    public void binaryRoundTrip() throws IOException {
+        assertRoundTrip(GameCore.Settings.SnapshotFormat.BINARY);
+    }
+
+    @Test
+    public void jsonRoundTrip() throws IOException {
+        assertRoundTrip(GameCore.Settings.SnapshotFormat.JSON);
+    }
+
+    @Test
+    public void convertsBetweenFormats() throws IOException {
+        final File state = folder.newFolder();
+        final GameCore core = TestGame.start(state, settings(GameCore.Settings.SnapshotFormat.JSON));
+        final Player[] players = playWith(core);
+        final ByteBuffer[] bytes = serialized(core, players);
+        final ByteBuffer enterTimes = deadEnterTimes(core, players[1]);
+        core.shutdown();
+
+        // JSON to binary and back, each time only the other format is there to be loaded
+        for (GameCore.Settings.SnapshotFormat to : new GameCore.Settings.SnapshotFormat[]{GameCore.Settings.SnapshotFormat.BINARY, GameCore.Settings.SnapshotFormat.JSON}) {
+            final GameCore.Settings.SnapshotFormat from = to == GameCore.Settings.SnapshotFormat.BINARY ? GameCore.Settings.SnapshotFormat.JSON : GameCore.Settings.SnapshotFormat.BINARY;
+            final GameCore converting = TestGame.start(state, settings(to));
+            converting.shutdown();
+            assertTrue(from.playerFile(state).delete());
+            assertTrue(from.activityFile(state).delete());
+        }
+
+        final GameCore loaded = TestGame.start(state, settings(GameCore.Settings.SnapshotFormat.JSON));
+        try {
+            assertLoadedSame(loaded, players, bytes, enterTimes);
+        } finally {
+            loaded.shutdown();
+        }
+    }
+
+    private void assertUnplacedPlayerLoadsAtStart(GameCore.Settings.SnapshotFormat format) throws IOException {
+        final File state = folder.newFolder();
+        final GameCore core = TestGame.start(state, settings(format));
+        final long id = core.createNewPlayer("Newcomer").getId();
+        core.shutdown();
+
+        final GameCore loaded = TestGame.start(state, settings(format));
+        try {
+            assertEquals(GameCore.STARTING_LOCATION_ID, loaded.getPlayer(id).getLocation().id);
+        } finally {
+            loaded.shutdown();
+        }
+    }
+
+    @Test
+    public void unplacedPlayerLoadsAtStart() throws IOException {
+        assertUnplacedPlayerLoadsAtStart(GameCore.Settings.SnapshotFormat.BINARY);
+        assertUnplacedPlayerLoadsAtStart(GameCore.Settings.SnapshotFormat.JSON);
+    }
+
+    @Test
+    public void stateWhichFailedToLoadIsNotOverwritten() throws IOException {
+        final File state = folder.newFolder();
+        final GameCore core = TestGame.start(state, settings(GameCore.Settings.SnapshotFormat.BINARY));
+        playWith(core);
+        core.shutdown();
+
+        final File playerFile = GameCore.Settings.SnapshotFormat.BINARY.playerFile(state);
+        final File activityFile = GameCore.Settings.SnapshotFormat.BINARY.activityFile(state);
+        final byte[] damagedActivities = Files.readAllBytes(activityFile.toPath());
+        damagedActivities[0] ^= 0xFF;
+        Files.write(activityFile.toPath(), damagedActivities);
+        final byte[] players = Files.readAllBytes(playerFile.toPath());
+
+        final GameCore failed = new GameCore(TestGame.RESOURCES, state, settings(GameCore.Settings.SnapshotFormat.BINARY));
+        assertFalse(failed.isLoaded());
+        failed.shutdown();
+        assertArrayEquals(players, Files.readAllBytes(playerFile.toPath()));
+        assertArrayEquals(damagedActivities, Files.readAllBytes(activityFile.toPath()));
+    }
+
+    /** Write the player file as versions 1 and 2 did, before event history.
+     * Attribute columns are in reverse order, with a column which no longer exists.
+     * Each player has an item in the inventory, which the following data must not be mistaken for.
+     * @param nextPlayerId written since version 2 */
+    private static void writeOldPlayerFile(File stateFolder, int version, long nextPlayerId) throws IOException {
+        final File playerFile = GameCore.Settings.SnapshotFormat.BINARY.playerFile(stateFolder);
+        try (FileChannel channel = FileChannel.open(playerFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            final SnapshotOutput out = new SnapshotOutput(channel);
+            out.writeInt(0x49423533);
+            out.writeByte(PersistenceUtil.BINARY_KIND_PLAYERS);
+            out.writeInt(version);
+
+            out.writeByte(Attribute.VALUES.length + 1);
+            out.writeString("GONE");
+            for (int i = Attribute.VALUES.length - 1; i >= 0; i--) {
+                out.writeString(Attribute.VALUES[i].shortName);
+            }
+
+            out.writeInt(2);
+            for (int player = 1; player <= 2; player++) {
+                out.writeLong(player * 10);
+                out.writeString("Old " + player);
+                out.writeInt(99);
+                for (int i = Attribute.VALUES.length - 1; i >= 0; i--) {
+                    out.writeInt(Attribute.VALUES[i] == Attribute.STRENGTH ? 4 + player : 0);
+                }
+                out.writeInt(3 * player);
+                out.writeInt(player);
+                out.writeInt(10 + player);
+                out.writeLong(player);
+
+                out.writeByte(1);
+                out.writeLong(3);
+                out.writeInt(1);
+                out.writeLong(2);
+            }
+
+            if (version >= 2) {
+                out.writeLong(nextPlayerId);
+            }
+            out.flush();
+        }
+    }
+
+    private void assertLoadsOldVersion(int version, long expectedNextPlayerId) throws IOException {
+        final File state = folder.newFolder();
+        writeOldPlayerFile(state, version, 50);
+
+        final GameCore core = TestGame.start(state, settings(GameCore.Settings.SnapshotFormat.BINARY));
+        try {
+            for (int i = 1; i <= 2; i++) {
+                final Player player = core.getPlayer(i * 10);
+                assertEquals("Old " + i, player.getName());
+                assertEquals(4 + i, player.attributes.getRaw(Attribute.STRENGTH));
+                assertEquals(0, player.attributes.getRaw(Attribute.AGILITY));
+                assertEquals(3 * i, player.getExperience());
+                assertEquals(i, player.getVirtuePoints());
+                assertEquals(10 + i, player.getHealth());
+                assertEquals(i, player.getLocation().id);
+                assertEquals(3, player.getEquipment(Item.ItemType.WEAPON).id);
+                assertNull("no event history before version 3", player.eventHistory);
+            }
+
+            final Player created = TestGame.newPlayer(core, "New");
+            assertEquals(expectedNextPlayerId, created.getId());
+        } finally {
+            core.shutdown();
+        }
+
+        // Saved again in the current version
+        final GameCore again = TestGame.start(state, settings(GameCore.Settings.SnapshotFormat.BINARY));
+        try {
+            assertEquals("New", again.getPlayer(expectedNextPlayerId).getName());
+            assertEquals("Old 2", again.getPlayer(20).getName());
+            assertEquals(expectedNextPlayerId + 1, TestGame.newPlayer(again, "Newer").getId());
+        } finally {
+            again.shutdown();
+        }
+    }
+
+    @Test
+    public void loadsVersion1() throws IOException {
+        // Next id follows the highest loaded one
+        assertLoadsOldVersion(1, 21);
+    }
+
+    @Test
+    public void loadsVersion2() throws IOException {
+        assertLoadsOldVersion(2, 50);
+    }
+
+    @Test
+    public void rejectsNewerVersion() throws IOException {
+        final File state = folder.newFolder();
+        writeOldPlayerFile(state, PersistenceUtil.BINARY_VERSION + 1, 50);
+        try {
+            new GameCore(TestGame.RESOURCES, state, settings(GameCore.Settings.SnapshotFormat.BINARY));
+            fail("Newer version loaded");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getCause() instanceof PersistenceUtil.PersistenceException);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package ib053.core;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Helpers for tests which run a whole {@link GameCore} without frontends, on the bundled world.
+ */
+final class TestGame {
+
+    static final File RESOURCES = new File("src/main/resources");
+
+    private TestGame() {
+    }
+
+    static GameCore start(File stateFolder, GameCore.Settings settings) {
+        final GameCore core = new GameCore(RESOURCES, stateFolder, settings);
+        assertTrue("state loaded", core.isLoaded());
+        return core;
+    }
+
+    /** Run the action on the shard of the player and wait for it, rethrowing what it threw */
+    static void onShard(GameCore core, Player player, Runnable action) {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        core.schedule(player, () -> {
+            try {
+                action.run();
+            } catch (Throwable t) {
+                failure.set(t);
+            } finally {
+                done.countDown();
+            }
+        }, 0, TimeUnit.NANOSECONDS);
+        try {
+            assertTrue("task done in time", done.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+        if (failure.get() instanceof RuntimeException) throw (RuntimeException) failure.get();
+        if (failure.get() instanceof Error) throw (Error) failure.get();
+    }
+
+    /** @return new player, placed at the start like a frontend would */
+    static Player newPlayer(GameCore core, String name) {
+        final Player player = core.createNewPlayer(name);
+        onShard(core, player, () -> core.initNewPlayer(player));
+        return player;
+    }
+
+    /** @return the player as written into the binary snapshot, to compare all of their state at once */
+    static ByteBuffer serialized(Player player) {
+        final SnapshotOutput out = SnapshotOutput.inMemory();
+        Player.write(out, player);
+        return out.contents();
+    }
+}
@@ -0,0 +1,156 @@
+package ib053.core;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of deadlines, rounds, ordering and node pooling of {@link TimingWheel}, driven by explicit time.
+ */
+public class TimingWheelTest {
+
+    private static final long TICK = 10;
+    private static final int SIZE = 8;
+
+    private final TimingWheel wheel = new TimingWheel(TICK, SIZE, 0);
+    private final List<String> expired = new ArrayList<>();
+    private final TimingWheel.Sink sink = (owner, task) -> task.run();
+
+    private void schedule(String name, long delayNanos, long nowNanos) {
+        wheel.schedule(null, () -> expired.add(name), delayNanos, nowNanos);
+    }
+
+    /** Advance to given time, @return tasks expired by it */
+    private List<String> advance(long nowNanos) {
+        expired.clear();
+        wheel.advance(nowNanos, sink);
+        return new ArrayList<>(expired);
+    }
+
+    private static int freeNodes(TimingWheel wheel) throws ReflectiveOperationException {
+        final Field freeField = TimingWheel.class.getDeclaredField("free");
+        freeField.setAccessible(true);
+        Object node = freeField.get(wheel);
+        int count = 0;
+        while (node != null) {
+            count++;
+            final Field nextField = node.getClass().getDeclaredField("next");
+            nextField.setAccessible(true);
+            node = nextField.get(node);
+        }
+        return count;
+    }
+
+    @Test
+    public void wheelSizeIsRoundedToPowerOfTwo() {
+        final TimingWheel odd = new TimingWheel(TICK, 5, 0);
+        odd.schedule(null, () -> expired.add("late"), 8 * TICK, 0);
+        odd.schedule(null, () -> expired.add("early"), 3 * TICK, 0);
+        odd.advance(3 * TICK, sink);
+        assertEquals(Collections.singletonList("early"), expired);
+        odd.advance(8 * TICK, sink);
+        assertEquals(Arrays.asList("early", "late"), expired);
+    }
+
+    @Test
+    public void deadlinesExactlyOneWheelApart() {
+        schedule("first", 5 * TICK, 0);
+        schedule("second", (5 + SIZE) * TICK, 0);
+        schedule("third", (5 + 2 * SIZE) * TICK, 0);
+        assertEquals(3, wheel.size());
+
+        assertEquals(Collections.emptyList(), advance(4 * TICK));
+        assertEquals(Collections.singletonList("first"), advance(5 * TICK));
+        assertEquals(Collections.emptyList(), advance((4 + SIZE) * TICK));
+        assertEquals(Collections.singletonList("second"), advance((5 + SIZE) * TICK));
+        assertEquals(Collections.emptyList(), advance((4 + 2 * SIZE) * TICK));
+        assertEquals(Collections.singletonList("third"), advance((5 + 2 * SIZE) * TICK));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void deadlineOneWheelAfterProcessedTickLandsInItsBucket() {
+        advance(5 * TICK);
+        // Bucket of tick 5 has just been expired, these are due in its next visits
+        schedule("next revolution", SIZE * TICK, 5 * TICK);
+        schedule("revolution after", 2 * SIZE * TICK, 5 * TICK);
+
+        assertEquals(Collections.emptyList(), advance((4 + SIZE) * TICK));
+        assertEquals(Collections.singletonList("next revolution"), advance((5 + SIZE) * TICK));
+        assertEquals(Collections.emptyList(), advance((4 + 2 * SIZE) * TICK));
+        assertEquals(Collections.singletonList("revolution after"), advance((5 + 2 * SIZE) * TICK));
+    }
+
+    @Test
+    public void zeroDelayExpiresOnNextTick() {
+        advance(3 * TICK);
+        schedule("now", 0, 3 * TICK);
+        assertEquals(Collections.emptyList(), advance(4 * TICK - 1));
+        assertEquals(Collections.singletonList("now"), advance(4 * TICK));
+    }
+
+    @Test
+    public void subTickDelaysRoundUpToTheTick() {
+        schedule("one nano", 1, 0);
+        // Scheduled in the middle of tick 1, due at the start of tick 2
+        schedule("mid tick", 0, TICK + TICK / 2);
+        schedule("almost a tick", TICK - 1, TICK + TICK / 2);
+
+        assertEquals(Collections.singletonList("one nano"), advance(TICK + TICK / 2));
+        assertEquals(Collections.singletonList("mid tick"), advance(2 * TICK));
+        assertEquals(Collections.singletonList("almost a tick"), advance(3 * TICK));
+    }
+
+    @Test
+    public void taskScheduledWhileExpiringRunsOnNextTick() {
+        wheel.schedule(null, () -> {
+            expired.add("outer");
+            schedule("inner", 0, 2 * TICK);
+        }, 2 * TICK, 0);
+
+        assertEquals(Collections.singletonList("outer"), advance(2 * TICK));
+        assertEquals(Collections.singletonList("inner"), advance(3 * TICK));
+    }
+
+    @Test
+    public void bucketExpiresInScheduleOrderAndKeepsLaterRounds() {
+        schedule("a", 3 * TICK, 0);
+        schedule("later b", (3 + SIZE) * TICK, 0);
+        schedule("c", 3 * TICK, 0);
+        schedule("d", 3 * TICK, 0);
+        schedule("later e", (3 + SIZE) * TICK, 0);
+
+        assertEquals(Arrays.asList("a", "c", "d"), advance(3 * TICK));
+        assertEquals(2, wheel.size());
+
+        // Appended after the nodes which stayed in the bucket
+        schedule("later f", SIZE * TICK, 3 * TICK);
+        assertEquals(Arrays.asList("later b", "later e", "later f"), advance((3 + SIZE) * TICK));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void expiredNodesAreReused() throws ReflectiveOperationException {
+        for (int i = 0; i < 10; i++) {
+            schedule("first " + i, (1 + i % 3) * TICK, 0);
+        }
+        assertEquals(0, freeNodes(wheel));
+        assertEquals(10, advance(3 * TICK).size());
+        assertEquals(10, freeNodes(wheel));
+
+        // New tasks take the pooled nodes, which no longer carry the expired tasks
+        for (int i = 0; i < 4; i++) {
+            schedule("second " + i, TICK, 3 * TICK);
+        }
+        assertEquals(6, freeNodes(wheel));
+        assertEquals(Arrays.asList("second 0", "second 1", "second 2", "second 3"), advance(4 * TICK));
+        assertEquals(10, freeNodes(wheel));
+        assertEquals(Collections.emptyList(), advance(4 * TICK + 3 * SIZE * TICK));
+    }
+}
@@ -0,0 +1,228 @@
+package ib053.frontend.websocket;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static ib053.frontend.websocket.WebSocketProtocol.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link WebSocketProtocol.FrameDecoder}: framing, masking, fragmented messages and reads split at any byte.
+ */
+public class FrameDecoderTest {
+
+    private static final int MAX_MESSAGE_SIZE = 4096;
+    private static final byte[] MASK = {0x12, 0x34, 0x56, 0x78};
+
+    private final FrameDecoder decoder = new FrameDecoder(MAX_MESSAGE_SIZE, true);
+    private final List<String> received = new ArrayList<>();
+    private final FrameHandler handler = new FrameHandler() {
+        @Override
+        public void message(int opcode, byte[] payload, int length) {
+            received.add(opcode + ":" + new String(payload, 0, length, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void error(int closeCode, String reason) {
+            received.add("error " + closeCode);
+        }
+    };
+
+    /** @return masked client frame, with the fin bit only if requested */
+    private static ByteBuffer frame(boolean fin, int opcode, String payload) {
+        final byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer frame = WebSocketProtocol.frame(opcode, bytes, 0, bytes.length, MASK);
+        if (!fin) {
+            frame.put(0, (byte) (frame.get(0) & 0x7F));
+        }
+        return frame;
+    }
+
+    private static ByteBuffer concat(ByteBuffer... frames) {
+        int length = 0;
+        for (ByteBuffer frame : frames) {
+            length += frame.remaining();
+        }
+        final ByteBuffer result = ByteBuffer.allocate(length);
+        for (ByteBuffer frame : frames) {
+            result.put(frame.duplicate());
+        }
+        result.flip();
+        return result;
+    }
+
+    private static String text(int length, char c) {
+        final char[] chars = new char[length];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private boolean decode(ByteBuffer data) {
+        final boolean result = decoder.decode(data, handler);
+        if (result) {
+            assertFalse("data consumed", data.hasRemaining());
+        }
+        return result;
+    }
+
+    /** Feed the data in pieces of given size */
+    private void decodeInPieces(ByteBuffer data, int pieceSize) {
+        while (data.hasRemaining()) {
+            final ByteBuffer piece = data.duplicate();
+            piece.limit(Math.min(data.position() + pieceSize, data.limit()));
+            data.position(piece.limit());
+            assertTrue(decode(piece));
+        }
+    }
+
+    @Test
+    public void decodesMaskedFrames() {
+        assertTrue(decode(concat(frame(true, OPCODE_TEXT, "hello"), frame(true, OPCODE_BINARY, ""))));
+        assertEquals(Arrays.asList(OPCODE_TEXT + ":hello", OPCODE_BINARY + ":"), received);
+    }
+
+    @Test
+    public void decodesAllLengthEncodings() {
+        final String small = text(125, 'a');
+        final String medium = text(126, 'b');
+        final String large = text(MAX_MESSAGE_SIZE, 'c');
+        final FrameDecoder unlimited = new FrameDecoder(1 << 20, true);
+        final String huge = text(0x10000, 'd');
+        assertTrue(decode(concat(frame(true, OPCODE_TEXT, small), frame(true, OPCODE_TEXT, medium), frame(true, OPCODE_TEXT, large))));
+        assertTrue(unlimited.decode(frame(true, OPCODE_TEXT, huge), handler));
+        assertEquals(Arrays.asList(OPCODE_TEXT + ":" + small, OPCODE_TEXT + ":" + medium,
+                OPCODE_TEXT + ":" + large, OPCODE_TEXT + ":" + huge), received);
+    }
+
+    @Test
+    public void decodesFramesSplitAtEveryByte() {
+        final String medium = text(300, 'm');
+        final ByteBuffer data = concat(frame(true, OPCODE_TEXT, "first"), frame(true, OPCODE_TEXT, medium),
+                frame(false, OPCODE_TEXT, "frag"), frame(true, OPCODE_PING, "ping"), frame(true, OPCODE_CONTINUATION, "ment"));
+        for (int pieceSize = 1; pieceSize <= 7; pieceSize++) {
+            received.clear();
+            decodeInPieces(data.duplicate(), pieceSize);
+            assertEquals("pieces of " + pieceSize, Arrays.asList(OPCODE_TEXT + ":first", OPCODE_TEXT + ":" + medium,
+                    OPCODE_PING + ":ping", OPCODE_TEXT + ":fragment"), received);
+        }
+    }
+
+    @Test
+    public void joinsFragmentedMessage() {
+        assertTrue(decode(concat(
+                frame(false, OPCODE_TEXT, "one "),
+                frame(false, OPCODE_CONTINUATION, "two "),
+                frame(true, OPCODE_CONTINUATION, "three"))));
+        assertEquals(Arrays.asList(OPCODE_TEXT + ":one two three"), received);
+    }
+
+    @Test
+    public void deliversControlFramesBetweenFragments() {
+        assertTrue(decode(frame(false, OPCODE_BINARY, "start ")));
+        assertTrue(decode(frame(true, OPCODE_PING, "are you there")));
+        assertTrue(decode(frame(false, OPCODE_CONTINUATION, "middle ")));
+        assertTrue(decode(frame(true, OPCODE_PONG, "")));
+        assertTrue(decode(frame(true, OPCODE_CONTINUATION, "end")));
+        assertEquals(Arrays.asList(OPCODE_PING + ":are you there", OPCODE_PONG + ":", OPCODE_BINARY + ":start middle end"), received);
+    }
+
+    @Test
+    public void joinsFragmentedMessagesOneAfterAnother() {
+        final String big = text(1000, 'x');
+        for (int i = 0; i < 3; i++) {
+            assertTrue(decode(concat(frame(false, OPCODE_TEXT, big), frame(true, OPCODE_CONTINUATION, "" + i))));
+        }
+        assertEquals(Arrays.asList(OPCODE_TEXT + ":" + big + 0, OPCODE_TEXT + ":" + big + 1, OPCODE_TEXT + ":" + big + 2), received);
+    }
+
+    @Test
+    public void fragmentedMessageDoesNotCountTowardsNextMessages() {
+        final String fragmented = text(3000, 'f');
+        final String whole = text(2000, 'w');
+        final ByteBuffer data = concat(frame(false, OPCODE_TEXT, fragmented), frame(true, OPCODE_CONTINUATION, "0123456789"),
+                frame(true, OPCODE_TEXT, whole), frame(false, OPCODE_BINARY, whole), frame(true, OPCODE_CONTINUATION, whole));
+        for (int pieceSize : new int[]{1, 1000, data.remaining()}) {
+            received.clear();
+            decodeInPieces(data.duplicate(), pieceSize);
+            assertEquals("pieces of " + pieceSize, Arrays.asList(OPCODE_TEXT + ":" + fragmented + "0123456789",
+                    OPCODE_TEXT + ":" + whole, OPCODE_BINARY + ":" + whole + whole), received);
+        }
+    }
+
+    @Test
+    public void rejectsWholeMessageBeforeEndOfFragmentedOne() {
+        assertTrue(decode(frame(false, OPCODE_TEXT, "one")));
+        assertFalse(decode(frame(true, OPCODE_TEXT, "two")));
+        assertEquals(Arrays.asList("error " + CLOSE_PROTOCOL_ERROR), received);
+    }
+
+    @Test
+    public void rejectsUnmaskedClientFrame() {
+        final byte[] payload = "x".getBytes(StandardCharsets.UTF_8);
+        assertFalse(decode(WebSocketProtocol.frame(OPCODE_TEXT, payload, 0, payload.length, null)));
+        assertEquals(Arrays.asList("error " + CLOSE_PROTOCOL_ERROR), received);
+    }
+
+    @Test
+    public void rejectsMaskedServerFrame() {
+        final FrameDecoder client = new FrameDecoder(MAX_MESSAGE_SIZE, false);
+        assertFalse(client.decode(frame(true, OPCODE_TEXT, "x"), handler));
+        assertEquals(Arrays.asList("error " + CLOSE_PROTOCOL_ERROR), received);
+    }
+
+    @Test
+    public void rejectsReservedBits() {
+        final ByteBuffer frame = frame(true, OPCODE_TEXT, "x");
+        frame.put(0, (byte) (frame.get(0) | 0x40));
+        assertFalse(decode(frame));
+        assertEquals(Arrays.asList("error " + CLOSE_PROTOCOL_ERROR), received);
+    }
+
+    @Test
+    public void rejectsFragmentedControlFrame() {
+        assertFalse(decode(frame(false, OPCODE_PING, "x")));
+        assertEquals(Arrays.asList("error " + CLOSE_PROTOCOL_ERROR), received);
+    }
+
+    @Test
+    public void rejectsLongControlFrame() {
+        assertFalse(decode(frame(true, OPCODE_PING, text(126, 'p'))));
+        assertEquals(Arrays.asList("error " + CLOSE_PROTOCOL_ERROR), received);
+    }
+
+    @Test
+    public void rejectsContinuationWithoutStart() {
+        assertFalse(decode(frame(true, OPCODE_CONTINUATION, "x")));
+        assertEquals(Arrays.asList("error " + CLOSE_PROTOCOL_ERROR), received);
+    }
+
+    @Test
+    public void rejectsNewFragmentedMessageBeforeEnd() {
+        assertTrue(decode(frame(false, OPCODE_TEXT, "one")));
+        assertFalse(decode(frame(false, OPCODE_TEXT, "two")));
+        assertEquals(Arrays.asList("error " + CLOSE_PROTOCOL_ERROR), received);
+    }
+
+    @Test
+    public void rejectsTooBigFrameBeforeItsPayloadArrives() {
+        final ByteBuffer frame = frame(true, OPCODE_TEXT, text(MAX_MESSAGE_SIZE + 1, 'x'));
+        // Only the header, the size is known from it
+        frame.limit(4);
+        assertFalse(decoder.decode(frame, handler));
+        assertEquals(Arrays.asList("error " + CLOSE_TOO_BIG), received);
+    }
+
+    @Test
+    public void rejectsTooBigFragmentedMessage() {
+        final String half = text(MAX_MESSAGE_SIZE / 2, 'h');
+        assertTrue(decode(frame(false, OPCODE_TEXT, half)));
+        assertTrue(decode(frame(false, OPCODE_CONTINUATION, half)));
+        assertFalse(decode(frame(true, OPCODE_CONTINUATION, "!")));
+        assertEquals(Arrays.asList("error " + CLOSE_TOO_BIG), received);
+    }
+}
@@ -0,0 +1,82 @@
+package ib053.util;
+
+import ib053.core.RandomStream;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link AliasTable}, exactly over a grid of uniform numbers and statistically on a seeded stream.
+ */
+public class AliasTableTest {
+
+    private static final double[] WEIGHTS = {1, 2, 3, 4, 0, 10};
+
+    @Test
+    public void gridOfUniformNumbersFollowsWeights() {
+        final AliasTable table = new AliasTable(WEIGHTS);
+        assertEquals(WEIGHTS.length, table.size());
+
+        final int points = 1_000_000;
+        final int[] counts = new int[WEIGHTS.length];
+        for (int i = 0; i < points; i++) {
+            counts[table.sample((i + 0.5) / points)]++;
+        }
+        // Each column may be off by one point at the boundary between its index and its alias
+        final double tolerance = (double) WEIGHTS.length / points;
+        for (int i = 0; i < WEIGHTS.length; i++) {
+            assertEquals("index " + i, WEIGHTS[i] / 20, (double) counts[i] / points, tolerance);
+        }
+        assertEquals("zero weight is never sampled", 0, counts[4]);
+    }
+
+    @Test
+    public void samplingFollowsWeights() {
+        final double[] weights = {1, 2, 3, 4, 10};
+        final AliasTable table = new AliasTable(weights);
+        final RandomStream random = new RandomStream(11);
+        final int samples = 200_000;
+        final int[] counts = new int[weights.length];
+        for (int i = 0; i < samples; i++) {
+            counts[table.sample(random.nextDouble())]++;
+        }
+        double chi = 0;
+        for (int i = 0; i < weights.length; i++) {
+            final double expected = samples * weights[i] / 20;
+            chi += (counts[i] - expected) * (counts[i] - expected) / expected;
+        }
+        // Critical value for 4 degrees of freedom at probability 1e-6
+        assertTrue("chi-squared " + chi, chi < 33.38);
+    }
+
+    @Test
+    public void extremesOfUniformStayInRange() {
+        final AliasTable table = new AliasTable(WEIGHTS);
+        for (double uniform : new double[]{0, Math.nextDown(1.0)}) {
+            final int index = table.sample(uniform);
+            assertTrue(index >= 0 && index < WEIGHTS.length);
+            assertNotEquals(4, index);
+        }
+        assertEquals(0, new AliasTable(new double[]{5}).sample(0.75));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNoWeights() {
+        new AliasTable(new double[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAllZeroWeights() {
+        new AliasTable(new double[]{0, 0});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeWeight() {
+        new AliasTable(new double[]{1, -1});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNaNWeight() {
+        new AliasTable(new double[]{1, Double.NaN});
+    }
+}